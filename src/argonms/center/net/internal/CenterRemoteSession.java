@@ -20,11 +20,12 @@ package argonms.center.net.internal;
 
 import argonms.center.CenterServer;
 import argonms.common.ServerType;
+import argonms.common.net.KeepAlive;
+import argonms.common.net.KeepAliveSweeper;
 import argonms.common.net.Session;
 import argonms.common.net.UnorderedQueue;
 import argonms.common.net.internal.CenterRemoteOps;
 import argonms.common.net.internal.RemoteCenterOps;
-import argonms.common.util.Scheduler;
 import argonms.common.util.input.LittleEndianByteArrayReader;
 import argonms.common.util.input.LittleEndianReader;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
@@ -38,9 +39,7 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,33 +64,28 @@ public class CenterRemoteSession implements Session {
 	private final SelectionKey selectionKey;
 	private final UnorderedQueue sendQueue;
 
-	private KeepAliveTask heartbeatTask;
-	private final Runnable idleTask = new Runnable() {
-		@Override
-		public void run() {
-			startPingTask();
-		}
-	};
-	private ScheduledFuture<?> idleTaskFuture;
+	private final KeepAlive keepAlive;
+	private final KeepAliveSweeper keepAliveSweeper;
 
 	private MessageType nextMessageType;
 
 	private final String interServerPwd;
 
-	/* package-private */ CenterRemoteSession(SocketChannel channel, SelectionKey key, String authKey) {
+	/* package-private */ CenterRemoteSession(SocketChannel channel, SelectionKey key, String authKey, KeepAliveSweeper keepAliveSweeper) {
 		closeEventsTriggered = new AtomicBoolean(false);
 		readBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
 		readBuffer.order(ByteOrder.LITTLE_ENDIAN);
 		readBuffer.limit(HEADER_LENGTH);
 		sendQueue = new UnorderedQueue();
-		heartbeatTask = new KeepAliveTask();
+		keepAlive = new KeepAlive(this, pingMessage(), IDLE_TIME, TIMEOUT);
+		this.keepAliveSweeper = keepAliveSweeper;
 		nextMessageType = MessageType.HEADER;
 
 		this.commChn = channel;
 		this.selectionKey = key;
 		this.interServerPwd = authKey;
 
-		idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
+		keepAliveSweeper.add(keepAlive);
 	}
 
 	public CenterRemoteInterface getModel() {
@@ -135,16 +129,7 @@ public class CenterRemoteSession implements Session {
 	}
 
 	public void receivedPong() {
-		heartbeatTask.receivedPong();
-	}
-
-	private void startPingTask() {
-		heartbeatTask.waitForPong();
-		heartbeatTask.sendPing();
-	}
-
-	private void stopPingTask() {
-		heartbeatTask.stop();
+		keepAlive.receivedPong();
 	}
 
 	@Override
@@ -155,9 +140,7 @@ public class CenterRemoteSession implements Session {
 			} catch (IOException ex) {
 				LOG.log(Level.WARNING, "Error while closing " + getServerName() + " server (" + getAddress() + ")", ex);
 			}
-			stopPingTask();
-			//idleTaskFuture has to be non-null as long as the this pointer was not leaked in the constructor
-			idleTaskFuture.cancel(false);
+			keepAliveSweeper.remove(keepAlive);
 
 			LOG.log(Level.FINE, "{0} server ({1}) disconnected: {2}", new Object[] { getServerName(), getAddress(), reason });
 			if (cri != null)
@@ -278,7 +261,7 @@ public class CenterRemoteSession implements Session {
 	 * was fully read, or the just received message if the body was fully read.
 	 */
 	/* package-private */ byte[] readMessage(int readBytes) {
-		idleTaskFuture.cancel(false);
+		keepAlive.touch();
 		if (readBytes == -1) {
 			//connection closed
 			close("EOF received");
@@ -286,7 +269,6 @@ public class CenterRemoteSession implements Session {
 		}
 		if (readBuffer.remaining() != 0) { //buffer is still not full
 			//we limited buffer to the expected length of the next packet - continue reading
-			idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 			return null;
 		}
 		switch (nextMessageType) {
@@ -301,7 +283,6 @@ public class CenterRemoteSession implements Session {
 				}
 				readBuffer.limit(length);
 				nextMessageType = MessageType.BODY;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return EMPTY_ARRAY;
 			}
 			case BODY: {
@@ -311,7 +292,6 @@ public class CenterRemoteSession implements Session {
 				readBuffer.clear();
 				readBuffer.limit(HEADER_LENGTH);
 				nextMessageType = MessageType.HEADER;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return message;
 			}
 			default:
@@ -324,35 +304,4 @@ public class CenterRemoteSession implements Session {
 		lew.writeByte(CenterRemoteOps.PING);
 		return lew.getBytes();
 	}
-
-	private class KeepAliveTask implements Runnable {
-		private final AtomicReference<ScheduledFuture<?>> future;
-
-		public KeepAliveTask() {
-			future = new AtomicReference<ScheduledFuture<?>>(null);
-		}
-
-		public void sendPing() {
-			send(pingMessage());
-		}
-
-		public void waitForPong() {
-			future.set(Scheduler.getWheelTimer().runAfterDelay(this, TIMEOUT));
-		}
-
-		@Override
-		public void run() {
-			close("Timed out after " + TIMEOUT + " milliseconds");
-		}
-
-		public void receivedPong() {
-			stop();
-		}
-
-		public void stop() {
-			ScheduledFuture<?> old = future.getAndSet(null);
-			if (old != null)
-				old.cancel(false);
-		}
-	}
 }
@@ -18,6 +18,7 @@
 
 package argonms.center.net.internal;
 
+import argonms.common.net.KeepAliveSweeper;
 import argonms.common.net.SessionCreator;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -44,6 +45,7 @@ public class RemoteServerListener implements SessionCreator {
 	private static final Logger LOG = Logger.getLogger(RemoteServerListener.class.getName());
 	private final ExecutorService bossThreadPool, workerThreadPool;
 	private final String interServerPassword;
+	private final KeepAliveSweeper keepAliveSweeper;
 	private ServerSocketChannel listener;
 	private final AtomicBoolean closeEventsTriggered;
 
@@ -90,6 +92,7 @@ public class RemoteServerListener implements SessionCreator {
 		});
 
 		this.interServerPassword = password;
+		keepAliveSweeper = new KeepAliveSweeper();
 	}
 
 	public boolean bind(int port) {
@@ -120,7 +123,7 @@ public class RemoteServerListener implements SessionCreator {
 											client.configureBlocking(false);
 											LOG.log(Level.FINE, "Remote server connected from {0}", client.socket().getRemoteSocketAddress());
 											SelectionKey acceptedKey = client.register(selector, SelectionKey.OP_READ);
-											acceptedKey.attach(new CenterRemoteSession(client, acceptedKey, interServerPassword));
+											acceptedKey.attach(new CenterRemoteSession(client, acceptedKey, interServerPassword, keepAliveSweeper));
 										} catch (IOException ex) {
 											close(ex.getMessage(), ex);
 										}
@@ -192,6 +195,7 @@ public class RemoteServerListener implements SessionCreator {
 				LOG.log(Level.FINE, "Internal facing selector ({0}) closed: {1}", new Object[] { listener.socket().getLocalSocketAddress(), reason });
 			else
 				LOG.log(Level.FINE, "Internal facing selector (" + listener.socket().getLocalSocketAddress() + ") closed: " + reason, reasonExc);
+			keepAliveSweeper.stop();
 			bossThreadPool.shutdown();
 			workerThreadPool.shutdown();
 		}
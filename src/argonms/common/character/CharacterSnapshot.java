@@ -0,0 +1,63 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.character;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A copy of everything about a player that needs to be saved, taken at one
+ * instant on the thread that owns the player, that can then be written to the
+ * database by a PersistenceQueue thread without touching the live player.
+ * @author GoldenKevin
+ */
+public abstract class CharacterSnapshot {
+	private final int characterId;
+
+	protected CharacterSnapshot(int characterId) {
+		this.characterId = characterId;
+	}
+
+	public int getCharacterId() {
+		return characterId;
+	}
+
+	/**
+	 * Write this snapshot in the transaction of the given connection. The
+	 * caller is responsible for committing or rolling back the transaction.
+	 * @param con a connection that is not in auto-commit mode.
+	 * @return the amount of rows that were written.
+	 * @throws SQLException
+	 */
+	protected abstract int write(Connection con) throws SQLException;
+
+	/**
+	 * Called after the transaction that this snapshot was written in was
+	 * committed.
+	 */
+	protected void committed() {
+	}
+
+	/**
+	 * Called after the transaction that this snapshot was written in was
+	 * rolled back.
+	 */
+	protected void rolledBack() {
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.character;
+
+import argonms.common.util.DatabaseManager;
+import argonms.common.util.DatabaseManager.DatabaseType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes CharacterSnapshots to the database behind the back of the threads
+ * that process packets, so that a slow database does not hold up every other
+ * client that shares a worker with the one that is being saved.
+ *
+ * Saves of the same character are written one at a time in the order they
+ * were submitted. If a character is saved again while an earlier save is still
+ * waiting for its turn, the earlier snapshot is discarded in favor of the
+ * newer one. Anything that reads a character back from the database (a channel
+ * change, the next login) must wait on flush() or awaitFlush() first.
+ *
+ * The executor is bounded both in threads and in queued characters. Once the
+ * queue is full, or once the queue has been shut down, the submitting thread
+ * writes the snapshot itself so that we never buffer an unbounded amount of
+ * player state when the database can't keep up, and never drop a save.
+ * @author GoldenKevin
+ */
+public class PersistenceQueue {
+	private static final Logger LOG = Logger.getLogger(PersistenceQueue.class.getName());
+
+	private static final int THREADS = 2;
+	private static final int MAX_QUEUED_CHARACTERS = 1024;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long RETRY_DELAY = 250;
+	private static final long MAX_FLUSH_WAIT = 30000;
+
+	private static PersistenceQueue instance;
+
+	private static class PendingSave {
+		private CharacterSnapshot queued;
+		private final List<Runnable> onFlushed;
+
+		public PendingSave(CharacterSnapshot snapshot) {
+			queued = snapshot;
+			onFlushed = new ArrayList<Runnable>();
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+	//guarded by this
+	private final Map<Integer, PendingSave> pending;
+	private final AtomicLong saves, coalesced, retries, failures, rowsWritten;
+
+	private PersistenceQueue() {
+		executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED_CHARACTERS), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "persistence-pool-thread-" + threadNumber.getAndIncrement());
+				if (t.isDaemon())
+					t.setDaemon(false);
+				if (t.getPriority() != Thread.NORM_PRIORITY)
+					t.setPriority(Thread.NORM_PRIORITY);
+				return t;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				//unlike CallerRunsPolicy, also run it if we have been shut down.
+				//otherwise the save is lost and its character never flushes
+				r.run();
+			}
+		});
+		pending = new HashMap<Integer, PendingSave>();
+		saves = new AtomicLong();
+		coalesced = new AtomicLong();
+		retries = new AtomicLong();
+		failures = new AtomicLong();
+		rowsWritten = new AtomicLong();
+	}
+
+	private int writeOnce(CharacterSnapshot snapshot) throws SQLException {
+		int prevTransactionIsolation = Connection.TRANSACTION_REPEATABLE_READ;
+		boolean prevAutoCommit = true;
+		boolean committed = false;
+		Connection con = null;
+		try {
+			con = DatabaseManager.getConnection(DatabaseType.STATE);
+			prevTransactionIsolation = con.getTransactionIsolation();
+			prevAutoCommit = con.getAutoCommit();
+			con.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+			con.setAutoCommit(false);
+			int rows = snapshot.write(con);
+			con.commit();
+			committed = true;
+			snapshot.committed();
+			return rows;
+		} finally {
+			if (!committed) {
+				snapshot.rolledBack();
+				if (con != null) {
+					try {
+						con.rollback();
+					} catch (SQLException ex) {
+						LOG.log(Level.WARNING, "Error rolling back character.", ex);
+					}
+				}
+			}
+			if (con != null) {
+				try {
+					con.setAutoCommit(prevAutoCommit);
+					con.setTransactionIsolation(prevTransactionIsolation);
+				} catch (SQLException ex) {
+					LOG.log(Level.WARNING, "Could not reset Connection config after saving character " + snapshot.getCharacterId(), ex);
+				}
+			}
+			DatabaseManager.cleanup(DatabaseType.STATE, null, null, con);
+		}
+	}
+
+	private void write(CharacterSnapshot snapshot) {
+		long start = System.nanoTime();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				int rows = writeOnce(snapshot);
+				saves.incrementAndGet();
+				rowsWritten.addAndGet(rows);
+				LOG.log(Level.FINE, "Saved character {0} ({1} rows written in {2}ms)",
+						new Object[] { snapshot.getCharacterId(), rows, (System.nanoTime() - start) / 1000000 });
+				return;
+			} catch (Throwable ex) {
+				if (attempt >= MAX_ATTEMPTS || !(ex instanceof SQLException)) {
+					failures.incrementAndGet();
+					LOG.log(Level.WARNING, "Could not save character " + snapshot.getCharacterId() + ". Rolling back all changes...", ex);
+					return;
+				}
+				retries.incrementAndGet();
+				LOG.log(Level.FINE, "Could not save character " + snapshot.getCharacterId() + ". Retrying...", ex);
+				try {
+					Thread.sleep(RETRY_DELAY * attempt);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private void drain(Integer characterId) {
+		while (true) {
+			CharacterSnapshot snapshot;
+			List<Runnable> onFlushed = null;
+			synchronized (this) {
+				PendingSave save = pending.get(characterId);
+				snapshot = save.queued;
+				save.queued = null;
+				if (snapshot == null) {
+					pending.remove(characterId);
+					onFlushed = save.onFlushed;
+					notifyAll();
+				}
+			}
+			if (snapshot == null) {
+				for (Runnable r : onFlushed) {
+					try {
+						r.run();
+					} catch (Throwable ex) {
+						LOG.log(Level.WARNING, "Uncaught exception while running task after save of character " + characterId, ex);
+					}
+				}
+				return;
+			}
+			write(snapshot);
+		}
+	}
+
+	/**
+	 * Queue the given snapshot to be written to the database.
+	 * @param snapshot the state of a character that should be saved.
+	 */
+	public void submit(CharacterSnapshot snapshot) {
+		final Integer characterId = Integer.valueOf(snapshot.getCharacterId());
+		synchronized (this) {
+			PendingSave save = pending.get(characterId);
+			if (save != null) {
+				//a drain for this character is already queued or running and
+				//will pick this snapshot up next
+				if (save.queued != null)
+					coalesced.incrementAndGet();
+				save.queued = snapshot;
+				return;
+			}
+			pending.put(characterId, new PendingSave(snapshot));
+		}
+		Runnable r = new Runnable() {
+			@Override
+			public void run() {
+				drain(characterId);
+			}
+		};
+		executor.execute(r);
+	}
+
+	/**
+	 * Run the given task once every save of the given character that has been
+	 * submitted so far has been written. If there are none, the task is run
+	 * immediately on the calling thread. Otherwise, it will be run on a
+	 * persistence thread.
+	 * @param characterId the character to wait on.
+	 * @param r the task to run.
+	 */
+	public void flush(int characterId, Runnable r) {
+		synchronized (this) {
+			PendingSave save = pending.get(Integer.valueOf(characterId));
+			if (save != null) {
+				save.onFlushed.add(r);
+				return;
+			}
+		}
+		r.run();
+	}
+
+	/**
+	 * Block until every save of the given character that has been submitted so
+	 * far has been written, or until MAX_FLUSH_WAIT milliseconds pass.
+	 * @param characterId the character to wait on.
+	 */
+	public void awaitFlush(int characterId) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		flush(characterId, new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		try {
+			if (!latch.await(MAX_FLUSH_WAIT, TimeUnit.MILLISECONDS))
+				LOG.log(Level.WARNING, "Timed out while waiting for character {0} to be saved", characterId);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Block until all submitted saves have been written, or until the given
+	 * amount of time passes.
+	 * @param timeout the maximum amount of milliseconds to wait.
+	 * @return true if all saves were written, false if some are still pending.
+	 */
+	public synchronized boolean awaitFlushAll(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (!pending.isEmpty() && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return pending.isEmpty();
+	}
+
+	/**
+	 * Write out all pending saves and stop the persistence threads. Saves that
+	 * are submitted after this call are written on the submitting thread.
+	 * @param timeout the maximum amount of milliseconds to wait for pending
+	 * saves.
+	 */
+	public void shutdown(long timeout) {
+		if (!awaitFlushAll(timeout))
+			LOG.log(Level.WARNING, "Timed out while waiting for {0} characters to be saved", getPendingCount());
+		executor.shutdown();
+	}
+
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	public long getSaves() {
+		return saves.get();
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten.get();
+	}
+
+	public static void setInstance() {
+		instance = new PersistenceQueue();
+	}
+
+	public static PersistenceQueue getInstance() {
+		return instance;
+	}
+}
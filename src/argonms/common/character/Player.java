@@ -37,7 +37,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
@@ -337,6 +340,10 @@ public abstract class Player {
 					+ "SET `inventoryitemid` = ? WHERE `uniqueid` = ?");
 			ps.setInt(1, characterId);
 			ps.setInt(2, accountId);
+			//every row goes into one batch. the driver hands the generated keys
+			//back in the same order that the rows were added, so we can match
+			//them up to the items afterwards and batch the side tables too.
+			List<InventorySlot> batched = new ArrayList<InventorySlot>();
 			for (Entry<InventoryType, ? extends IInventory> ent : inventories.entrySet()) {
 				switch (ent.getKey()) {
 					case STORAGE:
@@ -358,96 +365,72 @@ public abstract class Player {
 						ps.setLong(6, item.getExpiration());
 						ps.setString(7, item.getOwner());
 						ps.setShort(8, item.getQuantity());
-						//TODO: refactor so we can use addBatch here for inventories
-						//(equip, ring, pet, mount) and for items. Run getGeneratedKeys()
-						//after executeBatch to get generated keys for each item
-						//in iteration order...
-
-						int inventoryKey = -1;
-						switch (item.getType()) {
-							case RING: {
-								Ring ring = (Ring) item;
-
-								ps.executeUpdate(); //need the generated keys, so no batch
-								rs = ps.getGeneratedKeys();
-								inventoryKey = rs.next() ? rs.getInt(1) : -1;
-								rs.close();
-
-								setEquipUpdateVariables(ring, inventoryKey, eps);
-								eps.addBatch();
-
-								rps.setInt(1, inventoryKey);
-								rps.setInt(2, ring.getPartnerCharId());
-								rps.setLong(3, ring.getPartnerRingId());
-								rps.addBatch();
-								break;
-							}
-							case EQUIP: {
-								ps.executeUpdate(); //need the generated keys, so no batch
-								rs = ps.getGeneratedKeys();
-								inventoryKey = rs.next() ? rs.getInt(1) : -1;
-								rs.close();
-
-								setEquipUpdateVariables((Equip) item, inventoryKey, eps);
-								eps.addBatch();
-								break;
-							}
-							case PET: {
-								Pet pet = (Pet) item;
-
-								ps.executeUpdate(); //need the generated keys, so no batch
-								rs = ps.getGeneratedKeys();
-								inventoryKey = rs.next() ? rs.getInt(1) : -1;
-								rs.close();
-
-								pps.setInt(1, inventoryKey);
-								pps.setByte(2, indexOf(pets, pet));
-								pps.setString(3, pet.getName());
-								pps.setByte(4, pet.getLevel());
-								pps.setShort(5, pet.getCloseness());
-								pps.setByte(6, pet.getFullness());
-								pps.addBatch();
-								break;
-							}
-							case MOUNT: {
-								TamingMob mount = (TamingMob) item;
-
-								ps.executeUpdate(); //need the generated keys, so no batch
-								rs = ps.getGeneratedKeys();
-								inventoryKey = rs.next() ? rs.getInt(1) : -1;
-								rs.close();
-
-								setEquipUpdateVariables(mount, inventoryKey, eps);
-								eps.addBatch();
-
-								mps.setInt(1, inventoryKey);
-								mps.setByte(2, mount.getMountLevel());
-								mps.setShort(3, mount.getExp());
-								mps.setByte(4, mount.getTiredness());
-								mps.addBatch();
-								break;
-							}
-							case ITEM:
-								if (item.getUniqueId() <= 0) {
-									ps.addBatch();
-								} else {
-									ps.executeUpdate(); //need the generated keys, so no batch
-									rs = ps.getGeneratedKeys();
-									inventoryKey = rs.next() ? rs.getInt(1) : -1;
-									rs.close();
-								}
-								break;
-						}
-
-						if (item.getUniqueId() > 0) {
-							cps.setInt(1, inventoryKey);
-							cps.setLong(2, item.getUniqueId());
-							cps.addBatch();
-						}
+						ps.addBatch();
+						batched.add(item);
 					}
 				}
 			}
+			if (batched.isEmpty())
+				return;
+
 			ps.executeBatch();
+			rs = ps.getGeneratedKeys();
+			for (InventorySlot item : batched) {
+				if (!rs.next())
+					throw new SQLException("Expected " + batched.size() + " generated keys for inventory items of character " + characterId);
+				int inventoryKey = rs.getInt(1);
+				switch (item.getType()) {
+					case RING: {
+						Ring ring = (Ring) item;
+
+						setEquipUpdateVariables(ring, inventoryKey, eps);
+						eps.addBatch();
+
+						rps.setInt(1, inventoryKey);
+						rps.setInt(2, ring.getPartnerCharId());
+						rps.setLong(3, ring.getPartnerRingId());
+						rps.addBatch();
+						break;
+					}
+					case EQUIP: {
+						setEquipUpdateVariables((Equip) item, inventoryKey, eps);
+						eps.addBatch();
+						break;
+					}
+					case PET: {
+						Pet pet = (Pet) item;
+
+						pps.setInt(1, inventoryKey);
+						pps.setByte(2, indexOf(pets, pet));
+						pps.setString(3, pet.getName());
+						pps.setByte(4, pet.getLevel());
+						pps.setShort(5, pet.getCloseness());
+						pps.setByte(6, pet.getFullness());
+						pps.addBatch();
+						break;
+					}
+					case MOUNT: {
+						TamingMob mount = (TamingMob) item;
+
+						setEquipUpdateVariables(mount, inventoryKey, eps);
+						eps.addBatch();
+
+						mps.setInt(1, inventoryKey);
+						mps.setByte(2, mount.getMountLevel());
+						mps.setShort(3, mount.getExp());
+						mps.setByte(4, mount.getTiredness());
+						mps.addBatch();
+						break;
+					}
+				}
+
+				if (item.getUniqueId() > 0) {
+					cps.setInt(1, inventoryKey);
+					cps.setLong(2, item.getUniqueId());
+					cps.addBatch();
+				}
+			}
+			rs.close();
 			eps.executeBatch();
 			rps.executeBatch();
 			pps.executeBatch();
@@ -463,112 +446,271 @@ public abstract class Player {
 		}
 	}
 
+	private static void addEquipColumns(List<Object> image, Equip equip) {
+		image.add(Byte.valueOf(equip.getUpgradeSlots()));
+		image.add(Byte.valueOf(equip.getLevel()));
+		image.add(Short.valueOf(equip.getStr()));
+		image.add(Short.valueOf(equip.getDex()));
+		image.add(Short.valueOf(equip.getInt()));
+		image.add(Short.valueOf(equip.getLuk()));
+		image.add(Short.valueOf(equip.getHp()));
+		image.add(Short.valueOf(equip.getMp()));
+		image.add(Short.valueOf(equip.getWatk()));
+		image.add(Short.valueOf(equip.getMatk()));
+		image.add(Short.valueOf(equip.getWdef()));
+		image.add(Short.valueOf(equip.getMdef()));
+		image.add(Short.valueOf(equip.getAcc()));
+		image.add(Short.valueOf(equip.getAvoid()));
+		image.add(Short.valueOf(equip.getHands()));
+		image.add(Short.valueOf(equip.getSpeed()));
+		image.add(Short.valueOf(equip.getJump()));
+	}
+
+	/**
+	 * Flattens every column that commitInventory would write for the given
+	 * inventory into a single list, so that two images of an inventory are
+	 * equal if and only if committing them would produce the same rows. Used to
+	 * skip rewriting inventories that have not changed since they were loaded
+	 * or last saved.
+	 * @param inv the inventory to take an image of.
+	 * @param pets the player's equipped pets.
+	 * @return a list that can be compared with equals() to an earlier image.
+	 */
+	public static List<Object> snapshotInventory(IInventory inv, Pet[] pets) {
+		List<Object> image = new ArrayList<Object>();
+		Map<Short, InventorySlot> iv = inv.getAll();
+		synchronized(iv) {
+			for (Entry<Short, InventorySlot> e : iv.entrySet()) {
+				InventorySlot item = e.getValue();
+				image.add(e.getKey());
+				image.add(Byte.valueOf(item.getTypeByte()));
+				image.add(Integer.valueOf(item.getDataId()));
+				image.add(Long.valueOf(item.getExpiration()));
+				image.add(item.getOwner());
+				image.add(Short.valueOf(item.getQuantity()));
+				image.add(Long.valueOf(item.getUniqueId()));
+				switch (item.getType()) {
+					case RING: {
+						Ring ring = (Ring) item;
+						addEquipColumns(image, ring);
+						image.add(Integer.valueOf(ring.getPartnerCharId()));
+						image.add(Long.valueOf(ring.getPartnerRingId()));
+						break;
+					}
+					case EQUIP:
+						addEquipColumns(image, (Equip) item);
+						break;
+					case PET: {
+						Pet pet = (Pet) item;
+						image.add(Byte.valueOf(indexOf(pets, pet)));
+						image.add(pet.getName());
+						image.add(Byte.valueOf(pet.getLevel()));
+						image.add(Short.valueOf(pet.getCloseness()));
+						image.add(Byte.valueOf(pet.getFullness()));
+						break;
+					}
+					case MOUNT: {
+						TamingMob mount = (TamingMob) item;
+						addEquipColumns(image, mount);
+						image.add(Byte.valueOf(mount.getMountLevel()));
+						image.add(Short.valueOf(mount.getExp()));
+						image.add(Byte.valueOf(mount.getTiredness()));
+						break;
+					}
+				}
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Takes a deep copy of the given inventories so that they can be committed
+	 * from another thread while the originals continue to be modified.
+	 * @param inventories the inventories to copy.
+	 * @param pets the player's equipped pets.
+	 * @param petCopies an array of the same length as pets. The copy of each
+	 * equipped pet will be stored at the same index that the original has in
+	 * pets, so that the copies can be passed to commitInventory.
+	 * @return copies of the given inventories.
+	 */
+	public static Map<InventoryType, IInventory> copyInventories(Map<InventoryType, ? extends IInventory> inventories, Pet[] pets, Pet[] petCopies) {
+		Map<InventoryType, IInventory> copies = new EnumMap<InventoryType, IInventory>(InventoryType.class);
+		for (Entry<InventoryType, ? extends IInventory> ent : inventories.entrySet()) {
+			Inventory copy = new Inventory(ent.getValue().getMaxSlots());
+			Map<Short, InventorySlot> iv = ent.getValue().getAll();
+			synchronized(iv) {
+				for (Entry<Short, InventorySlot> e : iv.entrySet()) {
+					InventorySlot item = e.getValue().clone();
+					if (e.getValue().getType() == InventorySlot.ItemType.PET) {
+						byte index = indexOf(pets, (Pet) e.getValue());
+						if (index != -1)
+							petCopies[index] = (Pet) item;
+					}
+					copy.put(e.getKey().shortValue(), item);
+				}
+			}
+			copies.put(ent.getKey(), copy);
+		}
+		return copies;
+	}
+
 	protected void commitInventory(Connection con, Map<InventoryType, ? extends IInventory> inventories) throws SQLException {
 		commitInventory(getDataId(), getClient().getAccountId(), pets, con, inventories);
 	}
 
-	public static void loadInventory(Pet[] pets, Connection con, ResultSet rs, Map<InventoryType, ? extends IInventory> inventories) throws SQLException {
-		PreparedStatement ips = null;
-		ResultSet irs = null;
+	/**
+	 * Fills in one kind of item with the columns of its rows in a side table of
+	 * `inventoryitems`.
+	 */
+	private interface SideTableReader<T extends InventorySlot> {
+		public void read(T item, ResultSet rs) throws SQLException;
+	}
+
+	private static final int SIDE_TABLE_BATCH_SIZE = 500;
+
+	/**
+	 * Look up the side table rows of all the given items in as few queries as
+	 * possible (one, unless there are more than SIDE_TABLE_BATCH_SIZE items).
+	 * @param select a query that selects the inventoryitemid column and ends in
+	 * "WHERE `inventoryitemid` IN ".
+	 * @param keyColumn the index of the inventoryitemid column in the query.
+	 * @param items the items to fill in, keyed by their inventoryitemid.
+	 * @param reader reads the columns of one row into an item.
+	 * @throws SQLException
+	 */
+	private static <T extends InventorySlot> void loadSideTable(Connection con, String select, int keyColumn, Map<Integer, T> items, SideTableReader<T> reader) throws SQLException {
+		if (items.isEmpty())
+			return;
+
+		PreparedStatement ps = null;
+		ResultSet rs = null;
 		try {
-			while (rs.next()) {
-				InventorySlot item;
-				InventoryType inventoryType = InventoryType.valueOf(rs.getByte(4));
-				short position = rs.getShort(5);
-				int itemid = rs.getInt(6);
-				int inventoryKey = rs.getInt(1);
-				if (InventoryTools.isEquip(itemid)) {
-					Equip e;
-					if (InventoryTools.isPartnerRing(itemid)) {
-						e = new Ring(itemid);
-						ips = con.prepareStatement("SELECT * FROM `inventoryrings` WHERE `inventoryitemid` = ?");
-						ips.setInt(1, inventoryKey);
-						irs = ips.executeQuery();
-						if (irs.next()) {
-							((Ring) e).setPartnerCharId(irs.getInt(3));
-							((Ring) e).setPartnerRingId(irs.getLong(4));
-						}
-						irs.close();
-						ips.close();
-					} else if (InventoryTools.isMount(itemid)) {
-						e = new TamingMob(itemid);
-						ips = con.prepareStatement("SELECT * FROM `inventorymounts` WHERE `inventoryitemid` = ?");
-						ips.setInt(1, inventoryKey);
-						irs = ips.executeQuery();
-						if (irs.next()) {
-							((TamingMob) e).setLevel(irs.getByte(3));
-							((TamingMob) e).setExp(irs.getShort(4));
-							((TamingMob) e).setTiredness(irs.getByte(5));
-						}
-						irs.close();
-						ips.close();
-					} else {
-						e = new Equip(itemid);
-					}
-					ips = con.prepareStatement("SELECT * FROM `inventoryequipment` WHERE `inventoryitemid` = ?");
-					ips.setInt(1, inventoryKey);
-					irs = ips.executeQuery();
-					if (irs.next()) {
-						e.setUpgradeSlots(irs.getByte(3));
-						e.setLevel(irs.getByte(4));
-						e.setStr(irs.getShort(5));
-						e.setDex(irs.getShort(6));
-						e.setInt(irs.getShort(7));
-						e.setLuk(irs.getShort(8));
-						e.setHp(irs.getShort(9));
-						e.setMp(irs.getShort(10));
-						e.setWatk(irs.getShort(11));
-						e.setMatk(irs.getShort(12));
-						e.setWdef(irs.getShort(13));
-						e.setMdef(irs.getShort(14));
-						e.setAcc(irs.getShort(15));
-						e.setAvoid(irs.getShort(16));
-						e.setHands(irs.getShort(17));
-						e.setSpeed(irs.getShort(18));
-						e.setJump(irs.getShort(19));
-					}
-					irs.close();
-					ips.close();
-					item = e;
+			Integer[] keys = items.keySet().toArray(new Integer[items.size()]);
+			for (int offset = 0; offset < keys.length; offset += SIDE_TABLE_BATCH_SIZE) {
+				int count = Math.min(SIDE_TABLE_BATCH_SIZE, keys.length - offset);
+				StringBuilder sb = new StringBuilder(select).append('(');
+				for (int i = 0; i < count; i++)
+					sb.append(i == 0 ? "?" : ",?");
+				ps = con.prepareStatement(sb.append(')').toString());
+				for (int i = 0; i < count; i++)
+					ps.setInt(i + 1, keys[offset + i].intValue());
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					T item = items.get(Integer.valueOf(rs.getInt(keyColumn)));
+					if (item != null)
+						reader.read(item, rs);
+				}
+				rs.close();
+				ps.close();
+			}
+		} finally {
+			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+		}
+	}
+
+	/**
+	 * Loads every item in the given `inventoryitems` result set into the given
+	 * inventories. The equipment, ring, mount, pet, and cash purchase details
+	 * of the items are fetched afterwards with one query per side table rather
+	 * than one query per item.
+	 */
+	public static void loadInventory(final Pet[] pets, Connection con, ResultSet rs, Map<InventoryType, ? extends IInventory> inventories) throws SQLException {
+		Map<Integer, Equip> equips = new HashMap<Integer, Equip>();
+		Map<Integer, Ring> rings = new HashMap<Integer, Ring>();
+		Map<Integer, TamingMob> mounts = new HashMap<Integer, TamingMob>();
+		Map<Integer, Pet> petItems = new HashMap<Integer, Pet>();
+		Map<Integer, InventorySlot> cashItems = new HashMap<Integer, InventorySlot>();
+		while (rs.next()) {
+			InventorySlot item;
+			InventoryType inventoryType = InventoryType.valueOf(rs.getByte(4));
+			short position = rs.getShort(5);
+			int itemid = rs.getInt(6);
+			Integer inventoryKey = Integer.valueOf(rs.getInt(1));
+			if (InventoryTools.isEquip(itemid)) {
+				Equip e;
+				if (InventoryTools.isPartnerRing(itemid)) {
+					e = new Ring(itemid);
+					rings.put(inventoryKey, (Ring) e);
+				} else if (InventoryTools.isMount(itemid)) {
+					e = new TamingMob(itemid);
+					mounts.put(inventoryKey, (TamingMob) e);
 				} else {
-					if (InventoryTools.isPet(itemid)) {
-						Pet pet = new Pet(itemid);
-						ips = con.prepareStatement("SELECT * FROM `inventorypets` WHERE `inventoryitemid` = ?");
-						ips.setInt(1, inventoryKey);
-						irs = ips.executeQuery();
-						if (irs.next()) {
-							pet.setName(irs.getString(4));
-							pet.setLevel(irs.getByte(5));
-							pet.setCloseness(irs.getShort(6));
-							pet.setFullness(irs.getByte(7));
-							byte pos = irs.getByte(3);
-							if (pos >= 0 && pos < 3)
-								pets[pos] = pet;
-						}
-						irs.close();
-						ips.close();
-						item = pet;
-					} else {
-						item = new Item(itemid);
-						item.setQuantity(rs.getShort(9));
-					}
+					e = new Equip(itemid);
 				}
-				if (InventoryTools.isCashItem(itemid)) {
-					ips = con.prepareStatement("SELECT `uniqueid` FROM `cashshoppurchases` WHERE `inventoryitemid` = ?");
-					ips.setInt(1, inventoryKey);
-					irs = ips.executeQuery();
-					if (irs.next())
-						item.setUniqueId(irs.getLong(1));
-					irs.close();
-					ips.close();
+				equips.put(inventoryKey, e);
+				item = e;
+			} else {
+				if (InventoryTools.isPet(itemid)) {
+					Pet pet = new Pet(itemid);
+					petItems.put(inventoryKey, pet);
+					item = pet;
+				} else {
+					item = new Item(itemid);
+					item.setQuantity(rs.getShort(9));
 				}
-				item.setExpiration(rs.getLong(7));
-				item.setOwner(rs.getString(8));
-				inventories.get(inventoryType).put(position, item);
 			}
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, irs, ips, null);
+			if (InventoryTools.isCashItem(itemid))
+				cashItems.put(inventoryKey, item);
+			item.setExpiration(rs.getLong(7));
+			item.setOwner(rs.getString(8));
+			inventories.get(inventoryType).put(position, item);
 		}
+
+		loadSideTable(con, "SELECT * FROM `inventoryrings` WHERE `inventoryitemid` IN ", 2, rings, new SideTableReader<Ring>() {
+			@Override
+			public void read(Ring ring, ResultSet irs) throws SQLException {
+				ring.setPartnerCharId(irs.getInt(3));
+				ring.setPartnerRingId(irs.getLong(4));
+			}
+		});
+		loadSideTable(con, "SELECT * FROM `inventorymounts` WHERE `inventoryitemid` IN ", 2, mounts, new SideTableReader<TamingMob>() {
+			@Override
+			public void read(TamingMob mount, ResultSet irs) throws SQLException {
+				mount.setLevel(irs.getByte(3));
+				mount.setExp(irs.getShort(4));
+				mount.setTiredness(irs.getByte(5));
+			}
+		});
+		loadSideTable(con, "SELECT * FROM `inventoryequipment` WHERE `inventoryitemid` IN ", 2, equips, new SideTableReader<Equip>() {
+			@Override
+			public void read(Equip e, ResultSet irs) throws SQLException {
+				e.setUpgradeSlots(irs.getByte(3));
+				e.setLevel(irs.getByte(4));
+				e.setStr(irs.getShort(5));
+				e.setDex(irs.getShort(6));
+				e.setInt(irs.getShort(7));
+				e.setLuk(irs.getShort(8));
+				e.setHp(irs.getShort(9));
+				e.setMp(irs.getShort(10));
+				e.setWatk(irs.getShort(11));
+				e.setMatk(irs.getShort(12));
+				e.setWdef(irs.getShort(13));
+				e.setMdef(irs.getShort(14));
+				e.setAcc(irs.getShort(15));
+				e.setAvoid(irs.getShort(16));
+				e.setHands(irs.getShort(17));
+				e.setSpeed(irs.getShort(18));
+				e.setJump(irs.getShort(19));
+			}
+		});
+		loadSideTable(con, "SELECT * FROM `inventorypets` WHERE `inventoryitemid` IN ", 2, petItems, new SideTableReader<Pet>() {
+			@Override
+			public void read(Pet pet, ResultSet irs) throws SQLException {
+				pet.setName(irs.getString(4));
+				pet.setLevel(irs.getByte(5));
+				pet.setCloseness(irs.getShort(6));
+				pet.setFullness(irs.getByte(7));
+				byte pos = irs.getByte(3);
+				if (pos >= 0 && pos < 3)
+					pets[pos] = pet;
+			}
+		});
+		loadSideTable(con, "SELECT `inventoryitemid`,`uniqueid` FROM `cashshoppurchases` WHERE `inventoryitemid` IN ", 1, cashItems, new SideTableReader<InventorySlot>() {
+			@Override
+			public void read(InventorySlot item, ResultSet irs) throws SQLException {
+				item.setUniqueId(irs.getLong(2));
+			}
+		});
 	}
 
 	protected void loadInventory(Connection con, ResultSet rs, Map<InventoryType, ? extends IInventory> inventories) throws SQLException {
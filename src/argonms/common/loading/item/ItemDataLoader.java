@@ -23,15 +23,13 @@ import argonms.common.character.inventory.InventoryTools;
 import argonms.common.loading.DataFileType;
 import argonms.common.util.Rng;
 import argonms.common.util.TimeTool;
-import java.util.ArrayList;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -39,20 +37,21 @@ import java.util.Set;
 public abstract class ItemDataLoader {
 	private static ItemDataLoader instance;
 
-	protected final Set<Integer> loaded;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 	protected final Map<Integer, Integer> wholePrice;
 	protected final Map<Integer, Short> slotMax;
-	protected final List<Integer> tradeBlocked;
-	protected final List<Integer> onlyOne;
-	protected final List<Integer> questItem;
+	protected final ConcurrentIntSet tradeBlocked;
+	protected final ConcurrentIntSet onlyOne;
+	protected final ConcurrentIntSet questItem;
 	protected final Map<Integer, short[]> bonusStats;
 	protected final Map<Integer, List<int[]>> summons;
 	protected final Map<Integer, Integer> success;
 	protected final Map<Integer, Integer> cursed;
-	protected final Set<Integer> recover, randStat, preventSlip, warmSupport;
-	protected final List<Integer> cash; //I don't think this is really needed...
+	protected final ConcurrentIntSet recover, randStat, preventSlip, warmSupport;
+	protected final ConcurrentIntSet cash; //I don't think this is really needed...
 	protected final Map<Integer, List<byte[]>> operatingHours;
-	protected final List<Integer> useOnPickup;
+	protected final ConcurrentIntSet useOnPickup;
 	protected final Map<Integer, List<Integer>> skills;
 	protected final Map<Integer, Double> unitPrice;
 	protected final Map<Integer, short[]> reqStats;
@@ -71,39 +70,40 @@ public abstract class ItemDataLoader {
 	protected final Map<Integer, Byte> tamingMobIds;
 
 	protected ItemDataLoader() {
-		loaded = new HashSet<Integer>();
-		wholePrice = new HashMap<Integer, Integer>();
-		slotMax = new HashMap<Integer, Short>();
-		tradeBlocked = new ArrayList<Integer>();
-		onlyOne = new ArrayList<Integer>();
-		questItem = new ArrayList<Integer>();
-		bonusStats = new HashMap<Integer, short[]>();
-		summons = new HashMap<Integer, List<int[]>>();
-		success = new HashMap<Integer, Integer>();
-		cursed = new HashMap<Integer, Integer>();
-		recover = new HashSet<Integer>();
-		randStat = new HashSet<Integer>();
-		preventSlip = new HashSet<Integer>();
-		warmSupport = new HashSet<Integer>();
-		cash = new ArrayList<Integer>();
-		operatingHours = new HashMap<Integer, List<byte[]>>();
-		useOnPickup = new ArrayList<Integer>();
-		skills = new HashMap<Integer, List<Integer>>();
-		unitPrice = new HashMap<Integer, Double>();
-		reqStats = new HashMap<Integer, short[]>();
-		scrollReqs = new HashMap<Integer, List<Integer>>();
-		statEffects = new HashMap<Integer, ItemEffectsData>();
-		triggerItem = new HashMap<Integer, Integer>();
-		tuc = new HashMap<Integer, Byte>();
-		mesoValue = new HashMap<Integer, Integer>();
-
-		petCommands = new HashMap<Integer, Map<Byte, int[]>>();
-		petHunger = new HashMap<Integer, Integer>();
-		petPeriod = new HashMap<Integer, Byte>();
-		petFullnessRecover = new HashMap<Integer, Byte>();
-		evolveChoices = new HashMap<Integer, List<int[]>>();
-
-		tamingMobIds = new HashMap<Integer, Byte>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
+		wholePrice = new ConcurrentHashMap<Integer, Integer>();
+		slotMax = new ConcurrentHashMap<Integer, Short>();
+		tradeBlocked = new ConcurrentIntSet();
+		onlyOne = new ConcurrentIntSet();
+		questItem = new ConcurrentIntSet();
+		bonusStats = new ConcurrentHashMap<Integer, short[]>();
+		summons = new ConcurrentHashMap<Integer, List<int[]>>();
+		success = new ConcurrentHashMap<Integer, Integer>();
+		cursed = new ConcurrentHashMap<Integer, Integer>();
+		recover = new ConcurrentIntSet();
+		randStat = new ConcurrentIntSet();
+		preventSlip = new ConcurrentIntSet();
+		warmSupport = new ConcurrentIntSet();
+		cash = new ConcurrentIntSet();
+		operatingHours = new ConcurrentHashMap<Integer, List<byte[]>>();
+		useOnPickup = new ConcurrentIntSet();
+		skills = new ConcurrentHashMap<Integer, List<Integer>>();
+		unitPrice = new ConcurrentHashMap<Integer, Double>();
+		reqStats = new ConcurrentHashMap<Integer, short[]>();
+		scrollReqs = new ConcurrentHashMap<Integer, List<Integer>>();
+		statEffects = new ConcurrentHashMap<Integer, ItemEffectsData>();
+		triggerItem = new ConcurrentHashMap<Integer, Integer>();
+		tuc = new ConcurrentHashMap<Integer, Byte>();
+		mesoValue = new ConcurrentHashMap<Integer, Integer>();
+
+		petCommands = new ConcurrentHashMap<Integer, Map<Byte, int[]>>();
+		petHunger = new ConcurrentHashMap<Integer, Integer>();
+		petPeriod = new ConcurrentHashMap<Integer, Byte>();
+		petFullnessRecover = new ConcurrentHashMap<Integer, Byte>();
+		evolveChoices = new ConcurrentHashMap<Integer, List<int[]>>();
+
+		tamingMobIds = new ConcurrentHashMap<Integer, Byte>();
 	}
 
 	protected abstract void load(int itemid);
@@ -112,30 +112,44 @@ public abstract class ItemDataLoader {
 
 	public abstract boolean canLoad(int itemid);
 
+	/**
+	 * Makes sure that the data for the given item is cached, loading it if
+	 * it has not yet been. Only one thread will ever load a particular item,
+	 * and because subclasses add the item to the loaded set only after all of
+	 * its data has been put into the caches, a thread that sees the item as
+	 * loaded will see all of its data.
+	 * @param itemId
+	 */
+	private void ensureLoaded(int itemId) {
+		if (itemId >= 0 && !loaded.contains(itemId)) {
+			synchronized (loadLocks.get(itemId)) {
+				if (!loaded.contains(itemId))
+					load(itemId);
+			}
+		}
+	}
+
 	public int loadedItems() {
 		return loaded.size();
 	}
 
 	public int getWholePrice(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Integer ret = wholePrice.get(oId);
 		return ret != null ? ret.intValue() : 0;
 	}
 
 	public double getUnitPrice(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Double ret = unitPrice.get(oId);
 		return ret != null ? ret.doubleValue() : -1;
 	}
 
 	public short getSlotMax(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Short ret = slotMax.get(oId);
 		return ret != null ? ret.shortValue() : (short)
 				(InventoryTools.isEquip(itemId) ||
@@ -143,24 +157,18 @@ public abstract class ItemDataLoader {
 	}
 
 	public boolean isTradeBlocked(int itemId) {
-		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
-		return tradeBlocked.contains(oId);
+		ensureLoaded(itemId);
+		return tradeBlocked.contains(itemId);
 	}
 
 	public boolean isOnlyOne(int itemId) {
-		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
-		return onlyOne.contains(oId);
+		ensureLoaded(itemId);
+		return onlyOne.contains(itemId);
 	}
 
 	public boolean isQuestItem(int itemId) {
-		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
-		return questItem.contains(oId);
+		ensureLoaded(itemId);
+		return questItem.contains(itemId);
 	}
 
 	//TODO: is this the correct data we're using?
@@ -169,17 +177,15 @@ public abstract class ItemDataLoader {
 	}
 
 	public short getReqLevel(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		short[] ret = reqStats.get(oId);
 		return ret != null ? ret[StatEffect.Level] : 0;
 	}
 
 	public short[] getBonusStats(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		short[] ret = bonusStats.get(oId);
 		//don't trust the caller not to alter the array for the rest of us...
 		return ret != null ? ret.clone() : null;
@@ -196,26 +202,24 @@ public abstract class ItemDataLoader {
 	}
 
 	public boolean isWhiteSlateScroll(int itemId) {
-		return recover.contains(Integer.valueOf(itemId));
+		return recover.contains(itemId);
 	}
 
 	public boolean isChaosScroll(int itemId) {
-		return randStat.contains(Integer.valueOf(itemId));
+		return randStat.contains(itemId);
 	}
 
 	public boolean isPreventSlipScroll(int itemId) {
-		return preventSlip.contains(Integer.valueOf(itemId));
+		return preventSlip.contains(itemId);
 	}
 
 	public boolean isWarmSupportScroll(int itemId) {
-		return warmSupport.contains(Integer.valueOf(itemId));
+		return warmSupport.contains(itemId);
 	}
 
 	public boolean isCashEquip(int itemId) {
-		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
-		return cash.contains(oId);
+		ensureLoaded(itemId);
+		return cash.contains(itemId);
 	}
 
 	private boolean isHoliday(Calendar now) {
@@ -224,9 +228,8 @@ public abstract class ItemDataLoader {
 	}
 
 	public boolean isRateCardOperating(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Calendar now = TimeTool.currentDateTime();
 		int today = now.get(Calendar.DAY_OF_WEEK);
 		int thisHour = now.get(Calendar.HOUR_OF_DAY);
@@ -238,68 +241,58 @@ public abstract class ItemDataLoader {
 	}
 
 	public boolean isConsumeOnPickup(int itemId) {
-		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
-		return useOnPickup.contains(oId);
+		ensureLoaded(itemId);
+		return useOnPickup.contains(itemId);
 	}
 
 	public ItemEffectsData getEffect(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return statEffects.get(oId);
 	}
 
 	public byte getUpgradeSlots(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Byte ret = tuc.get(oId);
 		return ret != null ? ret.byteValue() : 7;
 	}
 
 	public int[] getPetCommand(int itemId, byte act) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		Map<Byte, int[]> commands = petCommands.get(oId);
 		return commands.get(act);
 	}
 
 	public int getPetHunger(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return petHunger.get(oId).intValue();
 	}
 
 	public byte getPetPeriod(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return petPeriod.get(oId).byteValue();
 	}
 
 	public byte getPetFullnessRecover(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return petFullnessRecover.get(oId).byteValue();
 	}
 
 	public List<int[]> getPetEvolveChoices(int itemId) {
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return evolveChoices.get(oId);
 	}
 
 	public boolean isEquippablePet(int itemId) {
 		//also when info/evolReqItemID exists and == 0
+		ensureLoaded(itemId);
 		Integer oId = Integer.valueOf(itemId);
-		if (!loaded.contains(oId))
-			load(itemId);
 		return petHunger.containsKey(oId);
 	}
 
@@ -85,7 +85,7 @@ public class KvjItemDataLoader extends ItemDataLoader {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Could not read KVJ data file for item " + itemid, e);
 		}
-		loaded.add(Integer.valueOf(itemid));
+		loaded.add(itemid);
 	}
 
 	@Override
@@ -98,7 +98,7 @@ public class KvjItemDataLoader extends ItemDataLoader {
 					for (String kvj : catFolder.list()) {
 						int itemid = Integer.parseInt(kvj.substring(0, kvj.lastIndexOf(".img.kvj")));
 						doWork(itemid, new LittleEndianByteArrayReader(new File(catFolder.getAbsolutePath() + File.separatorChar + kvj)));
-						loaded.add(Integer.valueOf(itemid));
+						loaded.add(itemid);
 					}
 				} else {
 					for (String pref : catFolder.list()) {
@@ -106,7 +106,7 @@ public class KvjItemDataLoader extends ItemDataLoader {
 						for (String kvj : prefFolder.list()) {
 							int itemid = Integer.parseInt(kvj.substring(0, kvj.lastIndexOf(".kvj")));
 							doWork(itemid, new LittleEndianByteArrayReader(new File(prefFolder.getAbsolutePath() + File.separatorChar + kvj)));
-							loaded.add(Integer.valueOf(itemid));
+							loaded.add(itemid);
 						}
 					}
 				}
@@ -118,7 +118,7 @@ public class KvjItemDataLoader extends ItemDataLoader {
 					for (String kvj : catFolder.list()) {
 						int itemid = Integer.parseInt(kvj.substring(0, kvj.lastIndexOf(".img.kvj")));
 						doWork(itemid, new LittleEndianByteArrayReader(new File(catFolder.getAbsolutePath() + File.separatorChar + kvj)));
-						loaded.add(Integer.valueOf(itemid));
+						loaded.add(itemid);
 					}
 				}
 			}
@@ -132,7 +132,7 @@ public class KvjItemDataLoader extends ItemDataLoader {
 	@Override
 	public boolean canLoad(int itemid) {
 		File f;
-		return (loaded.contains(Integer.valueOf(itemid)) || (f = getFile(itemid)) != null && f.exists());
+		return (loaded.contains(itemid) || (f = getFile(itemid)) != null && f.exists());
 	}
 
 	private File getFile(int iid) {
@@ -161,13 +161,13 @@ public class KvjItemDataLoader extends ItemDataLoader {
 					slotMax.put(oId, Short.valueOf(reader.readShort()));
 					break;
 				case IS_TRADE_BLOCKED:
-					tradeBlocked.add(oId);
+					tradeBlocked.add(itemid);
 					break;
 				case IS_ONE_ONLY:
-					onlyOne.add(oId);
+					onlyOne.add(itemid);
 					break;
 				case IS_QUEST_ITEM:
-					questItem.add(oId);
+					questItem.add(itemid);
 					break;
 				case BONUS_STAT:
 					if (!bonusStats.containsKey(oId))
@@ -186,19 +186,19 @@ public class KvjItemDataLoader extends ItemDataLoader {
 					cursed.put(oId, Integer.valueOf(reader.readInt()));
 					break;
 				case RECOVER:
-					recover.add(oId);
+					recover.add(itemid);
 					break;
 				case RAND_STAT:
-					randStat.add(oId);
+					randStat.add(itemid);
 					break;
 				case PREVENT_SLIP:
-					preventSlip.add(oId);
+					preventSlip.add(itemid);
 					break;
 				case WARM_SUPPORT:
-					warmSupport.add(oId);
+					warmSupport.add(itemid);
 					break;
 				case CASH:
-					cash.add(oId);
+					cash.add(itemid);
 					break;
 				case OPERATING_HOURS:
 					if (!operatingHours.containsKey(oId))
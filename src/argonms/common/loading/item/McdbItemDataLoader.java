@@ -65,7 +65,7 @@ public class McdbItemDataLoader extends ItemDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.WZ, rs, ps, con);
 		}
-		loaded.add(Integer.valueOf(itemid));
+		loaded.add(itemid);
 	}
 
 	@Override
@@ -77,15 +77,21 @@ public class McdbItemDataLoader extends ItemDataLoader {
 			con = DatabaseManager.getConnection(DatabaseType.WZ);
 			ps = con.prepareStatement("SELECT * FROM `itemdata`");
 			rs = ps.executeQuery();
-			while (rs.next())
-				doWork(rs.getInt("itemid"), rs, con);
+			while (rs.next()) {
+				int itemid = rs.getInt("itemid");
+				doWork(itemid, rs, con);
+				loaded.add(itemid);
+			}
 			rs.close();
 			ps.close();
 
 			ps = con.prepareStatement("SELECT * FROM `equipdata`");
 			rs = ps.executeQuery();
-			while (rs.next())
-				doWork(rs.getInt("equipid"), rs, con);
+			while (rs.next()) {
+				int itemid = rs.getInt("equipid");
+				doWork(itemid, rs, con);
+				loaded.add(itemid);
+			}
 			return true;
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not load all item data from MCDB.", ex);
@@ -97,7 +103,7 @@ public class McdbItemDataLoader extends ItemDataLoader {
 
 	@Override
 	public boolean canLoad(int itemid) {
-		if (loaded.contains(Integer.valueOf(itemid)))
+		if (loaded.contains(itemid))
 			return true;
 		Connection con = null;
 		PreparedStatement ps = null;
@@ -220,13 +226,13 @@ public class McdbItemDataLoader extends ItemDataLoader {
 				if (chance != 0)
 					cursed.put(oId, Integer.valueOf(chance));
 				if (rs.getBoolean("randstat"))
-					randStat.add(oId);
+					randStat.add(itemid);
 				if (rs.getBoolean("recover"))
-					recover.add(oId);
+					recover.add(itemid);
 				if (itemid == 2040727) //TODO: hackish
-					preventSlip.add(oId);
+					preventSlip.add(itemid);
 				if (itemid == 2041058) //TODO: hackish
-					warmSupport.add(oId);
+					warmSupport.add(itemid);
 
 				List<Integer> skillIds = new ArrayList<Integer>();
 				try {
@@ -372,8 +378,8 @@ public class McdbItemDataLoader extends ItemDataLoader {
 			}
 		}
 		if (rs.getInt("notrade") != 0)
-			tradeBlocked.add(oId);
+			tradeBlocked.add(itemid);
 		if (rs.getInt("quest") != 0)
-			questItem.add(oId);
+			questItem.add(itemid);
 	}
 }
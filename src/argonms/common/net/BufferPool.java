@@ -0,0 +1,120 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.net;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct ByteBuffers for outgoing messages, bucketed into power of
+ * two size classes. Writing a heap buffer to a SocketChannel makes the JDK
+ * copy it into a temporary direct buffer first, so messages that are copied
+ * into a pooled direct buffer once can be written without any further
+ * allocation, and the buffer can be reused as soon as the write completes.
+ *
+ * Buffers that are never released (e.g. because their session was closed
+ * with messages still queued) are simply reclaimed by the garbage collector.
+ * All methods of this class are thread safe.
+ * @author GoldenKevin
+ */
+public final class BufferPool {
+	private static final int MIN_SIZE_CLASS = 6; //64 bytes
+	private static final int MAX_SIZE_CLASS = 17; //128KB, enough for any message with a 16-bit length
+	//don't let any one size class hold onto more memory than this while idle
+	private static final int MAX_POOLED_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+	private static final SizeClass[] sizeClasses;
+
+	static {
+		sizeClasses = new SizeClass[MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1];
+		for (int i = 0; i < sizeClasses.length; i++)
+			sizeClasses[i] = new SizeClass(1 << (i + MIN_SIZE_CLASS));
+	}
+
+	private static final class SizeClass {
+		private final int capacity;
+		private final int maxPooled;
+		private final Queue<ByteBuffer> free;
+		private final AtomicInteger pooled;
+
+		public SizeClass(int capacity) {
+			this.capacity = capacity;
+			this.maxPooled = MAX_POOLED_BYTES_PER_CLASS / capacity;
+			this.free = new ConcurrentLinkedQueue<ByteBuffer>();
+			this.pooled = new AtomicInteger(0);
+		}
+	}
+
+	private static int sizeClassIndex(int length) {
+		if (length <= (1 << MIN_SIZE_CLASS))
+			return 0;
+		return (32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_SIZE_CLASS;
+	}
+
+	/**
+	 *
+	 * @param length the amount of bytes that will be written to the buffer
+	 * @return a cleared direct buffer with its limit set to
+	 * <code>length</code>.
+	 */
+	public static ByteBuffer acquire(int length) {
+		int index = sizeClassIndex(length);
+		if (index >= sizeClasses.length)
+			return ByteBuffer.allocate(length);
+
+		SizeClass sc = sizeClasses[index];
+		ByteBuffer buf = sc.free.poll();
+		if (buf != null)
+			sc.pooled.decrementAndGet();
+		else
+			buf = ByteBuffer.allocateDirect(sc.capacity);
+		buf.limit(length);
+		return buf;
+	}
+
+	/**
+	 * Return a buffer that was fully written so that it may be handed out
+	 * again by acquire(). Buffers that did not come from acquire() are
+	 * ignored, so it is safe to pass any ByteBuffer to this method. The
+	 * caller must not touch the buffer again after it has been released.
+	 * @param buf the buffer to return to the pool
+	 */
+	public static void release(ByteBuffer buf) {
+		if (!buf.isDirect())
+			return;
+		int index = sizeClassIndex(buf.capacity());
+		if (index >= sizeClasses.length)
+			return;
+		SizeClass sc = sizeClasses[index];
+		if (sc.capacity != buf.capacity())
+			return;
+		if (sc.pooled.incrementAndGet() > sc.maxPooled) {
+			sc.pooled.decrementAndGet();
+			return;
+		}
+		buf.clear();
+		sc.free.offer(buf);
+	}
+
+	private BufferPool() {
+		//uninstantiable...
+	}
+}
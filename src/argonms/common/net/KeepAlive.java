@@ -0,0 +1,74 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package argonms.common.net;
+
+/**
+ * Tracks when a session last received anything and whether a ping to it is
+ * still waiting on a pong. The session only stamps the time whenever it reads
+ * something. A KeepAliveSweeper periodically checks the stamp, sends a ping
+ * once the session has been quiet for too long, and closes the session if
+ * the pong doesn't come back in time.
+ * @author GoldenKevin
+ */
+public class KeepAlive {
+	private final Session session;
+	private final byte[] pingMessage;
+	private final int idleTime, timeout;
+	private volatile long lastActivity;
+	//0 if we are not waiting on a pong
+	private volatile long pingSent;
+
+	/**
+	 * @param session the session to keep alive.
+	 * @param pingMessage the message that asks the remote end for a pong.
+	 * @param idleTime how many milliseconds the session may go without
+	 * receiving anything before it is pinged.
+	 * @param timeout how many milliseconds to wait for a pong before the
+	 * session is closed.
+	 */
+	public KeepAlive(Session session, byte[] pingMessage, int idleTime, int timeout) {
+		this.session = session;
+		this.pingMessage = pingMessage;
+		this.idleTime = idleTime;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Should be called whenever anything at all is read from the session.
+	 */
+	public void touch() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	public void receivedPong() {
+		pingSent = 0;
+	}
+
+	/* package-private */ void check(long now) {
+		long sent = pingSent;
+		if (sent != 0) {
+			if (now - sent >= timeout)
+				session.close("Timed out after " + timeout + " milliseconds");
+		} else if (now - lastActivity >= idleTime) {
+			pingSent = now;
+			session.send(pingMessage);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package argonms.common.net;
+
+import argonms.common.util.Scheduler;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks every KeepAlive that is registered with it once per sweep, so that
+ * sessions only have to record when they last read something instead of
+ * keeping a timer of their own. There is never more than one task on the
+ * wheel timer per sweeper, no matter how many sessions there are or how busy
+ * they are. Each sweep schedules the next one when it is done, so sweeps never
+ * overlap.
+ *
+ * Pings may be sent and timed out sessions may be closed up to one sweep
+ * interval late.
+ * @author GoldenKevin
+ */
+public class KeepAliveSweeper implements Runnable {
+	private static final Logger LOG = Logger.getLogger(KeepAliveSweeper.class.getName());
+	private static final int SWEEP_INTERVAL = 1000; //in milliseconds
+
+	private final Set<KeepAlive> monitored;
+	private volatile ScheduledFuture<?> sweep;
+	private volatile boolean stopped;
+
+	public KeepAliveSweeper() {
+		monitored = Collections.newSetFromMap(new ConcurrentHashMap<KeepAlive, Boolean>());
+		sweep = Scheduler.getWheelTimer().runAfterDelay(this, SWEEP_INTERVAL);
+	}
+
+	/**
+	 * Start checking the given KeepAlive. Its session is considered active as
+	 * of now.
+	 */
+	public void add(KeepAlive keepAlive) {
+		keepAlive.touch();
+		monitored.add(keepAlive);
+	}
+
+	public void remove(KeepAlive keepAlive) {
+		monitored.remove(keepAlive);
+	}
+
+	public void stop() {
+		stopped = true;
+		sweep.cancel(false);
+		monitored.clear();
+	}
+
+	@Override
+	public void run() {
+		long now = System.currentTimeMillis();
+		for (KeepAlive keepAlive : monitored) {
+			try {
+				keepAlive.check(now);
+			} catch (Throwable ex) {
+				LOG.log(Level.WARNING, "Uncaught exception while checking session for activity", ex);
+			}
+		}
+		if (!stopped)
+			sweep = Scheduler.getWheelTimer().runAfterDelay(this, SWEEP_INTERVAL);
+	}
+}
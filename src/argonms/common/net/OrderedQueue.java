@@ -20,25 +20,43 @@ package argonms.common.net;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * All methods of this class are thread safe.
+ * A multiple producer, single consumer queue that hands out elements in the
+ * order of the numbers reserved with getNextPush(), no matter in which order
+ * the elements were actually inserted.
+ *
+ * Elements are stored in a ring buffer indexed by their order number, so
+ * inserting and popping neither box keys nor allocate nodes. Order numbers
+ * are allowed to overflow - all comparisons are done on the distance from
+ * the pop cursor, which stays correct across wraparound. A producer that gets
+ * so far ahead of the consumer that its slot in the ring may still be in use
+ * falls back to a map, so the queue is never bounded by the ring's size.
+ *
+ * All methods of this class are thread safe. Only one thread may be popping
+ * at a time, which is what shouldWrite() and setCanWrite() are for.
  * @author GoldenKevin
  */
 public class OrderedQueue {
-	private final SortedMap<Integer, ByteBuffer> queued;
+	private static final int RING_SIZE = 256; //must be a power of 2
+	private static final int RING_MASK = RING_SIZE - 1;
+
+	private final AtomicReferenceArray<ByteBuffer> ring;
+	private final Map<Integer, ByteBuffer> overflow;
+	private final AtomicInteger overflowSize;
 	private final AtomicInteger nextPopCursor, nextPushCursor;
 	private final AtomicBoolean writeInProgress;
 
 	public OrderedQueue() {
-		queued = new ConcurrentSkipListMap<Integer, ByteBuffer>();
+		ring = new AtomicReferenceArray<ByteBuffer>(RING_SIZE);
+		overflow = new ConcurrentHashMap<Integer, ByteBuffer>();
+		overflowSize = new AtomicInteger(0);
 		nextPopCursor = new AtomicInteger(0);
 		nextPushCursor = new AtomicInteger(0);
 		writeInProgress = new AtomicBoolean(false);
@@ -59,7 +77,15 @@ public class OrderedQueue {
 	 * @param element the ByteBuffer to queue
 	 */
 	public void insert(int orderNo, ByteBuffer element) {
-		queued.put(Integer.valueOf(orderNo), element);
+		//slots are always cleared before the pop cursor moves past them, so
+		//as long as we're less than a ring's length ahead of the cursor, our
+		//slot can't still be holding an older element
+		if (orderNo - nextPopCursor.get() < RING_SIZE) {
+			ring.set(orderNo & RING_MASK, element);
+		} else {
+			overflow.put(Integer.valueOf(orderNo), element);
+			overflowSize.incrementAndGet();
+		}
 	}
 
 	public int currentPopBlock() {
@@ -79,7 +105,43 @@ public class OrderedQueue {
 	}
 
 	public boolean willBlock() {
-		return !queued.containsKey(Integer.valueOf(nextPopCursor.get()));
+		int orderNo = nextPopCursor.get();
+		return ring.get(orderNo & RING_MASK) == null
+				&& (overflowSize.get() == 0 || !overflow.containsKey(Integer.valueOf(orderNo)));
+	}
+
+	private ByteBuffer take(int orderNo) {
+		ByteBuffer element = ring.get(orderNo & RING_MASK);
+		if (element != null) {
+			ring.set(orderNo & RING_MASK, null);
+			return element;
+		}
+		if (overflowSize.get() != 0) {
+			element = overflow.remove(Integer.valueOf(orderNo));
+			if (element != null)
+				overflowSize.decrementAndGet();
+		}
+		return element;
+	}
+
+	/**
+	 * Removes the queued elements that directly follow the pop cursor, in
+	 * order, without allocating anything. May only be called by the thread
+	 * that currently holds the right to write.
+	 * @param dest the array to copy the popped ByteBuffers into
+	 * @return the amount of ByteBuffers that were copied into
+	 * <code>dest</code>, starting at index 0. There are no gaps in their order
+	 * numbers.
+	 */
+	public int pop(ByteBuffer[] dest) {
+		//caching nextPopCursor is safe since we mutexed the mutating of it
+		//with the AtomicBoolean writeInProgress.
+		int firstToPop = nextPopCursor.get();
+		int count = 0;
+		ByteBuffer element;
+		while (count < dest.length && (element = take(firstToPop + count)) != null)
+			dest[count++] = element;
+		return count;
 	}
 
 	/**
@@ -89,34 +151,10 @@ public class OrderedQueue {
 	 */
 	public List<ByteBuffer> pop() {
 		List<ByteBuffer> consecutive = new ArrayList<ByteBuffer>();
-		Iterator<Entry<Integer, ByteBuffer>> elements = queued.entrySet().iterator();
-		if (elements.hasNext()) {
-			Entry<Integer, ByteBuffer> lastPopped = elements.next();
-			int smallestKey = lastPopped.getKey().intValue();
-			//caching nextPopCursor is safe since we mutexed the mutating of it
-			//with the AtomicBoolean writeInProgress.
-			int firstToPop = nextPopCursor.get();
-			if (smallestKey == firstToPop) {
-				for (int i = firstToPop; i == lastPopped.getKey().intValue(); i++) {
-					consecutive.add(lastPopped.getValue());
-					elements.remove();
-					if (elements.hasNext())
-						lastPopped = elements.next();
-				}
-			} else if (smallestKey < firstToPop) {
-				//nextPushCursor overflowed while we still have keys from before
-				//overflow (nextPopCursor still hasn't overflowed), so the
-				//newer, negative, overflowed keys now come before older ones.
-				//do a less efficient iteration that preserves ordering of all
-				//non-overflowed and overflowed keys until all non-overflowed
-				//keys have been processed and removed.
-				ByteBuffer buf;
-				for (int i = firstToPop; (buf = queued.get(Integer.valueOf(i))) != null; i++) {
-					consecutive.add(buf);
-					queued.remove(Integer.valueOf(i));
-				}
-			}
-		}
+		int firstToPop = nextPopCursor.get();
+		ByteBuffer element;
+		for (int i = firstToPop; (element = take(i)) != null; i++)
+			consecutive.add(element);
 		return consecutive;
 	}
 }
@@ -40,7 +40,7 @@ import org.bouncycastle.crypto.params.KeyParameter;
  * OdinMS derived sources, with some extensive modifications.
  *
  * @author Frz, GoldenKevin
- * @version 3.0
+ * @version 3.1
  */
 public final class ClientEncryption {
 	private static final byte[] aesKey = {
@@ -50,12 +50,29 @@ public final class ClientEncryption {
 		(byte) 0x33, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x52, (byte) 0x00, (byte) 0x00, (byte) 0x00
 	};
 
-	private static final ThreadLocal<BlockCipher> aes256 = new ThreadLocal<BlockCipher>() {
-		@Override
-		public BlockCipher get() {
-			AESEngine cipher = new AESEngine();
+	//Maple's OFB restarts from the session IV every 1460 bytes (see
+	//aesOfbCrypt), so no packet ever needs more keystream than this
+	private static final int MAX_KEYSTREAM_LENGTH = 1472;
+
+	/**
+	 * Each thread keeps its own cipher, keyed once when the thread first
+	 * needs it, along with scratch space for the keystream that it generates.
+	 */
+	private static final class AesState {
+		private final BlockCipher cipher;
+		private final byte[] keystream;
+
+		private AesState() {
+			cipher = new AESEngine();
 			cipher.init(true, new KeyParameter(aesKey));
-			return cipher;
+			keystream = new byte[MAX_KEYSTREAM_LENGTH];
+		}
+	}
+
+	private static final ThreadLocal<AesState> aes256 = new ThreadLocal<AesState>() {
+		@Override
+		protected AesState initialValue() {
+			return new AesState();
 		}
 	};
 
@@ -95,30 +112,44 @@ public final class ClientEncryption {
 	};
 
 	public static void aesOfbCrypt(byte[] data, byte[] iv) {
+		aesOfbCrypt(data, 0, data.length, iv);
+	}
+
+	/**
+	 * Applies AES OFB to <code>length</code> bytes of <code>data</code>
+	 * starting at <code>start</code>, in place.
+	 *
+	 * @param data The buffer that holds the bytes to encrypt or decrypt.
+	 * @param start The index of the first byte to process.
+	 * @param length The amount of bytes to process.
+	 * @param iv The IV of the session that the bytes are sent or received on.
+	 */
+	public static void aesOfbCrypt(byte[] data, int start, int length, byte[] iv) {
+		if (length <= 0)
+			return;
 		//Maple's OFB is done in piecemeal every 1460 bytes (I'm guessing it has
 		//to deal with maximum segment size). First piece is only 1456 bytes
 		//because the header, although not encrypted, adds 4 blocks to the first
-		//segment.
-		BlockCipher ciph = aes256.get();
+		//segment. Every piece starts over from the same IV, so they all share
+		//one keystream that we only have to generate once.
+		AesState state = aes256.get();
+		byte[] keystream = state.keystream;
+		int keystreamLength = Math.min(1460, length);
+		//OFB's keystream is just the IV (repeated to fill a block) encrypted
+		//with the key, then each previous keystream block encrypted again
+		for (int i = 0; i < 16; i += 4)
+			System.arraycopy(iv, 0, keystream, i, 4);
+		state.cipher.processBlock(keystream, 0, keystream, 0);
+		for (int offset = 16; offset < keystreamLength; offset += 16)
+			state.cipher.processBlock(keystream, offset - 16, keystream, offset);
+
 		//loops through each 1460 byte piece (with first piece only 1456 bytes)
 		for (
-				int remaining = data.length, offset = 0, pieceSize = Math.min(1456, remaining);
+				int remaining = length, offset = start, pieceSize = Math.min(1456, remaining);
 				remaining > 0;
-				remaining -= pieceSize, offset += pieceSize, pieceSize = Math.min(1460, remaining)) {
-			byte[] myIv = ByteTool.multiplyBytes(iv, 4, 4);
-
-			//OFB (which is just input block XOR'd with encrypted IV and key) each full block (block size is equal to IV size)
-			int fullBlocks = pieceSize / myIv.length;
-			for (int i = 0; i < fullBlocks; i++) {
-				ciph.processBlock(myIv, 0, myIv, 0); //encrypt IV with key and copy output back to IV
-				for (int j = 0; j < myIv.length; j++)
-					data[offset + i * myIv.length + j] ^= myIv[j]; //XOR input block with encrypted IV and key
-			}
-			//OFB the final, incomplete block - OFB doesn't need block size aligned input
-			ciph.processBlock(myIv, 0, myIv, 0);
-			for (int i = pieceSize % myIv.length - 1; i >= 0; i--)
-				data[offset + fullBlocks * myIv.length + i] ^= myIv[i];
-		}
+				remaining -= pieceSize, offset += pieceSize, pieceSize = Math.min(1460, remaining))
+			for (int i = 0; i < pieceSize; i++)
+				data[offset + i] ^= keystream[i];
 	}
 
 	/**
@@ -129,15 +160,30 @@ public final class ClientEncryption {
 	 * @return The header.
 	 */
 	public static byte[] makePacketHeader(int length, byte[] iv) {
+		byte[] header = new byte[4];
+		writePacketHeader(header, 0, length, iv);
+		return header;
+	}
+
+	/**
+	 * Writes the header for a packet that is <code>length</code> long into
+	 * <code>dest</code>.
+	 *
+	 * @param dest The buffer to write the 4 byte header to.
+	 * @param start The index of <code>dest</code> to start writing at.
+	 * @param length How long the packet that this header is for is.
+	 * @param iv The IV that the packet will be encrypted with.
+	 */
+	public static void writePacketHeader(byte[] dest, int start, int length, byte[] iv) {
 		//note, this is only valid for server to client packet headers. for
 		//client to server, the MAPLE_VERSION must not be bitwise negated (~)
 		int v = (((iv[3] & 0xFF) << 8) | (iv[2] & 0xFF)) ^ ~GlobalConstants.MAPLE_VERSION; //version
 		int l = v ^ length; //length
 		//write v and l as two 16-bit little-endian integers
-		return new byte[] {
-			(byte) (v & 0xFF), (byte) ((v >>> 8) & 0xFF),
-			(byte) (l & 0xFF), (byte) ((l >>> 8) & 0xFF)
-		};
+		dest[start] = (byte) (v & 0xFF);
+		dest[start + 1] = (byte) ((v >>> 8) & 0xFF);
+		dest[start + 2] = (byte) (l & 0xFF);
+		dest[start + 3] = (byte) ((l >>> 8) & 0xFF);
 	}
 
 	/**
@@ -168,36 +214,51 @@ public final class ClientEncryption {
 
 	//The following routines are for MapleStory's custom encryption
 	public static byte[] nextIv(byte[] oldIv) {
-		byte[] newIv = { (byte) 0xF2, (byte) 0x53, (byte) 0x50, (byte) 0xC6 };
-		for (int x = 0; x < oldIv.length; x++) {
-			byte temp1 = newIv[1];
-			byte temp2 = oldIv[x];
-			byte temp3 = ivKeys[temp1 & 0xFF];
-			temp3 -= temp2;
-			newIv[0] += temp3;
-			temp3 = newIv[2];
-			temp3 ^= ivKeys[temp2 & 0xFF];
-			temp1 -= temp3;
-			newIv[1] = temp1;
-			temp1 = newIv[3];
-			temp3 = temp1;
-			temp1 -= newIv[0];
-			temp3 = ivKeys[temp3 & 0xFF];
-			temp3 += temp2;
-			temp3 ^= newIv[2];
-			newIv[2] = temp3;
-			temp1 += ivKeys[temp2 & 0xFF];
-			newIv[3] = temp1;
+		int n0 = 0xF2, n1 = 0x53, n2 = 0x50, n3 = 0xC6;
+		for (int x = 0; x < 4; x++) {
+			int in = oldIv[x] & 0xFF;
+			n0 = (n0 + ivKeys[n1] - in) & 0xFF;
+			n1 = (n1 - (n2 ^ ivKeys[in])) & 0xFF;
+			n2 = ((ivKeys[n3] + in) ^ n2) & 0xFF;
+			n3 = (n3 - n0 + ivKeys[in]) & 0xFF;
 
-			//essentially reverses the byte order of newIv, rotates all bits
-			//3 to the left, then reverses the byte order again
-			temp1 = (byte) ((newIv[3] & 0xFF) >>> 5); //the "carry"
-			newIv[3] = (byte) (newIv[3] << 3 | (newIv[2] & 0xFF) >>> 5);
-			newIv[2] = (byte) (newIv[2] << 3 | (newIv[1] & 0xFF) >>> 5);
-			newIv[1] = (byte) (newIv[1] << 3 | (newIv[0] & 0xFF) >>> 5);
-			newIv[0] = (byte) (newIv[0] << 3 | temp1);
+			//treat the IV as a little-endian int and rotate all its bits 3 to
+			//the left
+			int rotated = Integer.rotateLeft(n0 | n1 << 8 | n2 << 16 | n3 << 24, 3);
+			n0 = rotated & 0xFF;
+			n1 = (rotated >>> 8) & 0xFF;
+			n2 = (rotated >>> 16) & 0xFF;
+			n3 = rotated >>> 24;
+		}
+		return new byte[] { (byte) n0, (byte) n1, (byte) n2, (byte) n3 };
+	}
+
+	//every per-byte step of Maple's encryption that does not depend on the
+	//preceding bytes, collapsed into lookup tables. The variable rotations
+	//only depend on the low 3 bits of the running length, hence [8][256].
+	private static final byte[] ENC_ODD_PRE = new byte[256];
+	private static final byte[] ENC_ODD_POST = new byte[256];
+	private static final byte[][] ENC_EVEN_POST = new byte[8][256];
+	private static final byte[] DEC_ODD_PRE = new byte[256];
+	private static final byte[] DEC_ODD_POST = new byte[256];
+	private static final byte[][] DEC_EVEN_PRE = new byte[8][256];
+	private static final byte[] ROLL_LEFT_3 = new byte[256];
+	private static final byte[] ROLL_RIGHT_3 = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			byte b = (byte) i;
+			ROLL_LEFT_3[i] = ByteTool.rollLeft(b, 3);
+			ROLL_RIGHT_3[i] = ByteTool.rollRight(b, 3);
+			ENC_ODD_PRE[i] = ByteTool.rollLeft(b, 4);
+			ENC_ODD_POST[i] = ByteTool.rollRight((byte) (b ^ 0x13), 3);
+			DEC_ODD_PRE[i] = (byte) (ByteTool.rollLeft(b, 3) ^ 0x13);
+			DEC_ODD_POST[i] = ByteTool.rollRight(b, 4);
+			for (int j = 0; j < 8; j++) {
+				ENC_EVEN_POST[j][i] = (byte) (~ByteTool.rollRight(b, j) + 0x48);
+				DEC_EVEN_PRE[j][i] = ByteTool.rollLeft((byte) ~(b - 0x48), j);
+			}
 		}
-		return newIv;
 	}
 
 	/**
@@ -207,37 +268,37 @@ public final class ClientEncryption {
 	 * @return The encrypted data.
 	 */
 	public static byte[] mapleEncrypt(byte[] data) {
+		mapleEncrypt(data, 0, data.length);
+		return data;
+	}
+
+	/**
+	 * Encrypts <code>length</code> bytes of <code>data</code> starting at
+	 * <code>start</code> with Maple's encryption routines, in place.
+	 *
+	 * @param data The buffer that holds the data to encrypt.
+	 * @param start The index of the first byte to encrypt.
+	 * @param length The amount of bytes to encrypt.
+	 */
+	public static void mapleEncrypt(byte[] data, int start, int length) {
+		int end = start + length;
 		for (int j = 0; j < 6; j++) {
-			byte remember = 0;
-			byte dataLength = (byte) (data.length & 0xFF);
+			int remember = 0;
+			int dataLength = length;
 			if (j % 2 == 0) {
-				for (int i = 0; i < data.length; i++) {
-					byte cur = data[i];
-					cur = ByteTool.rollLeft(cur, 3);
-					cur += dataLength;
-					cur ^= remember;
-					remember = cur;
-					cur = ByteTool.rollRight(cur, dataLength & 0xFF);
-					cur = ((byte) (~cur & 0xFF));
-					cur += 0x48;
+				for (int i = start; i < end; i++) {
+					remember = ((ROLL_LEFT_3[data[i] & 0xFF] + dataLength) ^ remember) & 0xFF;
+					data[i] = ENC_EVEN_POST[dataLength & 7][remember];
 					dataLength--;
-					data[i] = cur;
 				}
 			} else {
-				for (int i = data.length - 1; i >= 0; i--) {
-					byte cur = data[i];
-					cur = ByteTool.rollLeft(cur, 4);
-					cur += dataLength;
-					cur ^= remember;
-					remember = cur;
-					cur ^= 0x13;
-					cur = ByteTool.rollRight(cur, 3);
+				for (int i = end - 1; i >= start; i--) {
+					remember = ((ENC_ODD_PRE[data[i] & 0xFF] + dataLength) ^ remember) & 0xFF;
+					data[i] = ENC_ODD_POST[remember];
 					dataLength--;
-					data[i] = cur;
 				}
 			}
 		}
-		return data;
 	}
 
 	/**
@@ -247,41 +308,39 @@ public final class ClientEncryption {
 	 * @return The decrypted data.
 	 */
 	public static byte[] mapleDecrypt(byte[] data) {
-		for (int j = 1; j <= 6; j++) {
-			byte remember = 0;
-			byte dataLength = (byte) (data.length & 0xFF);
-			byte nextRemember;
+		mapleDecrypt(data, 0, data.length);
+		return data;
+	}
 
+	/**
+	 * Decrypts <code>length</code> bytes of <code>data</code> starting at
+	 * <code>start</code> with Maple's encryption routines, in place.
+	 *
+	 * @param data The buffer that holds the data to decrypt.
+	 * @param start The index of the first byte to decrypt.
+	 * @param length The amount of bytes to decrypt.
+	 */
+	public static void mapleDecrypt(byte[] data, int start, int length) {
+		int end = start + length;
+		for (int j = 1; j <= 6; j++) {
+			int remember = 0;
+			int dataLength = length;
 			if (j % 2 == 0) {
-				for (int i = 0; i < data.length; i++) {
-					byte cur = data[i];
-					cur -= 0x48;
-					cur = ((byte) (~cur & 0xFF));
-					cur = ByteTool.rollLeft(cur, dataLength & 0xFF);
-					nextRemember = cur;
-					cur ^= remember;
-					remember = nextRemember;
-					cur -= dataLength;
-					cur = ByteTool.rollRight(cur, 3);
-					data[i] = cur;
+				for (int i = start; i < end; i++) {
+					int cur = DEC_EVEN_PRE[dataLength & 7][data[i] & 0xFF] & 0xFF;
+					data[i] = ROLL_RIGHT_3[((cur ^ remember) - dataLength) & 0xFF];
+					remember = cur;
 					dataLength--;
 				}
 			} else {
-				for (int i = data.length - 1; i >= 0; i--) {
-					byte cur = data[i];
-					cur = ByteTool.rollLeft(cur, 3);
-					cur ^= 0x13;
-					nextRemember = cur;
-					cur ^= remember;
-					remember = nextRemember;
-					cur -= dataLength;
-					cur = ByteTool.rollRight(cur, 4);
-					data[i] = cur;
+				for (int i = end - 1; i >= start; i--) {
+					int cur = DEC_ODD_PRE[data[i] & 0xFF] & 0xFF;
+					data[i] = DEC_ODD_POST[((cur ^ remember) - dataLength) & 0xFF];
+					remember = cur;
 					dataLength--;
 				}
 			}
 		}
-		return data;
 	}
 
 	private ClientEncryption() {
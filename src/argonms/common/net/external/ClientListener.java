@@ -18,6 +18,7 @@
 
 package argonms.common.net.external;
 
+import argonms.common.net.KeepAliveSweeper;
 import argonms.common.net.SessionCreator;
 import argonms.common.net.external.ClientSession.CloseListener;
 import argonms.common.util.input.LittleEndianByteArrayReader;
@@ -28,10 +29,14 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -41,7 +46,17 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Accepts connections from game clients on a single acceptor thread and
+ * spreads the accepted sessions across a pool of I/O reactors, each of which
+ * owns its own Selector and performs all reads and write-readiness flushes for
+ * its sessions. The number of reactors can be set with the System property
+ * "argonms.external.reactors" and defaults to the number of available
+ * processors.
  *
+ * Decoded packets are handed to the receiving session's lane, so packets
+ * from one client are always handled one at a time and in the order they
+ * were received, while different clients are handled in parallel on the
+ * shared worker pool.
  * @author GoldenKevin
  */
 public class ClientListener<T extends RemoteClient> implements SessionCreator {
@@ -50,14 +65,19 @@ public class ClientListener<T extends RemoteClient> implements SessionCreator {
 	}
 
 	private static final Logger LOG = Logger.getLogger(ClientListener.class.getName());
-	private final ExecutorService bossThreadPool, workerThreadPool;
+	private static final int REACTOR_COUNT = Math.max(1, Integer.getInteger("argonms.external.reactors", Runtime.getRuntime().availableProcessors()).intValue());
+
+	private final ExecutorService bossThreadPool, reactorThreadPool, workerThreadPool;
 	private final ClientPacketProcessor<T> pp;
 	private final ClientFactory<T> clientCtor;
 	private ServerSocketChannel listener;
+	private List<Reactor> reactors;
+	private final AtomicInteger nextReactor;
 	private final AtomicBoolean closeEventsTriggered;
 
 	public ClientListener(ClientPacketProcessor<T> packetProcessor, ClientFactory<T> clientFactory) {
 		closeEventsTriggered = new AtomicBoolean(false);
+		nextReactor = new AtomicInteger(0);
 		bossThreadPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
 			private final ThreadGroup group;
 
@@ -77,6 +97,26 @@ public class ClientListener<T extends RemoteClient> implements SessionCreator {
 				return t;
 			}
 		});
+		reactorThreadPool = Executors.newFixedThreadPool(REACTOR_COUNT, new ThreadFactory() {
+			private final ThreadGroup group;
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			{
+				SecurityManager s = System.getSecurityManager();
+				group = (s != null)? s.getThreadGroup() :
+									 Thread.currentThread().getThreadGroup();
+			}
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(group, r, "external-reactor-thread-" + threadNumber.getAndIncrement(), 0);
+				if (t.isDaemon())
+					t.setDaemon(false);
+				if (t.getPriority() != Thread.NORM_PRIORITY)
+					t.setPriority(Thread.NORM_PRIORITY);
+				return t;
+			}
+		});
 		workerThreadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2, new ThreadFactory() {
 			private final ThreadGroup group;
 			private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -104,17 +144,22 @@ public class ClientListener<T extends RemoteClient> implements SessionCreator {
 
 	public boolean bind(int port) {
 		try {
+			reactors = new ArrayList<Reactor>(REACTOR_COUNT);
+			for (int i = 0; i < REACTOR_COUNT; i++)
+				reactors.add(new Reactor());
+
 			listener = ServerSocketChannel.open();
 			listener.socket().bind(new InetSocketAddress(port));
-			LOG.log(Level.INFO, "Listening on port {0}", port);
+			LOG.log(Level.INFO, "Listening on port {0} with {1} I/O reactors", new Object[] { port, reactors.size() });
 			listener.configureBlocking(false);
+			for (Reactor reactor : reactors)
+				reactorThreadPool.submit(reactor);
 			bossThreadPool.submit(new Runnable() {
 				@Override
 				public void run() {
 					try {
 						Selector selector = Selector.open();
-						SelectionKey acceptorKey = listener.register(selector, SelectionKey.OP_ACCEPT);
-						final Map<SelectionKey, ClientSession<T>> connected = new ConcurrentHashMap<SelectionKey, ClientSession<T>>();
+						listener.register(selector, SelectionKey.OP_ACCEPT);
 						while (selector.isOpen()) {
 							selector.select();
 							Set<SelectionKey> keys = selector.selectedKeys();
@@ -123,74 +168,19 @@ public class ClientListener<T extends RemoteClient> implements SessionCreator {
 								SelectionKey key = keyIter.next();
 								keyIter.remove();
 
-								if (key == acceptorKey) {
-									if (key.isValid() && key.isAcceptable()) {
-										try {
-											SocketChannel client = listener.accept();
-											client.socket().setTcpNoDelay(true);
-											client.configureBlocking(false);
-											LOG.log(Level.FINE, "Client connected from {0}", client.socket().getRemoteSocketAddress());
-											final SelectionKey acceptedKey = client.register(selector, SelectionKey.OP_READ);
-											T clientState = clientCtor.newInstance();
-											ClientSession<T> session = new ClientSession<T>(client, acceptedKey, clientState, new CloseListener<T>() {
-												@Override
-												public void closed(ClientSession<T> session) {
-													connected.remove(acceptedKey);
-												}
-											});
-											clientState.setSession(session);
-											connected.put(acceptedKey, session);
-											session.sendInitPacket();
-										} catch (IOException ex) {
-											close(ex.getMessage(), ex);
-										}
-									}
-								} else {
-									SocketChannel client = (SocketChannel) key.channel();
-									final ClientSession<T> session = connected.get(key);
+								if (key.isValid() && key.isAcceptable()) {
 									try {
-										if (key.isValid() && key.isReadable()) {
-											try {
-												int read = client.read(session.readBuffer());
-												byte[][] ivAndMessage = session.readMessage(read);
-												if (ivAndMessage != null) {
-													//the header or the body was received successfully
-													if (ivAndMessage.length == 0) {
-														//header received, try a non-blocking read to see if we also got the message body
-														read = client.read(session.readBuffer());
-														ivAndMessage = session.readMessage(read);
-													}
-													if (ivAndMessage != null && ivAndMessage.length == 2) {
-														session.readEnqueued();
-														//decrypt the body and handle it on a worker thread
-														final byte[] iv = ivAndMessage[0];
-														final byte[] body = ivAndMessage[1];
-														workerThreadPool.submit(new Runnable() {
-															@Override
-															public void run() {
-																try {
-																	ClientEncryption.aesOfbCrypt(body, iv);
-																	ClientEncryption.mapleDecrypt(body);
-																	pp.process(new LittleEndianByteArrayReader(body), session.getClient());
-																} catch (Throwable ex) {
-																	LOG.log(Level.WARNING, "Uncaught exception while processing packet from client " + session.getAccountName() + " (" + session.getAddress() + ")", ex);
-																} finally {
-																	session.readDequeued();
-																}
-															}
-														});
-													}
-												}
-											} catch (IOException ex) {
-												//does an IOException in read always mean an invalid channel?
-												session.close(ex.getMessage());
-											}
-										}
-										if (key.isValid() && key.isWritable())
-											if (session.tryFlushSendQueue() == 1)
-												key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-									} catch (CancelledKeyException e) {
-										//don't worry about it - session is already closed
+										SocketChannel client = listener.accept();
+										if (client == null)
+											continue;
+										client.socket().setTcpNoDelay(true);
+										client.configureBlocking(false);
+										LOG.log(Level.FINE, "Client connected from {0}", client.socket().getRemoteSocketAddress());
+										//round robin is good enough - sessions are short-lived
+										//compared to the time it takes to even out
+										reactors.get((nextReactor.getAndIncrement() & Integer.MAX_VALUE) % reactors.size()).accepted(client);
+									} catch (IOException ex) {
+										close(ex.getMessage(), ex);
 									}
 								}
 							}
@@ -218,8 +208,130 @@ public class ClientListener<T extends RemoteClient> implements SessionCreator {
 				LOG.log(Level.FINE, "External facing selector ({0}) closed: {1}", new Object[] { listener.socket().getLocalSocketAddress(), reason });
 			else
 				LOG.log(Level.FINE, "External facing selector (" + listener.socket().getLocalSocketAddress() + ") closed: " + reason, reasonExc);
+			for (Reactor reactor : reactors)
+				reactor.keepAliveSweeper.stop();
 			bossThreadPool.shutdown();
+			reactorThreadPool.shutdown();
 			workerThreadPool.shutdown();
 		}
 	}
+
+	/**
+	 * An I/O event loop that owns a subset of the connected sessions. Only the
+	 * thread that runs a Reactor may register channels with its Selector or
+	 * read from the sessions it owns, so none of that state needs to be
+	 * synchronized. Channels that the acceptor thread hands off are queued and
+	 * registered by the reactor itself the next time it wakes up.
+	 */
+	private class Reactor implements Runnable {
+		private final Selector selector;
+		private final Map<SelectionKey, ClientSession<T>> connected;
+		private final Queue<SocketChannel> pendingRegistrations;
+		private final KeepAliveSweeper keepAliveSweeper;
+
+		public Reactor() throws IOException {
+			selector = Selector.open();
+			connected = new ConcurrentHashMap<SelectionKey, ClientSession<T>>();
+			pendingRegistrations = new ConcurrentLinkedQueue<SocketChannel>();
+			keepAliveSweeper = new KeepAliveSweeper();
+		}
+
+		public void accepted(SocketChannel client) {
+			pendingRegistrations.offer(client);
+			selector.wakeup();
+		}
+
+		private void registerPending() {
+			SocketChannel client;
+			while ((client = pendingRegistrations.poll()) != null) {
+				try {
+					final SelectionKey acceptedKey = client.register(selector, SelectionKey.OP_READ);
+					T clientState = clientCtor.newInstance();
+					ClientSession<T> session = new ClientSession<T>(client, acceptedKey, clientState, workerThreadPool, keepAliveSweeper, new CloseListener<T>() {
+						@Override
+						public void closed(ClientSession<T> session) {
+							connected.remove(acceptedKey);
+						}
+					});
+					clientState.setSession(session);
+					connected.put(acceptedKey, session);
+					session.sendInitPacket();
+				} catch (IOException ex) {
+					LOG.log(Level.FINE, "Could not register client from " + client.socket().getRemoteSocketAddress(), ex);
+					try {
+						client.close();
+					} catch (IOException e) {
+						//nothing we can do about it
+					}
+				}
+			}
+		}
+
+		private void processRead(SocketChannel client, final ClientSession<T> session) {
+			try {
+				int read = client.read(session.readBuffer());
+				byte[][] ivAndMessage = session.readMessage(read);
+				if (ivAndMessage != null) {
+					//the header or the body was received successfully
+					if (ivAndMessage.length == 0) {
+						//header received, try a non-blocking read to see if we also got the message body
+						read = client.read(session.readBuffer());
+						ivAndMessage = session.readMessage(read);
+					}
+					if (ivAndMessage != null && ivAndMessage.length == 2) {
+						//decrypt the body and handle it in the session's lane
+						final byte[] iv = ivAndMessage[0];
+						final byte[] body = ivAndMessage[1];
+						session.enqueueRead(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									ClientEncryption.aesOfbCrypt(body, iv);
+									ClientEncryption.mapleDecrypt(body);
+									pp.process(new LittleEndianByteArrayReader(body), session.getClient());
+								} catch (Throwable ex) {
+									LOG.log(Level.WARNING, "Uncaught exception while processing packet from client " + session.getAccountName() + " (" + session.getAddress() + ")", ex);
+								}
+							}
+						});
+					}
+				}
+			} catch (IOException ex) {
+				//does an IOException in read always mean an invalid channel?
+				session.close(ex.getMessage());
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (selector.isOpen()) {
+					selector.select();
+					registerPending();
+					Set<SelectionKey> keys = selector.selectedKeys();
+
+					for (Iterator<SelectionKey> keyIter = keys.iterator(); keyIter.hasNext(); ) {
+						SelectionKey key = keyIter.next();
+						keyIter.remove();
+
+						SocketChannel client = (SocketChannel) key.channel();
+						ClientSession<T> session = connected.get(key);
+						if (session == null)
+							continue;
+						try {
+							if (key.isValid() && key.isReadable())
+								processRead(client, session);
+							if (key.isValid() && key.isWritable())
+								if (session.tryFlushSendQueue() == 1)
+									key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+						} catch (CancelledKeyException e) {
+							//don't worry about it - session is already closed
+						}
+					}
+				}
+			} catch (IOException ex) {
+				close(ex.getMessage(), ex);
+			}
+		}
+	}
 }
@@ -19,10 +19,12 @@
 package argonms.common.net.external;
 
 import argonms.common.GlobalConstants;
+import argonms.common.net.BufferPool;
+import argonms.common.net.KeepAlive;
+import argonms.common.net.KeepAliveSweeper;
 import argonms.common.net.OrderedQueue;
 import argonms.common.net.Session;
 import argonms.common.util.Rng;
-import argonms.common.util.Scheduler;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
 import java.io.IOException;
 import java.net.SocketAddress;
@@ -31,12 +33,13 @@ import java.nio.ByteOrder;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -61,28 +64,40 @@ public class ClientSession<T extends RemoteClient> implements Session {
 	//1kb as the initial buffer size for each client isn't too unreasonable...
 	private static final int DEFAULT_BUFFER_SIZE = 1024;
 	private static final byte[][] EMPTY_ARRAY = new byte[0][];
+	//each thread encrypts outgoing messages here before copying them to a
+	//pooled buffer, so sending doesn't allocate any temporary arrays
+	private static final ThreadLocal<byte[]> sendScratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[DEFAULT_BUFFER_SIZE];
+		}
+	};
 	private static final int IDLE_TIME = 15000; //in milliseconds
 	private static final int TIMEOUT = 15000; //in milliseconds
+	//how many packets a lane may process before it yields its carrier thread
+	//to the lanes of other sessions
+	private static final int MAX_READS_PER_DRAIN = 16;
+	//upper bound on how many queued messages are handed to one gathering write
+	private static final int MAX_BUFFERS_PER_WRITE = 64;
 
 	private final SocketChannel commChn;
 	private final AtomicBoolean closeEventsTriggered;
 	private ByteBuffer readBuffer;
 	private final CloseListener<T> onClose;
 	private T client;
+	private final Executor readExecutor;
+	private final Queue<Runnable> readLane;
 	private final AtomicInteger queuedReads;
+	private final Runnable readLaneDrainer;
 	private volatile Runnable emptyReadQueueHandler;
 
 	private final SelectionKey selectionKey;
 	private final OrderedQueue sendQueue;
+	//only touched by whoever holds sendQueue's right to write
+	private final ByteBuffer[] flushBuffers;
 
-	private KeepAliveTask heartbeatTask;
-	private final Runnable idleTask = new Runnable() {
-		@Override
-		public void run() {
-			startPingTask();
-		}
-	};
-	private ScheduledFuture<?> idleTaskFuture;
+	private final KeepAlive keepAlive;
+	private final KeepAliveSweeper keepAliveSweeper;
 
 	private MessageType nextMessageType;
 
@@ -93,11 +108,16 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		public void closed(ClientSession<T> session);
 	}
 
-	/* package-private */ ClientSession(SocketChannel channel, SelectionKey key, T client, CloseListener<T> onClose) {
+	/* package-private */ ClientSession(SocketChannel channel, SelectionKey key, T client, Executor readExecutor, KeepAliveSweeper keepAliveSweeper, CloseListener<T> onClose) {
 		closeEventsTriggered = new AtomicBoolean(false);
 		sendQueue = new OrderedQueue();
-		heartbeatTask = new KeepAliveTask();
+		flushBuffers = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+		keepAlive = new KeepAlive(this, pingMessage(), IDLE_TIME, TIMEOUT);
+		this.keepAliveSweeper = keepAliveSweeper;
+		this.readExecutor = readExecutor;
+		readLane = new ConcurrentLinkedQueue<Runnable>();
 		queuedReads = new AtomicInteger(0);
+		readLaneDrainer = new ReadLaneDrainer();
 
 		//we don't need to lock for receiving - see readMessage()
 		sendIvLock = new ReentrantLock();
@@ -142,8 +162,58 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		}
 	}
 
+	private static byte[] scratchBuffer(int length) {
+		byte[] scratch = sendScratch.get();
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+			sendScratch.set(scratch);
+		}
+		return scratch;
+	}
+
 	@Override
 	public void send(byte[] message) {
+		byte[] scratch = scratchBuffer(HEADER_LENGTH + message.length);
+		System.arraycopy(message, 0, scratch, HEADER_LENGTH, message.length);
+		ClientEncryption.mapleEncrypt(scratch, HEADER_LENGTH, message.length);
+		encryptAndSend(scratch, message.length);
+	}
+
+	/**
+	 * Applies the part of the client encryption that does not depend on a
+	 * session's IV, so that a message that is sent to many clients only has
+	 * to go through it once.
+	 * @param message the unencrypted message. It will not be modified.
+	 * @return a new array that may be passed to sendPrepared() of any number
+	 * of ClientSessions.
+	 */
+	public static byte[] prepareBroadcast(byte[] message) {
+		byte[] input = new byte[message.length];
+		System.arraycopy(message, 0, input, 0, message.length);
+		return ClientEncryption.mapleEncrypt(input);
+	}
+
+	/**
+	 * Send a message that has already been passed through
+	 * prepareBroadcast(). Only the IV dependent AES pass and the header are
+	 * applied here.
+	 * @param prepared the value returned by prepareBroadcast(). It will not be
+	 * modified.
+	 */
+	public void sendPrepared(byte[] prepared) {
+		byte[] scratch = scratchBuffer(HEADER_LENGTH + prepared.length);
+		System.arraycopy(prepared, 0, scratch, HEADER_LENGTH, prepared.length);
+		encryptAndSend(scratch, prepared.length);
+	}
+
+	/**
+	 * @param scratch a buffer with HEADER_LENGTH bytes of space for the header
+	 * followed by a body that has already had mapleEncrypt applied to it. It
+	 * is copied to a pooled direct buffer before this method returns, so it
+	 * may be reused right after.
+	 * @param bodyLength the length of the body that follows the header space
+	 */
+	private void encryptAndSend(byte[] scratch, int bodyLength) {
 		//we will have to synchronize here because send can be called from any
 		//thread. we have to ensure that this message is sent before any shorter
 		//messages that use a newer IV are sent, so use an OrderedQueue.
@@ -157,26 +227,52 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		} finally {
 			sendIvLock.unlock();
 		}
-		byte[] input = new byte[message.length];
-		System.arraycopy(message, 0, input, 0, message.length);
-		byte[] header = ClientEncryption.makePacketHeader(input.length, iv);
-		byte[] output = new byte[header.length + input.length];
-		ClientEncryption.mapleEncrypt(input);
-		ClientEncryption.aesOfbCrypt(input, iv);
-		System.arraycopy(header, 0, output, 0, header.length);
-		System.arraycopy(input, 0, output, header.length, input.length);
-		send(queueInsertNo, ByteBuffer.wrap(output));
+		ClientEncryption.writePacketHeader(scratch, 0, bodyLength, iv);
+		ClientEncryption.aesOfbCrypt(scratch, HEADER_LENGTH, bodyLength, iv);
+		ByteBuffer buf = BufferPool.acquire(HEADER_LENGTH + bodyLength);
+		buf.put(scratch, 0, HEADER_LENGTH + bodyLength);
+		buf.flip();
+		send(queueInsertNo, buf);
 	}
 
-	public void readEnqueued() {
-		queuedReads.incrementAndGet();
+	/**
+	 * Queue a received packet to be handled on this session's lane. Packets
+	 * from the same session are handled one at a time in the order they were
+	 * enqueued, while the lanes of different sessions are multiplexed onto
+	 * the shared worker pool and run in parallel.
+	 * @param handler the Runnable that decrypts and processes the packet
+	 */
+	/* package-private */ void enqueueRead(Runnable handler) {
+		readLane.offer(handler);
+		//only schedule the lane when it goes from idle to busy. the drainer
+		//keeps itself alive until it empties the lane
+		if (queuedReads.getAndIncrement() == 0)
+			readExecutor.execute(readLaneDrainer);
 	}
 
-	public void readDequeued() {
-		if (queuedReads.decrementAndGet() == 0 && emptyReadQueueHandler != null)
-			emptyReadQueueHandler.run();
+	/**
+	 * Run a task on this session's lane after every packet that has been
+	 * received so far, e.g. to hand the result of work that was offloaded to
+	 * another executor back to the thread that handles this session's packets.
+	 * @param task the Runnable to run
+	 */
+	public void runInLane(final Runnable task) {
+		enqueueRead(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (Throwable ex) {
+					LOG.log(Level.WARNING, "Uncaught exception while running task for client " + getAccountName() + " (" + getAddress() + ")", ex);
+				}
+			}
+		});
 	}
 
+	/**
+	 * @return the amount of packets that have been received from this
+	 * session but are still waiting on or are being handled in its lane.
+	 */
 	public int getQueuedReads() {
 		return queuedReads.get();
 	}
@@ -186,16 +282,7 @@ public class ClientSession<T extends RemoteClient> implements Session {
 	}
 
 	public void receivedPong() {
-		heartbeatTask.receivedPong();
-	}
-
-	private void startPingTask() {
-		heartbeatTask.waitForPong();
-		heartbeatTask.sendPing();
-	}
-
-	private void stopPingTask() {
-		heartbeatTask.stop();
+		keepAlive.receivedPong();
 	}
 
 	@Override
@@ -206,11 +293,7 @@ public class ClientSession<T extends RemoteClient> implements Session {
 			} catch (IOException ex) {
 				LOG.log(Level.WARNING, "Error while closing client " + getAccountName() + " (" + getAddress() + ")", ex);
 			}
-			stopPingTask();
-			//this check is thread safe - idleTaskFuture can never be null again after it has been assigned a non-null value
-			if (idleTaskFuture != null)
-				//client closed before we could send init packet
-				idleTaskFuture.cancel(false);
+			keepAliveSweeper.remove(keepAlive);
 
 			LOG.log(Level.FINE, "Client {0} ({1}) disconnected: {2}", new Object[] { getAccountName(), getAddress(), reason });
 			client.disconnected();
@@ -233,19 +316,20 @@ public class ClientSession<T extends RemoteClient> implements Session {
 			do {
 				int success = 0;
 				try {
-					Iterator<ByteBuffer> iter = sendQueue.pop().iterator();
-					while (iter.hasNext()) {
-						ByteBuffer buf = iter.next();
-						if (buf.remaining() == commChn.write(buf)) {
-							success++;
-						} else {
-							int i = sendQueue.currentPopBlock() + success;
-							sendQueue.insert(i++, buf);
-							while (iter.hasNext())
-								sendQueue.insert(i++, iter.next());
-							return 0;
-						}
+					//hand every consecutive queued message to the kernel in a
+					//single gathering write
+					int popped = sendQueue.pop(flushBuffers);
+					commChn.write(flushBuffers, 0, popped);
+					while (success < popped && !flushBuffers[success].hasRemaining())
+						BufferPool.release(flushBuffers[success++]);
+					if (success != popped) {
+						int i = sendQueue.currentPopBlock() + success;
+						for (int j = success; j < popped; j++)
+							sendQueue.insert(i++, flushBuffers[j]);
+						Arrays.fill(flushBuffers, 0, popped, null);
+						return 0;
 					}
+					Arrays.fill(flushBuffers, 0, popped, null);
 				} finally {
 					sendQueue.incrementPopCursor(success);
 				}
@@ -261,8 +345,8 @@ public class ClientSession<T extends RemoteClient> implements Session {
 	}
 
 	/**
-	 * This may only be called from the ClientListener boss thread, in the
-	 * Selector loop.
+	 * This may only be called from the ClientListener reactor thread that owns
+	 * this session, in the Selector loop.
 	 */
 	/* package-private */ void sendInitPacket() {
 		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(13);
@@ -283,20 +367,20 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		readBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
 		readBuffer.limit(HEADER_LENGTH);
 		nextMessageType = MessageType.HEADER;
-		idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
+		keepAliveSweeper.add(keepAlive);
 	}
 
 	/**
-	 * This may only be called from the ClientListener boss thread, in the
-	 * Selector loop.
+	 * This may only be called from the ClientListener reactor thread that owns
+	 * this session, in the Selector loop.
 	 */
 	/* package-private */ ByteBuffer readBuffer() {
 		return readBuffer;
 	}
 
 	/**
-	 * This may only be called from the ClientListener boss thread, in the
-	 * Selector loop.
+	 * This may only be called from the ClientListener reactor thread that owns
+	 * this session, in the Selector loop.
 	 * @param readBytes
 	 * @return null if nothing was processed, an array of length 0 if the header
 	 * was fully read, or an array of length 2 consisting of this session's
@@ -304,7 +388,7 @@ public class ClientSession<T extends RemoteClient> implements Session {
 	 * message body at index 1 if the message body was fully read.
 	 */
 	/* package-private */ byte[][] readMessage(int readBytes) {
-		idleTaskFuture.cancel(false);
+		keepAlive.touch();
 		if (readBytes == -1) {
 			//connection closed
 			close("EOF received");
@@ -312,7 +396,6 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		}
 		if (readBuffer.remaining() != 0) { //buffer is still not full
 			//we limited buffer to the expected length of the next packet - continue reading
-			idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 			return null;
 		}
 		switch (nextMessageType) {
@@ -331,7 +414,6 @@ public class ClientSession<T extends RemoteClient> implements Session {
 					readBuffer = ByteBuffer.allocate(length);
 				readBuffer.limit(length);
 				nextMessageType = MessageType.BODY;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return EMPTY_ARRAY;
 			}
 			case BODY: {
@@ -340,14 +422,13 @@ public class ClientSession<T extends RemoteClient> implements Session {
 				readBuffer.get(message);
 				//since recvIv can only be touched here (excluding the one-time
 				//initialization and sending to client), and this method can
-				//only be called from the boss thread of ClientListener in the
-				//Selector loop, we don't need recvIv access to be thread-safe.
+				//only be called from the reactor thread of ClientListener that
+				//owns this session, we don't need recvIv access to be thread-safe.
 				byte[] iv = recvIv;
 				recvIv = ClientEncryption.nextIv(iv);
 				readBuffer.clear();
 				readBuffer.limit(HEADER_LENGTH);
 				nextMessageType = MessageType.HEADER;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return new byte[][] { iv, message };
 			}
 			default:
@@ -361,34 +442,21 @@ public class ClientSession<T extends RemoteClient> implements Session {
 		return lew.getBytes();
 	}
 
-	private class KeepAliveTask implements Runnable {
-		private final AtomicReference<ScheduledFuture<?>> future;
-
-		public KeepAliveTask() {
-			future = new AtomicReference<ScheduledFuture<?>>(null);
-		}
-
-		public void sendPing() {
-			send(pingMessage());
-		}
-
-		public void waitForPong() {
-			future.set(Scheduler.getWheelTimer().runAfterDelay(this, TIMEOUT));
-		}
-
+	private class ReadLaneDrainer implements Runnable {
 		@Override
 		public void run() {
-			close("Timed out after " + TIMEOUT + " milliseconds");
-		}
-
-		public void receivedPong() {
-			stop();
-		}
-
-		public void stop() {
-			ScheduledFuture<?> old = future.getAndSet(null);
-			if (old != null)
-				old.cancel(false);
+			for (int i = 0; i < MAX_READS_PER_DRAIN; i++) {
+				//queuedReads is only incremented after the packet is offered,
+				//so there is always something to poll while it is positive
+				readLane.poll().run();
+				if (queuedReads.decrementAndGet() == 0) {
+					if (emptyReadQueueHandler != null)
+						emptyReadQueueHandler.run();
+					return;
+				}
+			}
+			//lane is still busy - give other sessions a turn
+			readExecutor.execute(this);
 		}
 	}
 }
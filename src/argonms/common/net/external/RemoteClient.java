@@ -104,16 +104,20 @@ public abstract class RemoteClient implements SessionDataModel {
 	}
 
 	public void updateState(byte currentState) {
+		updateState(id, currentState);
+	}
+
+	protected static void updateState(int accountId, byte currentState) {
 		Connection con = null;
 		PreparedStatement ps = null;
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
 			ps = con.prepareStatement("UPDATE `accounts` SET `connected` = ? WHERE `id` = ?");
 			ps.setByte(1, currentState);
-			ps.setInt(2, id);
+			ps.setInt(2, accountId);
 			ps.executeUpdate();
 		} catch (SQLException ex) {
-			LOG.log(Level.WARNING, "Could not change connected status of account " + id, ex);
+			LOG.log(Level.WARNING, "Could not change connected status of account " + accountId, ex);
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, con);
 		}
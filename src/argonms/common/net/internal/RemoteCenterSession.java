@@ -18,9 +18,10 @@
 
 package argonms.common.net.internal;
 
+import argonms.common.net.KeepAlive;
+import argonms.common.net.KeepAliveSweeper;
 import argonms.common.net.Session;
 import argonms.common.net.SessionCreator;
-import argonms.common.util.Scheduler;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -30,11 +31,9 @@ import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,14 +55,8 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 	private ByteBuffer readBuffer;
 	private final T server;
 
-	private KeepAliveTask heartbeatTask;
-	private final Runnable idleTask = new Runnable() {
-		@Override
-		public void run() {
-			startPingTask();
-		}
-	};
-	private ScheduledFuture<?> idleTaskFuture;
+	private final KeepAlive keepAlive;
+	private final KeepAliveSweeper keepAliveSweeper;
 
 	private MessageType nextMessageType;
 
@@ -72,7 +65,10 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 
 	private RemoteCenterSession(SocketChannel channel, T server, String password, ExecutorService workerThreadPool) {
 		closeEventsTriggered = new AtomicBoolean(false);
-		heartbeatTask = new KeepAliveTask();
+		keepAlive = new KeepAlive(this, pingMessage(), IDLE_TIME, TIMEOUT);
+		//we only ever have the one connection to the center server, so it
+		//gets a sweeper to itself
+		keepAliveSweeper = new KeepAliveSweeper();
 
 		this.commChn = channel;
 		this.server = server;
@@ -124,16 +120,7 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 	}
 
 	public void receivedPong() {
-		heartbeatTask.receivedPong();
-	}
-
-	private void startPingTask() {
-		heartbeatTask.waitForPong();
-		heartbeatTask.sendPing();
-	}
-
-	private void stopPingTask() {
-		heartbeatTask.stop();
+		keepAlive.receivedPong();
 	}
 
 	@Override
@@ -144,11 +131,7 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 			} catch (IOException ex) {
 				LOG.log(Level.WARNING, "Error while closing center server ( " + getAddress() + ")", ex);
 			}
-			stopPingTask();
-			//this check is thread safe - idleTaskFuture can never be null again after it has been assigned a non-null value
-			if (idleTaskFuture != null)
-				//client closed before we could send init packet
-				idleTaskFuture.cancel(false);
+			keepAliveSweeper.stop();
 
 			LOG.log(Level.FINE, "Disconnected from center server ({0}): {1}", new Object[] { getAddress(), reason });
 			server.disconnected();
@@ -170,7 +153,7 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 		readBuffer.limit(HEADER_LENGTH);
 		nextMessageType = MessageType.HEADER;
 
-		idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
+		keepAliveSweeper.add(keepAlive);
 	}
 
 	/**
@@ -186,7 +169,7 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 	 * the read loop.
 	 */
 	private byte[] readMessage(int readBytes) {
-		idleTaskFuture.cancel(false);
+		keepAlive.touch();
 		if (readBytes == -1) {
 			//connection closed
 			close("EOF received");
@@ -194,7 +177,6 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 		}
 		if (readBuffer.remaining() != 0) { //buffer is still not full
 			//we limited buffer to the expected length of the next packet - continue reading
-			idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 			return null;
 		}
 		switch (nextMessageType) {
@@ -209,7 +191,6 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 				}
 				readBuffer.limit(length);
 				nextMessageType = MessageType.BODY;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return EMPTY_ARRAY;
 			}
 			case BODY: {
@@ -219,7 +200,6 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 				readBuffer.clear();
 				readBuffer.limit(HEADER_LENGTH);
 				nextMessageType = MessageType.HEADER;
-				idleTaskFuture = Scheduler.getWheelTimer().runAfterDelay(idleTask, IDLE_TIME);
 				return message;
 			}
 			default:
@@ -233,37 +213,6 @@ public class RemoteCenterSession<T extends RemoteCenterInterface> implements Ses
 		return lew.getBytes();
 	}
 
-	private class KeepAliveTask implements Runnable {
-		private final AtomicReference<ScheduledFuture<?>> future;
-
-		public KeepAliveTask() {
-			future = new AtomicReference<ScheduledFuture<?>>(null);
-		}
-
-		public void sendPing() {
-			send(pingMessage());
-		}
-
-		public void waitForPong() {
-			future.set(Scheduler.getWheelTimer().runAfterDelay(this, TIMEOUT));
-		}
-
-		@Override
-		public void run() {
-			close("Timed out after " + TIMEOUT + " milliseconds");
-		}
-
-		public void receivedPong() {
-			stop();
-		}
-
-		public void stop() {
-			ScheduledFuture<?> old = future.getAndSet(null);
-			if (old != null)
-				old.cancel(false);
-		}
-	}
-
 	/**
 	 * This method will block until we lose connection with the center server,
 	 * so be careful where you place it!
@@ -24,15 +24,22 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.configuration2.PropertiesConfiguration;
@@ -42,43 +49,49 @@ import org.apache.commons.configuration2.PropertiesConfiguration;
 /**
  * Provides a central location to store database connections used for pooling,
  * and common operations when accessing the database (such as the finalizing of
- * PreparedStatements, ResultSets). Depending on the value of the "nio" argument
- * passed to setProps, this class may either use a ThreadLocal model or a
- * CachedConnectionPool model.
+ * PreparedStatements, ResultSets).
+ *
+ * Each database is backed by a BoundedConnectionPool that never opens more
+ * than a configured amount of connections, no matter how many worker,
+ * scheduler, script, and persistence threads there are or how many channels
+ * are hosted by this process. A thread that already holds a connection gets
+ * the same connection back if it asks for one again, just like it would have
+ * under the old ThreadLocal model, so nested calls still share a transaction
+ * and can never deadlock against the bound.
  *
  * Improved from OdinMS' DatabaseConnection class by adding a check for stale
- * connections before returning it to the caller of getConnection().
+ * connections before returning it to the caller of getConnection(). The check
+ * is now only performed on connections that have sat idle for a while, and
+ * the rest are validated by a background thread.
  *
  * Support for connections to MCDB or other kinds of databases that store WZ
  * data have also been integrated into this class.
  *
  * @author GoldenKevin
- * @version 2.0
+ * @version 3.0
  */
 public final class DatabaseManager {
 	public enum DatabaseType { STATE, WZ }
 
 	private final static Logger LOG = Logger.getLogger(DatabaseManager.class.getName());
 
-	private static final Map<DatabaseType, ConnectionPool> connections;
+	private static final int VALIDATION_TIMEOUT = 2; //in seconds
+
+	private static final Map<DatabaseType, BoundedConnectionPool> connections;
+	private static ScheduledExecutorService maintenance;
 	private static String driver;
 
 	static {
-		connections = new EnumMap<DatabaseType, ConnectionPool>(DatabaseType.class);
-	}
-
-	private static String getNonFullyQualifiedClassName(String fullyQualified) {
-		return fullyQualified.substring(Math.max(fullyQualified.indexOf('.'), fullyQualified.indexOf('$')) + 1);
+		connections = new EnumMap<DatabaseType, BoundedConnectionPool>(DatabaseType.class);
 	}
 
 	public static Connection getConnection(DatabaseType type) throws SQLException {
-		ConnectionPool pool = connections.get(type);
-		try {
-			return pool.getConnection();
-		} finally {
-			LOG.log(Level.FINEST, "Database pool: {0}, Taken connections: {1}, All connections: {2}, Impl: {3}, Caller: {4}",
-					new Object[] { type, pool.connectionsInUse(), pool.totalConnections(), getNonFullyQualifiedClassName(pool.getClass().getName()), Thread.currentThread().getStackTrace()[2] });
-		}
+		BoundedConnectionPool pool = connections.get(type);
+		Connection con = pool.getConnection();
+		if (LOG.isLoggable(Level.FINEST))
+			LOG.log(Level.FINEST, "Database pool: {0}, Taken connections: {1}, All connections: {2}, Caller: {3}",
+					new Object[] { type, pool.connectionsInUse(), pool.totalConnections(), Thread.currentThread().getStackTrace()[2] });
+		return con;
 	}
 
 	public static void cleanup(DatabaseType type, ResultSet rs, PreparedStatement ps, Connection con) {
@@ -99,7 +112,16 @@ public final class DatabaseManager {
 		}
 	}
 
-	public static void setProps(PropertiesConfiguration props, boolean useMcdb, boolean nio) throws SQLException {
+	private static BoundedConnectionPool createPool(DatabaseType type, String url, String user, String password, PropertiesConfiguration props) {
+		return new BoundedConnectionPool(type, url, user, password,
+				props.getInt("maxconnections", 16),
+				props.getLong("borrowtimeout", 5000),
+				props.getLong("validationinterval", 30000),
+				props.getLong("leakthreshold", 60000),
+				props.getBoolean("trackcallers", false));
+	}
+
+	public static void setProps(PropertiesConfiguration props, boolean useMcdb) throws SQLException {
 		driver = props.getString("driver");
 		try {
 			Class.forName(driver); //load the jdbc driver
@@ -109,16 +131,45 @@ public final class DatabaseManager {
 		String url = props.getString("url");
 		String user = props.getString("user");
 		String password = props.getString("password");
-		connections.put(DatabaseType.STATE, nio ? new ThreadLocalConnections(url, user, password) : new CachedConnectionPool(url, user, password));
+		connections.put(DatabaseType.STATE, createPool(DatabaseType.STATE, url, user, password, props));
 		if (useMcdb) {
 			String wz = props.getString("mcdb");
-			connections.put(DatabaseType.WZ, nio ? new ThreadLocalConnections(wz, user, password) : new CachedConnectionPool(wz, user, password));
+			connections.put(DatabaseType.WZ, createPool(DatabaseType.WZ, wz, user, password, props));
 		}
+
+		long interval = props.getLong("validationinterval", 30000);
+		maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "database-maintenance-thread");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (BoundedConnectionPool pool : connections.values()) {
+					try {
+						pool.maintain();
+					} catch (Throwable ex) {
+						LOG.log(Level.WARNING, "Uncaught exception while maintaining " + pool.type + " database pool", ex);
+					}
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public static PoolStatistics getStatistics(DatabaseType type) {
+		BoundedConnectionPool pool = connections.get(type);
+		return pool == null ? null : pool.getStatistics();
 	}
 
 	public static Map<DatabaseType, Map<Connection, SQLException>> closeAll() {
+		if (maintenance != null)
+			maintenance.shutdownNow();
 		Map<DatabaseType, Map<Connection, SQLException>> exceptions = new EnumMap<DatabaseType, Map<Connection, SQLException>>(DatabaseType.class);
-		for (Entry<DatabaseType, ConnectionPool> pool : connections.entrySet()) {
+		for (Entry<DatabaseType, BoundedConnectionPool> pool : connections.entrySet()) {
 			DatabaseType poolType = pool.getKey();
 			LockableList<Connection> allConnections = pool.getValue().allConnections();
 			allConnections.lockWrite();
@@ -144,142 +195,378 @@ public final class DatabaseManager {
 		return exceptions;
 	}
 
-	private static interface ConnectionPool {
-		public Connection getConnection() throws SQLException;
-		public void returnConnection(Connection con);
-		public LockableList<Connection> allConnections();
-		public int connectionsInUse();
-		public int totalConnections();
+	/**
+	 * How long connections were held by one caller, where a caller is either
+	 * the method that borrowed the connection (if caller tracking is enabled)
+	 * or the kind of thread that borrowed it.
+	 */
+	public static class HoldTimes {
+		private final AtomicLong borrows, totalNanos, maxNanos;
+
+		private HoldTimes() {
+			borrows = new AtomicLong();
+			totalNanos = new AtomicLong();
+			maxNanos = new AtomicLong();
+		}
+
+		private void record(long nanos) {
+			borrows.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos));
+		}
+
+		public long getBorrows() {
+			return borrows.get();
+		}
+
+		public long getTotalMillis() {
+			return totalNanos.get() / 1000000;
+		}
+
+		public long getMaxMillis() {
+			return maxNanos.get() / 1000000;
+		}
 	}
 
-	private static class ThreadLocalConnections extends ThreadLocal<Connection> implements ConnectionPool {
-		private final LockableList<Connection> allConnections;
-		private final AtomicInteger taken;
-		private final ThreadLocal<SQLException> exceptions;
-		private final String url, user, password;
+	public static class PoolStatistics {
+		private final int maxConnections, inUse, idle;
+		private final long borrows, totalWaitNanos, maxWaitNanos, timeouts, opened, discarded, leaks;
+		private final Map<String, HoldTimes> holdTimes;
 
-		protected ThreadLocalConnections(String url, String user, String password) {
-			allConnections = new LockableList<Connection>(new LinkedList<Connection>());
-			taken = new AtomicInteger(0);
-			exceptions = new ThreadLocal<SQLException>();
-			this.url = url;
-			this.user = user;
-			this.password = password;
+		private PoolStatistics(int maxConnections, int inUse, int idle,
+				long borrows, long totalWaitNanos, long maxWaitNanos, long timeouts,
+				long opened, long discarded, long leaks, Map<String, HoldTimes> holdTimes) {
+			this.maxConnections = maxConnections;
+			this.inUse = inUse;
+			this.idle = idle;
+			this.borrows = borrows;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.timeouts = timeouts;
+			this.opened = opened;
+			this.discarded = discarded;
+			this.leaks = leaks;
+			this.holdTimes = holdTimes;
 		}
 
-		@Override
-		protected Connection initialValue() {
-			try {
-				Connection con = DriverManager.getConnection(url, user, password);
-				allConnections.addWhenSafe(con);
-				return con;
-			} catch (SQLException e) {
-				exceptions.set(/*new SQLException("Could not connect to database.", */e/*)*/);
-				return null;
-			}
+		public int getMaxConnections() {
+			return maxConnections;
 		}
 
-		private Connection tryGetConnection() throws SQLException {
-			Connection con = get();
-			if (con == null) {
-				remove();
-				SQLException ex = exceptions.get();
-				exceptions.remove();
-				throw ex;
-			}
-			return con;
+		public int getConnectionsInUse() {
+			return inUse;
 		}
 
-		@Override
-		public Connection getConnection() throws SQLException {
-			Connection con = tryGetConnection();
-			if (!con.isValid(0)) {
-				try {
-					con.close();
-					allConnections.removeWhenSafe(con);
-				} catch (SQLException e) {
-					throw new SQLException("Could not remove invalid connection to database.", e);
-				}
-				remove();
-				con = tryGetConnection();
-			}
-			taken.incrementAndGet();
-			return con;
+		public int getIdleConnections() {
+			return idle;
 		}
 
-		@Override
-		public void returnConnection(Connection con) {
-			taken.decrementAndGet();
+		public long getBorrows() {
+			return borrows;
 		}
 
-		@Override
-		public LockableList<Connection> allConnections() {
-			return allConnections;
+		public long getAverageWaitMicros() {
+			return borrows == 0 ? 0 : totalWaitNanos / borrows / 1000;
 		}
 
-		@Override
-		public int connectionsInUse() {
-			return taken.get();
+		public long getMaxWaitMillis() {
+			return maxWaitNanos / 1000000;
 		}
 
-		@Override
-		public int totalConnections() {
-			return allConnections.size();
+		public long getTimeouts() {
+			return timeouts;
+		}
+
+		public long getOpened() {
+			return opened;
+		}
+
+		public long getDiscarded() {
+			return discarded;
+		}
+
+		public long getLeaks() {
+			return leaks;
+		}
+
+		public Map<String, HoldTimes> getHoldTimes() {
+			return holdTimes;
+		}
+	}
+
+	private static class PooledConnection {
+		private final Connection con;
+		private volatile long lastValidated;
+
+		public PooledConnection(Connection con, long now) {
+			this.con = con;
+			this.lastValidated = now;
+		}
+	}
+
+	private static class Lease {
+		private final PooledConnection pooled;
+		private final Thread owner;
+		private final String caller;
+		private final Throwable site;
+		private final long borrowed;
+		//only touched by the owning thread
+		private int depth;
+		private volatile boolean released, leakReported;
+
+		public Lease(PooledConnection pooled, String caller, Throwable site) {
+			this.pooled = pooled;
+			this.owner = Thread.currentThread();
+			this.caller = caller;
+			this.site = site;
+			this.borrowed = System.nanoTime();
+			this.depth = 1;
 		}
 	}
 
-	private static class CachedConnectionPool implements ConnectionPool {
+	private static class BoundedConnectionPool {
+		private final DatabaseType type;
+		private final String url, user, password;
+		private final int maxConnections;
+		private final long borrowTimeout, validationInterval, leakThreshold;
+		private final boolean trackCallers;
+
+		private final Semaphore permits;
+		private final ConcurrentLinkedDeque<PooledConnection> idle;
 		private final LockableList<Connection> allConnections;
-		private final Queue<Connection> available;
+		private final Map<Connection, Lease> leases;
+		private final ThreadLocal<Lease> held;
+		private final Map<String, HoldTimes> holdTimes;
 		private final AtomicInteger taken;
-		private final String url, user, password;
+		private final AtomicLong borrows, totalWaitNanos, maxWaitNanos, timeouts, opened, discarded, leaks;
 
-		protected CachedConnectionPool(String url, String user, String password) {
-			allConnections = new LockableList<Connection>(new LinkedList<Connection>());
-			available = new ConcurrentLinkedQueue<Connection>();
-			taken = new AtomicInteger(0);
+		public BoundedConnectionPool(DatabaseType type, String url, String user, String password,
+				int maxConnections, long borrowTimeout, long validationInterval, long leakThreshold, boolean trackCallers) {
+			this.type = type;
 			this.url = url;
 			this.user = user;
 			this.password = password;
+			this.maxConnections = maxConnections;
+			this.borrowTimeout = borrowTimeout;
+			this.validationInterval = validationInterval;
+			this.leakThreshold = leakThreshold;
+			this.trackCallers = trackCallers;
+
+			permits = new Semaphore(maxConnections, true);
+			idle = new ConcurrentLinkedDeque<PooledConnection>();
+			allConnections = new LockableList<Connection>(new LinkedList<Connection>());
+			leases = new ConcurrentHashMap<Connection, Lease>();
+			held = new ThreadLocal<Lease>();
+			holdTimes = new ConcurrentHashMap<String, HoldTimes>();
+			taken = new AtomicInteger(0);
+			borrows = new AtomicLong();
+			totalWaitNanos = new AtomicLong();
+			maxWaitNanos = new AtomicLong();
+			timeouts = new AtomicLong();
+			opened = new AtomicLong();
+			discarded = new AtomicLong();
+			leaks = new AtomicLong();
+		}
+
+		private PooledConnection open() throws SQLException {
+			Connection con = DriverManager.getConnection(url, user, password);
+			allConnections.addWhenSafe(con);
+			opened.incrementAndGet();
+			return new PooledConnection(con, System.currentTimeMillis());
+		}
+
+		private void discard(PooledConnection pc) {
+			allConnections.removeWhenSafe(pc.con);
+			discarded.incrementAndGet();
+			try {
+				pc.con.close();
+			} catch (SQLException e) {
+				LOG.log(Level.FINE, "Could not close invalid connection to " + type + " database", e);
+			}
+		}
+
+		private boolean isValid(PooledConnection pc) {
+			try {
+				if (pc.con.isValid(VALIDATION_TIMEOUT)) {
+					pc.lastValidated = System.currentTimeMillis();
+					return true;
+				}
+			} catch (SQLException e) {
+			}
+			return false;
+		}
+
+		private static String threadGroupName(String threadName) {
+			//strip the index of pool threads, e.g. "persistence-pool-thread-2"
+			int end = threadName.length();
+			while (end > 0 && (Character.isDigit(threadName.charAt(end - 1)) || threadName.charAt(end - 1) == '-'))
+				end--;
+			return end == 0 ? threadName : threadName.substring(0, end);
 		}
 
-		@Override
 		public Connection getConnection() throws SQLException {
-			Connection next = available.poll();
-			while (next != null && !next.isValid(0)) {
-				try {
-					next.close();
-					allConnections.removeWhenSafe(next);
-				} catch (SQLException e) {
-					throw new SQLException("Could not remove invalid connection to database.", e);
+			Lease lease = held.get();
+			if (lease != null && !lease.released) {
+				lease.depth++;
+				return lease.pooled.con;
+			}
+
+			long start = System.nanoTime();
+			try {
+				if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+					timeouts.incrementAndGet();
+					throw new SQLException("Timed out after " + borrowTimeout + "ms waiting for one of " + maxConnections + " connections to the " + type + " database");
 				}
-				next = available.poll();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection to the " + type + " database", e);
 			}
-			if (next == null) {
-				next = DriverManager.getConnection(url, user, password);
-				allConnections.addWhenSafe(next);
+
+			boolean success = false;
+			try {
+				long now = System.currentTimeMillis();
+				PooledConnection pc;
+				//connections that were used or checked recently are trusted.
+				//anything older than that is checked here before we hand it out
+				while ((pc = idle.pollFirst()) != null && now - pc.lastValidated >= validationInterval && !isValid(pc))
+					discard(pc);
+				if (pc == null)
+					pc = open();
+
+				long waited = System.nanoTime() - start;
+				borrows.incrementAndGet();
+				totalWaitNanos.addAndGet(waited);
+				long max;
+				while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited));
+
+				String caller;
+				Throwable site;
+				if (trackCallers) {
+					site = new Throwable("Connection borrowed here");
+					StackTraceElement[] trace = site.getStackTrace();
+					int i = 0;
+					while (i < trace.length - 1 && trace[i].getClassName().startsWith(DatabaseManager.class.getName()))
+						i++;
+					caller = trace[i].getClassName().substring(trace[i].getClassName().lastIndexOf('.') + 1) + '.' + trace[i].getMethodName();
+				} else {
+					site = null;
+					caller = threadGroupName(Thread.currentThread().getName());
+				}
+				lease = new Lease(pc, caller, site);
+				held.set(lease);
+				leases.put(pc.con, lease);
+				taken.incrementAndGet();
+				success = true;
+				return pc.con;
+			} finally {
+				if (!success)
+					permits.release();
 			}
-			taken.incrementAndGet();
-			return next;
 		}
 
-		@Override
 		public void returnConnection(Connection con) {
-			available.offer(con);
+			Lease lease = held.get();
+			if (lease == null || lease.released || lease.pooled.con != con) {
+				//returned by a different thread than the one that borrowed it
+				lease = leases.get(con);
+				if (lease == null) {
+					LOG.log(Level.WARNING, "Tried to return a connection that was not borrowed from the " + type + " database pool", new Throwable());
+					return;
+				}
+			} else if (--lease.depth > 0) {
+				return;
+			}
+
+			synchronized (lease) {
+				if (lease.released)
+					return;
+				lease.released = true;
+			}
+			if (lease.owner == Thread.currentThread())
+				held.remove();
+			leases.remove(con);
 			taken.decrementAndGet();
+
+			long heldFor = System.nanoTime() - lease.borrowed;
+			HoldTimes times = holdTimes.get(lease.caller);
+			if (times == null) {
+				HoldTimes newTimes = new HoldTimes();
+				times = holdTimes.putIfAbsent(lease.caller, newTimes);
+				if (times == null)
+					times = newTimes;
+			}
+			times.record(heldFor);
+			if (lease.leakReported)
+				LOG.log(Level.INFO, "Suspected leaked {0} database connection was returned after {1}ms by {2}",
+						new Object[] { type, heldFor / 1000000, lease.caller });
+
+			boolean closed;
+			try {
+				closed = con.isClosed();
+			} catch (SQLException e) {
+				closed = true;
+			}
+			if (closed) {
+				discard(lease.pooled);
+			} else {
+				lease.pooled.lastValidated = System.currentTimeMillis();
+				idle.offerFirst(lease.pooled);
+			}
+			permits.release();
+		}
+
+		/**
+		 * Validate connections that have sat idle for a while and report any
+		 * connections that have been held for suspiciously long. Called
+		 * periodically from the maintenance thread.
+		 */
+		public void maintain() {
+			long now = System.currentTimeMillis();
+			for (PooledConnection pc : idle) {
+				if (now - pc.lastValidated < validationInterval)
+					continue;
+				//hold a permit so that a borrower doesn't open an extra
+				//connection while we have this one out of the idle deque
+				if (!permits.tryAcquire())
+					break;
+				try {
+					if (idle.removeFirstOccurrence(pc)) {
+						if (isValid(pc))
+							idle.offerLast(pc);
+						else
+							discard(pc);
+					}
+				} finally {
+					permits.release();
+				}
+			}
+
+			long nowNanos = System.nanoTime();
+			for (Lease lease : leases.values()) {
+				if (lease.leakReported || nowNanos - lease.borrowed < leakThreshold * 1000000)
+					continue;
+				lease.leakReported = true;
+				leaks.incrementAndGet();
+				LOG.log(Level.WARNING, "Possible leak: a connection to the " + type + " database has been held for "
+						+ ((nowNanos - lease.borrowed) / 1000000) + "ms by " + lease.caller + " (thread " + lease.owner.getName() + ")", lease.site);
+			}
+		}
+
+		public PoolStatistics getStatistics() {
+			return new PoolStatistics(maxConnections, taken.get(), idle.size(),
+					borrows.get(), totalWaitNanos.get(), maxWaitNanos.get(), timeouts.get(),
+					opened.get(), discarded.get(), leaks.get(), Collections.unmodifiableMap(holdTimes));
 		}
 
-		@Override
 		public LockableList<Connection> allConnections() {
 			return allConnections;
 		}
 
-		@Override
 		public int connectionsInUse() {
-			return taken.get(); //should = available.size()
+			return taken.get();
 		}
 
-		@Override
 		public int totalConnections() {
 			return allConnections.getSizeWhenSafe();
 		}
@@ -0,0 +1,251 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.util;
+
+import argonms.common.util.DatabaseManager.DatabaseType;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Remembers the rows of one section of a player's state as they were last
+ * written to (or read from) the database, so that a save only has to touch
+ * the rows that were actually inserted, changed, or removed since then.
+ *
+ * A row is keyed by the column that, together with the owner column,
+ * identifies it in its table, and its value is the list of the remaining
+ * columns in the order they were passed to the constructor. Values are
+ * compared with equals(), so they should be built with row(Object...).
+ *
+ * A diff is not folded into the remembered state until commit() is called,
+ * so that the snapshot never gets ahead of the database if the transaction it
+ * was written in is rolled back.
+ *
+ * @author GoldenKevin
+ */
+public class RowJournal<K> {
+	public static class Changes<K> {
+		private final Map<K, List<?>> inserted, updated;
+		private final Collection<K> deleted;
+
+		private Changes(Map<K, List<?>> inserted, Map<K, List<?>> updated, Collection<K> deleted) {
+			this.inserted = inserted;
+			this.updated = updated;
+			this.deleted = deleted;
+		}
+
+		public Map<K, List<?>> getInserted() {
+			return inserted;
+		}
+
+		public Map<K, List<?>> getUpdated() {
+			return updated;
+		}
+
+		public Collection<K> getDeleted() {
+			return deleted;
+		}
+
+		public boolean isEmpty() {
+			return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+		}
+	}
+
+	private final String insertQuery, updateQuery, deleteQuery;
+	private final int valueColumns;
+	private Map<K, List<?>> persisted;
+	private Map<K, List<?>> pending;
+
+	/**
+	 * Creates a journal that starts out believing that no rows exist. Use this
+	 * constructor when the journal is only going to be consulted through
+	 * diff(Map) and its queries are written by hand.
+	 */
+	public RowJournal() {
+		insertQuery = updateQuery = deleteQuery = null;
+		valueColumns = 0;
+		persisted = Collections.emptyMap();
+	}
+
+	/**
+	 * Creates a journal that starts out believing that no rows exist, and that
+	 * can write its changes to the given table through write().
+	 * @param table the table that holds this section.
+	 * @param ownerColumn the column that holds the id of the owning character.
+	 * @param keyColumn the column that identifies a row among the rows of one
+	 * owner.
+	 * @param valueColumns the remaining columns, in the order that they appear
+	 * in each row value.
+	 */
+	public RowJournal(String table, String ownerColumn, String keyColumn, String... valueColumns) {
+		StringBuilder insert = new StringBuilder("INSERT INTO `").append(table).append("` (`").append(ownerColumn).append("`,`").append(keyColumn).append('`');
+		StringBuilder placeholders = new StringBuilder("?,?");
+		StringBuilder update = new StringBuilder("UPDATE `").append(table).append("` SET ");
+		for (int i = 0; i < valueColumns.length; i++) {
+			insert.append(",`").append(valueColumns[i]).append('`');
+			placeholders.append(",?");
+			if (i != 0)
+				update.append(", ");
+			update.append('`').append(valueColumns[i]).append("` = ?");
+		}
+		insertQuery = insert.append(") VALUES (").append(placeholders).append(')').toString();
+		updateQuery = update.append(" WHERE `").append(ownerColumn).append("` = ? AND `").append(keyColumn).append("` = ?").toString();
+		deleteQuery = "DELETE FROM `" + table + "` WHERE `" + ownerColumn + "` = ? AND `" + keyColumn + "` = ?";
+		this.valueColumns = valueColumns.length;
+		persisted = Collections.emptyMap();
+	}
+
+	/**
+	 * Builds a row value that can be compared against another with equals().
+	 */
+	public static List<Object> row(Object... columns) {
+		return Arrays.asList(columns);
+	}
+
+	/**
+	 * Forget any unsaved diff and take the given rows as the current contents
+	 * of the database, e.g. right after the section is loaded.
+	 */
+	public void reset(Map<K, List<?>> rows) {
+		persisted = rows;
+		pending = null;
+	}
+
+	/**
+	 * Compare the given rows against the rows that are known to be in the
+	 * database. The given rows become the rows that are known to be in the
+	 * database once commit() is called.
+	 * @param current the rows as they should be in the database.
+	 * @return the rows that need to be inserted, updated, and deleted.
+	 */
+	public Changes<K> diff(Map<K, List<?>> current) {
+		Map<K, List<?>> inserted = new HashMap<K, List<?>>();
+		Map<K, List<?>> updated = new HashMap<K, List<?>>();
+		List<K> deleted = new ArrayList<K>();
+		for (Entry<K, List<?>> entry : current.entrySet()) {
+			List<?> before = persisted.get(entry.getKey());
+			if (before == null)
+				inserted.put(entry.getKey(), entry.getValue());
+			else if (!before.equals(entry.getValue()))
+				updated.put(entry.getKey(), entry.getValue());
+		}
+		for (K key : persisted.keySet())
+			if (!current.containsKey(key))
+				deleted.add(key);
+		pending = current;
+		return new Changes<K>(inserted, updated, deleted);
+	}
+
+	/**
+	 * Write only the rows that have changed since the last commit to the
+	 * database.
+	 * @param con the connection of the transaction that the rows should be
+	 * written in.
+	 * @param ownerId the id of the character that owns the rows.
+	 * @param current the rows as they should be in the database.
+	 * @return the amount of rows that were written.
+	 * @throws SQLException
+	 */
+	public int write(Connection con, int ownerId, Map<K, List<?>> current) throws SQLException {
+		Changes<K> changes = diff(current);
+		int rows = 0;
+		PreparedStatement ps = null;
+		try {
+			if (!changes.getDeleted().isEmpty()) {
+				ps = con.prepareStatement(deleteQuery);
+				ps.setInt(1, ownerId);
+				for (K key : changes.getDeleted()) {
+					ps.setObject(2, key);
+					ps.addBatch();
+				}
+				rows += countRows(ps.executeBatch());
+				ps.close();
+			}
+			if (!changes.getUpdated().isEmpty()) {
+				ps = con.prepareStatement(updateQuery);
+				ps.setInt(valueColumns + 1, ownerId);
+				for (Entry<K, List<?>> entry : changes.getUpdated().entrySet()) {
+					bind(ps, 1, entry.getValue());
+					ps.setObject(valueColumns + 2, entry.getKey());
+					ps.addBatch();
+				}
+				rows += countRows(ps.executeBatch());
+				ps.close();
+			}
+			if (!changes.getInserted().isEmpty()) {
+				ps = con.prepareStatement(insertQuery);
+				ps.setInt(1, ownerId);
+				for (Entry<K, List<?>> entry : changes.getInserted().entrySet()) {
+					ps.setObject(2, entry.getKey());
+					bind(ps, 3, entry.getValue());
+					ps.addBatch();
+				}
+				rows += countRows(ps.executeBatch());
+				ps.close();
+			}
+		} finally {
+			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
+		}
+		return rows;
+	}
+
+	/**
+	 * Accept the rows passed to the last diff as the contents of the database.
+	 * Should be called once the transaction they were written in is committed.
+	 */
+	public void commit() {
+		if (pending != null) {
+			persisted = pending;
+			pending = null;
+		}
+	}
+
+	/**
+	 * Discard the rows passed to the last diff, so that they will be written
+	 * again on the next save. Should be called if the transaction they were
+	 * written in is rolled back.
+	 */
+	public void rollback() {
+		pending = null;
+	}
+
+	private static void bind(PreparedStatement ps, int index, List<?> columns) throws SQLException {
+		for (Object column : columns)
+			ps.setObject(index++, column);
+	}
+
+	public static int countRows(int[] batchResults) {
+		int rows = 0;
+		for (int result : batchResults)
+			if (result == Statement.SUCCESS_NO_INFO)
+				rows++;
+			else if (result > 0)
+				rows += result;
+		return rows;
+	}
+}
@@ -20,15 +20,14 @@ package argonms.common.util;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -36,9 +35,6 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This implementation employs an efficient single-threaded algorithm based on
@@ -49,27 +45,67 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * <a href="http://www.cse.wustl.edu/~cdgill/courses/cs6874/TimingWheels.ppt">
  * here</a>.
  *
+ * The wheel itself is only ever touched by the worker thread, so it needs no
+ * locks. Other threads hand newly scheduled and canceled tasks to the worker
+ * through two lock-free queues that it drains at the start of every tick.
+ * Each bucket is an intrusive doubly-linked list of the tasks in it, so the
+ * worker can unlink a task in constant time no matter how many are pending.
+ *
  * Note that the actual start of execution time of a scheduled task is only
  * accurate to the value passed to the constructor's tickDuration argument.
  * Tasks will never execute before their scheduled time. They will usually
- * execute within the specified tickDuration after the scheduled time, unless
- * there was a computationally heavy task being executed before it that
- * temporarily delayed the start of the task's tick on the wheel.
+ * execute within the specified tickDuration after the scheduled time. If no
+ * Executor is passed to the constructor, tasks run on the worker thread and a
+ * computationally heavy task may temporarily delay the ticks after it. If one
+ * is passed, expired tasks are handed off to it and only the bookkeeping is
+ * done on the worker thread.
  * @author GoldenKevin
  */
 public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 	private final int millisPerTick;
 	private final Thread workerThread;
-	private final Set<HashedWheelFuture<?>>[] buckets;
+	private final Bucket[] buckets;
+	private final Executor taskExecutor;
+	private final Queue<HashedWheelFuture<?>> scheduledQueue, canceledQueue;
 	private final AtomicInteger queuedTaskCount;
 	private volatile boolean shuttingDown;
 	private volatile boolean shutdownImmediately;
 	private volatile boolean terminated;
-	private final Lock readLock, writeLock;
-	private int wheelCursor;
-	private long lastExecuted;
 
-	private abstract class HashedWheelFuture<V> implements ScheduledFuture<V> {
+	/**
+	 * A doubly-linked list of the tasks that hash to one slot of the wheel.
+	 * May only be accessed by the worker thread (or by shutdownNow() once the
+	 * worker thread has exited).
+	 */
+	private static class Bucket {
+		private HashedWheelFuture<?> head, tail;
+
+		public void add(HashedWheelFuture<?> future) {
+			future.bucket = this;
+			future.prev = tail;
+			future.next = null;
+			if (tail == null)
+				head = future;
+			else
+				tail.next = future;
+			tail = future;
+		}
+
+		public void remove(HashedWheelFuture<?> future) {
+			if (future.prev == null)
+				head = future.next;
+			else
+				future.prev.next = future.next;
+			if (future.next == null)
+				tail = future.prev;
+			else
+				future.next.prev = future.prev;
+			future.bucket = null;
+			future.prev = future.next = null;
+		}
+	}
+
+	private abstract class HashedWheelFuture<V> implements ScheduledFuture<V>, Runnable {
 		protected static final int
 			STATE_CANCELED = -1,
 			STATE_SCHEDULED = 0,
@@ -83,9 +119,13 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		private final long periodLength;
 		private final boolean fixedRate;
 		private int periodNo;
+		private volatile long scheduledExecutionTime;
+		private volatile Thread runner;
+
+		//only touched by the worker thread
+		private Bucket bucket;
+		private HashedWheelFuture<?> prev, next;
 		private long remainingRevolutions;
-		private int bucket;
-		private long scheduledExecutionTime;
 
 		public HashedWheelFuture(long submitTime, long delay, long period, boolean fixedRate) {
 			this.state = new AtomicInteger(STATE_SCHEDULED);
@@ -99,25 +139,28 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 
 		@Override
 		public long getDelay(TimeUnit unit) {
-			return unit.convert(initDelay, TimeUnit.MILLISECONDS) - System.currentTimeMillis();
+			return unit.convert(scheduledExecutionTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
 		}
 
 		@Override
 		public int compareTo(Delayed arg0) {
-			return (int) (initDelay - arg0.getDelay(TimeUnit.MILLISECONDS));
+			long diff = getDelay(TimeUnit.MILLISECONDS) - arg0.getDelay(TimeUnit.MILLISECONDS);
+			return diff < 0 ? -1 : diff > 0 ? 1 : 0;
 		}
 
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
 			boolean result;
 			if (state.compareAndSet(STATE_SCHEDULED, STATE_CANCELED)) {
-				buckets[bucket].remove(this);
+				//let the worker unlink us from our bucket
+				canceledQueue.offer(this);
 				queuedTaskCount.decrementAndGet();
 				result = true;
 			} else if (state.compareAndSet(STATE_RUNNING, STATE_CANCELED)) {
 				queuedTaskCount.decrementAndGet();
-				if (mayInterruptIfRunning) {
-					workerThread.interrupt();
+				Thread t = runner;
+				if (mayInterruptIfRunning && t != null) {
+					t.interrupt();
 					result = true;
 				} else {
 					result = false;
@@ -185,7 +228,27 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 			return status == STATE_EXECUTED || status == STATE_CANCELED || status == STATE_RUNNING;
 		}
 
-		protected abstract boolean runExpireTask();
+		/**
+		 * Run the task once and schedule it again if it is periodic. Called by
+		 * the worker thread when the task expires, or by taskExecutor if the
+		 * worker handed it off.
+		 */
+		@Override
+		public void run() {
+			if (!state.compareAndSet(STATE_SCHEDULED, STATE_RUNNING)) {
+				assert isCancelled();
+				return;
+			}
+			runner = Thread.currentThread();
+			try {
+				runExpireTask();
+			} finally {
+				runner = null;
+			}
+			executed();
+		}
+
+		protected abstract void runExpireTask();
 
 		protected abstract Runnable getRunnableTask();
 
@@ -218,15 +281,16 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 				} else {
 					assert isCancelled();
 				}
-			} else if (!isCancelled()) {
+			} else {
 				if (fixedRate) {
 					periodNo++;
 					scheduledExecutionTime = startTime + initDelay + periodLength * periodNo;
-					schedule(this);
 				} else {
 					scheduledExecutionTime = System.currentTimeMillis() + periodLength;
-					schedule(this);
 				}
+				//if we were canceled while running, stay canceled
+				if (state.compareAndSet(STATE_RUNNING, STATE_SCHEDULED))
+					scheduledQueue.offer(this);
 			}
 		}
 	}
@@ -241,18 +305,13 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		}
 
 		@Override
-		protected boolean runExpireTask() {
-			if (!state.compareAndSet(STATE_SCHEDULED, STATE_RUNNING)) {
-				assert isCancelled();
-				return false;
-			}
+		protected void runExpireTask() {
 			try {
 				expireTask.run();
 				exc = null;
 			} catch (Throwable ex) {
 				exc = ex;
 			}
-			return true;
 		}
 
 		@Override
@@ -279,18 +338,13 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		}
 
 		@Override
-		protected boolean runExpireTask() {
-			if (!state.compareAndSet(STATE_SCHEDULED, STATE_RUNNING)) {
-				assert isCancelled();
-				return false;
-			}
+		protected void runExpireTask() {
 			try {
 				result = expireTask.call();
 				exc = null;
 			} catch (Throwable ex) {
 				exc = ex;
 			}
-			return true;
 		}
 
 		@Override
@@ -318,18 +372,13 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		}
 
 		@Override
-		protected boolean runExpireTask() {
-			if (!state.compareAndSet(STATE_SCHEDULED, STATE_RUNNING)) {
-				assert isCancelled();
-				return false;
-			}
+		protected void runExpireTask() {
 			try {
 				expireTask.run();
 				exc = null;
 			} catch (Throwable ex) {
 				exc = ex;
 			}
-			return true;
 		}
 
 		@Override
@@ -347,20 +396,16 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 
 	private class Worker implements Runnable {
 		private long startTime;
-		private int tick;
+		private long tick;
 
 		/**
 		 * 
 		 * @return the scheduled start time of execution of this tick, or -1
-		 * if 
+		 * if the executor has been shut down and the worker should exit.
 		 */
 		private long syncWithTick() {
 			if (shuttingDown && queuedTaskCount.get() == 0 || shutdownImmediately)
 				return -1;
-			if (tick == Integer.MAX_VALUE) {
-				startTime += tick * millisPerTick;
-				tick = 0;
-			}
 			tick++;
 			long scheduledTime = startTime + tick * millisPerTick;
 			long sleepTime;
@@ -377,31 +422,61 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 			return scheduledTime;
 		}
 
+		private void unlinkCanceled() {
+			HashedWheelFuture<?> future;
+			while ((future = canceledQueue.poll()) != null)
+				if (future.bucket != null)
+					future.bucket.remove(future);
+		}
+
+		private void linkScheduled(long tickScheduledExecute, int cursor) {
+			HashedWheelFuture<?> future;
+			while ((future = scheduledQueue.poll()) != null) {
+				if (future.state.get() != HashedWheelFuture.STATE_SCHEDULED)
+					continue;
+
+				//a task that is already due goes into the bucket that we are
+				//about to expire, so it will run in this very tick. otherwise,
+				//round up so that the task never runs early.
+				long delay = future.scheduledExecutionTime - tickScheduledExecute;
+				long totalTicks = delay <= 0 ? 0 : (delay + millisPerTick - 1) / millisPerTick;
+				future.remainingRevolutions = totalTicks / buckets.length;
+				buckets[(int) ((cursor + totalTicks % buckets.length) % buckets.length)].add(future);
+			}
+		}
+
+		private void expire(Bucket bucket) {
+			HashedWheelFuture<?> future = bucket.head;
+			while (future != null && !shutdownImmediately) {
+				HashedWheelFuture<?> next = future.next;
+				if (future.remainingRevolutions > 0) {
+					future.remainingRevolutions--;
+				} else {
+					bucket.remove(future);
+					if (taskExecutor == null) {
+						future.run();
+					} else {
+						try {
+							taskExecutor.execute(future);
+						} catch (RejectedExecutionException e) {
+							//executor was shut down before us. finish up here
+							future.run();
+						}
+					}
+				}
+				future = next;
+			}
+		}
+
 		@Override
 		public void run() {
-			lastExecuted = startTime = System.currentTimeMillis();
+			startTime = System.currentTimeMillis();
 			long tickScheduledExecute;
 			while ((tickScheduledExecute = syncWithTick()) != -1) {
-				Iterator<HashedWheelFuture<?>> iter;
-				writeLock.lock();
-				try {
-					wheelCursor = (wheelCursor + 1) % buckets.length;
-					iter = buckets[wheelCursor].iterator();
-					lastExecuted = tickScheduledExecute;
-				} finally {
-					writeLock.unlock();
-				}
-				while (iter.hasNext() && !shutdownImmediately) {
-					HashedWheelFuture<?> future = iter.next();
-					if (future.remainingRevolutions > 0) {
-						future.remainingRevolutions--;
-					} else {
-						iter.remove();
-						assert future.scheduledExecutionTime <= tickScheduledExecute;
-						if (future.runExpireTask())
-							future.executed();
-					}
-				}
+				int cursor = (int) (tick % buckets.length);
+				unlinkCanceled();
+				linkScheduled(tickScheduledExecute, cursor);
+				expire(buckets[cursor]);
 			}
 			terminated = true;
 		}
@@ -418,75 +493,59 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 	 * Directly proportional with accuracy and inversely proportion with CPU
 	 * efficiency.
 	 * @param unit the time unit that tickDuration is in.
+	 * @param taskExecutor the Executor that expired tasks are handed off to, or
+	 * null if they should be run on the worker thread.
 	 */
-	@SuppressWarnings("unchecked")
-	public ScheduledHashedWheelExecutor(int buckets, long tickDuration, TimeUnit unit) {
+	public ScheduledHashedWheelExecutor(int buckets, long tickDuration, TimeUnit unit, Executor taskExecutor) {
 		if (buckets <= 0)
 			throw new IllegalArgumentException("buckets must be positive");
 		millisPerTick = (int) unit.toMillis(tickDuration);
 		if (millisPerTick <= 0)
 			throw new IllegalArgumentException("tickDuration in milliseconds must be positive");
 		workerThread = new Thread(new Worker(), "hashed-wheel-timer-worker-thread");
-		this.buckets = new Set[buckets];
+		this.buckets = new Bucket[buckets];
 		for (int i = 0; i < buckets; i++)
-			this.buckets[i] = Collections.newSetFromMap(new ConcurrentHashMap<HashedWheelFuture<?>, Boolean>());
+			this.buckets[i] = new Bucket();
+		this.taskExecutor = taskExecutor;
+		scheduledQueue = new ConcurrentLinkedQueue<HashedWheelFuture<?>>();
+		canceledQueue = new ConcurrentLinkedQueue<HashedWheelFuture<?>>();
 		queuedTaskCount = new AtomicInteger(0);
 
-		ReadWriteLock rwLock = new ReentrantReadWriteLock();
-		readLock = rwLock.readLock();
-		writeLock = rwLock.writeLock();
-
 		workerThread.start();
 	}
 
+	/**
+	 * Allocate a ScheduledHashWheelExecutor that runs expired tasks on its
+	 * worker thread.
+	 */
+	public ScheduledHashedWheelExecutor(int buckets, long tickDuration, TimeUnit unit) {
+		this(buckets, tickDuration, unit, null);
+	}
+
 	/**
 	 * Allocate a ScheduledHashWheelExecutor with the default values; that is,
 	 * 512 buckets and 100 milliseconds per tick.
+	 * @param taskExecutor the Executor that expired tasks are handed off to, or
+	 * null if they should be run on the worker thread.
 	 */
-	public ScheduledHashedWheelExecutor() {
-		this(512, 100, TimeUnit.MILLISECONDS);
+	public ScheduledHashedWheelExecutor(Executor taskExecutor) {
+		this(512, 100, TimeUnit.MILLISECONDS, taskExecutor);
 	}
 
 	/**
-	 * Finds the ceiling of (x / y). If y is positive and x is non-positive, the
-	 * result is always less than or equal to 1.
-	 * @param x must be positive
-	 * @param y must be positive
-	 * @return
+	 * Allocate a ScheduledHashWheelExecutor with the default values; that is,
+	 * 512 buckets and 100 milliseconds per tick, and run expired tasks on the
+	 * worker thread.
 	 */
-	private int ceil(int x, int y) {
-		return ((x - 1) / y) + 1;
+	public ScheduledHashedWheelExecutor() {
+		this(null);
 	}
 
-	private void schedule(HashedWheelFuture<?> future) {
-		readLock.lock();
-		try {
-			//never have totalTicks == 0, even if we just we scheduled the
-			//future for the exact same time as our last worker run. doing so
-			//would cause the task to be executed a full revolution late! never
-			//have totalTicks < 0, even if future.scheduledExecutionTime is less
-			//than lastExecuted. doing so would cause the task to be executed a
-			//few ticks late. in both cases, we should instead execute the task
-			//in the next tick, (totalTicks == 1). this means totalTicks >= 1
-			//always, so just Math.max the ceil result.
-
-			//(future.scheduledExecutionTime - lastExecuted) may be <= 0, but
-			//result of ceil with nonpositive x and positive y (millisPerTick
-			//must be positive) is always defined as <= 1, and with the
-			//surrounding Math.max, we can disregard an incorrect ceil result.
-			//this should be faster than using the more accurate Math.ceil,
-			//as it does integer division instead of floating point division,
-			//avoids some expensive method calls, and avoids lots of casting.
-			int totalTicks = Math.max(ceil((int) (future.scheduledExecutionTime - lastExecuted), millisPerTick), 1);
-			int revolutions = totalTicks / buckets.length;
-			int finalRevolutionTicks = totalTicks % buckets.length;
-			int bucket = (wheelCursor + finalRevolutionTicks) % buckets.length;
-			future.bucket = bucket;
-			future.remainingRevolutions = revolutions;
-			buckets[bucket].add(future);
-		} finally {
-			readLock.unlock();
-		}
+	private void enqueue(HashedWheelFuture<?> future) {
+		//count it before the worker can possibly see it, or else a graceful
+		//shutdown could observe zero queued tasks while this one is pending
+		queuedTaskCount.incrementAndGet();
+		scheduledQueue.offer(future);
 	}
 
 	@Override
@@ -496,8 +555,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 			throw new RejectedExecutionException("shutdown");
 
 		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(command, true, submitTime, unit.toMillis(delay), -1);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		enqueue(future);
 		return future;
 	}
 
@@ -508,8 +566,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 			throw new RejectedExecutionException("shutdown");
 
 		HashedWheelFuture<V> future = new HashedWheelFutureImpl<V>(callable, submitTime, unit.toMillis(delay), -1);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		enqueue(future);
 		return future;
 	}
 
@@ -519,9 +576,8 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		if (isShutdown())
 			throw new RejectedExecutionException("shutdown");
 
-		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(command, true, submitTime, unit.toMillis(initialDelay), period);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(command, true, submitTime, unit.toMillis(initialDelay), unit.toMillis(period));
+		enqueue(future);
 		return future;
 	}
 
@@ -531,9 +587,8 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		if (isShutdown())
 			throw new RejectedExecutionException("shutdown");
 
-		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(command, false, submitTime, unit.toMillis(initialDelay), delay);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(command, false, submitTime, unit.toMillis(initialDelay), unit.toMillis(delay));
+		enqueue(future);
 		return future;
 	}
 
@@ -542,25 +597,42 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		shuttingDown = true;
 	}
 
+	private static void addNotRun(List<Runnable> notRun, HashedWheelFuture<?> f) {
+		Runnable r;
+		if (!f.hasCommencedExecution() && (r = f.getRunnableTask()) != null)
+			notRun.add(r);
+	}
+
 	@Override
 	public List<Runnable> shutdownNow() {
 		shutdownImmediately = true;
-		List<Runnable> notRun = new ArrayList<Runnable>(queuedTaskCount.get());
-		Runnable r;
-		writeLock.lock();
-		try {
-			for (int i = 0; i < buckets.length; i++) {
-				for (Iterator<HashedWheelFuture<?>> iter = buckets[i].iterator(); iter.hasNext(); ) {
-					HashedWheelFuture<?> f = iter.next();
-					iter.remove();
-					if (!f.hasCommencedExecution() && (r = f.getRunnableTask()) != null)
-						notRun.add(r);
+		workerThread.interrupt();
+		//the wheel is only safe to walk once the worker is no longer using it
+		if (Thread.currentThread() != workerThread) {
+			boolean interrupted = false;
+			while (workerThread.isAlive()) {
+				try {
+					workerThread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
 			}
-		} finally {
-			writeLock.unlock();
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
-		workerThread.interrupt();
+
+		List<Runnable> notRun = new ArrayList<Runnable>(queuedTaskCount.get());
+		for (int i = 0; i < buckets.length; i++) {
+			HashedWheelFuture<?> f;
+			while ((f = buckets[i].head) != null) {
+				buckets[i].remove(f);
+				addNotRun(notRun, f);
+			}
+		}
+		HashedWheelFuture<?> f;
+		while ((f = scheduledQueue.poll()) != null)
+			addNotRun(notRun, f);
+		canceledQueue.clear();
 		return notRun;
 	}
 
@@ -586,8 +658,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		if (isShutdown())
 			throw new RejectedExecutionException("shutdown");
 		HashedWheelFuture<T> future = new HashedWheelFutureImpl<T>(task, submitTime, 0, -1);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		enqueue(future);
 		return future;
 	}
 
@@ -597,8 +668,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		if (isShutdown())
 			throw new RejectedExecutionException("shutdown");
 		HashedWheelFuture<T> future = new HashedWheelFutureKnownResult<T>(task, result, submitTime, 0, -1);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		enqueue(future);
 		return future;
 	}
 
@@ -608,8 +678,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		if (isShutdown())
 			throw new RejectedExecutionException("shutdown");
 		HashedWheelFuture<Void> future = new VoidHashedWheelFuture(task, true, submitTime, 0, -1);
-		schedule(future);
-		queuedTaskCount.incrementAndGet();
+		enqueue(future);
 		return future;
 	}
 
@@ -621,8 +690,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		List<HashedWheelFuture<T>> futures = new ArrayList<HashedWheelFuture<T>>(tasks.size());
 		for (Callable<T> task : tasks) {
 			HashedWheelFuture<T> future = new HashedWheelFutureImpl<T>(task, submitTime, 0, -1);
-			schedule(future);
-			queuedTaskCount.incrementAndGet();
+			enqueue(future);
 			futures.add(future);
 		}
 		boolean interrupted = false;
@@ -652,8 +720,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		List<HashedWheelFuture<T>> futures = new ArrayList<HashedWheelFuture<T>>(tasks.size());
 		for (Callable<T> task : tasks) {
 			HashedWheelFuture<T> future = new HashedWheelFutureImpl<T>(task, submitTime, 0, -1);
-			schedule(future);
-			queuedTaskCount.incrementAndGet();
+			enqueue(future);
 			futures.add(future);
 		}
 		boolean interrupted = false, timedOut = false;
@@ -685,8 +752,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		for (Callable<T> task : tasks) {
 			submitTime = System.currentTimeMillis();
 			HashedWheelFutureImpl<T> future = new HashedWheelFutureImpl<T>(task, submitTime, 0, -1);
-			schedule(future);
-			queuedTaskCount.incrementAndGet();
+			enqueue(future);
 			futures.add(future);
 		}
 		T result = null;
@@ -739,8 +805,7 @@ public class ScheduledHashedWheelExecutor implements ScheduledExecutorService {
 		for (Callable<T> task : tasks) {
 			submitTime = System.currentTimeMillis();
 			HashedWheelFutureImpl<T> future = new HashedWheelFutureImpl<T>(task, submitTime, 0, -1);
-			schedule(future);
-			queuedTaskCount.incrementAndGet();
+			enqueue(future);
 			futures.add(future);
 		}
 		T result = null;
@@ -18,6 +18,7 @@
 
 package argonms.common.util;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -38,11 +39,17 @@ public class Scheduler {
 	private static Scheduler hashedWheel;
 
 	private ScheduledExecutorService timer;
+	private ExecutorService taskPool;
 
 	private Scheduler(ScheduledExecutorService impl) {
 		timer = impl;
 	}
 
+	private Scheduler(ScheduledExecutorService impl, ExecutorService taskPool) {
+		this(impl);
+		this.taskPool = taskPool;
+	}
+
 	public ScheduledFuture<?> runAfterDelay(final Runnable r, long delay) {
 		return timer.schedule(new Runnable() {
 			@Override
@@ -71,6 +78,8 @@ public class Scheduler {
 
 	public void shutdown() {
 		timer.shutdown();
+		if (taskPool != null)
+			taskPool.shutdown();
 	}
 
 	public static void enable(boolean enableGeneral, boolean enableHashedWheel) {
@@ -95,8 +104,31 @@ public class Scheduler {
 					return t;
 				}
 			}));
-		if (enableHashedWheel)
-			hashedWheel = new Scheduler(new ScheduledHashedWheelExecutor());
+		if (enableHashedWheel) {
+			//expired tasks are handed off so that a slow one can't hold up the
+			//ticks of the wheel after it
+			ExecutorService wheelTaskPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final ThreadGroup group;
+				private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+				{
+					SecurityManager s = System.getSecurityManager();
+					group = (s != null)? s.getThreadGroup() :
+										 Thread.currentThread().getThreadGroup();
+				}
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(group, r, "hashed-wheel-task-pool-thread-" + threadNumber.getAndIncrement(), 0);
+					if (!t.isDaemon())
+						t.setDaemon(true);
+					if (t.getPriority() != Thread.NORM_PRIORITY)
+						t.setPriority(Thread.NORM_PRIORITY);
+					return t;
+				}
+			});
+			hashedWheel = new Scheduler(new ScheduledHashedWheelExecutor(wheelTaskPool), wheelTaskPool);
+		}
 	}
 
 	public static Scheduler getInstance() {
@@ -0,0 +1,111 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.util.collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A set of non-negative ints backed by a sparse, paged bitmap. Membership
+ * tests never box their argument and never lock, and adds only lock when a
+ * page of 65536 ids is touched for the first time, so this is suitable for
+ * flag lookups on hot paths that are populated lazily by other threads.
+ * @author GoldenKevin
+ */
+public class ConcurrentIntSet {
+	private static final int PAGE_SHIFT = 16;
+	private static final int WORDS_PER_PAGE = 1 << (PAGE_SHIFT - 6);
+	private static final int WORD_MASK = WORDS_PER_PAGE - 1;
+	private static final int MAX_PAGES = 1 << (31 - PAGE_SHIFT);
+
+	private volatile AtomicReferenceArray<AtomicLongArray> pages;
+	private final AtomicInteger size;
+
+	public ConcurrentIntSet() {
+		pages = new AtomicReferenceArray<AtomicLongArray>(16);
+		size = new AtomicInteger(0);
+	}
+
+	private AtomicLongArray getPage(int pageIndex) {
+		AtomicReferenceArray<AtomicLongArray> pages = this.pages;
+		return pageIndex < pages.length() ? pages.get(pageIndex) : null;
+	}
+
+	/**
+	 * Pages are only ever created while holding the monitor of this set, so a
+	 * concurrent grow of the page table can never lose a newly created page.
+	 * Pages themselves are shared between the old and new tables, so bits
+	 * that are set without locking are never lost either.
+	 */
+	private synchronized AtomicLongArray createPage(int pageIndex) {
+		AtomicReferenceArray<AtomicLongArray> pages = this.pages;
+		if (pageIndex >= pages.length()) {
+			AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<AtomicLongArray>(Math.min(Math.max(pageIndex + 1, pages.length() * 2), MAX_PAGES));
+			for (int i = pages.length() - 1; i >= 0; --i)
+				grown.set(i, pages.get(i));
+			this.pages = pages = grown;
+		}
+		AtomicLongArray page = pages.get(pageIndex);
+		if (page == null) {
+			page = new AtomicLongArray(WORDS_PER_PAGE);
+			pages.set(pageIndex, page);
+		}
+		return page;
+	}
+
+	/**
+	 *
+	 * @param value
+	 * @return true if the value was not already in this set. Negative values
+	 * can never be held, so they are ignored and false is returned.
+	 */
+	public boolean add(int value) {
+		if (value < 0)
+			return false;
+
+		int pageIndex = value >>> PAGE_SHIFT;
+		AtomicLongArray page = getPage(pageIndex);
+		if (page == null)
+			page = createPage(pageIndex);
+
+		int wordIndex = (value >>> 6) & WORD_MASK;
+		long bit = 1L << value;
+		long word;
+		do {
+			word = page.get(wordIndex);
+			if ((word & bit) != 0)
+				return false;
+		} while (!page.compareAndSet(wordIndex, word, word | bit));
+		size.incrementAndGet();
+		return true;
+	}
+
+	public boolean contains(int value) {
+		if (value < 0)
+			return false;
+
+		AtomicLongArray page = getPage(value >>> PAGE_SHIFT);
+		return page != null && (page.get((value >>> 6) & WORD_MASK) & (1L << value)) != 0;
+	}
+
+	public int size() {
+		return size.get();
+	}
+}
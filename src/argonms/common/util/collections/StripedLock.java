@@ -0,0 +1,51 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.common.util.collections;
+
+/**
+ * A fixed set of monitors that int keys are hashed onto, so that work that
+ * must only be done once per key (e.g. lazily loading data) can be
+ * serialized without allocating a lock for every key or serializing work on
+ * unrelated keys behind a single lock.
+ * @author GoldenKevin
+ */
+public class StripedLock {
+	private final Object[] stripes;
+	private final int mask;
+
+	/**
+	 *
+	 * @param concurrency the minimum number of stripes. Will be rounded up to
+	 * the nearest power of two.
+	 */
+	public StripedLock(int concurrency) {
+		int size = Integer.highestOneBit(Math.max(concurrency - 1, 1)) << 1;
+		stripes = new Object[size];
+		for (int i = 0; i < size; i++)
+			stripes[i] = new Object();
+		mask = size - 1;
+	}
+
+	public Object get(int key) {
+		//spread the bits so that sequential keys and keys that only differ in
+		//their high bits (e.g. item categories) do not all collide
+		int h = key * 0x9E3779B9;
+		return stripes[(h ^ (h >>> 16)) & mask];
+	}
+}
@@ -103,6 +103,24 @@ public class LittleEndianByteArrayReader extends LittleEndianReader {
 		return (short) (read() | (read() << 8));
 	}
 
+	/**
+	 * @return the index in the backing array of the next byte that will be
+	 * read.
+	 */
+	public int getPosition() {
+		return index;
+	}
+
+	/**
+	 * Gives direct access to the array that backs this stream so that a range
+	 * of it can be forwarded without being copied or decoded first. The
+	 * returned array must not be modified.
+	 * @return the array that was passed to the constructor
+	 */
+	public byte[] getBackingArray() {
+		return bytes;
+	}
+
 	/**
 	 * Copies the remaining portion of the stream to a byte array
 	 * @return the remaining bytes in the stream
@@ -62,6 +62,20 @@ public class LittleEndianByteArrayWriter extends LittleEndianWriter {
 		index += bytes.length;
 	}
 
+	/**
+	 * Copies a range of an array straight into the buffer.
+	 * @param bytes the array to copy from
+	 * @param offset the index in bytes of the first byte to copy
+	 * @param length the amount of bytes to copy
+	 */
+	public void write(byte[] bytes, int offset, int length) {
+		if (index + length > data.length)
+			grow(length);
+
+		System.arraycopy(bytes, offset, data, index, length);
+		index += length;
+	}
+
 	@Override
 	public void dispose() {
 		data = null;
@@ -18,6 +18,9 @@
 
 package argonms.game;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  *
  * @author GoldenKevin
@@ -34,6 +37,8 @@ public class GameRegistry {
 	private short expRate, dropRate, mesoRate;
 	private boolean consecutiveLevelUps;
 	private String ticker;
+	private int interestRange;
+	private Set<Integer> interestAreaMaps = Collections.emptySet();
 
 	protected GameRegistry() {
 		
@@ -67,6 +72,11 @@ public class GameRegistry {
 		this.ticker = message;
 	}
 
+	public void setInterestAreas(int range, Set<Integer> mapIds) {
+		this.interestRange = range;
+		this.interestAreaMaps = mapIds;
+	}
+
 	public boolean doItemExpires() {
 		return itemExpires;
 	}
@@ -94,4 +104,15 @@ public class GameRegistry {
 	public String getNewsTickerMessage() {
 		return ticker;
 	}
+
+	/**
+	 *
+	 * @param mapId the map to check
+	 * @return the distance from a moving entity beyond which players on the
+	 * given map will not be sent its movement, or 0 if every player on the
+	 * map should receive it.
+	 */
+	public int getInterestRange(int mapId) {
+		return interestAreaMaps.contains(Integer.valueOf(mapId)) ? interestRange : 0;
+	}
 }
@@ -21,6 +21,7 @@ package argonms.game;
 import argonms.common.GlobalConstants;
 import argonms.common.LocalServer;
 import argonms.common.ServerType;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.loading.DataFileType;
 import argonms.common.loading.item.ItemDataLoader;
 import argonms.common.loading.string.StringDataLoader;
@@ -32,6 +33,7 @@ import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
 import argonms.common.util.Scheduler;
 import argonms.game.character.GameCharacter;
+import argonms.game.field.MapTicker;
 import argonms.game.loading.beauty.BeautyDataLoader;
 import argonms.game.loading.map.MapDataLoader;
 import argonms.game.loading.mob.MobDataLoader;
@@ -46,6 +48,7 @@ import argonms.game.net.internal.GameCenterInterface;
 import argonms.game.script.NpcScriptManager;
 import argonms.game.script.PortalScriptManager;
 import argonms.game.script.ReactorScriptManager;
+import argonms.game.script.ScriptRegistry;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -57,6 +60,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -74,6 +78,7 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
  */
 public class GameServer implements LocalServer {
 	private static final Logger LOG = Logger.getLogger(GameServer.class.getName());
+	private static final long SHUTDOWN_SAVE_TIMEOUT = 30000;
 
 	private static GameServer instance;
 
@@ -83,6 +88,7 @@ public class GameServer implements LocalServer {
 	private byte world;
 	private String address;
 	private boolean preloadAll;
+	private boolean watchScripts;
 	private DataFileType wzType;
 	private String wzPath, scriptsPath;
 	private String[] initialEvents;
@@ -135,6 +141,13 @@ public class GameServer implements LocalServer {
 			registry.setBuffsWillCooldown(prop.getBoolean("argonms.game." + serverId + ".enablecooltime"));
 			registry.setMultiLevel(prop.getBoolean("argonms.game." + serverId + ".enablemultilevel"));
 			registry.setNewsTickerMessage(prop.getString("argonms.game." + serverId + ".tickermessage"));
+			String aoiMaps = prop.getString("argonms.game." + serverId + ".aoi.maps", "").replaceAll("\\s", "");
+			Set<Integer> interestAreaMaps = new HashSet<Integer>();
+			if (!aoiMaps.isEmpty())
+				for (String mapId : aoiMaps.split(","))
+					interestAreaMaps.add(Integer.valueOf(mapId));
+			registry.setInterestAreas(prop.getInt("argonms.game." + serverId + ".aoi.range", 0), interestAreaMaps);
+			watchScripts = prop.getBoolean("argonms.game." + serverId + ".scripts.hotreload", false);
 
 			String temp = prop.getString("argonms.game." + serverId + ".events").replaceAll("\\s", "");
 			initialEvents = temp.isEmpty() ? new String[0] : temp.split(",");
@@ -174,7 +187,7 @@ public class GameServer implements LocalServer {
 			FileReader fr = new FileReader(System.getProperty("argonms.db.config.file", "db.properties"));
 			prop.read(fr);
 			fr.close();
-			DatabaseManager.setProps(prop, mcdb, useNio);
+			DatabaseManager.setProps(prop, mcdb);
 		} catch (ConfigurationException|IOException ex) {
 			LOG.log(Level.SEVERE, "Could not load database properties!", ex);
 			System.exit(3);
@@ -230,6 +243,7 @@ public class GameServer implements LocalServer {
 		}
 
 		Scheduler.enable(true, true);
+		PersistenceQueue.setInstance();
 
 		gci = new GameCenterInterface(serverId, world, this);
 		RemoteCenterSession<GameCenterInterface> session = RemoteCenterSession.connect(centerIp, centerPort, authKey, gci);
@@ -237,6 +251,7 @@ public class GameServer implements LocalServer {
 			session.awaitClose();
 			LOG.log(Level.SEVERE, "Lost connection with center server!");
 		}
+		PersistenceQueue.getInstance().shutdown(SHUTDOWN_SAVE_TIMEOUT);
 		System.exit(4); //connection with center server lost before we were able to shutdown
 	}
 
@@ -251,9 +266,10 @@ public class GameServer implements LocalServer {
 		MapDataLoader.setInstance(wzType, wzPath);
 		NpcShopDataLoader.setInstance(wzType, wzPath);
 		NpcDataLoader.setInstance(wzType, wzPath);
-		NpcScriptManager.setInstance(scriptsPath);
-		PortalScriptManager.setInstance(scriptsPath);
-		ReactorScriptManager.setInstance(scriptsPath);
+		ScriptRegistry.setInstance(scriptsPath);
+		NpcScriptManager.setInstance();
+		PortalScriptManager.setInstance();
+		ReactorScriptManager.setInstance();
 		long start, end;
 		start = System.nanoTime();
 		System.out.print("Loading String data...");
@@ -288,10 +304,20 @@ public class GameServer implements LocalServer {
 			NpcDataLoader.getInstance().loadAll();
 			System.out.println("\tDone!");
 		}
+		System.out.print("Compiling scripts...");
+		ScriptRegistry.getInstance().precompileAll();
+		System.out.println("\tDone!");
 		end = System.nanoTime();
 		System.out.println("Preloaded data in " + ((end - start) / 1000000.0) + "ms.");
+		if (watchScripts) {
+			try {
+				ScriptRegistry.getInstance().startWatching();
+			} catch (IOException ex) {
+				LOG.log(Level.WARNING, "Could not watch scripts for changes. Scripts will not be reloaded automatically.", ex);
+			}
+		}
 		for (WorldChannel ch : channels.values())
-			ch.initializeEventManager(scriptsPath, initialEvents);
+			ch.initializeEventManager(initialEvents);
 	}
 
 	@Override
@@ -308,10 +334,12 @@ public class GameServer implements LocalServer {
 					if (ch.getPort() != -1)
 						doingWork = true;
 				}
-				if (doingWork)
+				if (doingWork) {
 					gci.serverReady();
-				else
+				} else {
+					PersistenceQueue.getInstance().shutdown(SHUTDOWN_SAVE_TIMEOUT);
 					System.exit(5);
+				}
 			}
 		}, "data-preloader-thread").start();
 	}
@@ -418,14 +446,19 @@ public class GameServer implements LocalServer {
 				toSave.add(p);
 			}
 		}
-		for (GameCharacter p : toSave) {
+		for (GameCharacter p : toSave)
 			p.saveCharacter();
+		PersistenceQueue.getInstance().awaitFlushAll(SHUTDOWN_SAVE_TIMEOUT);
+		for (GameCharacter p : toSave) {
 			p.getClient().updateState(RemoteClient.STATUS_NOTLOGGEDIN);
 			p.disconnect();
 		}
 		if (halt) {
+			PersistenceQueue.getInstance().shutdown(SHUTDOWN_SAVE_TIMEOUT);
 			Scheduler.getInstance().shutdown();
 			Scheduler.getWheelTimer().shutdown();
+			MapTicker.shutdown();
+			ScriptRegistry.getInstance().stopWatching();
 			gci.getSession().close("Halt");
 		} else {
 			for (WorldChannel chn : channels.values()) {
@@ -24,9 +24,11 @@ import argonms.common.character.BuffState;
 import argonms.common.character.BuffState.ItemState;
 import argonms.common.character.BuffState.MobSkillState;
 import argonms.common.character.BuffState.SkillState;
+import argonms.common.character.CharacterSnapshot;
 import argonms.common.character.Cooldown;
 import argonms.common.character.KeyBinding;
 import argonms.common.character.LoggedInPlayer;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.character.PlayerJob;
 import argonms.common.character.PlayerStatusEffect;
 import argonms.common.character.QuestEntry;
@@ -47,6 +49,7 @@ import argonms.common.net.external.PacketSubHeaders;
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
 import argonms.common.util.Rng;
+import argonms.common.util.RowJournal;
 import argonms.common.util.Scheduler;
 import argonms.common.util.collections.LockableList;
 import argonms.common.util.collections.Pair;
@@ -76,8 +79,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.EnumMap;
@@ -90,6 +93,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
@@ -165,6 +169,18 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 
 	private EventManipulator event;
 
+	private final RowJournal<Integer> accountJournal, statsJournal;
+	private final RowJournal<String> mapMemoryJournal;
+	private final RowJournal<InventoryType> inventoryJournal;
+	private final RowJournal<Integer> skillJournal, cooldownJournal;
+	private final RowJournal<Byte> keymapJournal, skillMacroJournal;
+	private final RowJournal<Integer> buddyJournal, partyJournal, guildJournal;
+	private final RowJournal<Short> questJournal;
+	private final RowJournal<Long> questMobJournal;
+	private final RowJournal<Byte> minigameJournal;
+	private final RowJournal<Integer> fameLogJournal;
+	private final List<RowJournal<?>> journals;
+
 	private GameCharacter () {
 		nextTransientItemUniqueId = new AtomicLong(0); //first value is -1 because of decrementAndGet
 		petFullnessSchedules = new ScheduledFuture<?>[3];
@@ -191,6 +207,28 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 		//before we can possibly get them
 		wishList = new ArrayList<Integer>(10);
 
+		//account and stats rows are always written on the first save, and all
+		//other journals are seeded with what's in the database in loadPlayer
+		accountJournal = new RowJournal<Integer>();
+		statsJournal = new RowJournal<Integer>();
+		mapMemoryJournal = new RowJournal<String>("mapmemory", "characterid", "key", "value", "spawnpoint");
+		inventoryJournal = new RowJournal<InventoryType>();
+		skillJournal = new RowJournal<Integer>("skills", "characterid", "skillid", "level", "mastery");
+		cooldownJournal = new RowJournal<Integer>("cooldowns", "characterid", "skillid", "remaining");
+		keymapJournal = new RowJournal<Byte>("keymaps", "characterid", "key", "type", "action");
+		skillMacroJournal = new RowJournal<Byte>("skillmacros", "characterid", "position", "name", "silent", "skill1", "skill2", "skill3");
+		buddyJournal = new RowJournal<Integer>("buddyentries", "owner", "buddy", "buddyname", "status");
+		partyJournal = new RowJournal<Integer>("parties", "characterid", "partyid", "world", "leader");
+		guildJournal = new RowJournal<Integer>("guildmembers", "characterid", "guildid", "rank", "signature", "alliancerank");
+		questJournal = new RowJournal<Short>();
+		questMobJournal = new RowJournal<Long>();
+		minigameJournal = new RowJournal<Byte>("minigamescores", "characterid", "gametype", "wins", "ties", "losses");
+		fameLogJournal = new RowJournal<Integer>("famelog", "from", "to", "millis");
+		journals = Arrays.<RowJournal<?>>asList(accountJournal, statsJournal, mapMemoryJournal,
+				inventoryJournal, skillJournal, cooldownJournal, keymapJournal,
+				skillMacroJournal, buddyJournal, partyJournal, guildJournal,
+				questJournal, questMobJournal, minigameJournal, fameLogJournal);
+
 		itemExpireTask = new ItemExpireTask() {
 			@Override
 			protected void onExpire(long uniqueId) {
@@ -210,61 +248,115 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 		};
 	}
 
-	public void saveCharacter() {
-		int prevTransactionIsolation = Connection.TRANSACTION_REPEATABLE_READ;
-		boolean prevAutoCommit = true;
-		Connection con = null;
-		try {
-			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			prevTransactionIsolation = con.getTransactionIsolation();
-			prevAutoCommit = con.getAutoCommit();
-			con.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-			con.setAutoCommit(false);
-			updateDbAccount(con);
-			updateDbStats(con);
-			updateDbMapMemory(con);
-			updateDbInventory(con);
-			updateDbSkills(con);
-			updateDbCooldowns(con);
-			updateDbBindings(con);
-			updateDbBuddies(con);
-			updateDbParty(con);
-			updateDbGuilds(con);
-			updateDbQuests(con);
-			updateDbMinigameStats(con);
-			updateDbFameLog(con);
+	/**
+	 * Everything that saveCharacter writes, copied out of the live character so
+	 * that it can be written on a PersistenceQueue thread.
+	 */
+	private class SaveSnapshot extends CharacterSnapshot {
+		private final int accountId;
+		private final Map<Integer, List<?>> account, stats;
+		private final Map<String, List<?>> mapMemory;
+		private final Map<InventoryType, List<?>> inventoryImages;
+		private final Map<InventoryType, IInventory> inventories;
+		private final Pet[] pets;
+		private final Map<Long, int[]> petIgnoreItems;
+		private final Map<Integer, List<?>> skills, cooldowns;
+		private final Map<Byte, List<?>> bindings, macros;
+		private final Map<Integer, List<?>> buddies, party, guild;
+		private final Map<Short, List<?>> quests;
+		private final Map<Long, List<?>> questMobs;
+		private final Map<Byte, List<?>> minigames;
+		private final Map<Integer, List<?>> fames;
+
+		public SaveSnapshot() {
+			super(getDataId());
+			accountId = client.getAccountId();
+			account = accountRows();
+			stats = statsRows();
+			mapMemory = mapMemoryRows();
+			inventoryImages = inventoryRows();
+			EnumMap<InventoryType, IInventory> union = new EnumMap<InventoryType, IInventory>(getInventories());
+			union.put(InventoryType.STORAGE, storage);
+			pets = new Pet[3];
+			inventories = copyInventories(union, getPets(), pets);
+			petIgnoreItems = new HashMap<Long, int[]>();
+			for (Map.Entry<Long, int[]> entry : GameCharacter.this.petIgnoreItems.entrySet())
+				petIgnoreItems.put(entry.getKey(), entry.getValue().clone());
+			skills = skillRows();
+			cooldowns = cooldownRows();
+			bindings = keymapRows();
+			macros = skillMacroRows();
+			buddies = buddyRows();
+			party = partyRows();
+			guild = guildRows();
+			quests = new HashMap<Short, List<?>>();
+			questMobs = new HashMap<Long, List<?>>();
+			questRows(quests, questMobs);
+			minigames = minigameRows();
+			fames = fameLogRows();
+		}
+
+		@Override
+		protected int write(Connection con) throws SQLException {
+			int rows = 0;
+			rows += updateDbAccount(con, this);
+			rows += updateDbStats(con, this);
+			rows += mapMemoryJournal.write(con, getCharacterId(), mapMemory);
+			rows += updateDbInventory(con, this);
+			rows += updateDbSkills(con, this);
+			rows += updateDbCooldowns(con, this);
+			rows += updateDbBindings(con, this);
+			rows += buddyJournal.write(con, getCharacterId(), buddies);
+			rows += partyJournal.write(con, getCharacterId(), party);
+			rows += guildJournal.write(con, getCharacterId(), guild);
+			rows += updateDbQuests(con, this);
+			rows += updateDbMinigameStats(con, this);
+			rows += updateDbFameLog(con, this);
 			//wishlists can't change in game server, so don't bother with them
-			con.commit();
-		} catch (Throwable ex) {
-			LOG.log(Level.WARNING, "Could not save character " + getDataId() + ". Rolling back all changes...", ex);
-			if (con != null) {
-				try {
-					con.rollback();
-				} catch (SQLException ex2) {
-					LOG.log(Level.WARNING, "Error rolling back character.", ex2);
-				}
-			}
-		} finally {
-			if (con != null) {
-				try {
-					con.setAutoCommit(prevAutoCommit);
-					con.setTransactionIsolation(prevTransactionIsolation);
-				} catch (SQLException ex) {
-					LOG.log(Level.WARNING, "Could not reset Connection config after saving character " + getDataId(), ex);
-				}
-			}
-			DatabaseManager.cleanup(DatabaseType.STATE, null, null, con);
+			return rows;
+		}
+
+		@Override
+		protected void committed() {
+			for (RowJournal<?> journal : journals)
+				journal.commit();
+		}
+
+		@Override
+		protected void rolledBack() {
+			for (RowJournal<?> journal : journals)
+				journal.rollback();
 		}
 	}
 
-	private void updateDbAccount(Connection con) throws SQLException {
+	/**
+	 * Queue this character to be written to the database. The character is
+	 * copied right away, but the copy is written on a PersistenceQueue thread,
+	 * so anything that needs to read the saved character back has to wait on
+	 * PersistenceQueue.flush() first.
+	 */
+	public void saveCharacter() {
+		PersistenceQueue.getInstance().submit(new SaveSnapshot());
+	}
+
+	private Map<Integer, List<?>> accountRows() {
+		return Collections.<Integer, List<?>>singletonMap(Integer.valueOf(client.getAccountId()), RowJournal.row(
+				Short.valueOf(storage.getMaxSlots()), Integer.valueOf(storage.getMesos())));
+	}
+
+	private int updateDbAccount(Connection con, SaveSnapshot s) throws SQLException {
+		RowJournal.Changes<Integer> changes = accountJournal.diff(s.account);
+		if (changes.getUpdated().isEmpty() && changes.getInserted().isEmpty())
+			return 0;
+
 		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement("UPDATE `accounts` SET `storageslots` = ?, `storagemesos` = ? WHERE `id` = ?");
-			ps.setShort(1, storage.getMaxSlots());
-			ps.setInt(2, storage.getMesos());
-			ps.setInt(3, client.getAccountId());
-			ps.executeUpdate();
+			List<?> row = s.account.get(Integer.valueOf(s.accountId));
+			ps.setObject(1, row.get(0));
+			ps.setObject(2, row.get(1));
+			ps.setInt(3, s.accountId);
+			return ps.executeUpdate();
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save account-info of character " + name, e);
 		} finally {
@@ -272,7 +364,25 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 		}
 	}
 
-	private void updateDbStats(Connection con) throws SQLException {
+	private Map<Integer, List<?>> statsRows() {
+		return Collections.<Integer, List<?>>singletonMap(Integer.valueOf(getDataId()), RowJournal.row(
+				Integer.valueOf(client.getAccountId()), Byte.valueOf(client.getWorld()), name, Byte.valueOf(gender),
+				Integer.valueOf(skin), Integer.valueOf(eyes), Integer.valueOf(hair),
+				Short.valueOf(level), Short.valueOf(job), Short.valueOf(baseStr), Short.valueOf(baseDex), Short.valueOf(baseInt), Short.valueOf(baseLuk),
+				Short.valueOf(remHp), Short.valueOf(baseMaxHp), Short.valueOf(remMp), Short.valueOf(baseMaxMp),
+				Short.valueOf(remAp), Short.valueOf(remSp), Integer.valueOf(exp), Short.valueOf(fame),
+				Integer.valueOf(partner), Integer.valueOf(getMapId()), Byte.valueOf(map != null ? map.nearestSpawnPoint(getPosition()) : savedSpawnPoint), Integer.valueOf(mesos),
+				Short.valueOf(getInventory(InventoryType.EQUIP).getMaxSlots()), Short.valueOf(getInventory(InventoryType.USE).getMaxSlots()),
+				Short.valueOf(getInventory(InventoryType.SETUP).getMaxSlots()), Short.valueOf(getInventory(InventoryType.ETC).getMaxSlots()),
+				Short.valueOf(getInventory(InventoryType.CASH).getMaxSlots()),
+				Short.valueOf(buddies.getCapacity()), Byte.valueOf(getPrivilegeLevel())));
+	}
+
+	private int updateDbStats(Connection con, SaveSnapshot s) throws SQLException {
+		RowJournal.Changes<Integer> changes = statsJournal.diff(s.stats);
+		if (changes.getUpdated().isEmpty() && changes.getInserted().isEmpty())
+			return 0;
+
 		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement("UPDATE `characters` SET "
@@ -282,43 +392,15 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					+ "`spouse` = ?, `map` = ?, `spawnpoint` = ?, `mesos` = ?, "
 					+ "`equipslots` = ?, `useslots` = ?, `setupslots` = ?, `etcslots` = ?, `cashslots` = ?, "
 					+ "`buddyslots` = ?, `gm` = ? WHERE `id` = ?");
-			ps.setInt(1, client.getAccountId());
-			ps.setByte(2, client.getWorld());
-			ps.setString(3, name);
-			ps.setByte(4, gender);
-			ps.setInt(5, skin);
-			ps.setInt(6, eyes);
-			ps.setInt(7, hair);
-			ps.setShort(8, level);
-			ps.setShort(9, job);
-			ps.setShort(10, baseStr);
-			ps.setShort(11, baseDex);
-			ps.setShort(12, baseInt);
-			ps.setShort(13, baseLuk);
-			ps.setShort(14, remHp);
-			ps.setShort(15, baseMaxHp);
-			ps.setShort(16, remMp);
-			ps.setShort(17, baseMaxMp);
-			ps.setShort(18, remAp);
-			ps.setShort(19, remSp);
-			ps.setInt(20, exp);
-			ps.setShort(21, fame);
-			ps.setInt(22, partner);
-			ps.setInt(23, getMapId());
-			ps.setByte(24, map != null ? map.nearestSpawnPoint(getPosition()) : savedSpawnPoint);
-			ps.setInt(25, mesos);
-			ps.setShort(26, getInventory(InventoryType.EQUIP).getMaxSlots());
-			ps.setShort(27, getInventory(InventoryType.USE).getMaxSlots());
-			ps.setShort(28, getInventory(InventoryType.SETUP).getMaxSlots());
-			ps.setShort(29, getInventory(InventoryType.ETC).getMaxSlots());
-			ps.setShort(30, getInventory(InventoryType.CASH).getMaxSlots());
-			ps.setShort(31, buddies.getCapacity());
-			ps.setByte(32, getPrivilegeLevel());
-			ps.setInt(33, getDataId());
+			int i = 1;
+			for (Object column : s.stats.get(Integer.valueOf(s.getCharacterId())))
+				ps.setObject(i++, column);
+			ps.setInt(i, s.getCharacterId());
 			int updateRows = ps.executeUpdate();
 			if (updateRows < 1)
 				LOG.log(Level.WARNING, "Updating a deleted character with name {0} of account {1}.",
-						new Object[] { name, client.getAccountId() });
+						new Object[] { name, s.accountId });
+			return updateRows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save stats of character " + name, e);
 		} finally {
@@ -326,49 +408,69 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 		}
 	}
 
-	private void updateDbMapMemory(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `mapmemory` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<String, List<?>> mapMemoryRows() {
+		Map<String, List<?>> current = new HashMap<String, List<?>>();
+		for (Entry<MapMemoryVariable, Pair<Integer, Byte>> entry : rememberedMaps.entrySet())
+			current.put(entry.getKey().toString(), RowJournal.row(entry.getValue().left, entry.getValue().right));
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `mapmemory` (`characterid`,`key`,`value`,`spawnpoint`) VALUES (?,?,?,?)");
-			ps.setInt(1, getDataId());
-			for (Entry<MapMemoryVariable, Pair<Integer, Byte>> entry : rememberedMaps.entrySet()) {
-				ps.setString(2, entry.getKey().toString());
-				ps.setInt(3, entry.getValue().left.intValue());
-				ps.setByte(4, entry.getValue().right.byteValue());
-				ps.addBatch();
-			}
-			ps.executeBatch();
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+	private Map<InventoryType, List<?>> inventoryRows() {
+		Map<InventoryType, List<?>> current = new EnumMap<InventoryType, List<?>>(InventoryType.class);
+		for (Entry<InventoryType, Inventory> entry : getInventories().entrySet())
+			current.put(entry.getKey(), snapshotInventory(entry.getValue(), getPets()));
+		current.put(InventoryType.STORAGE, snapshotInventory(storage, getPets()));
+
+		//pet ignore items are cascade deleted with the pets they belong to, so
+		//the cash inventory has to be rewritten if any of them change
+		List<Object> cashImage = new ArrayList<Object>(current.get(InventoryType.CASH));
+		for (Map.Entry<Long, int[]> entry : new TreeMap<Long, int[]>(petIgnoreItems).entrySet()) {
+			cashImage.add(entry.getKey());
+			for (int itemId : entry.getValue())
+				cashImage.add(Integer.valueOf(itemId));
 		}
+		current.put(InventoryType.CASH, cashImage);
+		return current;
 	}
 
-	private void updateDbInventory(Connection con) throws SQLException {
-		String invUpdate = "DELETE FROM `inventoryitems` WHERE "
-				+ "`characterid` = ? AND `inventorytype` <= " + InventoryType.CASH.byteValue()
-				+ " OR `accountid` = ? AND `inventorytype` = " + InventoryType.STORAGE.byteValue();
+	private int updateDbInventory(Connection con, SaveSnapshot s) throws SQLException {
+		RowJournal.Changes<InventoryType> changes = inventoryJournal.diff(s.inventoryImages);
+		if (changes.isEmpty())
+			return 0;
+
+		EnumMap<InventoryType, IInventory> dirty = new EnumMap<InventoryType, IInventory>(InventoryType.class);
+		for (InventoryType type : changes.getUpdated().keySet())
+			dirty.put(type, s.inventories.get(type));
+		for (InventoryType type : changes.getInserted().keySet())
+			dirty.put(type, s.inventories.get(type));
+		int rows = 0;
 		PreparedStatement ps = null, ips = null;
-		ResultSet rs = null;
 		try {
-			ps = con.prepareStatement(invUpdate);
-			ps.setInt(1, getDataId());
-			ps.setInt(2, client.getAccountId());
-			ps.executeUpdate();
+			ps = con.prepareStatement("DELETE FROM `inventoryitems` WHERE `characterid` = ? AND `inventorytype` = ?");
+			ips = con.prepareStatement("DELETE FROM `inventoryitems` WHERE `accountid` = ? AND `inventorytype` = ?");
+			ps.setInt(1, s.getCharacterId());
+			ips.setInt(1, s.accountId);
+			for (InventoryType type : dirty.keySet()) {
+				if (type == InventoryType.STORAGE) {
+					ips.setByte(2, type.byteValue());
+					rows += ips.executeUpdate();
+				} else {
+					ps.setByte(2, type.byteValue());
+					rows += ps.executeUpdate();
+				}
+			}
 			ps.close();
 
-			EnumMap<InventoryType, IInventory> union = new EnumMap<InventoryType, IInventory>(getInventories());
-			union.put(InventoryType.STORAGE, storage);
-			commitInventory(con, union);
+			commitInventory(s.getCharacterId(), s.accountId, s.pets, con, dirty);
+			for (IInventory inv : dirty.values())
+				rows += inv.getAll().size();
 
-			Inventory cashInv = getInventories().get(InventoryType.CASH);
+			if (!dirty.containsKey(InventoryType.CASH))
+				return rows;
+
+			IInventory cashInv = s.inventories.get(InventoryType.CASH);
 			ps = con.prepareStatement("INSERT INTO `petignoreitems` (`petinventoryitemid`,`ignoreitem`) SELECT `inventoryitemid`,? FROM `cashshoppurchases` WHERE `uniqueid` = ?");
-			for (Map.Entry<Long, int[]> entry : petIgnoreItems.entrySet()) {
+			for (Map.Entry<Long, int[]> entry : s.petIgnoreItems.entrySet()) {
 				long uniqueId = entry.getKey().longValue();
 				boolean inInventory = false;
 				for (InventorySlot item : cashInv.getAll().values()) {
@@ -386,290 +488,244 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					ps.addBatch();
 				}
 			}
-			ps.executeBatch();
+			rows += RowJournal.countRows(ps.executeBatch());
+			return rows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save inventory of character " + name, e);
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, null, ips, null);
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbSkills(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `skills` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Integer, List<?>> skillRows() {
+		Map<Integer, List<?>> current = new HashMap<Integer, List<?>>();
+		for (Entry<Integer, SkillEntry> skill : skillEntries.entrySet())
+			current.put(skill.getKey(), RowJournal.row(Byte.valueOf(skill.getValue().getLevel()), Byte.valueOf(skill.getValue().getMasterLevel())));
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `skills` (`characterid`,`skillid`,`level`,`mastery`) VALUES (?,?,?,?)");
-			ps.setInt(1, getDataId());
-			for (Entry<Integer, SkillEntry> skill : skillEntries.entrySet()) {
-				SkillEntry skillLevel = skill.getValue();
-				ps.setInt(2, skill.getKey().intValue());
-				ps.setByte(3, skillLevel.getLevel());
-				ps.setByte(4, skillLevel.getMasterLevel());
-				ps.addBatch();
-			}
-			ps.executeBatch();
+	private int updateDbSkills(Connection con, SaveSnapshot s) throws SQLException {
+		try {
+			return skillJournal.write(con, s.getCharacterId(), s.skills);
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save skill levels of character " + name, e);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbCooldowns(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `cooldowns` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Integer, List<?>> cooldownRows() {
+		Map<Integer, List<?>> current = new HashMap<Integer, List<?>>();
+		for (Entry<Integer, Cooldown> cooling : cooldowns.entrySet())
+			current.put(cooling.getKey(), RowJournal.row(Short.valueOf(cooling.getValue().getSecondsRemaining())));
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `cooldowns` (`characterid`,`skillid`,`remaining`) VALUES (?,?,?)");
-			ps.setInt(1, getDataId());
-			for (Entry<Integer, Cooldown> cooling : cooldowns.entrySet()) {
-				ps.setInt(2, cooling.getKey().intValue());
-				ps.setShort(3, cooling.getValue().getSecondsRemaining());
-				ps.addBatch();
-			}
-			ps.executeBatch();
+	private int updateDbCooldowns(Connection con, SaveSnapshot s) throws SQLException {
+		try {
+			return cooldownJournal.write(con, s.getCharacterId(), s.cooldowns);
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save cooldowns of character " + name, e);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbBindings(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `keymaps` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Byte, List<?>> keymapRows() {
+		Map<Byte, List<?>> current = new HashMap<Byte, List<?>>();
+		for (Entry<Byte, KeyBinding> entry : bindings.entrySet())
+			current.put(entry.getKey(), RowJournal.row(Byte.valueOf(entry.getValue().getType()), Integer.valueOf(entry.getValue().getAction())));
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `keymaps` (`characterid`,`key`,`type`,`action`) VALUES (?,?,?,?)");
-			ps.setInt(1, getDataId());
-			for (Entry<Byte, KeyBinding> entry : bindings.entrySet()) {
-				KeyBinding binding = entry.getValue();
-				ps.setByte(2, entry.getKey().byteValue());
-				ps.setByte(3, binding.getType());
-				ps.setInt(4, binding.getAction());
-				ps.addBatch();
-			}
-			ps.executeBatch();
-			ps.close();
+	private Map<Byte, List<?>> skillMacroRows() {
+		Map<Byte, List<?>> current = new HashMap<Byte, List<?>>();
+		SkillMacro[] macros = skillMacros;
+		for (byte pos = 0; pos < macros.length; pos++) {
+			SkillMacro macro = macros[pos];
+			if (macro.getName().isEmpty() && !macro.isSilent() && macro.getFirstSkill() == 0 && macro.getSecondSkill() == 0 && macro.getThirdSkill() == 0)
+				continue; //placeholder macro
 
-			ps = con.prepareStatement("DELETE FROM `skillmacros` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+			current.put(Byte.valueOf(pos), RowJournal.row(macro.getName(), Boolean.valueOf(macro.isSilent()),
+					Integer.valueOf(macro.getFirstSkill()), Integer.valueOf(macro.getSecondSkill()), Integer.valueOf(macro.getThirdSkill())));
+		}
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `skillmacros` "
-					+ "(`characterid`,`position`,`name`,`silent`,`skill1`,`skill2`,`skill3`) "
-					+ "VALUES (?,?,?,?,?,?,?)");
-			ps.setInt(1, getDataId());
-			for (byte pos = 0; pos < skillMacros.length; pos++) {
-				SkillMacro macro = skillMacros[pos];
-				if (macro.getName().isEmpty() && !macro.isSilent() && macro.getFirstSkill() == 0 && macro.getSecondSkill() == 0 && macro.getThirdSkill() == 0)
-					continue; //placeholder macro
-
-				ps.setByte(2, pos);
-				ps.setString(3, macro.getName());
-				ps.setBoolean(4, macro.isSilent());
-				ps.setInt(5, macro.getFirstSkill());
-				ps.setInt(6, macro.getSecondSkill());
-				ps.setInt(7, macro.getThirdSkill());
-				ps.addBatch();
-			}
-			ps.executeBatch();
+	private int updateDbBindings(Connection con, SaveSnapshot s) throws SQLException {
+		try {
+			return keymapJournal.write(con, s.getCharacterId(), s.bindings)
+					+ skillMacroJournal.write(con, s.getCharacterId(), s.macros);
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save keymap/macros of character " + name, e);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbBuddies(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `buddyentries` WHERE `owner` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Integer, List<?>> buddyRows() {
+		Map<Integer, List<?>> current = new HashMap<Integer, List<?>>();
+		for (Entry<Integer, String> invite : buddies.getInvites())
+			current.put(invite.getKey(), RowJournal.row(invite.getValue(), Byte.valueOf(BuddyListEntry.STATUS_INVITED)));
+		for (BuddyListEntry buddy : buddies.getBuddies())
+			current.put(Integer.valueOf(buddy.getId()), RowJournal.row(buddy.getName(), Byte.valueOf(buddy.getStatus())));
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `buddyentries` "
-					+ "(`owner`,`buddy`,`buddyname`,`status`) VALUES (?,?,?,?)");
-			ps.setInt(1, getDataId());
-			for (BuddyListEntry buddy : buddies.getBuddies()) {
-				ps.setInt(2, buddy.getId());
-				ps.setString(3, buddy.getName());
-				ps.setByte(4, buddy.getStatus());
-				ps.addBatch();
-			}
-			ps.setByte(4, BuddyListEntry.STATUS_INVITED);
-			for (Entry<Integer, String> invite : buddies.getInvites()) {
-				ps.setInt(2, invite.getKey().intValue());
-				ps.setString(3, invite.getValue());
-				ps.addBatch();
-			}
-			ps.executeBatch();
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
-		}
+	private Map<Integer, List<?>> partyRows() {
+		if (party == null)
+			return Collections.emptyMap();
+		return Collections.<Integer, List<?>>singletonMap(Integer.valueOf(party.getId()), RowJournal.row(
+				Byte.valueOf(getClient().getWorld()), Boolean.valueOf(party.getLeader() == getDataId())));
 	}
 
-	private void updateDbParty(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `parties` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
+	private Map<Integer, List<?>> guildRows() {
+		if (guild == null)
+			return Collections.emptyMap();
+		GuildList.Member member = guild.getMember(getId());
+		return Collections.<Integer, List<?>>singletonMap(Integer.valueOf(guild.getId()), RowJournal.row(
+				Byte.valueOf(member.getRank()), Byte.valueOf(member.getSignature()), Byte.valueOf(member.getAllianceRank())));
+	}
 
-			if (party != null) {
-				ps.close();
-				ps = con.prepareStatement("INSERT INTO `parties` "
-						+ "(`world`,`partyid`,`characterid`,`leader`) VALUES (?,?,?,?)");
-				ps.setByte(1, getClient().getWorld());
-				ps.setInt(2, party.getId());
-				ps.setInt(3, getDataId());
-				ps.setBoolean(4, party.getLeader() == getDataId());
-				ps.executeUpdate();
-			}
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
+	private static Long questMobKey(short questId, int mobId) {
+		return Long.valueOf(((long) questId << 32) | (mobId & 0xFFFFFFFFL));
+	}
+
+	private void questRows(Map<Short, List<?>> statuses, Map<Long, List<?>> progress) {
+		for (Entry<Short, QuestEntry> entry : questStatuses.entrySet()) {
+			QuestEntry status = entry.getValue();
+			statuses.put(entry.getKey(), RowJournal.row(Byte.valueOf(status.getState()), Long.valueOf(status.getCompletionTime())));
+			if (status.getState() == QuestEntry.STATE_STARTED)
+				for (Entry<Integer, ? extends Number> mobProgress : status.getAllMobCounts().entrySet())
+					progress.put(questMobKey(entry.getKey().shortValue(), mobProgress.getKey().intValue()), RowJournal.row(Short.valueOf(mobProgress.getValue().shortValue())));
 		}
 	}
 
-	private void updateDbGuilds(Connection con) throws SQLException {
+	private int updateDbQuests(Connection con, SaveSnapshot s) throws SQLException {
+		RowJournal.Changes<Short> statusChanges = questJournal.diff(s.quests);
+		RowJournal.Changes<Long> progressChanges = questMobJournal.diff(s.questMobs);
+
+		int rows = 0;
 		PreparedStatement ps = null;
 		try {
-			ps = con.prepareStatement("DELETE FROM `guildmembers` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-
-			if (guild != null) {
+			if (!statusChanges.getDeleted().isEmpty()) {
+				//mob progress is cascade deleted
+				ps = con.prepareStatement("DELETE FROM `queststatuses` WHERE `characterid` = ? AND `questid` = ?");
+				ps.setInt(1, s.getCharacterId());
+				for (Short questId : statusChanges.getDeleted()) {
+					ps.setShort(2, questId.shortValue());
+					ps.addBatch();
+				}
+				rows += RowJournal.countRows(ps.executeBatch());
+				ps.close();
+			}
+			if (!statusChanges.getUpdated().isEmpty()) {
+				ps = con.prepareStatement("UPDATE `queststatuses` SET `state` = ?, `completed` = ? WHERE `characterid` = ? AND `questid` = ?");
+				ps.setInt(3, s.getCharacterId());
+				for (Entry<Short, List<?>> entry : statusChanges.getUpdated().entrySet()) {
+					ps.setObject(1, entry.getValue().get(0));
+					ps.setObject(2, entry.getValue().get(1));
+					ps.setShort(4, entry.getKey().shortValue());
+					ps.addBatch();
+				}
+				rows += RowJournal.countRows(ps.executeBatch());
+				ps.close();
+			}
+			if (!statusChanges.getInserted().isEmpty()) {
+				ps = con.prepareStatement("INSERT INTO `queststatuses` "
+						+ "(`characterid`,`questid`,`state`,`completed`) VALUES (?,?,?,?)");
+				ps.setInt(1, s.getCharacterId());
+				for (Entry<Short, List<?>> entry : statusChanges.getInserted().entrySet()) {
+					ps.setShort(2, entry.getKey().shortValue());
+					ps.setObject(3, entry.getValue().get(0));
+					ps.setObject(4, entry.getValue().get(1));
+					ps.addBatch();
+				}
+				rows += RowJournal.countRows(ps.executeBatch());
 				ps.close();
-				ps = con.prepareStatement("INSERT INTO `guildmembers` "
-						+ "(`guildid`,`characterid`,`rank`,`signature`,`alliancerank`) VALUES (?,?,?,?,?)");
-				ps.setInt(1, guild.getId());
-				ps.setInt(2, getDataId());
-				GuildList.Member member = guild.getMember(getId());
-				ps.setByte(3, member.getRank());
-				ps.setByte(4, member.getSignature());
-				ps.setByte(5, member.getAllianceRank());
-				ps.executeUpdate();
 			}
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
-		}
-	}
-
-	private void updateDbQuests(Connection con) throws SQLException {
-		PreparedStatement ps = null, mps = null;
-		ResultSet rs = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `queststatuses` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
 
-			ps = con.prepareStatement("INSERT INTO `queststatuses` "
-					+ "(`characterid`,`questid`,`state`,`completed`) VALUES (?,?,?,?)",
-					Statement.RETURN_GENERATED_KEYS);
-			ps.setInt(1, getDataId());
-			mps = con.prepareStatement("INSERT INTO `questmobprogress` "
-					+ "(`queststatusid`,`mobid`,`count`) VALUES (?,?,?)");
-			for (Entry<Short, QuestEntry> entry : questStatuses.entrySet()) {
-				QuestEntry status = entry.getValue();
-				ps.setShort(2, entry.getKey().shortValue());
-				ps.setByte(3, status.getState());
-				ps.setLong(4, status.getCompletionTime());
-				if (status.getState() == QuestEntry.STATE_STARTED) {
-					ps.executeUpdate();
-					rs = ps.getGeneratedKeys();
-					int questEntryId = rs.next() ? rs.getInt(1) : -1;
-					rs.close();
-
-					mps.setInt(1, questEntryId);
-					for (Entry<Integer, ? extends Number> mobProgress : status.getAllMobCounts().entrySet()) {
-						mps.setInt(2, mobProgress.getKey().intValue());
-						mps.setShort(3, mobProgress.getValue().shortValue());
-						mps.addBatch();
-					}
-				} else {
+			//mob progress rows are addressed through their quest status so that
+			//we never have to fetch the generated keys of the quest statuses
+			if (!progressChanges.getDeleted().isEmpty()) {
+				ps = con.prepareStatement("DELETE `m`.* FROM `questmobprogress` `m` "
+						+ "LEFT JOIN `queststatuses` `q` ON `m`.`queststatusid` = `q`.`id` "
+						+ "WHERE `q`.`characterid` = ? AND `q`.`questid` = ? AND `m`.`mobid` = ?");
+				ps.setInt(1, s.getCharacterId());
+				for (Long key : progressChanges.getDeleted()) {
+					ps.setShort(2, (short) (key.longValue() >>> 32));
+					ps.setInt(3, key.intValue());
+					ps.addBatch();
+				}
+				rows += RowJournal.countRows(ps.executeBatch());
+				ps.close();
+			}
+			if (!progressChanges.getUpdated().isEmpty()) {
+				ps = con.prepareStatement("UPDATE `questmobprogress` `m` "
+						+ "LEFT JOIN `queststatuses` `q` ON `m`.`queststatusid` = `q`.`id` SET `m`.`count` = ? "
+						+ "WHERE `q`.`characterid` = ? AND `q`.`questid` = ? AND `m`.`mobid` = ?");
+				ps.setInt(2, s.getCharacterId());
+				for (Entry<Long, List<?>> entry : progressChanges.getUpdated().entrySet()) {
+					ps.setObject(1, entry.getValue().get(0));
+					ps.setShort(3, (short) (entry.getKey().longValue() >>> 32));
+					ps.setInt(4, entry.getKey().intValue());
 					ps.addBatch();
 				}
+				rows += RowJournal.countRows(ps.executeBatch());
+				ps.close();
 			}
-			ps.executeBatch();
-			mps.executeBatch();
+			if (!progressChanges.getInserted().isEmpty()) {
+				ps = con.prepareStatement("INSERT INTO `questmobprogress` (`queststatusid`,`mobid`,`count`) "
+						+ "SELECT `id`,?,? FROM `queststatuses` WHERE `characterid` = ? AND `questid` = ?");
+				ps.setInt(3, s.getCharacterId());
+				for (Entry<Long, List<?>> entry : progressChanges.getInserted().entrySet()) {
+					ps.setInt(1, entry.getKey().intValue());
+					ps.setObject(2, entry.getValue().get(0));
+					ps.setShort(4, (short) (entry.getKey().longValue() >>> 32));
+					ps.addBatch();
+				}
+				rows += RowJournal.countRows(ps.executeBatch());
+			}
+			return rows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save quest states of character " + name, e);
 		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, mps, null);
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbMinigameStats(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `minigamescores` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Byte, List<?>> minigameRows() {
+		Map<Byte, List<?>> current = new HashMap<Byte, List<?>>();
+		synchronized(minigameStats) {
+			for (Entry<MiniroomType, Map<MinigameResult, AtomicInteger>> stats : minigameStats.entrySet())
+				current.put(Byte.valueOf(stats.getKey().byteValue()), RowJournal.row(
+						Integer.valueOf(stats.getValue().get(MinigameResult.WIN).get()),
+						Integer.valueOf(stats.getValue().get(MinigameResult.TIE).get()),
+						Integer.valueOf(stats.getValue().get(MinigameResult.LOSS).get())));
+		}
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `minigamescores` "
-					+ "(`characterid`,`gametype`,`wins`,`ties`,`losses`) "
-					+ "VALUES (?, ?, ?, ?, ?)");
-			ps.setInt(1, getDataId());
-			synchronized(minigameStats) {
-				for (Entry<MiniroomType, Map<MinigameResult, AtomicInteger>> stats : minigameStats.entrySet()) {
-					ps.setByte(2, stats.getKey().byteValue());
-					ps.setInt(3, stats.getValue().get(MinigameResult.WIN).get());
-					ps.setInt(4, stats.getValue().get(MinigameResult.TIE).get());
-					ps.setInt(5, stats.getValue().get(MinigameResult.LOSS).get());
-					ps.addBatch();
-				}
-			}
-			ps.executeBatch();
+	private int updateDbMinigameStats(Connection con, SaveSnapshot s) throws SQLException {
+		try {
+			return minigameJournal.write(con, s.getCharacterId(), s.minigames);
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save minigame stats of character " + name, e);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbFameLog(Connection con) throws SQLException {
-		PreparedStatement ps = null;
-		try {
-			ps = con.prepareStatement("DELETE FROM `famelog` WHERE `from` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
-			ps.close();
+	private Map<Integer, List<?>> fameLogRows() {
+		Map<Integer, List<?>> current = new HashMap<Integer, List<?>>();
+		long threshold = System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 30;
+		synchronized(famesThisMonth) {
+			for (Entry<Integer, Long> fameEntry : famesThisMonth.entrySet())
+				//given time >= now - 30 days
+				if (fameEntry.getValue().longValue() >= threshold)
+					current.put(fameEntry.getKey(), RowJournal.row(fameEntry.getValue()));
+		}
+		return current;
+	}
 
-			ps = con.prepareStatement("INSERT INTO `famelog` (`from`,`to`,`millis`) VALUES (?,?,?)");
-			ps.setInt(1, getDataId());
-			long threshold = System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 30;
-			synchronized(famesThisMonth) {
-				for (Entry<Integer, Long> fameEntry : famesThisMonth.entrySet()) {
-					long time = fameEntry.getValue().longValue();
-					//given time >= now - 30 days
-					if (time >= threshold) {
-						ps.setInt(2, fameEntry.getKey().intValue());
-						ps.setLong(3, fameEntry.getValue().longValue());
-						ps.addBatch();
-					}
-				}
-			}
-			ps.executeBatch();
+	private int updateDbFameLog(Connection con, SaveSnapshot s) throws SQLException {
+		try {
+			return fameLogJournal.write(con, s.getCharacterId(), s.fames);
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save fame log of character " + name, e);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
@@ -677,6 +733,9 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 		Connection con = null;
 		PreparedStatement ps = null, ips = null;
 		ResultSet rs = null, irs = null;
+		//make sure we don't read back a stale copy if the character's last
+		//save on this server hasn't been written yet
+		PersistenceQueue.getInstance().awaitFlush(id);
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
 			ps = con.prepareStatement("SELECT `c`.*,`a`.`name`,`a`.`storageslots`,`a`.`storagemesos` "
@@ -721,8 +780,12 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			ps = con.prepareStatement("SELECT `key`,`value`,`spawnpoint` FROM `mapmemory` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
-			while (rs.next())
+			Map<String, List<?>> mapMemoryRows = new HashMap<String, List<?>>();
+			while (rs.next()) {
 				p.rememberedMaps.put(MapMemoryVariable.valueOf(rs.getString(1)), new Pair<Integer, Byte>(Integer.valueOf(rs.getInt(2)), Byte.valueOf(rs.getByte(3))));
+				mapMemoryRows.put(rs.getString(1), RowJournal.row(Integer.valueOf(rs.getInt(2)), Byte.valueOf(rs.getByte(3))));
+			}
+			p.mapMemoryJournal.reset(mapMemoryRows);
 			rs.close();
 			ps.close();
 
@@ -766,6 +829,7 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			}
 			rs.close();
 			ps.close();
+			p.inventoryJournal.reset(p.inventoryRows());
 			Pet[] pets = p.getPets();
 			for (byte i = 0; i < 3 && pets[i] != null; i++)
 				p.createPetFullnessSchedule(pets[i], i);
@@ -781,8 +845,12 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					+ "FROM `skills` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
-			while (rs.next())
+			Map<Integer, List<?>> skillRows = new HashMap<Integer, List<?>>();
+			while (rs.next()) {
 				p.skillEntries.put(Integer.valueOf(rs.getInt(1)), new SkillEntry(rs.getByte(2), rs.getByte(3)));
+				skillRows.put(Integer.valueOf(rs.getInt(1)), RowJournal.row(Byte.valueOf(rs.getByte(2)), Byte.valueOf(rs.getByte(3))));
+			}
+			p.skillJournal.reset(skillRows);
 			rs.close();
 			ps.close();
 
@@ -790,8 +858,12 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					+ "FROM `cooldowns` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
-			while (rs.next())
+			Map<Integer, List<?>> cooldownRows = new HashMap<Integer, List<?>>();
+			while (rs.next()) {
 				p.addCooldown(rs.getInt(1), rs.getShort(2));
+				cooldownRows.put(Integer.valueOf(rs.getInt(1)), RowJournal.row(Short.valueOf(rs.getShort(2))));
+			}
+			p.cooldownJournal.reset(cooldownRows);
 			rs.close();
 			ps.close();
 
@@ -799,12 +871,15 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					+ "FROM `keymaps` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
+			Map<Byte, List<?>> keymapRows = new HashMap<Byte, List<?>>();
 			while (rs.next()) {
 				byte key = rs.getByte(1);
 				byte type = rs.getByte(2);
 				int action = rs.getInt(3);
 				p.bindings.put(Byte.valueOf(key), new KeyBinding(type, action));
+				keymapRows.put(Byte.valueOf(key), RowJournal.row(Byte.valueOf(type), Integer.valueOf(action)));
 			}
+			p.keymapJournal.reset(keymapRows);
 			rs.close();
 			ps.close();
 
@@ -813,6 +888,7 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
 			byte macroPos = 0;
+			Map<Byte, List<?>> skillMacroRows = new HashMap<Byte, List<?>>();
 			for (boolean first = true; rs.next(); first = false) {
 				macroPos = rs.getByte(1);
 				if (first)
@@ -820,7 +896,11 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 				p.skillMacros[macroPos] = new SkillMacro(rs.getString(2),
 						rs.getBoolean(3), rs.getInt(4), rs.getInt(5),
 						rs.getInt(6));
+				skillMacroRows.put(Byte.valueOf(macroPos), RowJournal.row(rs.getString(2),
+						Boolean.valueOf(rs.getBoolean(3)), Integer.valueOf(rs.getInt(4)),
+						Integer.valueOf(rs.getInt(5)), Integer.valueOf(rs.getInt(6))));
 			}
+			p.skillMacroJournal.reset(skillMacroRows);
 			if (p.skillMacros == null)
 				p.skillMacros = new SkillMacro[0]; //no macros
 			for (macroPos--; macroPos >= 0; macroPos--)
@@ -829,34 +909,45 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			ps.close();
 
 			ps = con.prepareStatement("SELECT `e`.`buddy` AS `id`,"
-					+ "IF(ISNULL(`c`.`name`),`e`.`buddyname`,`c`.`name`) AS `name`,`e`.`status` "
+					+ "IF(ISNULL(`c`.`name`),`e`.`buddyname`,`c`.`name`) AS `name`,`e`.`status`,`e`.`buddyname` "
 					+ "FROM `buddyentries` `e` LEFT JOIN `characters` `c` ON `c`.`id` = `e`.`buddy` "
 					+ "WHERE `owner` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
+			Map<Integer, List<?>> buddyRows = new HashMap<Integer, List<?>>();
 			while (rs.next()) {
 				byte status = rs.getByte(3);
 				if (status != BuddyListEntry.STATUS_INVITED)
 					p.buddies.addBuddy(new BuddyListEntry(rs.getInt(1), rs.getString(2), status));
 				else
 					p.buddies.addInvite(rs.getInt(1), rs.getString(2));
+				buddyRows.put(Integer.valueOf(rs.getInt(1)), RowJournal.row(rs.getString(4), Byte.valueOf(status)));
 			}
+			p.buddyJournal.reset(buddyRows);
 			rs.close();
 			ps.close();
 
-			ps = con.prepareStatement("SELECT `partyid` FROM `parties` WHERE `characterid` = ?");
+			ps = con.prepareStatement("SELECT `partyid`,`world`,`leader` FROM `parties` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
-			if (rs.next())
+			Map<Integer, List<?>> partyRows = new HashMap<Integer, List<?>>();
+			if (rs.next()) {
 				p.party = GameServer.getChannel(c.getChannel()).getCrossServerInterface().sendFetchPartyList(rs.getInt(1));
+				partyRows.put(Integer.valueOf(rs.getInt(1)), RowJournal.row(Byte.valueOf(rs.getByte(2)), Boolean.valueOf(rs.getBoolean(3))));
+			}
+			p.partyJournal.reset(partyRows);
 			rs.close();
 			ps.close();
 
-			ps = con.prepareStatement("SELECT `g`.`id` FROM `guilds` `g` LEFT JOIN `guildmembers` `m` ON `g`.`id` = `m`.`guildid` WHERE `m`.`characterid` = ?");
+			ps = con.prepareStatement("SELECT `g`.`id`,`m`.`rank`,`m`.`signature`,`m`.`alliancerank` FROM `guilds` `g` LEFT JOIN `guildmembers` `m` ON `g`.`id` = `m`.`guildid` WHERE `m`.`characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
-			if (rs.next())
+			Map<Integer, List<?>> guildRows = new HashMap<Integer, List<?>>();
+			if (rs.next()) {
 				p.guild = GameServer.getChannel(c.getChannel()).getCrossServerInterface().sendFetchGuildList(rs.getInt(1));
+				guildRows.put(Integer.valueOf(rs.getInt(1)), RowJournal.row(Byte.valueOf(rs.getByte(2)), Byte.valueOf(rs.getByte(3)), Byte.valueOf(rs.getByte(4))));
+			}
+			p.guildJournal.reset(guildRows);
 			rs.close();
 			ps.close();
 
@@ -866,6 +957,8 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			rs = ps.executeQuery();
 			PreparedStatement mps = null;
 			ResultSet mrs;
+			Map<Short, List<?>> questRows = new HashMap<Short, List<?>>();
+			Map<Long, List<?>> questMobRows = new HashMap<Long, List<?>>();
 			try {
 				mps = con.prepareStatement("SELECT `mobid`,`count` "
 						+ "FROM `questmobprogress` WHERE `queststatusid` = ?");
@@ -879,8 +972,10 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 						mrs = null;
 						try {
 							mrs = mps.executeQuery();
-							while (mrs.next())
+							while (mrs.next()) {
 								mobProgress.put(Integer.valueOf(mrs.getInt(1)), new AtomicInteger(mrs.getShort(2)));
+								questMobRows.put(questMobKey(questId, mrs.getInt(1)), RowJournal.row(Short.valueOf(mrs.getShort(2))));
+							}
 						} finally {
 							DatabaseManager.cleanup(DatabaseType.STATE, mrs, null, null);
 						}
@@ -888,6 +983,7 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					QuestEntry status = new QuestEntry(state, mobProgress);
 					status.setCompletionTime(rs.getLong(4));
 					p.questStatuses.put(Short.valueOf(questId), status);
+					questRows.put(Short.valueOf(questId), RowJournal.row(Byte.valueOf(state), Long.valueOf(rs.getLong(4))));
 					if (status.getState() == QuestEntry.STATE_STARTED) {
 						QuestChecks qc = QuestDataLoader.getInstance().getCompleteReqs(questId);
 						if (qc != null) {
@@ -909,19 +1005,24 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			} finally {
 				DatabaseManager.cleanup(DatabaseType.STATE, null, mps, null);
 			}
+			p.questJournal.reset(questRows);
+			p.questMobJournal.reset(questMobRows);
 			rs.close();
 			ps.close();
 
 			ps = con.prepareStatement("SELECT * FROM `minigamescores` WHERE `characterid` = ?");
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
+			Map<Byte, List<?>> minigameRows = new HashMap<Byte, List<?>>();
 			while (rs.next()) {
 				Map<MinigameResult, AtomicInteger> stats = new EnumMap<MinigameResult, AtomicInteger>(MinigameResult.class);
 				stats.put(MinigameResult.WIN, new AtomicInteger(rs.getInt(4)));
 				stats.put(MinigameResult.TIE, new AtomicInteger(rs.getInt(5)));
 				stats.put(MinigameResult.LOSS, new AtomicInteger(rs.getInt(6)));
 				p.minigameStats.put(MiniroomType.valueOf(rs.getByte(3)), Collections.unmodifiableMap(stats));
+				minigameRows.put(Byte.valueOf(rs.getByte(3)), RowJournal.row(Integer.valueOf(rs.getInt(4)), Integer.valueOf(rs.getInt(5)), Integer.valueOf(rs.getInt(6))));
 			}
+			p.minigameJournal.reset(minigameRows);
 			rs.close();
 			ps.close();
 
@@ -929,6 +1030,7 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 			ps.setInt(1, id);
 			rs = ps.executeQuery();
 			long threshold = System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 30;
+			Map<Integer, List<?>> fameLogRows = new HashMap<Integer, List<?>>();
 			while (rs.next()) {
 				long time = rs.getLong(4);
 				//given time >= now - 30 days
@@ -937,7 +1039,12 @@ public class GameCharacter extends LoggedInPlayer implements MapEntity {
 					if (time > p.lastFameGiven)
 						p.lastFameGiven = time;
 				}
+				//remember expired entries too so that the next save deletes them
+				List<?> existing = fameLogRows.get(Integer.valueOf(rs.getInt(3)));
+				if (existing == null || ((Long) existing.get(0)).longValue() < time)
+					fameLogRows.put(Integer.valueOf(rs.getInt(3)), RowJournal.row(Long.valueOf(time)));
 			}
+			p.fameLogJournal.reset(fameLogRows);
 			rs.close();
 			ps.close();
 
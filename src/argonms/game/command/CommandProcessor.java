@@ -19,8 +19,13 @@
 package argonms.game.command;
 
 import argonms.common.UserPrivileges;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.character.PlayerStatusEffect;
 import argonms.common.character.QuestEntry;
+import argonms.common.util.DatabaseManager;
+import argonms.common.util.DatabaseManager.DatabaseType;
+import argonms.common.util.DatabaseManager.HoldTimes;
+import argonms.common.util.DatabaseManager.PoolStatistics;
 import argonms.game.GameRegistry;
 import argonms.game.GameServer;
 import argonms.game.character.GameCharacter;
@@ -33,6 +38,7 @@ import argonms.game.field.entity.Mob;
 import argonms.game.field.entity.PlayerNpc;
 import argonms.game.loading.skill.SkillDataLoader;
 import argonms.game.loading.skill.SkillStats;
+import argonms.game.script.ScriptRegistry;
 import java.awt.Point;
 import java.text.DateFormat;
 import java.util.ArrayList;
@@ -563,7 +569,7 @@ public class CommandProcessor {
 		universalCommands.put("!uptime", new CommandDefinition<CommandCaller>(new CommandAction<CommandCaller>() {
 			@Override
 			public String getUsage() {
-				return "Usage: !uptime [-gc]";
+				return "Usage: !uptime [-gc] [-db]";
 			}
 
 			@Override
@@ -596,8 +602,62 @@ public class CommandProcessor {
 				long heapFree = Runtime.getRuntime().freeMemory() / (1024 * 1024);
 				resp.printOut("Current heap usage: " + (heapNow - heapFree) + "MB/" + heapNow + "MB. "
 						+ "Can add a max of " + (heapMax - (heapNow - heapFree)) + "MB to heap without OutOfMemoryError.");
+
+				PersistenceQueue persister = PersistenceQueue.getInstance();
+				long saves = persister.getSaves(), rows = persister.getRowsWritten();
+				resp.printOut(saves + " character saves have written " + rows + " rows to the database"
+						+ (saves != 0 ? " (" + (rows / saves) + " rows per save)" : "")
+						+ ". " + persister.getPendingCount() + " saves pending, " + persister.getCoalesced() + " coalesced, "
+						+ persister.getRetries() + " retried, " + persister.getFailures() + " failed.");
+
+				PoolStatistics db = DatabaseManager.getStatistics(DatabaseType.STATE);
+				resp.printOut("Database connections: " + db.getConnectionsInUse() + "/" + db.getMaxConnections() + " in use, " + db.getIdleConnections() + " idle. "
+						+ db.getBorrows() + " borrowed (" + db.getAverageWaitMicros() + "us average wait, " + db.getMaxWaitMillis() + "ms max wait), "
+						+ db.getTimeouts() + " timed out, " + db.getLeaks() + " possibly leaked, " + db.getOpened() + " opened, " + db.getDiscarded() + " discarded.");
+				if (args.hasOpt("-db"))
+					for (Entry<String, HoldTimes> entry : db.getHoldTimes().entrySet())
+						resp.printOut("  " + entry.getKey() + ": " + entry.getValue().getBorrows() + " borrowed, "
+								+ entry.getValue().getTotalMillis() + "ms total hold time, " + entry.getValue().getMaxMillis() + "ms max hold time.");
+			}
+		}, "Print general info about the server's resource usage. Pass -gc flag to attempt to run the garbage collector before collecting heap info. Pass -db flag to list database connection hold times by caller", UserPrivileges.ADMIN));
+		universalCommands.put("!scripts", new CommandDefinition<CommandCaller>(new CommandAction<CommandCaller>() {
+			@Override
+			public String getUsage() {
+				return "Usage: !scripts [-flush [<category> <script name>]]";
+			}
+
+			@Override
+			public void doAction(CommandCaller caller, CommandArguments args, CommandOutput resp) {
+				ScriptRegistry scripts = ScriptRegistry.getInstance();
+				if (args.hasNext()) {
+					if (!args.next().equalsIgnoreCase("-flush")) {
+						resp.printErr(getUsage());
+						return;
+					}
+					if (args.hasNext()) {
+						String category = args.next();
+						if (!args.hasNext()) {
+							resp.printErr(getUsage());
+							return;
+						}
+						String scriptName = args.next();
+						if (scripts.invalidate(category, scriptName))
+							resp.printOut("Flushed " + category + "/" + scriptName + ".js. It will be recompiled the next time it is run.");
+						else
+							resp.printOut(category + "/" + scriptName + ".js has not been compiled yet.");
+					} else {
+						scripts.invalidateAll();
+						resp.printOut("Flushed all compiled scripts. They will be recompiled the next time they are run.");
+					}
+				}
+
+				long hits = scripts.getHits(), misses = scripts.getMisses();
+				resp.printOut(scripts.getCachedCount() + " compiled scripts are cached. "
+						+ hits + " hits, " + misses + " misses"
+						+ (hits + misses != 0 ? " (" + (hits * 100 / (hits + misses)) + "% hit rate)" : "")
+						+ ", " + scripts.getReloads() + " reloads, " + (scripts.getCompileTime() / 1000000) + "ms spent compiling.");
 			}
-		}, "Print general info about the server's resource usage. Pass -gc flag to attempt to run the garbage collector before collecting heap info", UserPrivileges.ADMIN));
+		}, "Print statistics about the compiled script cache. Pass -flush flag to discard compiled scripts so that changes to them are picked up", UserPrivileges.ADMIN));
 		universalCommands.put("!shutdown", new ShutdownCommandHandler());
 		universalCommands.put("!help", new CommandDefinition<CommandCaller>(new HelpCommandHandler(),
 				"List available commands and their descriptions. Specify a command to read only its description", UserPrivileges.USER));
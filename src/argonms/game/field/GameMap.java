@@ -46,7 +46,7 @@ import argonms.game.field.entity.Npc;
 import argonms.game.field.entity.PlayerNpc;
 import argonms.game.field.entity.PlayerSkillSummon;
 import argonms.game.field.entity.Reactor;
-import argonms.game.field.movement.LifeMovementFragment;
+import argonms.game.field.movement.MovementPath;
 import argonms.game.loading.map.Foothold;
 import argonms.game.loading.map.MapStats;
 import argonms.game.loading.map.PortalData;
@@ -97,6 +97,8 @@ public class GameMap {
 	private final Map<GameCharacter, ScheduledFuture<?>> timeLimitTasks;
 	private final Map<GameCharacter, ScheduledFuture<?>> decHpTasks;
 	private final byte[] mysticDoorPortalIds;
+	private final int interestRange;
+	private final MapTicker ticker;
 	private volatile boolean disableSpawn;
 
 	protected GameMap(MapStats stats) {
@@ -108,6 +110,8 @@ public class GameMap {
 		this.monsters = new AtomicInteger(0);
 		this.portalOverrides = new ConcurrentHashMap<String, String>();
 		this.occupiedChairs = Collections.newSetFromMap(new ConcurrentHashMap<Short, Boolean>());
+		this.interestRange = GameServer.getVariables().getInterestRange(stats.getMapId());
+		this.ticker = new MapTicker(this);
 		for (SpawnData spawnData : stats.getLife().values()) {
 			switch (spawnData.getType()) {
 				case 'm':
@@ -242,6 +246,14 @@ public class GameMap {
 		return entPools.get(EntityType.PLAYER).getSizeSafely();
 	}
 
+	/**
+	 * Stop all timed upkeep of this map. Must only be called once the map can
+	 * no longer be reached through its MapFactory.
+	 */
+	/* package-private */ void unload() {
+		ticker.stop();
+	}
+
 	private void updateMonsterController(Mob monster) {
 		if (!monster.isAlive())
 			return;
@@ -338,6 +350,7 @@ public class GameMap {
 		} finally {
 			players.unlockWrite();
 		}
+		ticker.wake();
 		for (PlayerSkillSummon summon : p.getAllSummons().values())
 			spawnExistingEntity(summon);
 		p.spawnCurrentPets();
@@ -386,10 +399,10 @@ public class GameMap {
 			updateMonsterController(monster);
 			monsters.incrementAndGet();
 			if (removeAfter != -1) {
-				monster.setSelfRemoveFuture(Scheduler.getInstance().runAfterDelay(new Runnable() {
+				monster.setSelfRemoveTimer(ticker.runAfterDelay(new Runnable() {
 					@Override
 					public void run() {
-						monster.setSelfRemoveFuture(null);
+						monster.setSelfRemoveTimer(null);
 						killMonster(monster, null);
 					}
 				}, removeAfter * 1000)); //is it in seconds?
@@ -410,17 +423,20 @@ public class GameMap {
 		spawnEntity(d);
 		if (d.getDropType() == ItemDrop.ITEM)
 			checkForItemTriggeredReactors(d);
-		final Integer eid = Integer.valueOf(d.getId());
-		Scheduler.getInstance().runAfterDelay(new Runnable() {
-			@Override
-			public void run() {
-				ItemDrop d = (ItemDrop) entPools.get(EntityType.DROP).getByIdSafely(eid);
-				if (d != null) {
-					d.expire();
-					destroyEntity(d);
-				}
-			}
-		}, DROP_EXPIRE); //expire after 1 minute
+		ticker.expireDropAfter(d, DROP_EXPIRE); //expire after 1 minute
+	}
+
+	/**
+	 * Called by our MapTicker once a drop has been on the map for
+	 * DROP_EXPIRE milliseconds.
+	 * @param d the drop to remove, if it hasn't been picked up yet
+	 */
+	/* package-private */ void expireDrop(ItemDrop d) {
+		//make sure the entity id wasn't reused by a newer drop
+		if (entPools.get(EntityType.DROP).getByIdSafely(d.getId()) == d) {
+			d.expire();
+			destroyEntity(d);
+		}
 	}
 
 	private Point calcDropPos(Point initial, Point fallback) {
@@ -481,7 +497,7 @@ public class GameMap {
 
 	public void spawnMist(final Mist mist, final int duration, final ScheduledFuture<?> periodicTask) {
 		spawnEntity(mist);
-		Scheduler.getInstance().runAfterDelay(new Runnable() {
+		ticker.runAfterDelay(new Runnable() {
 			@Override
 			public void run() {
 				destroyEntity(mist);
@@ -547,7 +563,7 @@ public class GameMap {
 	public void destroyReactor(final Reactor r) {
 		destroyEntity(r);
 		if (r.getDelay() > 0) {
-			Scheduler.getInstance().runAfterDelay(new Runnable() {
+			ticker.runAfterDelay(new Runnable() {
 				@Override
 				public void run() {
 					respawnReactor(r);
@@ -688,20 +704,25 @@ public class GameMap {
 		sendToAll(p.getDestructionMessage(), p);
 	}
 
-	public void playerMoved(GameCharacter p, List<LifeMovementFragment> moves, Point startPos) {
-		sendToAll(writePlayerMovement(p, moves, startPos), p);
+	public void playerMoved(GameCharacter p, MovementPath moves, Point startPos) {
+		entPools.get(EntityType.PLAYER).relocateSafely(p);
+		sendToInterested(writePlayerMovement(p, moves, startPos), startPos, p.getPosition(), p);
+		sendNewlyInterestingPositions(p, startPos);
 	}
 
-	public void petMoved(GameCharacter p, byte petSlot, List<LifeMovementFragment> moves, Point startPos) {
-		sendToAll(writePetMovement(p, petSlot, moves, startPos), p);
+	public void petMoved(GameCharacter p, byte petSlot, MovementPath moves, Point startPos) {
+		//pets never stray far from their owner
+		sendToInterested(writePetMovement(p, petSlot, moves, startPos), startPos, p.getPosition(), p);
 	}
 
-	public void summonMoved(GameCharacter p, PlayerSkillSummon s, List<LifeMovementFragment> moves, Point startPos) {
-		sendToAll(writeSummonMovement(p, s, moves, startPos), p);
+	public void summonMoved(GameCharacter p, PlayerSkillSummon s, MovementPath moves, Point startPos) {
+		entPools.get(EntityType.SUMMON).relocateSafely(s);
+		sendToInterested(writeSummonMovement(p, s, moves, startPos), startPos, s.getPosition(), p);
 	}
 
-	public void monsterMoved(GameCharacter p, Mob m, List<LifeMovementFragment> moves, boolean useSkill, byte skill, Point projectileTarget, Point startPos) {
-		sendToAll(writeMonsterMovement(m, useSkill, skill, projectileTarget, startPos, moves), p);
+	public void monsterMoved(GameCharacter p, Mob m, MovementPath moves, boolean useSkill, byte skill, Point projectileTarget, Point startPos) {
+		entPools.get(EntityType.MONSTER).relocateSafely(m);
+		sendToInterested(writeMonsterMovement(m, useSkill, skill, projectileTarget, startPos, moves), startPos, m.getPosition(), p);
 	}
 
 	public void damageMonster(GameCharacter p, Mob m, int damage) {
@@ -803,8 +824,9 @@ public class GameMap {
 		EntityPool players = entPools.get(EntityType.PLAYER);
 		players.lockRead();
 		try {
+			byte[] prepared = ClientSession.prepareBroadcast(message);
 			for (MapEntity p : players.allEnts())
-				((GameCharacter) p).getClient().getSession().send(message);
+				((GameCharacter) p).getClient().getSession().sendPrepared(prepared);
 		} finally {
 			players.unlockRead();
 		}
@@ -821,23 +843,160 @@ public class GameMap {
 		EntityPool players = entPools.get(EntityType.PLAYER);
 		players.lockRead();
 		try {
+			byte[] prepared = ClientSession.prepareBroadcast(message);
 			for (MapEntity p : players.allEnts())
 				if (!p.equals(source))
-					((GameCharacter) p).getClient().getSession().send(message);
+					((GameCharacter) p).getClient().getSession().sendPrepared(prepared);
+		} finally {
+			players.unlockRead();
+		}
+	}
+
+	/**
+	 * Send a packet to all players on this map that are close enough to
+	 * <code>origin</code> to be interested in it, except the one Player that
+	 * is given as source. If area of interest broadcasting is not enabled for
+	 * this map, every player on the map is considered close enough.
+	 * @param message the packet to send to the players
+	 * @param origin where on the map the event that the packet describes
+	 * took place
+	 * @param source the player that will not receive this message. If all
+	 * players should receive this message, pass null for this parameter.
+	 */
+	public void sendToInterested(byte[] message, Point origin, GameCharacter source) {
+		if (interestRange == 0 || origin == null) {
+			sendToAll(message, source);
+			return;
+		}
+		List<MapEntity> interested = new ArrayList<MapEntity>();
+		EntityPool players = entPools.get(EntityType.PLAYER);
+		players.lockRead();
+		try {
+			players.entsInRange(origin, interestRange, interested);
 		} finally {
 			players.unlockRead();
 		}
+		if (interested.isEmpty())
+			return;
+		byte[] prepared = ClientSession.prepareBroadcast(message);
+		for (MapEntity p : interested)
+			if (!p.equals(source))
+				((GameCharacter) p).getClient().getSession().sendPrepared(prepared);
+	}
+
+	/**
+	 * Send a packet that describes the movement of an entity to all players on
+	 * this map that are close enough to either end of the movement to be
+	 * interested in it, except the one Player that is given as source.
+	 * Players that the entity just came into range of get the packet too, and
+	 * since a movement packet starts with where the movement began, they see
+	 * the entity at its real position even though they were not sent its
+	 * earlier movements.
+	 * @param message the packet to send to the players
+	 * @param from where the movement began
+	 * @param to where the movement ended
+	 * @param source the player that will not receive this message. If all
+	 * players should receive this message, pass null for this parameter.
+	 */
+	private void sendToInterested(byte[] message, Point from, Point to, GameCharacter source) {
+		if (interestRange == 0 || from == null || to == null) {
+			sendToInterested(message, to, source);
+			return;
+		}
+		List<MapEntity> interested = new ArrayList<MapEntity>();
+		List<MapEntity> leaving = new ArrayList<MapEntity>();
+		EntityPool players = entPools.get(EntityType.PLAYER);
+		players.lockRead();
+		try {
+			players.entsInRange(to, interestRange, interested);
+			players.entsInRange(from, interestRange, leaving);
+		} finally {
+			players.unlockRead();
+		}
+		long rangeSq = (long) interestRange * interestRange;
+		for (MapEntity p : leaving)
+			if (to.distanceSq(p.getPosition()) > rangeSq)
+				interested.add(p);
+		if (interested.isEmpty())
+			return;
+		byte[] prepared = ClientSession.prepareBroadcast(message);
+		for (MapEntity p : interested)
+			if (!p.equals(source))
+				((GameCharacter) p).getClient().getSession().sendPrepared(prepared);
+	}
+
+	/**
+	 * Send a moved player the current position of every player, summon, and
+	 * monster that it has just come into range of. Those entities were out of
+	 * range of it when they last moved, so the player only knows where they
+	 * were before then.
+	 * @param p the player that moved
+	 * @param startPos where the movement of the player began
+	 */
+	private void sendNewlyInterestingPositions(GameCharacter p, Point startPos) {
+		if (interestRange == 0 || startPos == null)
+			return;
+		long rangeSq = (long) interestRange * interestRange;
+		List<MapEntity> inRange = new ArrayList<MapEntity>();
+		List<byte[]> positions = new ArrayList<byte[]>();
+		for (EntityType type : EnumSet.of(EntityType.PLAYER, EntityType.SUMMON, EntityType.MONSTER)) {
+			inRange.clear();
+			EntityPool pool = entPools.get(type);
+			pool.lockRead();
+			try {
+				pool.entsInRange(p.getPosition(), interestRange, inRange);
+			} finally {
+				pool.unlockRead();
+			}
+			for (MapEntity ent : inRange) {
+				if (ent == p || !ent.isVisible() || startPos.distanceSq(ent.getPosition()) <= rangeSq)
+					continue;
+				switch (type) {
+					case PLAYER:
+						positions.add(writePlayerPosition((GameCharacter) ent));
+						break;
+					case SUMMON:
+						positions.add(writeSummonPosition((PlayerSkillSummon) ent));
+						break;
+					case MONSTER:
+						positions.add(writeMonsterPosition((Mob) ent));
+						break;
+				}
+			}
+		}
+		for (byte[] position : positions)
+			p.getClient().getSession().send(position);
 	}
 
 	public List<MapEntity> getMapEntitiesInRect(Rectangle box, Set<EntityType> types) {
-		List<MapEntity> ret = new LinkedList<MapEntity>();
+		List<MapEntity> ret = new ArrayList<MapEntity>();
+		for (EntityType type : types) {
+			EntityPool pool = entPools.get(type);
+			pool.lockRead();
+			try {
+				pool.entsInRect(box, ret);
+			} finally {
+				pool.unlockRead();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieve all entities of the given types whose position is no further
+	 * than <code>radius</code> from <code>center</code>.
+	 * @param center the point to search around
+	 * @param radius the maximum distance, inclusive
+	 * @param types the entity pools to search
+	 * @return a new List that is safe to modify
+	 */
+	public List<MapEntity> getMapEntitiesInRange(Point center, int radius, Set<EntityType> types) {
+		List<MapEntity> ret = new ArrayList<MapEntity>();
 		for (EntityType type : types) {
 			EntityPool pool = entPools.get(type);
 			pool.lockRead();
 			try {
-				for (MapEntity ent : pool.allEnts())
-					if (box.contains(ent.getPosition()))
-						ret.add(ent);
+				pool.entsInRange(center, radius, ret);
 			} finally {
 				pool.unlockRead();
 			}
@@ -845,6 +1004,16 @@ public class GameMap {
 		return ret;
 	}
 
+	/**
+	 * Must be called whenever the position of an entity that is already
+	 * spawned on this map is changed outside of one of the *Moved methods,
+	 * so that range queries can find it at its new position.
+	 * @param ent the entity that was repositioned
+	 */
+	public void entityRepositioned(MapEntity ent) {
+		entPools.get(ent.getEntityType()).relocateSafely(ent);
+	}
+
 	public List<MapEntity> getMapEntitiesInRect(Rectangle box) {
 		return getMapEntitiesInRect(box, EnumSet.allOf(EntityType.class));
 	}
@@ -912,44 +1081,78 @@ public class GameMap {
 		}
 	}
 
-	private static byte[] writePlayerMovement(GameCharacter p, List<LifeMovementFragment> moves, Point startPos) {
-		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter();
+	private static byte[] writePlayerMovement(GameCharacter p, MovementPath moves, Point startPos) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(10 + moves.getLength());
 		lew.writeShort(ClientSendOps.MOVE_PLAYER);
 		lew.writeInt(p.getId());
 		lew.writePos(startPos);
-		GamePackets.writeSerializedMovements(lew, moves);
+		moves.writeTo(lew);
 		return lew.getBytes();
 	}
 
-	private static byte[] writePetMovement(GameCharacter p, byte petSlot, List<LifeMovementFragment> moves, Point startPos) {
-		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter();
+	private static byte[] writePetMovement(GameCharacter p, byte petSlot, MovementPath moves, Point startPos) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(11 + moves.getLength());
 		lew.writeShort(ClientSendOps.MOVE_PET);
 		lew.writeInt(p.getId());
 		lew.writeByte(petSlot);
 		lew.writePos(startPos);
-		GamePackets.writeSerializedMovements(lew, moves);
+		moves.writeTo(lew);
 		return lew.getBytes();
 	}
 
-	private static byte[] writeSummonMovement(GameCharacter p, PlayerSkillSummon s, List<LifeMovementFragment> moves, Point startPos) {
-		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter();
+	private static byte[] writeSummonMovement(GameCharacter p, PlayerSkillSummon s, MovementPath moves, Point startPos) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(14 + moves.getLength());
 		lew.writeShort(ClientSendOps.MOVE_SUMMON);
 		lew.writeInt(p.getId());
 		lew.writeInt(s.getId());
 		lew.writePos(startPos);
-		GamePackets.writeSerializedMovements(lew, moves);
+		moves.writeTo(lew);
 		return lew.getBytes();
 	}
 
-	private static byte[] writeMonsterMovement(Mob m, boolean useSkill, byte skill, Point projectileTarget, Point startPos, List<LifeMovementFragment> moves) {
-		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter();
+	private static byte[] writeMonsterMovement(Mob m, boolean useSkill, byte skill, Point projectileTarget, Point startPos, MovementPath moves) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(16 + moves.getLength());
 		lew.writeShort(ClientSendOps.MOVE_MONSTER);
 		lew.writeInt(m.getId());
 		lew.writeBool(useSkill);
 		lew.writeByte(skill);
 		lew.writePos(projectileTarget);
 		lew.writePos(startPos);
-		GamePackets.writeSerializedMovements(lew, moves);
+		moves.writeTo(lew);
+		return lew.getBytes();
+	}
+
+	//movement packets without any fragments just put the entity at the start
+	//position, so they are used to tell a client where an entity is now
+
+	private static byte[] writePlayerPosition(GameCharacter p) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(11);
+		lew.writeShort(ClientSendOps.MOVE_PLAYER);
+		lew.writeInt(p.getId());
+		lew.writePos(p.getPosition());
+		lew.writeByte((byte) 0);
+		return lew.getBytes();
+	}
+
+	private static byte[] writeSummonPosition(PlayerSkillSummon s) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(15);
+		lew.writeShort(ClientSendOps.MOVE_SUMMON);
+		lew.writeInt(s.getOwner());
+		lew.writeInt(s.getId());
+		lew.writePos(s.getPosition());
+		lew.writeByte((byte) 0);
+		return lew.getBytes();
+	}
+
+	private static byte[] writeMonsterPosition(Mob m) {
+		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(17);
+		lew.writeShort(ClientSendOps.MOVE_MONSTER);
+		lew.writeInt(m.getId());
+		lew.writeBool(false);
+		lew.writeByte((byte) 0);
+		lew.writePos(m.getPosition());
+		lew.writePos(m.getPosition());
+		lew.writeByte((byte) 0);
 		return lew.getBytes();
 	}
 
@@ -961,11 +1164,14 @@ public class GameMap {
 
 	private static class EntityPool {
 		private final LockableMap<Integer, MapEntity> entities;
+		//also guarded by the lock of entities
+		private final SpatialGrid grid;
 		//no need to be Atomic because it always is locked when accessed...
 		private int nextEntId;
 
 		public EntityPool() {
 			this.entities = new LockableMap<Integer, MapEntity>(new LinkedHashMap<Integer, MapEntity>());
+			this.grid = new SpatialGrid();
 			this.nextEntId = 0;
 		}
 
@@ -980,11 +1186,46 @@ public class GameMap {
 		}
 
 		public void add(MapEntity ent) {
-			entities.put(Integer.valueOf(ent.getId()), ent);
+			MapEntity old = entities.put(Integer.valueOf(ent.getId()), ent);
+			if (old != null)
+				grid.remove(old);
+			grid.add(ent);
 		}
 
 		public void removeByIdSafely(int entityId) {
-			entities.removeWhenSafe(Integer.valueOf(entityId));
+			entities.lockWrite();
+			try {
+				MapEntity removed = entities.remove(Integer.valueOf(entityId));
+				if (removed != null)
+					grid.remove(removed);
+			} finally {
+				entities.unlockWrite();
+			}
+		}
+
+		/**
+		 * Bring the spatial index up to date with the current position of an
+		 * entity in this pool. Only takes the write lock if the entity
+		 * actually moved into a different cell.
+		 * @param ent the entity that moved
+		 */
+		public void relocateSafely(MapEntity ent) {
+			Integer key = Integer.valueOf(ent.getId());
+			entities.lockRead();
+			try {
+				if (entities.get(key) != ent || !grid.isMisplaced(ent))
+					return;
+			} finally {
+				entities.unlockRead();
+			}
+			entities.lockWrite();
+			try {
+				//check again - it may have been removed while we were unlocked
+				if (entities.get(key) == ent)
+					grid.relocate(ent);
+			} finally {
+				entities.unlockWrite();
+			}
 		}
 
 		public int getSizeSafely() {
@@ -995,6 +1236,14 @@ public class GameMap {
 			return entities.values();
 		}
 
+		public void entsInRect(Rectangle box, Collection<MapEntity> out) {
+			grid.collect(box, out);
+		}
+
+		public void entsInRange(Point center, int radius, Collection<MapEntity> out) {
+			grid.collect(center, radius, out);
+		}
+
 		public void lockRead() {
 			entities.lockRead();
 		}
@@ -56,10 +56,12 @@ public class MapFactory {
 				return null;
 
 			GameMap existing = maps.putIfAbsent(oId, map);
-			if (existing != null)
+			if (existing != null) {
 				//some other thread was loading the same map and beat us in
 				//instantiating it. no big deal, just use their instance instead
+				map.unload();
 				map = existing;
+			}
 		}
 		return map;
 	}
@@ -71,10 +73,13 @@ public class MapFactory {
 	}
 
 	public void destroyInstanceMap(GameMap map) {
-		instanceMaps.remove(map);
+		if (instanceMaps.remove(map))
+			map.unload();
 	}
 
 	public void clear() {
+		for (GameMap map : maps.values())
+			map.unload();
 		maps.clear();
 	}
 
@@ -0,0 +1,234 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.game.field;
+
+import argonms.game.field.entity.ItemDrop;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives all of the timed upkeep of a single GameMap - expiring item drops,
+ * monsters that remove themselves, mists, reactor respawns, and monster
+ * respawns - from one fixed rate tick, instead of giving every one of those
+ * its own task in the shared Scheduler.
+ *
+ * Each map is pinned to one of a small pool of map tick threads, so ticks of
+ * the same map never overlap. A map that has no players and no pending timed
+ * work parks its tick until a player enters or something is scheduled on it,
+ * so the load on the tick threads scales with active maps rather than with
+ * the number of maps or entities.
+ * @author GoldenKevin
+ */
+public class MapTicker {
+	private static final Logger LOG = Logger.getLogger(MapTicker.class.getName());
+
+	private static final int TICK_INTERVAL = 500; //in milliseconds
+	private static final int RESPAWN_INTERVAL = 15000; //in milliseconds
+
+	private static final ScheduledExecutorService[] tickThreads;
+	private static final AtomicInteger nextPartition;
+
+	static {
+		tickThreads = new ScheduledExecutorService[Runtime.getRuntime().availableProcessors()];
+		for (int i = 0; i < tickThreads.length; i++) {
+			final int partition = i + 1;
+			tickThreads[i] = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				private final ThreadGroup group;
+
+				{
+					SecurityManager s = System.getSecurityManager();
+					group = (s != null)? s.getThreadGroup() :
+										 Thread.currentThread().getThreadGroup();
+				}
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(group, r, "map-tick-thread-" + partition, 0);
+					if (t.isDaemon())
+						t.setDaemon(false);
+					if (t.getPriority() != Thread.NORM_PRIORITY)
+						t.setPriority(Thread.NORM_PRIORITY);
+					return t;
+				}
+			});
+		}
+		nextPartition = new AtomicInteger(0);
+	}
+
+	/**
+	 * A handle to an action scheduled with runAfterDelay().
+	 */
+	public static final class Timer implements Comparable<Timer> {
+		private final long due;
+		private final Runnable action;
+		private final PriorityBlockingQueue<Timer> queue;
+		private volatile boolean cancelled;
+
+		private Timer(long due, Runnable action, PriorityBlockingQueue<Timer> queue) {
+			this.due = due;
+			this.action = action;
+			this.queue = queue;
+		}
+
+		/**
+		 * Prevent the action from running if it hasn't already, and take it
+		 * off of its map's queue so that it doesn't keep the map from parking.
+		 */
+		public void cancel() {
+			cancelled = true;
+			queue.remove(this);
+		}
+
+		@Override
+		public int compareTo(Timer o) {
+			return Long.compare(due, o.due);
+		}
+	}
+
+	private static final class ExpiringDrop {
+		private final long due;
+		private final ItemDrop drop;
+
+		public ExpiringDrop(long due, ItemDrop drop) {
+			this.due = due;
+			this.drop = drop;
+		}
+	}
+
+	private final GameMap map;
+	private final ScheduledExecutorService tickThread;
+	//every drop expires after the same delay, so a FIFO is also in due order
+	private final Queue<ExpiringDrop> dropExpirations;
+	private final PriorityBlockingQueue<Timer> timers;
+	private final Object parkLock;
+	//guarded by parkLock
+	private ScheduledFuture<?> tickFuture;
+	private boolean stopped;
+	//only touched by our tick thread
+	private long nextRespawn;
+
+	/* package-private */ MapTicker(GameMap map) {
+		this.map = map;
+		this.tickThread = tickThreads[(nextPartition.getAndIncrement() & Integer.MAX_VALUE) % tickThreads.length];
+		this.dropExpirations = new ConcurrentLinkedQueue<ExpiringDrop>();
+		this.timers = new PriorityBlockingQueue<Timer>();
+		this.parkLock = new Object();
+	}
+
+	/**
+	 * Start ticking if we're currently parked.
+	 */
+	public void wake() {
+		synchronized (parkLock) {
+			if (tickFuture == null && !stopped)
+				tickFuture = tickThread.scheduleAtFixedRate(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							tick();
+						} catch (Throwable ex) {
+							LOG.log(Level.WARNING, "Uncaught exception while ticking map " + map.getDataId(), ex);
+						}
+					}
+				}, 0, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void expireDropAfter(ItemDrop drop, long delay) {
+		dropExpirations.offer(new ExpiringDrop(System.currentTimeMillis() + delay, drop));
+		wake();
+	}
+
+	public Timer runAfterDelay(Runnable action, long delay) {
+		Timer timer = new Timer(System.currentTimeMillis() + delay, action, timers);
+		timers.offer(timer);
+		wake();
+		return timer;
+	}
+
+	private void tick() {
+		long now = System.currentTimeMillis();
+
+		ExpiringDrop expiring;
+		while ((expiring = dropExpirations.peek()) != null && expiring.due <= now) {
+			dropExpirations.poll();
+			map.expireDrop(expiring.drop);
+		}
+
+		Timer timer;
+		while ((timer = timers.peek()) != null && timer.due <= now) {
+			timers.poll();
+			if (!timer.cancelled) {
+				try {
+					timer.action.run();
+				} catch (Throwable ex) {
+					LOG.log(Level.WARNING, "Uncaught exception while running timed action on map " + map.getDataId(), ex);
+				}
+			}
+		}
+
+		boolean hasPlayers = map.getPlayerCount() != 0;
+		if (hasPlayers && now >= nextRespawn) {
+			nextRespawn = now + RESPAWN_INTERVAL;
+			map.respawnMobs();
+		}
+
+		if (!hasPlayers) {
+			synchronized (parkLock) {
+				//anyone who queues work after this check will wake us again
+				if (dropExpirations.isEmpty() && timers.isEmpty() && map.getPlayerCount() == 0 && tickFuture != null) {
+					tickFuture.cancel(false);
+					tickFuture = null;
+					//respawn right away once the next player enters
+					nextRespawn = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop ticking for good and drop all pending work. Called once the map is
+	 * unloaded, after which nothing can wake it again.
+	 */
+	public void stop() {
+		synchronized (parkLock) {
+			stopped = true;
+			dropExpirations.clear();
+			timers.clear();
+			if (tickFuture != null) {
+				tickFuture.cancel(false);
+				tickFuture = null;
+			}
+		}
+	}
+
+	public static void shutdown() {
+		for (ScheduledExecutorService tickThread : tickThreads)
+			tickThread.shutdown();
+	}
+}
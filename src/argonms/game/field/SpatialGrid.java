@@ -0,0 +1,149 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.game.field;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over map coordinates that buckets entities by their position
+ * so that range queries only have to look at entities in the cells that
+ * overlap the queried area, rather than at every entity on the map.
+ *
+ * Entities with no position are not indexed and will never be returned from
+ * a query. This class is not thread safe - callers are expected to hold the
+ * lock of the entity pool that owns the grid.
+ * @author GoldenKevin
+ */
+/* package-private */ class SpatialGrid {
+	//cells are 256x256 pixels, roughly a quarter of the client's viewport
+	private static final int CELL_SHIFT = 8;
+
+	private final Map<Long, List<MapEntity>> cells;
+	private final Map<MapEntity, Long> locations;
+
+	public SpatialGrid() {
+		cells = new HashMap<Long, List<MapEntity>>();
+		locations = new IdentityHashMap<MapEntity, Long>();
+	}
+
+	private static long cellKey(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+	}
+
+	private static Long cellOf(Point pos) {
+		return Long.valueOf(cellKey(pos.x >> CELL_SHIFT, pos.y >> CELL_SHIFT));
+	}
+
+	public void add(MapEntity ent) {
+		Point pos = ent.getPosition();
+		if (pos == null)
+			return;
+		Long key = cellOf(pos);
+		List<MapEntity> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<MapEntity>(4);
+			cells.put(key, cell);
+		}
+		cell.add(ent);
+		locations.put(ent, key);
+	}
+
+	public void remove(MapEntity ent) {
+		Long key = locations.remove(ent);
+		if (key == null)
+			return;
+		List<MapEntity> cell = cells.get(key);
+		cell.remove(ent);
+		if (cell.isEmpty())
+			cells.remove(key);
+	}
+
+	/**
+	 * Does not modify the grid, so this is safe to call with only a read
+	 * lock held.
+	 * @param ent an entity that may have changed its position since it was
+	 * last added or relocated
+	 * @return true if relocate() has to be called to keep the grid accurate
+	 */
+	public boolean isMisplaced(MapEntity ent) {
+		Point pos = ent.getPosition();
+		Long key = locations.get(ent);
+		if (pos == null)
+			return key != null;
+		return key == null || key.longValue() != cellKey(pos.x >> CELL_SHIFT, pos.y >> CELL_SHIFT);
+	}
+
+	public void relocate(MapEntity ent) {
+		remove(ent);
+		add(ent);
+	}
+
+	/**
+	 *
+	 * @param box the area to search
+	 * @param out the Collection that each entity whose position is within
+	 * <code>box</code> will be added to
+	 */
+	public void collect(Rectangle box, Collection<MapEntity> out) {
+		int minX = box.x >> CELL_SHIFT, maxX = (box.x + box.width) >> CELL_SHIFT;
+		int minY = box.y >> CELL_SHIFT, maxY = (box.y + box.height) >> CELL_SHIFT;
+		if ((long) (maxX - minX + 1) * (maxY - minY + 1) > cells.size()) {
+			//box covers more cells than we have occupied - cheaper to just
+			//look at each occupied cell
+			for (List<MapEntity> cell : cells.values())
+				for (MapEntity ent : cell)
+					if (box.contains(ent.getPosition()))
+						out.add(ent);
+			return;
+		}
+		for (int x = minX; x <= maxX; x++) {
+			for (int y = minY; y <= maxY; y++) {
+				List<MapEntity> cell = cells.get(Long.valueOf(cellKey(x, y)));
+				if (cell != null)
+					for (MapEntity ent : cell)
+						if (box.contains(ent.getPosition()))
+							out.add(ent);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param center the point to search around
+	 * @param radius the maximum distance from <code>center</code>, inclusive
+	 * @param out the Collection that each entity whose position is within
+	 * <code>radius</code> of <code>center</code> will be added to
+	 */
+	public void collect(Point center, int radius, Collection<MapEntity> out) {
+		Rectangle bounds = new Rectangle(center.x - radius, center.y - radius, radius * 2 + 1, radius * 2 + 1);
+		long radiusSq = (long) radius * radius;
+		List<MapEntity> candidates = new ArrayList<MapEntity>();
+		collect(bounds, candidates);
+		for (MapEntity ent : candidates)
+			if (center.distanceSq(ent.getPosition()) <= radiusSq)
+				out.add(ent);
+	}
+}
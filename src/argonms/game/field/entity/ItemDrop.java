@@ -18,7 +18,10 @@
 
 package argonms.game.field.entity;
 
+import argonms.common.character.inventory.Equip;
 import argonms.common.character.inventory.InventorySlot;
+import argonms.common.character.inventory.InventorySlot.ItemType;
+import argonms.common.character.inventory.InventoryTools;
 import argonms.game.field.AbstractEntity;
 import argonms.game.net.external.GamePackets;
 import java.awt.Point;
@@ -56,7 +59,9 @@ public class ItemDrop extends AbstractEntity {
 
 	private final byte dropType;
 	private final int id;
+	//guarded by this. null until first needed if the drop was made from an id
 	private InventorySlot item;
+	private final short quantity;
 	private byte mod;
 	private int mob;
 	private int owner;
@@ -68,11 +73,27 @@ public class ItemDrop extends AbstractEntity {
 		this.dropType = ITEM;
 		this.id = item.getDataId();
 		this.item = item;
+		this.quantity = item.getQuantity();
+	}
+
+	/**
+	 * Drop an item that is not built until something actually needs it, e.g.
+	 * when a player picks it up. Most mob drops are never picked up, so this
+	 * saves randomizing the stats of equips and generating unique ids for cash
+	 * items that only end up expiring.
+	 * @param itemId the id of the item to drop.
+	 * @param quantity how many of the item to drop.
+	 */
+	public ItemDrop(int itemId, short quantity) {
+		this.dropType = ITEM;
+		this.id = itemId;
+		this.quantity = quantity;
 	}
 
 	public ItemDrop(int amt) {
 		this.dropType = MESOS;
 		this.id = amt;
+		this.quantity = 0;
 	}
 
 	public void init(int mob, int owner, Point dropTo, Point dropFrom, byte allow) {
@@ -107,8 +128,9 @@ public class ItemDrop extends AbstractEntity {
 		return dropFrom;
 	}
 
-	public long getItemExpire() {
-		return item.getExpiration();
+	public synchronized long getItemExpire() {
+		//an item that has not been built yet would not have an expiration
+		return item != null ? item.getExpiration() : 0;
 	}
 
 	@Override
@@ -116,7 +138,14 @@ public class ItemDrop extends AbstractEntity {
 		return EntityType.DROP;
 	}
 
-	public InventorySlot getItem() {
+	public synchronized InventorySlot getItem() {
+		if (item == null) {
+			item = InventoryTools.makeItemWithId(id);
+			if (item.getType() == ItemType.EQUIP)
+				InventoryTools.randomizeStats((Equip) item);
+			if (quantity != 1)
+				item.setQuantity(quantity);
+		}
 		return item;
 	}
 
@@ -20,7 +20,6 @@ package argonms.game.field.entity;
 
 import argonms.common.character.PlayerStatusEffect;
 import argonms.common.character.inventory.Inventory;
-import argonms.common.character.inventory.InventorySlot;
 import argonms.common.character.inventory.InventoryTools;
 import argonms.common.field.MonsterStatusEffect;
 import argonms.common.loading.StatusEffectsData;
@@ -39,6 +38,7 @@ import argonms.game.character.inventory.ItemTools;
 import argonms.game.field.AbstractEntity;
 import argonms.game.field.Element;
 import argonms.game.field.GameMap;
+import argonms.game.field.MapTicker;
 import argonms.game.field.MonsterStatusEffectTools;
 import argonms.game.field.MonsterStatusEffectValues;
 import argonms.game.loading.mob.MobDataLoader;
@@ -92,7 +92,7 @@ public class Mob extends AbstractEntity {
 	private final Lock damagesReadLock, damagesWriteLock;
 	private volatile GameCharacter controller;
 	private volatile boolean aggroAware, hasAggro;
-	private volatile ScheduledFuture<?> removeAfter;
+	private volatile MapTicker.Timer removeAfter;
 	private final ConcurrentMap<MonsterStatusEffect, MonsterStatusEffectValues> activeEffects;
 	private final ConcurrentMap<Short, ScheduledFuture<?>> skillFutures;
 	private final ConcurrentMap<Integer, ScheduledFuture<?>> diseaseFutures;
@@ -147,10 +147,7 @@ public class Mob extends AbstractEntity {
 	}
 
 	private List<ItemDrop> getDrops() {
-		List<InventorySlot> items = stats.getItemsToDrop();
-		List<ItemDrop> combined = new ArrayList<ItemDrop>(items.size() + 1);
-		for (InventorySlot item : items)
-			combined.add(new ItemDrop(item));
+		List<ItemDrop> combined = stats.getItemsToDrop();
 		int dropMesos = stats.getMesosToDrop();
 		if (dropMesos != 0)
 			combined.add(new ItemDrop(dropMesos));
@@ -220,7 +217,7 @@ public class Mob extends AbstractEntity {
 		for (StatusEffectsData e : sources)
 			removeCancelEffectTask(e);
 		if (removeAfter != null)
-			removeAfter.cancel(false);
+			removeAfter.cancel();
 		int deathBuff = stats.getBuffToGive();
 		if (deathBuff > 0) {
 			ItemTools.useItem(killer, deathBuff);
@@ -265,7 +262,7 @@ public class Mob extends AbstractEntity {
 		for (ScheduledFuture<?> cancelTask : diseaseFutures.values())
 			cancelTask.cancel(false);
 		if (removeAfter != null)
-			removeAfter.cancel(false);
+			removeAfter.cancel();
 		for (MobDeathListener subscriber : subscribers)
 			subscriber.monsterKilled(null, null);
 	}
@@ -310,8 +307,8 @@ public class Mob extends AbstractEntity {
 		return stats.getRemoveAfter();
 	}
 
-	public void setSelfRemoveFuture(ScheduledFuture<?> future) {
-		removeAfter = future;
+	public void setSelfRemoveTimer(MapTicker.Timer timer) {
+		removeAfter = timer;
 	}
 
 	public byte getDropItemPeriod() {
@@ -0,0 +1,92 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package argonms.game.field.movement;
+
+import argonms.common.util.output.LittleEndianByteArrayWriter;
+import argonms.game.field.Positionable;
+import java.awt.Point;
+
+/**
+ * A movement path as it was received from a client. The fragments are not
+ * decoded into objects - the raw bytes of the path (including the leading
+ * fragment count) are kept as a range of the received packet so that they can
+ * be relayed to other clients verbatim, and only the position, foothold, and
+ * stance that the entity ends up with are remembered.
+ * @author GoldenKevin
+ */
+public class MovementPath {
+	private final byte[] source;
+	private final int offset, length;
+	private final Point position;
+	private final short foothold;
+	private final byte stance;
+	private final boolean footholdChanged, stanceChanged;
+
+	/**
+	 * @param source the array that holds the received packet. Must not be
+	 * modified while this path is still being relayed.
+	 * @param offset the index in source of the fragment count.
+	 * @param length the amount of bytes from the fragment count to the end of
+	 * the last fragment.
+	 * @param position the last position in the path, or null if no fragment
+	 * changed the position.
+	 * @param foothold the last foothold in the path.
+	 * @param footholdChanged whether any fragment changed the foothold.
+	 * @param stance the last stance in the path.
+	 * @param stanceChanged whether any fragment changed the stance.
+	 */
+	public MovementPath(byte[] source, int offset, int length, Point position, short foothold, boolean footholdChanged, byte stance, boolean stanceChanged) {
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		this.position = position;
+		this.foothold = foothold;
+		this.footholdChanged = footholdChanged;
+		this.stance = stance;
+		this.stanceChanged = stanceChanged;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Move the given entity to where this path leaves it.
+	 * @param target the entity that moved.
+	 * @param yoffset the amount to add to the y coordinate of the final
+	 * position.
+	 */
+	public void applyTo(Positionable target, int yoffset) {
+		if (position != null)
+			target.setPosition(new Point(position.x, position.y + yoffset));
+		if (footholdChanged)
+			target.setFoothold(foothold);
+		if (stanceChanged)
+			target.setStance(stance);
+	}
+
+	/**
+	 * Copy the path exactly as the client sent it.
+	 * @param lew the packet to append the path to.
+	 */
+	public void writeTo(LittleEndianByteArrayWriter lew) {
+		lew.write(source, offset, length);
+	}
+}
@@ -71,7 +71,9 @@ public class KvjMapDataLoader extends MapDataLoader {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Could not read KVJ data file for map " + mapid, e);
 		}
-		mapStats.put(Integer.valueOf(mapid), stats);
+		if (stats != null)
+			mapStats.put(Integer.valueOf(mapid), stats);
+		loaded.add(mapid);
 	}
 
 	@Override
@@ -88,6 +90,7 @@ public class KvjMapDataLoader extends MapDataLoader {
 					//doWork(new LittleEndianStreamReader(is), stats);
 					//is.close();
 					mapStats.put(Integer.valueOf(mapid), stats);
+					loaded.add(mapid);
 				}
 			}
 			return true;
@@ -19,10 +19,11 @@
 package argonms.game.loading.map;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -31,9 +32,13 @@ public abstract class MapDataLoader {
 	private static MapDataLoader instance;
 
 	protected final Map<Integer, MapStats> mapStats;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 
 	protected MapDataLoader() {
-		mapStats = new HashMap<Integer, MapStats>();
+		mapStats = new ConcurrentHashMap<Integer, MapStats>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
 	}
 
 	protected abstract void load(int mapid);
@@ -43,16 +48,13 @@ public abstract class MapDataLoader {
 	public abstract boolean canLoad(int mapid);
 
 	public MapStats getMapStats(int id) {
-		Integer oId;
-		MapStats stats;
-		//do {
-			oId = Integer.valueOf(id);
-			if (!mapStats.containsKey(oId))
-				load(id);
-			stats = mapStats.get(oId);
-			//id = stats != null ? stats.getLink() : 0;
-		//} while (id != 0);
-		return stats;
+		if (id >= 0 && !loaded.contains(id)) {
+			synchronized (loadLocks.get(id)) {
+				if (!loaded.contains(id))
+					load(id);
+			}
+		}
+		return mapStats.get(Integer.valueOf(id));
 	}
 
 	public static void setInstance(DataFileType wzType, String wzPath) {
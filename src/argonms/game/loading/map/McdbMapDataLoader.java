@@ -59,7 +59,9 @@ public class McdbMapDataLoader extends MapDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.WZ, rs, ps, con);
 		}
-		mapStats.put(Integer.valueOf(mapid), stats);
+		if (stats != null)
+			mapStats.put(Integer.valueOf(mapid), stats);
+		loaded.add(mapid);
 	}
 
 	@Override
@@ -76,6 +78,7 @@ public class McdbMapDataLoader extends MapDataLoader {
 				MapStats stats = new MapStats(mapid);
 				doWork(rs, mapid, stats, con);
 				mapStats.put(Integer.valueOf(mapid), stats);
+				loaded.add(mapid);
 			}
 			return true;
 		} catch (SQLException ex) {
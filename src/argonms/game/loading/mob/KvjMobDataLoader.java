@@ -83,7 +83,9 @@ public class KvjMobDataLoader extends MobDataLoader {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Could not read KVJ data file for mob " + mobid, e);
 		}
-		mobStats.put(Integer.valueOf(mobid), stats);
+		if (stats != null)
+			mobStats.put(Integer.valueOf(mobid), stats);
+		loaded.add(mobid);
 	}
 
 	@Override
@@ -98,6 +100,7 @@ public class KvjMobDataLoader extends MobDataLoader {
 				//doWork(new LittleEndianStreamReader(is), stats);
 				//is.close();
 				mobStats.put(Integer.valueOf(mobid), stats);
+				loaded.add(mobid);
 			}
 			return true;
 		} catch (IOException ex) {
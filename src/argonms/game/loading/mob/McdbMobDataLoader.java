@@ -58,7 +58,9 @@ public class McdbMobDataLoader extends MobDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.WZ, rs, ps, con);
 		}
-		mobStats.put(Integer.valueOf(mobid), stats);
+		if (stats != null)
+			mobStats.put(Integer.valueOf(mobid), stats);
+		loaded.add(mobid);
 	}
 
 	@Override
@@ -75,6 +77,7 @@ public class McdbMobDataLoader extends MobDataLoader {
 				MobStats stats = new MobStats(mobid);
 				doWork(rs, mobid, stats, con);
 				mobStats.put(Integer.valueOf(mobid), stats);
+				loaded.add(mobid);
 			}
 			return true;
 		} catch (SQLException ex) {
@@ -19,10 +19,11 @@
 package argonms.game.loading.mob;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -31,9 +32,13 @@ public abstract class MobDataLoader {
 	private static MobDataLoader instance;
 
 	protected final Map<Integer, MobStats> mobStats;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 
 	protected MobDataLoader() {
-		mobStats = new HashMap<Integer, MobStats>();
+		mobStats = new ConcurrentHashMap<Integer, MobStats>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
 	}
 
 	protected abstract void load(int mobid);
@@ -43,16 +48,13 @@ public abstract class MobDataLoader {
 	public abstract boolean canLoad(int mobid);
 
 	public MobStats getMobStats(int id) {
-		Integer oId;
-		MobStats stats;
-		//do {
-			oId = Integer.valueOf(id);
-			if (!mobStats.containsKey(oId))
-				load(id);
-			stats = mobStats.get(oId);
-			//id = stats != null ? stats.getLink() : 0;
-		//} while (id != 0);
-		return stats;
+		if (id >= 0 && !loaded.contains(id)) {
+			synchronized (loadLocks.get(id)) {
+				if (!loaded.contains(id))
+					load(id);
+			}
+		}
+		return mobStats.get(Integer.valueOf(id));
 	}
 
 	public static void setInstance(DataFileType wzType, String wzPath) {
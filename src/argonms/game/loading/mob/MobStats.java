@@ -18,18 +18,16 @@
 
 package argonms.game.loading.mob;
 
-import argonms.common.character.inventory.Equip;
-import argonms.common.character.inventory.InventorySlot;
-import argonms.common.character.inventory.InventorySlot.ItemType;
-import argonms.common.character.inventory.InventoryTools;
 import argonms.common.util.Rng;
 import argonms.game.GameServer;
 import argonms.game.field.Element;
+import argonms.game.field.entity.ItemDrop;
 import argonms.game.field.entity.Mob;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -67,6 +65,7 @@ public class MobStats {
 	private int buff;
 	private MesoDropChance mesoDrop;
 	private byte dropItemPeriod;
+	private volatile DropTable dropTable;
 
 	protected MobStats(int mobid) {
 		this.mobid = mobid;
@@ -326,21 +325,90 @@ public class MobStats {
 		}
 	}
 
-	public List<InventorySlot> getItemsToDrop() {
-		Random generator = Rng.getGenerator();
-		List<InventorySlot> items = new ArrayList<InventorySlot>();
-		int multiplier = GameServer.getVariables().getDropRate();
-		for (ItemDropEntry entry : itemDrops) {
-			if (generator.nextInt(1000000) < ((long) entry.getDropChance() * multiplier)) {
-				InventorySlot item = InventoryTools.makeItemWithId(entry.getItemId());
-				if (item.getType() == ItemType.EQUIP)
-					InventoryTools.randomizeStats((Equip) item);
-				if (entry.getMaxQuantity() != 1)
-					item.setQuantity((short) (generator.nextInt(entry.getMaxQuantity() - entry.getMinQuantity() + 1) + entry.getMinQuantity()));
-				items.add(item);
+	/**
+	 * The item drops of a monster compiled for one drop rate, so that rolling
+	 * the drops of a kill costs one random number per distinct drop chance
+	 * plus one per item that actually drops, rather than one per entry.
+	 *
+	 * Every entry still drops independently with the same probability as
+	 * before. Entries that share a chance are grouped, and within a group the
+	 * gap to the next entry that drops is drawn from a geometric distribution
+	 * instead of rolling every entry in between. As a result, the drops of a
+	 * roll do not come out in the order of the drop list - entries that always
+	 * drop come first, followed by the rest grouped by chance.
+	 */
+	private static class DropTable {
+		private final int multiplier;
+		private final ItemDropEntry[] guaranteed;
+		private final ItemDropEntry[][] groups;
+		//ln(1 - p) of each group, where p is the chance that one entry drops
+		private final double[] logMissChances;
+
+		public DropTable(List<ItemDropEntry> entries, int multiplier) {
+			this.multiplier = multiplier;
+			List<ItemDropEntry> always = new ArrayList<ItemDropEntry>();
+			Map<Long, List<ItemDropEntry>> byChance = new LinkedHashMap<Long, List<ItemDropEntry>>();
+			for (ItemDropEntry entry : entries) {
+				long chance = (long) entry.getDropChance() * multiplier;
+				if (chance >= 1000000) {
+					always.add(entry);
+				} else if (chance > 0) {
+					List<ItemDropEntry> group = byChance.get(Long.valueOf(chance));
+					if (group == null) {
+						group = new ArrayList<ItemDropEntry>();
+						byChance.put(Long.valueOf(chance), group);
+					}
+					group.add(entry);
+				}
+			}
+			guaranteed = always.toArray(new ItemDropEntry[always.size()]);
+			groups = new ItemDropEntry[byChance.size()][];
+			logMissChances = new double[byChance.size()];
+			int i = 0;
+			for (Entry<Long, List<ItemDropEntry>> group : byChance.entrySet()) {
+				groups[i] = group.getValue().toArray(new ItemDropEntry[group.getValue().size()]);
+				logMissChances[i] = Math.log(1 - group.getKey().longValue() / 1000000.0);
+				i++;
+			}
+		}
+
+		private static ItemDrop makeDrop(ItemDropEntry entry, Random generator) {
+			short quantity = 1;
+			if (entry.getMaxQuantity() != 1)
+				quantity = (short) (generator.nextInt(entry.getMaxQuantity() - entry.getMinQuantity() + 1) + entry.getMinQuantity());
+			return new ItemDrop(entry.getItemId(), quantity);
+		}
+
+		public List<ItemDrop> roll(Random generator) {
+			List<ItemDrop> drops = new ArrayList<ItemDrop>();
+			for (ItemDropEntry entry : guaranteed)
+				drops.add(makeDrop(entry, generator));
+			for (int i = 0; i < groups.length; i++) {
+				ItemDropEntry[] group = groups[i];
+				//1 - nextDouble() is in (0, 1], so its log is never infinite
+				for (double index = Math.floor(Math.log(1 - generator.nextDouble()) / logMissChances[i]);
+						index < group.length;
+						index += 1 + Math.floor(Math.log(1 - generator.nextDouble()) / logMissChances[i]))
+					drops.add(makeDrop(group[(int) index], generator));
 			}
+			return drops;
+		}
+	}
+
+	/**
+	 * Roll the items that this monster drops when it is killed. The items
+	 * themselves are not built until they are picked up.
+	 * @return the drops, in no particular order. Callers that care about the
+	 * order that drops appear in must arrange them on their own.
+	 */
+	public List<ItemDrop> getItemsToDrop() {
+		int multiplier = GameServer.getVariables().getDropRate();
+		DropTable table = dropTable;
+		if (table == null || table.multiplier != multiplier) {
+			table = new DropTable(itemDrops, multiplier);
+			dropTable = table;
 		}
-		return items;
+		return table.roll(Rng.getGenerator());
 	}
 
 	public byte getDropItemPeriod() {
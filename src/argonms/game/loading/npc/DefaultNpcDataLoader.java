@@ -66,7 +66,9 @@ public class DefaultNpcDataLoader extends NpcDataLoader {
 
 	@Override
 	protected void load(int npcId) {
-		storageCosts.put(Integer.valueOf(npcId), hardCodedTable.get(Integer.valueOf(npcId)));
+		NpcStorageKeeper storage = hardCodedTable.get(Integer.valueOf(npcId));
+		if (storage != null)
+			storageCosts.put(Integer.valueOf(npcId), storage);
 		Connection con = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
@@ -82,13 +84,14 @@ public class DefaultNpcDataLoader extends NpcDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
 		}
-		loaded.add(Integer.valueOf(npcId));
+		loaded.add(npcId);
 	}
 
 	@Override
 	public boolean loadAll() {
 		storageCosts.putAll(hardCodedTable);
-		loaded.addAll(hardCodedTable.keySet());
+		for (Integer npcId : hardCodedTable.keySet())
+			loaded.add(npcId.intValue());
 		Connection con = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
@@ -99,7 +102,7 @@ public class DefaultNpcDataLoader extends NpcDataLoader {
 			while (rs.next()) {
 				Integer npcId = Integer.valueOf(rs.getInt(1));
 				scriptNames.put(npcId, rs.getString(2));
-				loaded.add(npcId);
+				loaded.add(npcId.intValue());
 			}
 		} catch (SQLException e) {
 			LOG.log(Level.WARNING, "Could not load all NPC script names", e);
@@ -55,7 +55,7 @@ public class KvjNpcDataLoader extends NpcDataLoader {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Could not read KVJ data file for NPC " + npcId, e);
 		}
-		loaded.add(Integer.valueOf(npcId));
+		loaded.add(npcId);
 	}
 
 	@Override
@@ -65,7 +65,7 @@ public class KvjNpcDataLoader extends NpcDataLoader {
 			for (String kvj : root.list()) {
 				int npcId = Integer.parseInt(kvj.substring(0, kvj.lastIndexOf(".img.kvj")));
 				doWork(new LittleEndianByteArrayReader(new File(root.getAbsolutePath() + File.separatorChar + kvj)), npcId);
-				loaded.add(Integer.valueOf(npcId));
+				loaded.add(npcId);
 				//InputStream is = new BufferedInputStream(new FileInputStream(root.getAbsolutePath() + File.separatorChar + kvj));
 				//storageCosts.put(Integer.valueOf(npcId), doWork(new LittleEndianStreamReader(is)));
 				//is.close();
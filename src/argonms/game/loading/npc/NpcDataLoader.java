@@ -19,10 +19,10 @@
 package argonms.game.loading.npc;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
-import java.util.HashSet;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -31,29 +31,38 @@ import java.util.Set;
 public abstract class NpcDataLoader {
 	private static NpcDataLoader instance;
 
-	protected final Set<Integer> loaded;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 	protected final Map<Integer, NpcStorageKeeper> storageCosts;
 	protected final Map<Integer, String> scriptNames;
 
 	protected NpcDataLoader() {
-		loaded = new HashSet<Integer>();
-		storageCosts = new HashMap<Integer, NpcStorageKeeper>();
-		scriptNames = new HashMap<Integer, String>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
+		storageCosts = new ConcurrentHashMap<Integer, NpcStorageKeeper>();
+		scriptNames = new ConcurrentHashMap<Integer, String>();
 	}
 
 	protected abstract void load(int npcId);
 
 	public abstract boolean loadAll();
 
+	private void ensureLoaded(int npcId) {
+		if (npcId >= 0 && !loaded.contains(npcId)) {
+			synchronized (loadLocks.get(npcId)) {
+				if (!loaded.contains(npcId))
+					load(npcId);
+			}
+		}
+	}
+
 	public NpcStorageKeeper getStorageById(int npcId) {
-		if (!loaded.contains(Integer.valueOf(npcId)))
-			load(npcId);
+		ensureLoaded(npcId);
 		return storageCosts.get(Integer.valueOf(npcId));
 	}
 
 	public String getScriptName(int npcId) {
-		if (!loaded.contains(Integer.valueOf(npcId)))
-			load(npcId);
+		ensureLoaded(npcId);
 		return scriptNames.get(Integer.valueOf(npcId));
 	}
 
@@ -63,7 +63,9 @@ public class KvjReactorDataLoader extends ReactorDataLoader {
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Could not read KVJ data file for reactor " + reactorid, e);
 		}
-		reactorStats.put(Integer.valueOf(reactorid), stats);
+		if (stats != null)
+			reactorStats.put(Integer.valueOf(reactorid), stats);
+		loaded.add(reactorid);
 	}
 
 	@Override
@@ -78,6 +80,7 @@ public class KvjReactorDataLoader extends ReactorDataLoader {
 				//doWork(new LittleEndianStreamReader(is), stats);
 				//is.close();
 				reactorStats.put(Integer.valueOf(reactorId), stats);
+				loaded.add(reactorId);
 			}
 			return true;
 		} catch (IOException ex) {
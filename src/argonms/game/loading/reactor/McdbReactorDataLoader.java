@@ -76,7 +76,9 @@ public class McdbReactorDataLoader extends ReactorDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
 		}
-		reactorStats.put(Integer.valueOf(reactorid), stats);
+		if (stats != null)
+			reactorStats.put(Integer.valueOf(reactorid), stats);
+		loaded.add(reactorid);
 	}
 
 	@Override
@@ -94,6 +96,7 @@ public class McdbReactorDataLoader extends ReactorDataLoader {
 				ReactorStats stats = new ReactorStats(reactorid);
 				more = doWork(rs, reactorid, stats);
 				reactorStats.put(Integer.valueOf(reactorid), stats);
+				loaded.add(reactorid);
 			}
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not load all reactor data from MCDB.", ex);
@@ -114,6 +117,7 @@ public class McdbReactorDataLoader extends ReactorDataLoader {
 				if (stats == null) {
 					stats = new ReactorStats(reactorid);
 					reactorStats.put(Integer.valueOf(reactorid), stats);
+					loaded.add(reactorid);
 				}
 				stats.setScript(rs.getString(2));
 			}
@@ -19,10 +19,11 @@
 package argonms.game.loading.reactor;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -31,9 +32,13 @@ public abstract class ReactorDataLoader {
 	private static ReactorDataLoader instance;
 
 	protected final Map<Integer, ReactorStats> reactorStats;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 
 	protected ReactorDataLoader() {
-		reactorStats = new HashMap<Integer, ReactorStats>();
+		reactorStats = new ConcurrentHashMap<Integer, ReactorStats>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
 	}
 
 	protected abstract void load(int reactorid);
@@ -42,14 +47,20 @@ public abstract class ReactorDataLoader {
 
 	public abstract boolean canLoad(int reactorid);
 
+	private void ensureLoaded(int id) {
+		if (id >= 0 && !loaded.contains(id)) {
+			synchronized (loadLocks.get(id)) {
+				if (!loaded.contains(id))
+					load(id);
+			}
+		}
+	}
+
 	public ReactorStats getReactorStats(int id) {
-		Integer oId;
 		ReactorStats stats;
 		do {
-			oId = Integer.valueOf(id);
-			if (!reactorStats.containsKey(oId))
-				load(id);
-			stats = reactorStats.get(oId);
+			ensureLoaded(id);
+			stats = reactorStats.get(Integer.valueOf(id));
 			id = stats != null ? stats.getLink() : 0;
 		} while (id != 0);
 		return stats;
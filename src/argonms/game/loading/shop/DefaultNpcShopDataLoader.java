@@ -53,9 +53,8 @@ public class DefaultNpcShopDataLoader extends NpcShopDataLoader {
 			if (!items.isEmpty()) {
 				NpcShop shop = new NpcShop.DefaultNpcShopStock(items);
 				loadedShops.put(Integer.valueOf(npcid), shop);
-			} else {
-				loadedShops.put(Integer.valueOf(npcid), null);
 			}
+			loaded.add(npcid);
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not read data from default table for shop of NPC " + npcid, ex);
 		} finally {
@@ -81,6 +80,7 @@ public class DefaultNpcShopDataLoader extends NpcShopDataLoader {
 					items.add(new NpcShop.ShopSlot(rs.getInt(2), (short) 1, rs.getInt(3)));
 				while ((more = rs.next()) && rs.getInt(1) == npcId);
 				loadedShops.put(Integer.valueOf(npcId), new NpcShop.DefaultNpcShopStock(items));
+				loaded.add(npcId);
 			}
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not load all shop data.", ex);
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,7 +43,7 @@ public class McdbNpcShopDataLoader extends NpcShopDataLoader {
 	private final Map<Integer, Map<Integer, Double>> rechargeTiers;
 
 	protected McdbNpcShopDataLoader() {
-		rechargeTiers = new HashMap<Integer, Map<Integer, Double>>();
+		rechargeTiers = new ConcurrentHashMap<Integer, Map<Integer, Double>>();
 	}
 
 	private boolean loadRechargeTier(int tier, ResultSet rs) throws SQLException {
@@ -106,9 +107,8 @@ public class McdbNpcShopDataLoader extends NpcShopDataLoader {
 				//just use aliases of the same immutable map
 				NpcShop shop = new NpcShop.McdbNpcShopStock(rechargeables, items);
 				loadedShops.put(Integer.valueOf(npcid), shop);
-			} else {
-				loadedShops.put(Integer.valueOf(npcid), null);
 			}
+			loaded.add(npcid);
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not read MCDB data for shop of NPC " + npcid, ex);
 		} finally {
@@ -155,6 +155,7 @@ public class McdbNpcShopDataLoader extends NpcShopDataLoader {
 				int rechargeTier = rs.getInt(3);
 				Map<Integer, Double> rechargeables = rechargeTier != 0 ? rechargeTiers.get(Integer.valueOf(rechargeTier)) : Collections.<Integer, Double>emptyMap();
 				loadedShops.put(Integer.valueOf(npcId), new NpcShop.McdbNpcShopStock(rechargeables != null ? rechargeables : Collections.<Integer, Double>emptyMap(), shopItems.get(Integer.valueOf(shopId))));
+				loaded.add(npcId);
 			}
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Could not load all shop data from MCDB.", ex);
@@ -169,8 +170,8 @@ public class McdbNpcShopDataLoader extends NpcShopDataLoader {
 	public boolean canLoad(int npcid) {
 		if (loadedShops.get(Integer.valueOf(npcid)) != null)
 			return true;
-		//if loadedShops.containsKey npcid but loadedShops.get npcid is null, that means the shop of npcid could not be loaded
-		if (loadedShops.containsKey(Integer.valueOf(npcid)))
+		//if npcid is loaded but loadedShops.get npcid is null, that means the shop of npcid could not be loaded
+		if (loaded.contains(npcid))
 			return false;
 		Connection con = null;
 		PreparedStatement ps = null;
@@ -19,10 +19,11 @@
 package argonms.game.loading.shop;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -31,9 +32,13 @@ public abstract class NpcShopDataLoader {
 	private static NpcShopDataLoader instance;
 
 	protected final Map<Integer, NpcShop> loadedShops;
+	protected final ConcurrentIntSet loaded;
+	private final StripedLock loadLocks;
 
 	protected NpcShopDataLoader() {
-		loadedShops = new HashMap<Integer, NpcShop>();
+		loadedShops = new ConcurrentHashMap<Integer, NpcShop>();
+		loaded = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
 	}
 
 	protected abstract void load(int npcid);
@@ -43,9 +48,13 @@ public abstract class NpcShopDataLoader {
 	public abstract boolean canLoad(int npcid);
 
 	public NpcShop getShopByNpc(int id) {
-		//value could be null, so check if the key exists
-		if (!loadedShops.containsKey(Integer.valueOf(id)))
-			load(id);
+		//NPCs without a shop are only marked as loaded, so check the set
+		if (id >= 0 && !loaded.contains(id)) {
+			synchronized (loadLocks.get(id)) {
+				if (!loaded.contains(id))
+					load(id);
+			}
+		}
 		return loadedShops.get(Integer.valueOf(id));
 	}
 
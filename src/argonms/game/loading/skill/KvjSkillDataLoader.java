@@ -59,32 +59,40 @@ public class KvjSkillDataLoader extends SkillDataLoader {
 	protected void loadPlayerSkill(int skillid) {
 		String id = String.format("%07d", skillid);
 
-		try {
-			Integer key = Integer.valueOf(Integer.parseInt(id.substring(0, 3)));
-			if (!loadedFiles.contains(key)) {
-				File f = new File(new StringBuilder(dataPath).append("Skill.wz").append(File.separator).append(id.substring(0, 3)).append(".img.kvj").toString());
-				if (f.exists())
-					doWork(new LittleEndianByteArrayReader(f));
-				loadedFiles.add(key);
+		//skills of the same job share a file, so two threads requesting
+		//different skills should not both parse it
+		synchronized (loadedFiles) {
+			try {
+				Integer key = Integer.valueOf(Integer.parseInt(id.substring(0, 3)));
+				if (!loadedFiles.contains(key)) {
+					File f = new File(new StringBuilder(dataPath).append("Skill.wz").append(File.separator).append(id.substring(0, 3)).append(".img.kvj").toString());
+					if (f.exists())
+						doWork(new LittleEndianByteArrayReader(f));
+					loadedFiles.add(key);
+				}
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not read KVJ data file for skill " + skillid, e);
 			}
-		} catch (IOException e) {
-			LOG.log(Level.WARNING, "Could not read KVJ data file for skill " + skillid, e);
 		}
+		loadedSkills.add(skillid);
 	}
 
 	@Override
 	protected void loadMobSkill(short skillid) {
-		try {
-			Integer key = Integer.valueOf(-1);
-			if (!loadedFiles.contains(key)) {
-				File f = new File(new StringBuilder(dataPath).append("Skill.wz").append(File.separator).append("MobSkill.img.kvj").toString());
-				if (f.exists())
-					doMobWork(new LittleEndianByteArrayReader(f));
-				loadedFiles.add(key);
+		synchronized (loadedFiles) {
+			try {
+				Integer key = Integer.valueOf(-1);
+				if (!loadedFiles.contains(key)) {
+					File f = new File(new StringBuilder(dataPath).append("Skill.wz").append(File.separator).append("MobSkill.img.kvj").toString());
+					if (f.exists())
+						doMobWork(new LittleEndianByteArrayReader(f));
+					loadedFiles.add(key);
+				}
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not read KVJ data file for mob skill " + skillid, e);
 			}
-		} catch (IOException e) {
-			LOG.log(Level.WARNING, "Could not read KVJ data file for mob skill " + skillid, e);
 		}
+		loadedMobSkills.add(skillid);
 	}
 
 	@Override
@@ -106,6 +114,11 @@ public class KvjSkillDataLoader extends SkillDataLoader {
 					loadedFiles.add(Integer.valueOf(Integer.parseInt(kvj.substring(0, kvj.indexOf(".img.kvj")))));
 				}
 			}
+			//only mark skills as loaded once every one of them is fully parsed
+			for (Integer skillid : skillStats.keySet())
+				loadedSkills.add(skillid.intValue());
+			for (Short skillid : mobSkillStats.keySet())
+				loadedMobSkills.add(skillid.shortValue());
 			return true;
 		} catch (IOException ex) {
 			LOG.log(Level.WARNING, "Could not load all skill data from KVJ files.", ex);
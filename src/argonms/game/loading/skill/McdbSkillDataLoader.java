@@ -60,7 +60,9 @@ public class McdbSkillDataLoader extends SkillDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.WZ, rs, ps, con);
 		}
-		skillStats.put(Integer.valueOf(skillid), stats);
+		if (stats != null)
+			skillStats.put(Integer.valueOf(skillid), stats);
+		loadedSkills.add(skillid);
 	}
 
 	@Override
@@ -83,7 +85,9 @@ public class McdbSkillDataLoader extends SkillDataLoader {
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.WZ, rs, ps, con);
 		}
-		mobSkillStats.put(Short.valueOf(skillid), stats);
+		if (stats != null)
+			mobSkillStats.put(Short.valueOf(skillid), stats);
+		loadedMobSkills.add(skillid);
 	}
 
 	@Override
@@ -101,6 +105,7 @@ public class McdbSkillDataLoader extends SkillDataLoader {
 				SkillStats stats = new SkillStats();
 				more = doWork(rs, skillid, stats);
 				skillStats.put(Integer.valueOf(skillid), stats);
+				loadedSkills.add(skillid);
 			}
 			rs.close();
 			ps.close();
@@ -111,6 +116,7 @@ public class McdbSkillDataLoader extends SkillDataLoader {
 				MobSkillStats stats = new MobSkillStats();
 				more = doMobWork(rs, skillid, stats, con);
 				mobSkillStats.put(Short.valueOf(skillid), stats);
+				loadedMobSkills.add(skillid);
 			}
 			return true;
 		} catch (SQLException ex) {
@@ -19,10 +19,11 @@
 package argonms.game.loading.skill;
 
 import argonms.common.loading.DataFileType;
-import java.util.HashMap;
+import argonms.common.util.collections.ConcurrentIntSet;
+import argonms.common.util.collections.StripedLock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-//FIXME: Thread safety for concurrent read/writes (if we're not preloading)
 /**
  *
  * @author GoldenKevin
@@ -32,10 +33,15 @@ public abstract class SkillDataLoader {
 
 	protected final Map<Integer, SkillStats> skillStats;
 	protected final Map<Short, MobSkillStats> mobSkillStats;
+	protected final ConcurrentIntSet loadedSkills, loadedMobSkills;
+	private final StripedLock loadLocks;
 
 	protected SkillDataLoader() {
-		skillStats = new HashMap<Integer, SkillStats>();
-		mobSkillStats = new HashMap<Short, MobSkillStats>();
+		skillStats = new ConcurrentHashMap<Integer, SkillStats>();
+		mobSkillStats = new ConcurrentHashMap<Short, MobSkillStats>();
+		loadedSkills = new ConcurrentIntSet();
+		loadedMobSkills = new ConcurrentIntSet();
+		loadLocks = new StripedLock(64);
 	}
 
 	protected abstract void loadPlayerSkill(int skillid);
@@ -52,20 +58,26 @@ public abstract class SkillDataLoader {
 		if (skillid == 0)
 			return null;
 
-		Integer oId = Integer.valueOf(skillid);
-		if (!skillStats.containsKey(oId))
-			loadPlayerSkill(skillid);
-		return skillStats.get(oId);
+		if (skillid >= 0 && !loadedSkills.contains(skillid)) {
+			synchronized (loadLocks.get(skillid)) {
+				if (!loadedSkills.contains(skillid))
+					loadPlayerSkill(skillid);
+			}
+		}
+		return skillStats.get(Integer.valueOf(skillid));
 	}
 
 	public MobSkillStats getMobSkill(short skillid) {
 		if (skillid == 0)
 			return null;
 
-		Short oId = Short.valueOf(skillid);
-		if (!mobSkillStats.containsKey(oId))
-			loadMobSkill(skillid);
-		return mobSkillStats.get(oId);
+		if (skillid >= 0 && !loadedMobSkills.contains(skillid)) {
+			synchronized (loadLocks.get(skillid)) {
+				if (!loadedMobSkills.contains(skillid))
+					loadMobSkill(skillid);
+			}
+		}
+		return mobSkillStats.get(Short.valueOf(skillid));
 	}
 
 	public static void setInstance(DataFileType wzType, String wzPath) {
@@ -18,8 +18,10 @@
 
 package argonms.game.net;
 
+import argonms.common.character.PersistenceQueue;
 import argonms.common.net.external.ClientListener;
 import argonms.common.net.external.ClientListener.ClientFactory;
+import argonms.common.net.external.ClientSession;
 import argonms.common.net.external.CommonPackets;
 import argonms.common.net.external.PlayerLog;
 import argonms.common.net.internal.ChannelSynchronizationOps;
@@ -30,7 +32,6 @@ import argonms.common.util.output.LittleEndianByteArrayWriter;
 import argonms.game.GameServer;
 import argonms.game.character.GameCharacter;
 import argonms.game.character.PlayerContinuation;
-import argonms.game.field.GameMap;
 import argonms.game.field.MapFactory;
 import argonms.game.net.external.ClientGamePacketProcessor;
 import argonms.game.net.external.GameClient;
@@ -87,16 +88,8 @@ public class WorldChannel {
 			shutdown();
 			return;
 		}
+		//monster respawns are driven by each GameMap's own MapTicker
 		startTime = System.currentTimeMillis();
-		Scheduler.getInstance().runRepeatedly(new Runnable() {
-			@Override
-			public void run() {
-				for (GameMap map : mapFactory.getMaps())
-					map.respawnMobs();
-				for (GameMap map : mapFactory.getInstanceMaps())
-					map.respawnMobs();
-			}
-		}, 0, 15000);
 	}
 
 	public byte getWorld() {
@@ -111,8 +104,8 @@ public class WorldChannel {
 		return startTime;
 	}
 
-	public void initializeEventManager(String scriptPath, String[] persistentEvents) {
-		eventManager = new EventManager(scriptPath, channel, persistentEvents);
+	public void initializeEventManager(String[] persistentEvents) {
+		eventManager = new EventManager(channel, persistentEvents);
 	}
 
 	public void addPlayer(GameCharacter p) {
@@ -203,9 +196,21 @@ public class WorldChannel {
 		}
 		GameCharacter p = storage.getPlayer(playerId);
 		if (destHost != null && destPort != -1) {
+			final GameClient client = p.getClient();
+			final byte[] host = destHost;
+			final int port = destPort;
 			p.prepareChannelChange();
-			p.getClient().setMigratingHost();
-			p.getClient().getSession().send(CommonPackets.writeNewGameHost(destHost, destPort));
+			client.setMigratingHost();
+			//the destination channel loads the character from the database, so
+			//don't let the client go there until our save has been written
+			PersistenceQueue.getInstance().flush(p.getDataId(), new Runnable() {
+				@Override
+				public void run() {
+					ClientSession<?> session = client.getSession();
+					if (session != null)
+						session.send(CommonPackets.writeNewGameHost(host, port));
+				}
+			});
 		} else {
 			channelChangeError(p, errorCode);
 		}
@@ -20,6 +20,7 @@ package argonms.game.net.external;
 
 import argonms.common.net.external.ClientPacketProcessor;
 import argonms.common.net.external.ClientRecvOps;
+import argonms.common.util.input.LittleEndianByteArrayReader;
 import argonms.common.util.input.LittleEndianReader;
 import argonms.game.net.external.handler.*;
 import java.util.logging.Level;
@@ -66,7 +67,7 @@ public class ClientGamePacketProcessor extends ClientPacketProcessor<GameClient>
 				GoToHandler.handleWarpCs(reader, gc);
 				break;
 			case ClientRecvOps.MOVE_PLAYER:
-				MovementHandler.handleMovePlayer(reader, gc);
+				MovementHandler.handleMovePlayer((LittleEndianByteArrayReader) reader, gc);
 				break;
 			case ClientRecvOps.CHAIR:
 				PlayerMiscHandler.handleChair(reader, gc);
@@ -219,7 +220,7 @@ public class ClientGamePacketProcessor extends ClientPacketProcessor<GameClient>
 				GuildListHandler.handleGuildBbs(reader, gc);
 				break;
 			case ClientRecvOps.MOVE_PET:
-				MovementHandler.handleMovePet(reader, gc);
+				MovementHandler.handleMovePet((LittleEndianByteArrayReader) reader, gc);
 				break;
 			case ClientRecvOps.PET_CHAT:
 				PetHandler.handlePetChat(reader, gc);
@@ -237,7 +238,7 @@ public class ClientGamePacketProcessor extends ClientPacketProcessor<GameClient>
 				PetHandler.handlePetItemIgnore(reader, gc);
 				break;
 			case ClientRecvOps.MOVE_SUMMON:
-				MovementHandler.handleMoveSummon(reader, gc);
+				MovementHandler.handleMoveSummon((LittleEndianByteArrayReader) reader, gc);
 				break;
 			case ClientRecvOps.SUMMON_ATTACK:
 				DealDamageHandler.handleSummonAttack(reader, gc);
@@ -246,7 +247,7 @@ public class ClientGamePacketProcessor extends ClientPacketProcessor<GameClient>
 				TakeDamageHandler.handlePuppetTakeDamage(reader, gc);
 				break;
 			case ClientRecvOps.MOVE_MOB:
-				MovementHandler.handleMoveMob(reader, gc);
+				MovementHandler.handleMoveMob((LittleEndianByteArrayReader) reader, gc);
 				break;
 			case ClientRecvOps.AUTO_AGGRO:
 				//no-op, for now
@@ -18,6 +18,7 @@
 
 package argonms.game.net.external;
 
+import argonms.common.character.PersistenceQueue;
 import argonms.common.net.external.RemoteClient;
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
@@ -104,7 +105,9 @@ public class GameClient extends RemoteClient {
 	}
 
 	private void dissociate(boolean quickCleanup, boolean changingChannels) {
+		int playerId = -1;
 		if (player != null) {
+			playerId = player.getDataId();
 			if (!changingChannels) {
 				player.logOffCancelSkills();
 				player.prepareLogOff(quickCleanup);
@@ -118,6 +121,19 @@ public class GameClient extends RemoteClient {
 		}
 		getSession().removeClient();
 		setSession(null);
+		if (!quickCleanup && !changingChannels) {
+			Runnable r = new Runnable() {
+				@Override
+				public void run() {
+					updateState(STATUS_NOTLOGGEDIN);
+				}
+			};
+			//don't let the account log in again until the save is written
+			if (playerId != -1)
+				PersistenceQueue.getInstance().flush(playerId, r);
+			else
+				r.run();
+		}
 	}
 
 	@Override
@@ -138,7 +154,5 @@ public class GameClient extends RemoteClient {
 				}
 			});
 		}
-		if (!quickCleanup && !changingChannels)
-			updateState(STATUS_NOTLOGGEDIN);
 	}
 }
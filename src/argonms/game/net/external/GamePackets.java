@@ -59,7 +59,6 @@ import argonms.game.field.entity.Npc;
 import argonms.game.field.entity.PlayerNpc;
 import argonms.game.field.entity.PlayerSkillSummon;
 import argonms.game.field.entity.Reactor;
-import argonms.game.field.movement.LifeMovementFragment;
 import argonms.game.loading.shop.NpcShop;
 import argonms.game.loading.shop.NpcShop.ShopSlot;
 import argonms.game.net.external.handler.BuddyListHandler;
@@ -1889,12 +1888,6 @@ public final class GamePackets {
 		return lew.getBytes();
 	}
 
-	public static void writeSerializedMovements(LittleEndianByteArrayWriter lew, List<LifeMovementFragment> moves) {
-		lew.writeByte((byte) moves.size());
-		for (LifeMovementFragment move : moves)
-			move.serialize(lew);
-	}
-
 	/**
 	 * Error message to the client if a user cannot warp to another area.
 	 * @param type Message to be sent. Possible values :<br>
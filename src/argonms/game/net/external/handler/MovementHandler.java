@@ -24,33 +24,22 @@ import argonms.common.net.external.CheatTracker;
 import argonms.common.net.external.ClientSendOps;
 import argonms.common.util.Rng;
 import argonms.common.util.Scheduler;
+import argonms.common.util.input.LittleEndianByteArrayReader;
 import argonms.common.util.input.LittleEndianReader;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
 import argonms.game.character.GameCharacter;
 import argonms.game.field.MapEntity.EntityType;
 import argonms.game.field.MobSkills;
 import argonms.game.field.MonsterStatusEffectTools;
-import argonms.game.field.Positionable;
 import argonms.game.field.entity.Mob;
 import argonms.game.field.entity.PlayerSkillSummon;
-import argonms.game.field.movement.AbsoluteLifeMovement;
-import argonms.game.field.movement.ChairMovement;
-import argonms.game.field.movement.ChangeEquipMovement;
-import argonms.game.field.movement.FootholdChangedMovementFragment;
-import argonms.game.field.movement.JumpDownMovement;
-import argonms.game.field.movement.LifeMovementFragment;
-import argonms.game.field.movement.LifeMovementFragment.UpdatedEntityInfo;
-import argonms.game.field.movement.PositionChangedMovementFragment;
-import argonms.game.field.movement.RelativeLifeMovement;
-import argonms.game.field.movement.StanceChangedMovementFragment;
-import argonms.game.field.movement.TeleportMovement;
+import argonms.game.field.movement.MovementPath;
 import argonms.game.loading.mob.Skill;
 import argonms.game.loading.skill.MobSkillEffectsData;
 import argonms.game.loading.skill.SkillDataLoader;
 import argonms.game.net.external.GameClient;
 import argonms.game.net.external.GamePackets;
 import java.awt.Point;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -91,11 +80,13 @@ public final class MovementHandler {
 		return ((x - 1) / y) + 1;
 	}
 
-	public static void handleMovePlayer(LittleEndianReader packet, GameClient gc) {
+	public static void handleMovePlayer(LittleEndianByteArrayReader packet, GameClient gc) {
 		CheatTracker.get(gc).logTime("hpr", System.currentTimeMillis());
 		/*byte portalCount = */packet.readByte();
 		Point startPos = packet.readPos();
-		List<LifeMovementFragment> res = parseMovement(packet);
+		MovementPath res = parseMovement(packet);
+		if (res == null)
+			return;
 		//looks like there are exactly ceil(n / 2) bytes after the first byte,
 		//where n is the value of the first byte. Probably the amount of hex
 		//digits (2 hex digits per byte)
@@ -110,11 +101,11 @@ public final class MovementHandler {
 		/*Point finalPos = */packet.readPos();
 
 		GameCharacter player = gc.getPlayer();
-		updatePosition(res, player, 0);
+		res.applyTo(player, 0);
 		player.getMap().playerMoved(player, res, startPos);
 	}
 
-	public static void handleMovePet(LittleEndianReader packet, GameClient gc) {
+	public static void handleMovePet(LittleEndianByteArrayReader packet, GameClient gc) {
 		long uniqueId = packet.readLong();
 
 		GameCharacter player = gc.getPlayer();
@@ -124,16 +115,18 @@ public final class MovementHandler {
 
 		Pet pet = player.getPets()[slot];
 		Point startPos = packet.readPos();
-		List<LifeMovementFragment> res = parseMovement(packet);
+		MovementPath res = parseMovement(packet);
+		if (res == null)
+			return;
 		int count = ceil(packet.readByte(), 2);
 		packet.skip(count);
 		/*Point initialPos = */packet.readPos();
 		/*Point finalPos = */packet.readPos();
-		updatePosition(res, pet, 0);
+		res.applyTo(pet, 0);
 		player.getMap().petMoved(player, slot, res, startPos);
 	}
 
-	public static void handleMoveSummon(LittleEndianReader packet, GameClient gc) {
+	public static void handleMoveSummon(LittleEndianByteArrayReader packet, GameClient gc) {
 		int entId = packet.readInt();
 
 		GameCharacter player = gc.getPlayer();
@@ -143,16 +136,18 @@ public final class MovementHandler {
 			return;
 
 		Point startPos = packet.readPos();
-		List<LifeMovementFragment> res = parseMovement(packet);
+		MovementPath res = parseMovement(packet);
+		if (res == null)
+			return;
 		int count = ceil(packet.readByte(), 2);
 		packet.skip(count);
 		/*Point initialPos = */packet.readPos();
 		/*Point finalPos = */packet.readPos();
-		updatePosition(res, summon, 0);
+		res.applyTo(summon, 0);
 		player.getMap().summonMoved(player, summon, res, startPos);
 	}
 
-	public static void handleMoveMob(LittleEndianReader packet, GameClient gc) {
+	public static void handleMoveMob(LittleEndianByteArrayReader packet, GameClient gc) {
 		int entId = packet.readInt();
 		short moveid = packet.readShort();
 
@@ -163,7 +158,7 @@ public final class MovementHandler {
 		if (monster == null)
 			return;
 
-		List<LifeMovementFragment> res;
+		MovementPath res;
 		boolean useSkill = packet.readBool();
 		byte skill = packet.readByte();
 		Point projectileTarget = packet.readPos();
@@ -270,11 +265,13 @@ public final class MovementHandler {
 
 		Point startPos = packet.readPos();
 		res = parseMovement(packet);
+		if (res == null)
+			return;
 		int count = ceil(packet.readByte(), 2);
 		packet.skip(count);
 		/*Point initialPos = */packet.readPos();
 		/*Point finalPos = */packet.readPos();
-		updatePosition(res, monster, -1);
+		res.applyTo(monster, -1);
 		player.getMap().monsterMoved(player, monster, res, useSkill, skill, projectileTarget, startPos);
 	}
 
@@ -297,94 +294,81 @@ public final class MovementHandler {
 		gc.getSession().send(lew.getBytes());
 	}
 
-	private static List<LifeMovementFragment> parseMovement(LittleEndianReader packet) {
-		List<LifeMovementFragment> res = new ArrayList<LifeMovementFragment>();
+	/**
+	 * Walks through the movement fragments in the packet without decoding them
+	 * into objects, so that the whole path can later be relayed to other
+	 * clients by copying its bytes out of the received packet.
+	 * @param packet the packet, positioned at the fragment count.
+	 * @return the path, or null if a fragment type is unknown (in which case
+	 * the length of the path can't be known either).
+	 */
+	private static MovementPath parseMovement(LittleEndianByteArrayReader packet) {
+		int start = packet.getPosition();
+		Point pos = null;
+		short foothold = 0;
+		byte stance = 0;
+		boolean footholdChanged = false, stanceChanged = false;
 		int numCommands = packet.readByte();
 		for (int i = 0; i < numCommands; i++) {
 			byte command = packet.readByte();
 			switch (command) {
 				case NORMAL_MOVE:
 				case NORMAL_MOVE_2:
-				case WINGS_FALL: {
-					Point pos = packet.readPos();
-					Point wobble = packet.readPos();
-					short foothold = packet.readShort();
-					byte stance = packet.readByte();
-					short duration = packet.readShort();
-					res.add(new AbsoluteLifeMovement(command, pos, wobble, foothold, stance, duration));
+				case WINGS_FALL:
+					pos = packet.readPos();
+					packet.skip(4); //wobble
+					foothold = packet.readShort();
+					stance = packet.readByte();
+					packet.skip(2); //duration
+					footholdChanged = stanceChanged = true;
 					break;
-				}
 				case JUMP:
 				case JUMP_AND_KNOCKBACK:
 				case FLASH_JUMP:
 				case HORNTAIL_KNOCKBACK:
 				case RECOIL_SHOT:
-				case WINGS: {
-					Point pos = packet.readPos();
-					byte stance = packet.readByte();
-					short foothold = packet.readShort();
-					res.add(new RelativeLifeMovement(command, pos, stance, foothold));
+				case WINGS:
+					pos = packet.readPos();
+					stance = packet.readByte();
+					foothold = packet.readShort();
+					footholdChanged = stanceChanged = true;
 					break;
-				}
 				case UNK_SKILL:
 				case TELEPORT:
 				case ASSAULTER:
 				case ASSASSINATE:
 				case RUSH:
-				case UNK: {
-					Point pos = packet.readPos();
-					Point wobble = packet.readPos();
-					byte stance = packet.readByte();
-					res.add(new TeleportMovement(command, pos, wobble, stance));
+				case UNK:
+					pos = packet.readPos();
+					packet.skip(4); //wobble
+					stance = packet.readByte();
+					stanceChanged = true;
 					break;
-				}
-				case EQUIP: {
-					byte count = packet.readByte();
-					res.add(new ChangeEquipMovement(count));
+				case EQUIP:
+					packet.skip(1); //count
 					break;
-				}
-				case CHAIR: {
-					Point pos = packet.readPos();
-					short foothold = packet.readShort();
-					byte stance = packet.readByte();
-					short duration = packet.readShort();
-					res.add(new ChairMovement(pos, foothold, stance, duration));
+				case CHAIR:
+					pos = packet.readPos();
+					foothold = packet.readShort();
+					stance = packet.readByte();
+					packet.skip(2); //duration
+					footholdChanged = stanceChanged = true;
 					break;
-				}
-				case JUMP_DOWN: {
-					Point pos = packet.readPos();
-					Point wobble = packet.readPos();
-					short unk = packet.readShort();
-					short foothold = packet.readShort();
-					byte stance = packet.readByte();
-					short duration = packet.readShort();
-					res.add(new JumpDownMovement(pos, wobble, unk, foothold, stance, duration));
+				case JUMP_DOWN:
+					pos = packet.readPos();
+					packet.skip(6); //wobble, unknown short
+					foothold = packet.readShort();
+					stance = packet.readByte();
+					packet.skip(2); //duration
+					footholdChanged = stanceChanged = true;
 					break;
-				}
 				default:
 					return null;
 			}
 		}
-		return res;
-	}
-
-	private static void updatePosition(List<LifeMovementFragment> movement, Positionable target, int yoffset) {
-		for (LifeMovementFragment move : movement) {
-			for (UpdatedEntityInfo stat : move.updatedStats()) {
-				switch (stat) {
-					case POSITION:
-						Point pos = ((PositionChangedMovementFragment) move).getPosition();
-						target.setPosition(new Point(pos.x, pos.y + yoffset));
-						break;
-					case FOOTHOLD:
-						target.setFoothold(((FootholdChangedMovementFragment) move).getFoothold());
-						break;
-					case STANCE:
-						target.setStance(((StanceChangedMovementFragment) move).getStance());
-						break;
-				}
-			}
-		}
+		if (packet.available() < 0)
+			return null;
+		return new MovementPath(packet.getBackingArray(), start, packet.getPosition() - start, pos, foothold, footholdChanged, stance, stanceChanged);
 	}
 
 	private static byte[] moveMonsterResponse(int entityid, short moveid, int currentMp, boolean useSkill, short skillId, byte skillLevel) {
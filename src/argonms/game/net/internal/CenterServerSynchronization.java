@@ -601,6 +601,7 @@ public class CenterServerSynchronization extends CrossProcessSynchronization {
 							if (!door.isInTown())
 								door = door.getComplement();
 							door.setPosition(door.getMap().getPortalPosition(door.getMap().getMysticDoorPortalId((byte) 0)));
+							door.getMap().entityRepositioned(door);
 							memberPlayer.getClient().getSession().send(GamePackets.writeSpawnPortal(door));
 						} else if (door.isInTown() && door.getMapId() == memberPlayer.getMapId() || !door.isInTown() && (door = door.getComplement()).getMapId() == memberPlayer.getMapId()) {
 							memberPlayer.getClient().getSession().send(door.getDestructionMessage());
@@ -657,6 +658,7 @@ public class CenterServerSynchronization extends CrossProcessSynchronization {
 						if (door.getMapId() == leavingPlayer.getMapId())
 							leavingPlayer.getClient().getSession().send(door.getDestructionMessage());
 						door.setPosition(door.getMap().getPortalPosition(door.getMap().getMysticDoorPortalId(party.getPositionById(memPlayer.getId()))));
+						door.getMap().entityRepositioned(door);
 						memPlayer.getClient().getSession().send(GamePackets.writeSpawnPortal(door));
 					}
 					door = leavingPlayer.getDoor();
@@ -667,6 +669,7 @@ public class CenterServerSynchronization extends CrossProcessSynchronization {
 						if (door.getMapId() == memPlayer.getMapId())
 							memPlayer.getClient().getSession().send(door.getDestructionMessage());
 						door.setPosition(door.getMap().getPortalPosition(door.getMap().getMysticDoorPortalId((byte) 0)));
+						door.getMap().entityRepositioned(door);
 						leavingPlayer.getClient().getSession().send(GamePackets.writeSpawnPortal(door));
 					}
 				}
@@ -743,6 +746,7 @@ public class CenterServerSynchronization extends CrossProcessSynchronization {
 							if (!door.isInTown())
 								door = door.getComplement();
 							door.setPosition(door.getMap().getPortalPosition(door.getMap().getMysticDoorPortalId(party.getPositionById(memPlayer.getId()))));
+							door.getMap().entityRepositioned(door);
 							memPlayer.getClient().getSession().send(GamePackets.writeSpawnPortal(door));
 						}
 						door = memberPlayer.getDoor();
@@ -750,6 +754,7 @@ public class CenterServerSynchronization extends CrossProcessSynchronization {
 							if (!door.isInTown())
 								door = door.getComplement();
 							door.setPosition(door.getMap().getPortalPosition(door.getMap().getMysticDoorPortalId(party.getPositionById(memberPlayer.getId()))));
+							door.getMap().entityRepositioned(door);
 							memberPlayer.getClient().getSession().send(GamePackets.writeSpawnPortal(door));
 						}
 					}
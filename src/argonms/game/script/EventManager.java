@@ -18,11 +18,9 @@
 
 package argonms.game.script;
 
-import argonms.common.GlobalConstants;
 import argonms.common.util.collections.Pair;
 import argonms.game.script.binding.ScriptEvent;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -30,6 +28,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 
 /**
@@ -39,12 +38,10 @@ import org.mozilla.javascript.Scriptable;
 public class EventManager {
 	private static final Logger LOG = Logger.getLogger(EventManager.class.getName());
 
-	private final String eventPath;
 	private final byte channel;
 	private final ConcurrentMap<String, Pair<ScriptEvent, EventManipulator>> activatedEvents;
 
-	public EventManager(String scriptPath, byte channel, String[] activateNow) {
-		eventPath = scriptPath + "events" + GlobalConstants.DIR_DELIMIT;
+	public EventManager(byte channel, String[] activateNow) {
 		this.channel = channel;
 		activatedEvents = new ConcurrentHashMap<String, Pair<ScriptEvent, EventManipulator>>();
 		for (String script : activateNow)
@@ -66,8 +63,8 @@ public class EventManager {
 		EventManipulator delegator;
 		Context cx = Context.enter();
 		try {
-			FileReader reader = new FileReader(eventPath + scriptName + ".js");
-			Scriptable globalScope = cx.initStandardObjects();
+			Script script = ScriptRegistry.getInstance().getScript("events", scriptName, false);
+			Scriptable globalScope = ScriptRegistry.getInstance().newScope(cx);
 			cx.setOptimizationLevel(1);
 			cx.setLanguageVersion(Context.VERSION_1_7);
 			cx.getWrapFactory().setJavaPrimitiveWrap(false);
@@ -79,8 +76,7 @@ public class EventManager {
 				return null;
 
 			globalScope.put("event", globalScope, Context.javaToJS(event, globalScope));
-			cx.evaluateReader(globalScope, reader, "events/" + scriptName + ".js", 1, null);
-			reader.close();
+			script.exec(cx, globalScope);
 
 			Object f = globalScope.get("init", globalScope);
 			if (f != Scriptable.NOT_FOUND)
@@ -18,7 +18,6 @@
 
 package argonms.game.script;
 
-import argonms.common.GlobalConstants;
 import argonms.common.net.external.ClientSendOps;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
 import argonms.game.field.entity.Npc;
@@ -37,7 +36,6 @@ import argonms.game.script.binding.ScriptPlayer;
 import argonms.game.script.binding.ScriptPlayerNpc;
 import argonms.game.script.binding.ScriptQuest;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,12 +53,8 @@ public class NpcScriptManager {
 
 	private static NpcScriptManager singleton;
 
-	private final String npcPath;
-	private final String questPath;
+	private NpcScriptManager() {
 
-	private NpcScriptManager(String scriptsPath) {
-		npcPath = scriptsPath + "npcs" + GlobalConstants.DIR_DELIMIT;
-		questPath = scriptsPath + "quests" + GlobalConstants.DIR_DELIMIT;
 	}
 
 	private boolean openDefault(int npcId, GameClient client) {
@@ -100,13 +94,11 @@ public class NpcScriptManager {
 		Context cx = Context.enter();
 		ScriptNpc convoMan = null;
 		try {
-			FileReader reader = new FileReader(npcPath + scriptName + ".js");
-			Scriptable globalScope = cx.initStandardObjects();
+			Script script = ScriptRegistry.getInstance().getScript("npcs", scriptName, true);
+			Scriptable globalScope = ScriptRegistry.getInstance().newScope(cx);
 			cx.setOptimizationLevel(-1); // must use interpreter mode
 			cx.setLanguageVersion(Context.VERSION_1_7);
 			cx.getWrapFactory().setJavaPrimitiveWrap(false);
-			Script script = cx.compileReader(reader, "npcs/" + scriptName + ".js", 1, null);
-			reader.close();
 			if (npc.isPlayerNpc())
 				convoMan = new ScriptPlayerNpc((PlayerNpc) npc, client, globalScope);
 			else
@@ -133,13 +125,11 @@ public class NpcScriptManager {
 		Context cx = Context.enter();
 		ScriptQuest convoMan = null;
 		try {
-			FileReader reader = new FileReader(questPath + scriptName + ".js");
-			Scriptable globalScope = cx.initStandardObjects();
+			Script script = ScriptRegistry.getInstance().getScript("quests", scriptName, true);
+			Scriptable globalScope = ScriptRegistry.getInstance().newScope(cx);
 			cx.setOptimizationLevel(-1); // must use interpreter mode
 			cx.setLanguageVersion(Context.VERSION_1_7);
 			cx.getWrapFactory().setJavaPrimitiveWrap(false);
-			Script script = cx.compileReader(reader, "quests/" + scriptName + ".js", 1, null);
-			reader.close();
 			convoMan = new ScriptQuest(npcId, questId, client, globalScope);
 			globalScope.put("npc", globalScope, Context.javaToJS(convoMan, globalScope));
 			globalScope.put("player", globalScope, Context.javaToJS(new ScriptPlayer(client.getPlayer()), globalScope));
@@ -215,9 +205,9 @@ public class NpcScriptManager {
 		return lew.getBytes();
 	}
 
-	public static void setInstance(String scriptPath) {
+	public static void setInstance() {
 		if (singleton == null)
-			singleton = new NpcScriptManager(scriptPath);
+			singleton = new NpcScriptManager();
 	}
 
 	public static NpcScriptManager getInstance() {
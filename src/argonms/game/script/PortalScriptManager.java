@@ -18,20 +18,19 @@
 
 package argonms.game.script;
 
-import argonms.common.GlobalConstants;
 import argonms.game.character.GameCharacter;
 import argonms.game.script.binding.ScriptField;
 import argonms.game.script.binding.ScriptParty;
 import argonms.game.script.binding.ScriptPlayer;
 import argonms.game.script.binding.ScriptPortal;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 
 /**
@@ -43,11 +42,9 @@ public class PortalScriptManager {
 
 	private static PortalScriptManager singleton;
 
-	private final String portalPath;
 	private final ConcurrentMap<Integer, Boolean> playersBeingFulfilled;
 
-	private PortalScriptManager(String scriptPath) {
-		portalPath = scriptPath + "portals" + GlobalConstants.DIR_DELIMIT;
+	private PortalScriptManager() {
 		playersBeingFulfilled = new ConcurrentHashMap<Integer, Boolean>();
 	}
 
@@ -57,8 +54,8 @@ public class PortalScriptManager {
 
 		Context cx = Context.enter();
 		try {
-			FileReader reader = new FileReader(portalPath + scriptName + ".js");
-			Scriptable globalScope = cx.initStandardObjects();
+			Script script = ScriptRegistry.getInstance().getScript("portals", scriptName, false);
+			Scriptable globalScope = ScriptRegistry.getInstance().newScope(cx);
 			cx.setOptimizationLevel(1);
 			cx.setLanguageVersion(Context.VERSION_1_7);
 			cx.getWrapFactory().setJavaPrimitiveWrap(false);
@@ -67,8 +64,7 @@ public class PortalScriptManager {
 			globalScope.put("player", globalScope, Context.javaToJS(new ScriptPlayer(p), globalScope));
 			globalScope.put("map", globalScope, Context.javaToJS(new ScriptField(p.getMap(), globalScope), globalScope));
 			globalScope.put("party", globalScope, Context.javaToJS(p.getParty() == null ? null : new ScriptParty(p.getClient().getChannel(), p.getParty(), globalScope), globalScope));
-			cx.evaluateReader(globalScope, reader, "portals/" + scriptName + ".js", 1, null);
-			reader.close();
+			script.exec(cx, globalScope);
 			return portalManager.warped();
 		} catch (FileNotFoundException ex) {
 			//not like most of our portal scripts are implemented anyway...
@@ -83,8 +79,8 @@ public class PortalScriptManager {
 		}
 	}
 
-	public static void setInstance(String scriptPath) {
-		singleton = new PortalScriptManager(scriptPath);
+	public static void setInstance() {
+		singleton = new PortalScriptManager();
 	}
 
 	public static PortalScriptManager getInstance() {
@@ -18,7 +18,6 @@
 
 package argonms.game.script;
 
-import argonms.common.GlobalConstants;
 import argonms.game.field.entity.Reactor;
 import argonms.game.loading.reactor.ReactorDataLoader;
 import argonms.game.net.external.GameClient;
@@ -27,11 +26,11 @@ import argonms.game.script.binding.ScriptParty;
 import argonms.game.script.binding.ScriptPlayer;
 import argonms.game.script.binding.ScriptReactor;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 
 /**
@@ -43,17 +42,15 @@ public class ReactorScriptManager {
 
 	private static ReactorScriptManager singleton;
 
-	private final String reactorScriptPath;
+	private ReactorScriptManager() {
 
-	private ReactorScriptManager(String scriptsPath) {
-		reactorScriptPath = scriptsPath + "reactors" + GlobalConstants.DIR_DELIMIT;
 	}
 
 	public boolean runScript(String scriptName, Reactor reactor, GameClient client) {
 		Context cx = Context.enter();
 		try {
-			FileReader reader = new FileReader(reactorScriptPath + scriptName + ".js");
-			Scriptable globalScope = cx.initStandardObjects();
+			Script script = ScriptRegistry.getInstance().getScript("reactors", scriptName, false);
+			Scriptable globalScope = ScriptRegistry.getInstance().newScope(cx);
 			cx.setOptimizationLevel(1);
 			cx.setLanguageVersion(Context.VERSION_1_7);
 			cx.getWrapFactory().setJavaPrimitiveWrap(false);
@@ -62,8 +59,7 @@ public class ReactorScriptManager {
 			globalScope.put("player", globalScope, Context.javaToJS(new ScriptPlayer(client.getPlayer()), globalScope));
 			globalScope.put("map", globalScope, Context.javaToJS(new ScriptField(client.getPlayer().getMap(), globalScope), globalScope));
 			globalScope.put("party", globalScope, Context.javaToJS(client.getPlayer().getParty() == null ? null : new ScriptParty(client.getChannel(), client.getPlayer().getParty(), globalScope), globalScope));
-			cx.evaluateReader(globalScope, reader, "reactors/" + scriptName + ".js", 1, null);
-			reader.close();
+			script.exec(cx, globalScope);
 			return true;
 		} catch (FileNotFoundException ex) {
 			//not like most of our reactor scripts are implemented anyway...
@@ -77,9 +73,9 @@ public class ReactorScriptManager {
 		}
 	}
 
-	public static void setInstance(String scriptPath) {
+	public static void setInstance() {
 		if (singleton == null)
-			singleton = new ReactorScriptManager(scriptPath);
+			singleton = new ReactorScriptManager();
 	}
 
 	public static ReactorScriptManager getInstance() {
@@ -0,0 +1,395 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package argonms.game.script;
+
+import argonms.common.GlobalConstants;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Compiles each NPC, quest, portal, reactor, and event script only once and
+ * hands out the compiled script to every caller afterwards.
+ *
+ * All scripts share a single sealed scope that holds the JavaScript standard
+ * objects. It is used as the prototype of a thin scope that is created for
+ * each invocation of a script, so that the bindings and top level variables
+ * of one invocation are never visible to another while the standard objects
+ * do not have to be initialized on every invocation.
+ *
+ * Every script can be compiled ahead of time with {@link #precompileAll()},
+ * and {@link #startWatching()} starts a background thread that recompiles
+ * scripts as soon as they are changed on disk and swaps them into the cache.
+ * Because a suspended NPC or quest conversation holds on to the functions of
+ * the script it was started with, conversations that are already in progress
+ * finish on the version of the script that they started on.
+ * @author GoldenKevin
+ */
+public class ScriptRegistry {
+	private static final Logger LOG = Logger.getLogger(ScriptRegistry.class.getName());
+
+	private static final String[] CATEGORIES = { "npcs", "quests", "portals", "reactors", "events" };
+	/**
+	 * How long the scripts directories must go without any changes before
+	 * changed scripts are recompiled, so that a burst of writes from an
+	 * editor only causes a script to be compiled once.
+	 */
+	private static final int RELOAD_QUIET_PERIOD = 250;
+
+	private static ScriptRegistry singleton;
+
+	private final String scriptsPath;
+	private final ScriptableObject sharedScope;
+	/**
+	 * Scripts that are compiled in interpreter mode, which is required for
+	 * scripts that use continuations (i.e. NPC and quest conversations).
+	 */
+	private final ConcurrentMap<String, Script> interpretedScripts;
+	/**
+	 * Scripts that are compiled to JVM bytecode.
+	 */
+	private final ConcurrentMap<String, Script> optimizedScripts;
+	/**
+	 * Scripts that we know do not exist. Only used while we are watching for
+	 * changes, because otherwise we would never learn when they are created.
+	 */
+	private final Set<String> missingScripts;
+	private final AtomicLong hits, misses, compileNanos, reloads;
+	private volatile WatchService watcher;
+
+	private ScriptRegistry(String scriptsPath) {
+		this.scriptsPath = scriptsPath;
+		interpretedScripts = new ConcurrentHashMap<String, Script>();
+		optimizedScripts = new ConcurrentHashMap<String, Script>();
+		missingScripts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		hits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		compileNanos = new AtomicLong(0);
+		reloads = new AtomicLong(0);
+
+		Context cx = Context.enter();
+		try {
+			cx.setLanguageVersion(Context.VERSION_1_7);
+			sharedScope = cx.initStandardObjects(null, true);
+		} finally {
+			Context.exit();
+		}
+	}
+
+	private static String getSourceName(String category, String scriptName) {
+		return category + "/" + scriptName + ".js";
+	}
+
+	/**
+	 * NPC and quest conversations are suspended with continuations, so their
+	 * scripts must be compiled in interpreter mode.
+	 */
+	private static boolean isInterpreted(String category) {
+		return category.equals("npcs") || category.equals("quests");
+	}
+
+	private Script compile(String sourceName, String category, String scriptName, boolean interpreted) throws IOException {
+		long start = System.nanoTime();
+		Reader reader = new FileReader(scriptsPath + category + GlobalConstants.DIR_DELIMIT + scriptName + ".js");
+		Context cx = Context.enter();
+		int oldOptimizationLevel = cx.getOptimizationLevel();
+		int oldLanguageVersion = cx.getLanguageVersion();
+		try {
+			cx.setOptimizationLevel(interpreted ? -1 : 1);
+			cx.setLanguageVersion(Context.VERSION_1_7);
+			return cx.compileReader(reader, sourceName, 1, null);
+		} finally {
+			cx.setOptimizationLevel(oldOptimizationLevel);
+			cx.setLanguageVersion(oldLanguageVersion);
+			Context.exit();
+			reader.close();
+			compileNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Get the compiled form of a script, compiling it if it has not been
+	 * requested before (or if it was invalidated since then).
+	 * @param category the subdirectory of the scripts directory that the
+	 * script is in, e.g. "npcs" or "portals".
+	 * @param scriptName the name of the script file, without its extension.
+	 * @param interpreted true if the script must be able to capture
+	 * continuations, false if it should be compiled to JVM bytecode.
+	 * @return the compiled script.
+	 * @throws java.io.FileNotFoundException if the script does not exist.
+	 * @throws IOException if the script could not be read.
+	 */
+	public Script getScript(String category, String scriptName, boolean interpreted) throws IOException {
+		ConcurrentMap<String, Script> cache = interpreted ? interpretedScripts : optimizedScripts;
+		String sourceName = getSourceName(category, scriptName);
+		Script script = cache.get(sourceName);
+		if (script != null) {
+			hits.incrementAndGet();
+			return script;
+		}
+
+		misses.incrementAndGet();
+		if (missingScripts.contains(sourceName))
+			throw new FileNotFoundException(sourceName);
+		try {
+			script = compile(sourceName, category, scriptName, interpreted);
+		} catch (FileNotFoundException ex) {
+			if (watcher != null)
+				missingScripts.add(sourceName);
+			throw ex;
+		}
+		//if another thread compiled the same script at the same time, use
+		//whichever one made it into the cache first
+		Script existing = cache.putIfAbsent(sourceName, script);
+		return existing != null ? existing : script;
+	}
+
+	/**
+	 * Create a fresh scope for a single invocation of a script. Standard
+	 * objects are looked up through the shared sealed scope, and anything
+	 * the script or its caller defines is local to the returned scope.
+	 * @param cx the Context of the current thread.
+	 * @return a new top level scope.
+	 */
+	public Scriptable newScope(Context cx) {
+		Scriptable scope = cx.newObject(sharedScope);
+		scope.setPrototype(sharedScope);
+		scope.setParentScope(null);
+		return scope;
+	}
+
+	/**
+	 * Discard the compiled form of a script so that it will be read from disk
+	 * and compiled again the next time it is requested. Invocations of the
+	 * script that are already in progress are not affected.
+	 * @param category the subdirectory of the scripts directory that the
+	 * script is in, e.g. "npcs" or "portals".
+	 * @param scriptName the name of the script file, without its extension.
+	 * @return true if a compiled form of the script was discarded.
+	 */
+	public boolean invalidate(String category, String scriptName) {
+		String sourceName = getSourceName(category, scriptName);
+		missingScripts.remove(sourceName);
+		boolean removed = interpretedScripts.remove(sourceName) != null;
+		return optimizedScripts.remove(sourceName) != null || removed;
+	}
+
+	/**
+	 * Discard the compiled form of every script.
+	 */
+	public void invalidateAll() {
+		interpretedScripts.clear();
+		optimizedScripts.clear();
+		missingScripts.clear();
+	}
+
+	private int compileCategory(String category) {
+		String[] fileNames = new File(scriptsPath + category).list();
+		if (fileNames == null)
+			return 0;
+
+		int compiled = 0;
+		for (String fileName : fileNames)
+			if (fileName.endsWith(".js") && reload(category, fileName.substring(0, fileName.length() - ".js".length())))
+				compiled++;
+		return compiled;
+	}
+
+	/**
+	 * Compile every script in the scripts directory ahead of time so that no
+	 * player has to wait for a script to be compiled.
+	 * @return the number of scripts that were compiled.
+	 */
+	public int precompileAll() {
+		int compiled = 0;
+		for (String category : CATEGORIES)
+			compiled += compileCategory(category);
+		return compiled;
+	}
+
+	/**
+	 * Compile the current version of a script on disk and swap it into the
+	 * cache. If the script no longer exists, its compiled form is discarded.
+	 * If it fails to compile, the previously compiled version is kept.
+	 * @return true if the script was successfully compiled.
+	 */
+	private boolean reload(String category, String scriptName) {
+		String sourceName = getSourceName(category, scriptName);
+		boolean interpreted = isInterpreted(category);
+		ConcurrentMap<String, Script> cache = interpreted ? interpretedScripts : optimizedScripts;
+		try {
+			cache.put(sourceName, compile(sourceName, category, scriptName, interpreted));
+			missingScripts.remove(sourceName);
+			return true;
+		} catch (FileNotFoundException ex) {
+			cache.remove(sourceName);
+			if (watcher != null)
+				missingScripts.add(sourceName);
+			return false;
+		} catch (IOException ex) {
+			LOG.log(Level.WARNING, "Could not read script " + sourceName, ex);
+			return false;
+		} catch (RhinoException ex) {
+			LOG.log(Level.WARNING, "Could not compile script " + sourceName, ex);
+			return false;
+		}
+	}
+
+	private void watch(WatchService watcher) {
+		try {
+			while (true) {
+				Map<String, String> changed = new LinkedHashMap<String, String>();
+				Set<String> overflowed = new HashSet<String>();
+				WatchKey key = watcher.take();
+				do {
+					String category = ((Path) key.watchable()).getFileName().toString();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							overflowed.add(category);
+							continue;
+						}
+						String fileName = ((Path) event.context()).getFileName().toString();
+						if (fileName.endsWith(".js"))
+							changed.put(getSourceName(category, fileName.substring(0, fileName.length() - ".js".length())), category);
+					}
+					key.reset();
+				} while ((key = watcher.poll(RELOAD_QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null);
+
+				for (String category : overflowed)
+					compileCategory(category);
+				for (Map.Entry<String, String> entry : changed.entrySet()) {
+					String sourceName = entry.getKey();
+					String category = entry.getValue();
+					if (overflowed.contains(category))
+						continue;
+					String scriptName = sourceName.substring(category.length() + 1, sourceName.length() - ".js".length());
+					if (reload(category, scriptName)) {
+						reloads.incrementAndGet();
+						LOG.log(Level.INFO, "Reloaded script {0}", sourceName);
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			//stopWatching() was called
+		}
+	}
+
+	/**
+	 * Start recompiling scripts in the background whenever they are changed,
+	 * created, or deleted on disk.
+	 * @throws IOException if the scripts directories could not be watched.
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (watcher != null)
+			return;
+
+		final WatchService watcher = FileSystems.getDefault().newWatchService();
+		for (String category : CATEGORIES) {
+			File dir = new File(scriptsPath + category);
+			if (dir.isDirectory())
+				dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		this.watcher = watcher;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch(watcher);
+			}
+		}, "script-watcher-thread");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public synchronized void stopWatching() {
+		if (watcher == null)
+			return;
+
+		try {
+			watcher.close();
+		} catch (IOException ex) {
+			LOG.log(Level.FINE, "Could not close script watcher", ex);
+		}
+		watcher = null;
+		missingScripts.clear();
+	}
+
+	public int getCachedCount() {
+		return interpretedScripts.size() + optimizedScripts.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 *
+	 * @return the number of times a script was recompiled because it was
+	 * changed on disk.
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+
+	/**
+	 *
+	 * @return the total time spent reading and compiling scripts, in
+	 * nanoseconds.
+	 */
+	public long getCompileTime() {
+		return compileNanos.get();
+	}
+
+	public static void setInstance(String scriptsPath) {
+		if (singleton == null)
+			singleton = new ScriptRegistry(scriptsPath);
+	}
+
+	public static ScriptRegistry getInstance() {
+		return singleton;
+	}
+}
@@ -31,6 +31,7 @@ import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
 import argonms.common.util.Scheduler;
 import argonms.login.net.LoginWorld;
+import argonms.login.net.external.AuthenticationStage;
 import argonms.login.net.external.ClientLoginPacketProcessor;
 import argonms.login.net.external.LoginClient;
 import argonms.login.net.internal.LoginCenterInterface;
@@ -79,6 +80,8 @@ public class LoginServer implements LocalServer {
 	private String wzPath;
 	private boolean useNio;
 	private int rankingPeriod;
+	private int authThreads, authQueueSize, authAttemptsPerIp, authAttemptsPerAccount;
+	private long authWindow, unknownAccountTtl;
 	private boolean centerConnected;
 
 	private LoginServer() {
@@ -127,6 +130,12 @@ public class LoginServer implements LocalServer {
 			authKey = prop.getString("argonms.login.auth.key");
 			useNio = prop.getBoolean("argonms.login.usenio");
 			rankingPeriod = prop.getInt("argonms.login.ranking.frequency");
+			authThreads = prop.getInt("argonms.login.verify.threads", 4);
+			authQueueSize = prop.getInt("argonms.login.verify.queue", 512);
+			authAttemptsPerIp = prop.getInt("argonms.login.verify.ipattempts", 10);
+			authAttemptsPerAccount = prop.getInt("argonms.login.verify.accountattempts", 5);
+			authWindow = prop.getLong("argonms.login.verify.window", 60000);
+			unknownAccountTtl = prop.getLong("argonms.login.verify.unknownttl", 300000);
 
 			String temp = prop.getString("argonms.login.decoratedWorlds").replaceAll("\\s", "");
 			if (!temp.isEmpty()) {
@@ -172,7 +181,7 @@ public class LoginServer implements LocalServer {
 			FileReader fr = new FileReader(System.getProperty("argonms.db.config.file", "db.properties"));
 			prop.read(fr);
 			fr.close();
-			DatabaseManager.setProps(prop, mcdb, useNio);
+			DatabaseManager.setProps(prop, mcdb);
 		} catch (ConfigurationException|IOException ex) {
 			LOG.log(Level.SEVERE, "Could not load database properties!", ex);
 			System.exit(3);
@@ -228,6 +237,7 @@ public class LoginServer implements LocalServer {
 		}
 
 		Scheduler.enable(true, true);
+		AuthenticationStage.setInstance(authThreads, authQueueSize, authAttemptsPerIp, authAttemptsPerAccount, authWindow, unknownAccountTtl);
 
 		lci = new LoginCenterInterface(this);
 		RemoteCenterSession<LoginCenterInterface> session = RemoteCenterSession.connect(centerIp, centerPort, authKey, lci);
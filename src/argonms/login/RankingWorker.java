@@ -20,18 +20,37 @@ package argonms.login;
 
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
-import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Offloads all calculation to the MySQL server so less data (or even none
- * entirely) will have to be transferred between the MySQL server and the login
- * server. The reduction in bandwidth usage and network processing will offset
- * Java's better processing performance over MySQL script execution.
+ * Keeps every ranked character in order in memory, so that a ranking period
+ * only has to reposition the characters whose level, experience, fame, job, or
+ * world changed since the last period, and only has to write back the
+ * characters whose rank positions actually changed.
+ *
+ * Characters are saved by the game servers, so the ranking columns of all
+ * characters that are eligible to be ranked are read once per period (a plain
+ * read that locks nothing) and compared against what was read the period
+ * before. The positions that are written follow the same rules as the
+ * updateranks procedure did: GMs, beginners under level 10, and banned
+ * accounts are left out, characters with the same level and experience share
+ * a rank unless they are level 200, and the old position of every ranked
+ * character is set to its current position before its current position is
+ * replaced.
  *
  * Inspired by Vana's RankingCalculator.
  * @author GoldenKevin
@@ -39,37 +58,250 @@ import java.util.logging.Logger;
 public class RankingWorker implements Runnable {
 	private static final Logger LOG = Logger.getLogger(RankingWorker.class.getName());
 
+	private static final int OVERALL = 0, WORLD = 1, JOB = 2, FAME = 3;
+	private static final String[] COLUMN_PREFIXES = { "overall", "world", "job", "fame" };
+	private static final int MAX_JOB_CLASS = 5; //beginner, warrior, magician, bowman, thief, pirate respectively
+	private static final int BATCH_SIZE = 500;
+
+	private static class RankedCharacter {
+		private final int id;
+		private byte world;
+		private short job;
+		private short level;
+		private int exp;
+		private short fame;
+		//positions as they were last read from the database
+		private final int[] current, old;
+
+		public RankedCharacter(int id) {
+			this.id = id;
+			current = new int[COLUMN_PREFIXES.length];
+			old = new int[COLUMN_PREFIXES.length];
+		}
+
+		public boolean statsEqual(RankedCharacter other) {
+			return world == other.world && job == other.job && level == other.level && exp == other.exp && fame == other.fame;
+		}
+
+		public int getJobClass() {
+			return job / 100;
+		}
+	}
+
+	private static final Comparator<RankedCharacter> LEVEL_ORDER = new Comparator<RankedCharacter>() {
+		@Override
+		public int compare(RankedCharacter a, RankedCharacter b) {
+			if (a.level != b.level)
+				return b.level - a.level;
+			if (a.exp != b.exp)
+				return b.exp > a.exp ? 1 : -1;
+			return a.id < b.id ? -1 : a.id == b.id ? 0 : 1;
+		}
+	};
+
+	private static final Comparator<RankedCharacter> FAME_ORDER = new Comparator<RankedCharacter>() {
+		@Override
+		public int compare(RankedCharacter a, RankedCharacter b) {
+			if (a.fame != b.fame)
+				return b.fame - a.fame;
+			return LEVEL_ORDER.compare(a, b);
+		}
+	};
+
+	private final Map<Integer, RankedCharacter> characters;
+	private final TreeSet<RankedCharacter> overall, fame;
+	private final Map<Byte, TreeSet<RankedCharacter>> worlds;
+	private final Map<Integer, TreeSet<RankedCharacter>> jobClasses;
+
+	public RankingWorker() {
+		characters = new HashMap<Integer, RankedCharacter>();
+		overall = new TreeSet<RankedCharacter>(LEVEL_ORDER);
+		fame = new TreeSet<RankedCharacter>(FAME_ORDER);
+		worlds = new HashMap<Byte, TreeSet<RankedCharacter>>();
+		jobClasses = new HashMap<Integer, TreeSet<RankedCharacter>>();
+	}
+
+	private void insert(RankedCharacter c) {
+		overall.add(c);
+		if (c.fame > 0)
+			fame.add(c);
+		TreeSet<RankedCharacter> world = worlds.get(Byte.valueOf(c.world));
+		if (world == null) {
+			world = new TreeSet<RankedCharacter>(LEVEL_ORDER);
+			worlds.put(Byte.valueOf(c.world), world);
+		}
+		world.add(c);
+		int jobClass = c.getJobClass();
+		if (jobClass >= 0 && jobClass <= MAX_JOB_CLASS) {
+			TreeSet<RankedCharacter> job = jobClasses.get(Integer.valueOf(jobClass));
+			if (job == null) {
+				job = new TreeSet<RankedCharacter>(LEVEL_ORDER);
+				jobClasses.put(Integer.valueOf(jobClass), job);
+			}
+			job.add(c);
+		}
+	}
+
+	private void remove(RankedCharacter c) {
+		overall.remove(c);
+		fame.remove(c);
+		TreeSet<RankedCharacter> world = worlds.get(Byte.valueOf(c.world));
+		if (world != null)
+			world.remove(c);
+		TreeSet<RankedCharacter> job = jobClasses.get(Integer.valueOf(c.getJobClass()));
+		if (job != null)
+			job.remove(c);
+	}
+
+	/**
+	 * Read the ranking columns of every character that should be ranked and
+	 * reposition only the characters that changed since the last read.
+	 * @return the amount of characters that were added, moved, or removed.
+	 */
+	private int refresh(Connection con) throws SQLException {
+		Map<Integer, RankedCharacter> loaded = new HashMap<Integer, RankedCharacter>(characters.size());
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = con.prepareStatement("SELECT `c`.`id`,`c`.`world`,`c`.`job`,`c`.`level`,`c`.`exp`,`c`.`fame`,"
+					+ "`c`.`overallrankcurrentpos`,`c`.`overallrankoldpos`,`c`.`worldrankcurrentpos`,`c`.`worldrankoldpos`,"
+					+ "`c`.`jobrankcurrentpos`,`c`.`jobrankoldpos`,`c`.`famerankcurrentpos`,`c`.`famerankoldpos` "
+					+ "FROM `characters` `c` INNER JOIN `accounts` `a` ON `a`.`id` = `c`.`accountid` "
+					+ "WHERE `a`.`gm` = 0 AND (`c`.`job` <> 0 OR `c`.`level` >= 10) AND NOT EXISTS ("
+						+ "SELECT 1 FROM `bans` `b` INNER JOIN `infractions` `i` ON `i`.`accountid` = `b`.`accountid` "
+						+ "WHERE (`b`.`accountid` = `a`.`id` OR `b`.`ip` = `a`.`recentip`) AND `i`.`expiredate` >= UNIX_TIMESTAMP() * 1000"
+					+ ")");
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				RankedCharacter c = new RankedCharacter(rs.getInt(1));
+				c.world = rs.getByte(2);
+				c.job = rs.getShort(3);
+				c.level = rs.getShort(4);
+				c.exp = rs.getInt(5);
+				c.fame = rs.getShort(6);
+				for (int i = 0; i < COLUMN_PREFIXES.length; i++) {
+					c.current[i] = rs.getInt(7 + i * 2);
+					c.old[i] = rs.getInt(8 + i * 2);
+				}
+				loaded.put(Integer.valueOf(c.id), c);
+			}
+		} finally {
+			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+		}
+
+		int changed = 0;
+		for (Iterator<RankedCharacter> iter = characters.values().iterator(); iter.hasNext(); ) {
+			RankedCharacter c = iter.next();
+			if (!loaded.containsKey(Integer.valueOf(c.id))) {
+				//deleted, banned, or otherwise no longer eligible
+				remove(c);
+				iter.remove();
+				changed++;
+			}
+		}
+		for (RankedCharacter c : loaded.values()) {
+			RankedCharacter existing = characters.get(Integer.valueOf(c.id));
+			if (existing != null) {
+				System.arraycopy(c.current, 0, existing.current, 0, c.current.length);
+				System.arraycopy(c.old, 0, existing.old, 0, c.old.length);
+				if (existing.statsEqual(c))
+					continue;
+				remove(existing);
+				existing.world = c.world;
+				existing.job = c.job;
+				existing.level = c.level;
+				existing.exp = c.exp;
+				existing.fame = c.fame;
+				insert(existing);
+			} else {
+				characters.put(Integer.valueOf(c.id), c);
+				insert(c);
+			}
+			changed++;
+		}
+		return changed;
+	}
+
+	/**
+	 * Walk one ranking in order and collect the characters whose positions
+	 * have to be written.
+	 * @param ties whether characters with the same level and experience
+	 * should share a rank.
+	 */
+	private static void collectChanges(Set<RankedCharacter> ranking, int type, boolean ties, List<int[]> changes) {
+		int rankCount = 0, lastRank = 0;
+		RankedCharacter last = null;
+		for (RankedCharacter c : ranking) {
+			rankCount++;
+			//characters that tie with the previous one share its rank
+			if (!ties || last == null || c.level == 200 || c.level != last.level || c.exp != last.exp)
+				lastRank = rankCount;
+			last = c;
+			if (c.current[type] != lastRank || c.old[type] != c.current[type])
+				changes.add(new int[] { c.id, c.current[type], lastRank });
+		}
+	}
+
+	private static int write(Connection con, int type, List<int[]> changes) throws SQLException {
+		if (changes.isEmpty())
+			return 0;
+
+		String prefix = COLUMN_PREFIXES[type];
+		PreparedStatement ps = null;
+		try {
+			ps = con.prepareStatement("UPDATE `characters` SET `" + prefix + "rankoldpos` = ?, `" + prefix + "rankcurrentpos` = ? WHERE `id` = ?");
+			int batched = 0;
+			for (int[] change : changes) {
+				ps.setInt(1, change[1]);
+				ps.setInt(2, change[2]);
+				ps.setInt(3, change[0]);
+				ps.addBatch();
+				if (++batched % BATCH_SIZE == 0)
+					ps.executeBatch();
+			}
+			if (batched % BATCH_SIZE != 0)
+				ps.executeBatch();
+		} finally {
+			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
+		}
+		return changes.size();
+	}
+
 	@Override
 	public void run() {
 		Connection con = null;
-		CallableStatement ps = null;
 		long start, end;
 		start = System.nanoTime();
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			ps = con.prepareCall("{call updateranks(?,?)}");
-			ps.setString(1, "overall");
-			ps.setNull(2, Types.TINYINT);
-			ps.executeUpdate();
-			ps.setString(1, "world");
-			for (Byte world : LoginServer.getInstance().getAllWorlds().keySet()) {
-				ps.setByte(2, world.byteValue());
-				ps.executeUpdate();
-			}
-			ps.setString(1, "job");
-			for (byte jobClass = 0; jobClass <= 5; jobClass++) { //beginner, warrior, magician, bowman, thief, pirate respectively
-				ps.setByte(2, jobClass);
-				ps.executeUpdate();
-			}
-			ps.setString(1, "fame");
-			ps.setNull(2, Types.TINYINT);
-			ps.executeUpdate();
+			int moved = refresh(con);
+
+			List<int[]> changes = new ArrayList<int[]>();
+			collectChanges(overall, OVERALL, true, changes);
+			int written = write(con, OVERALL, changes);
+
+			changes.clear();
+			for (Entry<Byte, TreeSet<RankedCharacter>> world : worlds.entrySet())
+				if (LoginServer.getInstance().getWorld(world.getKey().byteValue()) != null)
+					collectChanges(world.getValue(), WORLD, true, changes);
+			written += write(con, WORLD, changes);
+
+			changes.clear();
+			for (TreeSet<RankedCharacter> job : jobClasses.values())
+				collectChanges(job, JOB, true, changes);
+			written += write(con, JOB, changes);
+
+			changes.clear();
+			collectChanges(fame, FAME, false, changes);
+			written += write(con, FAME, changes);
+
 			end = System.nanoTime();
-			LOG.log(Level.FINE, "Sucessfully updated rankings in {0} milliseconds.", (end - start) / 1000000.0);
+			LOG.log(Level.FINE, "Sucessfully updated rankings in {0} milliseconds ({1} of {2} characters moved, {3} positions written).",
+					new Object[] { (end - start) / 1000000.0, moved, characters.size(), written });
 		} catch (SQLException ex) {
 			LOG.log(Level.WARNING, "Error updating the rankings.", ex);
 		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, con);
+			DatabaseManager.cleanup(DatabaseType.STATE, null, null, con);
 		}
 	}
 }
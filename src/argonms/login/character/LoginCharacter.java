@@ -21,9 +21,11 @@ package argonms.login.character;
 import argonms.common.character.KeyBinding;
 import argonms.common.character.Player;
 import argonms.common.character.PlayerJob;
+import argonms.common.character.inventory.Equip;
 import argonms.common.character.inventory.Inventory;
 import argonms.common.character.inventory.Inventory.InventoryType;
 import argonms.common.character.inventory.InventoryTools;
+import argonms.common.character.inventory.Pet;
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
 import argonms.login.net.external.LoginClient;
@@ -32,11 +34,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -119,54 +125,114 @@ public class LoginCharacter extends Player {
 		return jobRankingChange;
 	}
 
-	public static LoginCharacter loadPlayer(LoginClient c, int id) {
+	/**
+	 * Loads everything that the character selection screen shows about the
+	 * characters of an account - their stats, rankings, equipped items, and
+	 * summoned pets - with three queries no matter how many characters the
+	 * account has. The returned characters are only fit to be displayed: the
+	 * rest of their inventories and the stats of their equips are not loaded.
+	 * @param c the account to load the characters of.
+	 * @param world the world to load the characters of, or null to load the
+	 * characters of every world.
+	 * @return the characters of the account in order of creation, grouped by
+	 * world in ascending order.
+	 */
+	private static SortedMap<Byte, List<LoginCharacter>> loadCharacterList(LoginClient c, Byte world) {
+		SortedMap<Byte, List<LoginCharacter>> worlds = new TreeMap<Byte, List<LoginCharacter>>();
+		Map<Integer, LoginCharacter> characters = new HashMap<Integer, LoginCharacter>();
+		String filter = "WHERE `c`.`accountid` = ?" + (world != null ? " AND `c`.`world` = ?" : "");
 		Connection con = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			ps = con.prepareStatement("SELECT * FROM `characters` WHERE `id` = ?");
-			ps.setInt(1, id);
+			ps = con.prepareStatement("SELECT * FROM `characters` `c` " + filter + " ORDER BY `c`.`id`");
+			setCharacterListFilter(ps, c, world);
 			rs = ps.executeQuery();
-			if (!rs.next()) {
-				LOG.log(Level.WARNING, "Client requested to load a nonexistent character w/ id {0} (account {1}).",
-						new Object[] { id, c.getAccountId() });
-				return null;
-			}
-			int accountid = rs.getInt(1);
-			if (accountid != c.getAccountId()) { //we are aware of our accountid
-				LOG.log(Level.WARNING, "Client account {0} is trying to load character {1} which belongs to account {2}",
-						new Object[] { c.getAccountId(), id, accountid });
-				return null;
+			while (rs.next()) {
+				Byte charWorld = Byte.valueOf(rs.getByte(2));
+				List<LoginCharacter> list = worlds.get(charWorld);
+				if (list == null) {
+					list = new ArrayList<LoginCharacter>(c.getMaxCharacters());
+					worlds.put(charWorld, list);
+				}
+				LoginCharacter p = new LoginCharacter();
+				p.client = c;
+				p.loadPlayerStats(rs, rs.getInt(3));
+				p.worldRanking = rs.getInt(36);
+				p.worldRankingChange = rs.getInt(37) - p.worldRanking;
+				p.jobRanking = rs.getInt(38);
+				p.jobRankingChange = rs.getInt(39) - p.jobRanking;
+				list.add(p);
+				characters.put(Integer.valueOf(p.getDataId()), p);
 			}
-			byte world = rs.getByte(2);
-			if (world != c.getWorld()) { //we are aware of our world
-				LOG.log(Level.WARNING, "Client account {0} is trying to load character {1} on world {2} but exists on world {3}",
-						new Object[] { accountid, id, c.getWorld(), world });
-				return null;
+			rs.close();
+			ps.close();
+			if (characters.isEmpty())
+				return worlds;
+
+			ps = con.prepareStatement("SELECT `i`.`characterid`,`i`.`position`,`i`.`itemid` "
+					+ "FROM `inventoryitems` `i` INNER JOIN `characters` `c` ON `i`.`characterid` = `c`.`id` "
+					+ filter + " AND `i`.`inventorytype` = " + InventoryType.EQUIPPED.byteValue());
+			setCharacterListFilter(ps, c, world);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				LoginCharacter p = characters.get(Integer.valueOf(rs.getInt(1)));
+				if (p != null)
+					p.getInventory(InventoryType.EQUIPPED).put(rs.getShort(2), new Equip(rs.getInt(3)));
 			}
-			LoginCharacter p = new LoginCharacter();
-			p.client = c;
-			p.loadPlayerStats(rs, id);
-			p.worldRanking = rs.getInt(36);
-			p.worldRankingChange = rs.getInt(37) - p.worldRanking;
-			p.jobRanking = rs.getInt(38);
-			p.jobRankingChange = rs.getInt(39) - p.jobRanking;
 			rs.close();
 			ps.close();
 
-			ps = con.prepareStatement("SELECT * FROM `inventoryitems` "
-					+ "WHERE `characterid` = ? AND `inventorytype` <= " + InventoryType.CASH.byteValue());
-			ps.setInt(1, id);
+			ps = con.prepareStatement("SELECT `i`.`characterid`,`p`.`position`,`i`.`itemid`,`s`.`uniqueid` "
+					+ "FROM `inventorypets` `p` "
+					+ "INNER JOIN `inventoryitems` `i` ON `p`.`inventoryitemid` = `i`.`inventoryitemid` "
+					+ "INNER JOIN `characters` `c` ON `i`.`characterid` = `c`.`id` "
+					+ "LEFT JOIN `cashshoppurchases` `s` ON `s`.`inventoryitemid` = `i`.`inventoryitemid` "
+					+ filter + " AND `p`.`position` >= 0 AND `p`.`position` < 3");
+			setCharacterListFilter(ps, c, world);
 			rs = ps.executeQuery();
-			p.loadInventory(con, rs, p.getInventories());
-			return p;
+			while (rs.next()) {
+				LoginCharacter p = characters.get(Integer.valueOf(rs.getInt(1)));
+				if (p != null) {
+					Pet pet = new Pet(rs.getInt(3));
+					pet.setUniqueId(rs.getLong(4));
+					p.getPets()[rs.getByte(2)] = pet;
+				}
+			}
 		} catch (SQLException ex) {
-			LOG.log(Level.WARNING, "Could not load character " + id + " from database", ex);
-			return null;
+			LOG.log(Level.WARNING, "Could not load characters of account " + c.getAccountId(), ex);
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
 		}
+		return worlds;
+	}
+
+	private static void setCharacterListFilter(PreparedStatement ps, LoginClient c, Byte world) throws SQLException {
+		ps.setInt(1, c.getAccountId());
+		if (world != null)
+			ps.setByte(2, world.byteValue());
+	}
+
+	/**
+	 * Load the characters that an account has in one world, for the character
+	 * selection screen.
+	 * @see #loadCharacterList(LoginClient, Byte)
+	 */
+	public static List<LoginCharacter> loadCharacterList(LoginClient c, byte world) {
+		List<LoginCharacter> list = loadCharacterList(c, Byte.valueOf(world)).get(Byte.valueOf(world));
+		if (list == null)
+			return Collections.emptyList();
+		return list;
+	}
+
+	/**
+	 * Load the characters that an account has in every world, for the view
+	 * all characters screen.
+	 * @see #loadCharacterList(LoginClient, Byte)
+	 */
+	public static SortedMap<Byte, List<LoginCharacter>> loadAllCharacterLists(LoginClient c) {
+		return loadCharacterList(c, null);
 	}
 
 	private void updateDbInventory(Connection con) throws SQLException {
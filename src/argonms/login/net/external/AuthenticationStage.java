@@ -0,0 +1,277 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package argonms.login.net.external;
+
+import argonms.common.util.Scheduler;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks login passwords on threads of its own so that a flood of logins
+ * (e.g. right after a restart) can't tie up the workers that handle every
+ * other login server packet. Hashing a password, upgrading its hash, and
+ * loading the bans of the account all happen on an authentication thread, and
+ * the result is then handed back to the lane of the client's session.
+ *
+ * Before a login is queued it has to get past admission control: a limited
+ * amount of attempts per IP address and per account name in every window, at
+ * most one attempt in flight per account name, and a bounded queue. Account
+ * names that turned out not to exist are remembered for a while so that
+ * retrying them does not reach the database at all.
+ * @author GoldenKevin
+ */
+public class AuthenticationStage {
+	private static final Logger LOG = Logger.getLogger(AuthenticationStage.class.getName());
+
+	public interface Callback {
+		/**
+		 * Called on the lane of the client's session once the login has been
+		 * checked or turned away.
+		 * @param result the outcome of the check, with one of the codes
+		 * documented by LoginClient.checkLogin(String, String, long), or
+		 * RESULT_BUSY.
+		 */
+		public void loginResult(LoginClient.LoginResult result);
+	}
+
+	/**
+	 * "Cannot process so many connections." Sent when a login is turned away
+	 * by admission control.
+	 */
+	public static final byte RESULT_BUSY = 10;
+
+	private static final byte RESULT_NO_ACCOUNT = 5;
+
+	private static final int LATENCY_SAMPLES = 1024;
+	private static final int MAX_UNKNOWN_ACCOUNTS = 10000;
+
+	private static AuthenticationStage instance;
+
+	private final ThreadPoolExecutor executor;
+	private final int maxAttemptsPerIp, maxAttemptsPerAccount;
+	private final long unknownAccountTtl;
+	private final ConcurrentHashMap<InetAddress, AtomicInteger> ipAttempts;
+	private final ConcurrentHashMap<String, AtomicInteger> accountAttempts;
+	private final Set<String> inFlight;
+	private final Map<String, Long> unknownAccounts;
+	//guarded by itself
+	private final long[] latencies;
+	private int latencyIndex, latencyCount;
+	private final AtomicLong accepted, rejected, unknownHits;
+
+	private AuthenticationStage(int threads, int queueSize, int maxAttemptsPerIp, int maxAttemptsPerAccount, long window, long unknownAccountTtl) {
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "authentication-pool-thread-" + threadNumber.getAndIncrement());
+				t.setDaemon(true);
+				if (t.getPriority() != Thread.NORM_PRIORITY)
+					t.setPriority(Thread.NORM_PRIORITY);
+				return t;
+			}
+		}, new ThreadPoolExecutor.AbortPolicy());
+		this.maxAttemptsPerIp = maxAttemptsPerIp;
+		this.maxAttemptsPerAccount = maxAttemptsPerAccount;
+		this.unknownAccountTtl = unknownAccountTtl;
+		ipAttempts = new ConcurrentHashMap<InetAddress, AtomicInteger>();
+		accountAttempts = new ConcurrentHashMap<String, AtomicInteger>();
+		inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		unknownAccounts = new ConcurrentHashMap<String, Long>();
+		latencies = new long[LATENCY_SAMPLES];
+		accepted = new AtomicLong();
+		rejected = new AtomicLong();
+		unknownHits = new AtomicLong();
+
+		Scheduler.getInstance().runRepeatedly(new Runnable() {
+			@Override
+			public void run() {
+				endWindow();
+			}
+		}, window, window);
+	}
+
+	private static <K> boolean overLimit(ConcurrentHashMap<K, AtomicInteger> counters, K key, int limit) {
+		AtomicInteger counter = counters.get(key);
+		if (counter == null) {
+			counter = new AtomicInteger();
+			AtomicInteger existing = counters.putIfAbsent(key, counter);
+			if (existing != null)
+				counter = existing;
+		}
+		return counter.incrementAndGet() > limit;
+	}
+
+	private void reject(Callback callback) {
+		rejected.incrementAndGet();
+		callback.loginResult(new LoginClient.LoginResult(RESULT_BUSY));
+	}
+
+	/**
+	 * Queue a login to be checked. Must be called on the lane of the client's
+	 * session. If the login is turned away, the callback is run before this
+	 * method returns.
+	 * @param client the client that is logging in.
+	 * @param login the account name that the client sent.
+	 * @param pwd the password that the client sent.
+	 * @param callback receives the result on the lane of the client's session.
+	 */
+	public void submit(final LoginClient client, final String login, final String pwd, final Callback callback) {
+		final String name = login.toLowerCase(Locale.ENGLISH);
+		Long unknownUntil = unknownAccounts.get(name);
+		if (unknownUntil != null) {
+			if (unknownUntil.longValue() > System.currentTimeMillis()) {
+				unknownHits.incrementAndGet();
+				callback.loginResult(new LoginClient.LoginResult(RESULT_NO_ACCOUNT));
+				return;
+			}
+			unknownAccounts.remove(name);
+		}
+
+		InetAddress ip = ((InetSocketAddress) client.getSession().getAddress()).getAddress();
+		if (overLimit(ipAttempts, ip, maxAttemptsPerIp) || overLimit(accountAttempts, name, maxAttemptsPerAccount)) {
+			reject(callback);
+			return;
+		}
+		if (!inFlight.add(name)) {
+			reject(callback);
+			return;
+		}
+
+		final long address = client.getIpAddress();
+		final long submitted = System.nanoTime();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					LoginClient.LoginResult result;
+					try {
+						result = LoginClient.checkLogin(login, pwd, address);
+					} catch (Throwable ex) {
+						LOG.log(Level.WARNING, "Uncaught exception while checking login of account " + name, ex);
+						result = new LoginClient.LoginResult((byte) 8);
+					} finally {
+						inFlight.remove(name);
+					}
+					if (result.getResult() == RESULT_NO_ACCOUNT && unknownAccounts.size() < MAX_UNKNOWN_ACCOUNTS)
+						unknownAccounts.put(name, Long.valueOf(System.currentTimeMillis() + unknownAccountTtl));
+					recordLatency(System.nanoTime() - submitted);
+
+					final LoginClient.LoginResult finalResult = result;
+					client.loginChecked(finalResult, new Runnable() {
+						@Override
+						public void run() {
+							callback.loginResult(finalResult);
+						}
+					});
+				}
+			});
+			accepted.incrementAndGet();
+		} catch (RejectedExecutionException ex) {
+			inFlight.remove(name);
+			reject(callback);
+		}
+	}
+
+	private void recordLatency(long nanos) {
+		synchronized (latencies) {
+			latencies[latencyIndex] = nanos;
+			latencyIndex = (latencyIndex + 1) % latencies.length;
+			if (latencyCount < latencies.length)
+				latencyCount++;
+		}
+	}
+
+	/**
+	 * @param percentile a number from 0 to 100.
+	 * @return the time in milliseconds from queueing a login to having its
+	 * result that the given percentage of the most recent logins stayed
+	 * within.
+	 */
+	public double getLatencyPercentile(double percentile) {
+		long[] sorted;
+		synchronized (latencies) {
+			sorted = Arrays.copyOf(latencies, latencyCount);
+		}
+		if (sorted.length == 0)
+			return 0;
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000000.0;
+	}
+
+	/**
+	 * @return the amount of logins that are waiting for an authentication
+	 * thread.
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getUnknownAccountHits() {
+		return unknownHits.get();
+	}
+
+	private void endWindow() {
+		boolean active = !ipAttempts.isEmpty();
+		ipAttempts.clear();
+		accountAttempts.clear();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Long> entry : unknownAccounts.entrySet())
+			if (entry.getValue().longValue() <= now)
+				unknownAccounts.remove(entry.getKey());
+		if (active)
+			LOG.log(Level.INFO, "Authentication: {0} accepted, {1} turned away, {2} unknown account hits, queue depth {3}, p99 latency {4}ms",
+					new Object[] { accepted.get(), rejected.get(), unknownHits.get(), getQueueDepth(), getLatencyPercentile(99) });
+	}
+
+	public static void setInstance(int threads, int queueSize, int maxAttemptsPerIp, int maxAttemptsPerAccount, long window, long unknownAccountTtl) {
+		instance = new AuthenticationStage(threads, queueSize, maxAttemptsPerIp, maxAttemptsPerAccount, window, unknownAccountTtl);
+	}
+
+	public static AuthenticationStage getInstance() {
+		return instance;
+	}
+}
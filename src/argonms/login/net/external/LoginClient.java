@@ -60,6 +60,66 @@ public class LoginClient extends RemoteClient {
 		DELETE_ERROR_IMPENDING_WORLD_TRANSFER = 26
 	;
 
+	/**
+	 * The longest lasting ban and the most outstanding ban reason that were
+	 * loaded from the `bans` and `infractions` tables.
+	 */
+	private static final class BanStatus {
+		private final long expire;
+		private final byte reason;
+
+		private BanStatus(long expire, CheatTracker.Infraction reason) {
+			this.expire = expire;
+			this.reason = reason == null ? 0 : reason.byteValue();
+		}
+	}
+
+	/**
+	 * The outcome of an account lookup and password check. It is built
+	 * off of the client's lane and holds everything that the lane needs to
+	 * copy into the client once it takes the result back, so the lookup
+	 * itself never touches the client.
+	 */
+	public static final class LoginResult {
+		private final byte result;
+		private final int accountId;
+		private final String pin;
+		private final byte gender;
+		private final int birthday;
+		private final byte chars;
+		private final byte gm;
+		private final long banExpire;
+		private final byte banReason;
+
+		private LoginResult(byte result, int accountId, String pin, byte gender, int birthday, byte chars, byte gm, long banExpire, byte banReason) {
+			this.result = result;
+			this.accountId = accountId;
+			this.pin = pin;
+			this.gender = gender;
+			this.birthday = birthday;
+			this.chars = chars;
+			this.gm = gm;
+			this.banExpire = banExpire;
+			this.banReason = banReason;
+		}
+
+		/**
+		 * A result that was decided without finding the account.
+		 * @param result the login result code.
+		 */
+		public LoginResult(byte result) {
+			this(result, 0, null, (byte) 0, 0, (byte) 0, (byte) 0, 0, (byte) 0);
+		}
+
+		public byte getResult() {
+			return result;
+		}
+
+		private boolean hasAccount() {
+			return accountId != 0;
+		}
+	}
+
 	private String pin;
 	private byte gender;
 	private int birthday;
@@ -83,13 +143,16 @@ public class LoginClient extends RemoteClient {
 	 */
 	private byte banReason;
 	private byte gm;
+	private boolean loginPending;
+	//guarded by this
+	private boolean disconnected;
 
 	/**
 	 * Get the network address of the remote client.
 	 * @return the IP address of the remote client in big-endian
 	 * byte order.
 	 */
-	private long getIpAddress() {
+	long getIpAddress() {
 		byte[] bigEndian = ((InetSocketAddress) getSession().getAddress()).getAddress().getAddress();
 
 		//IP addresses are just 4-byte (32-bit) integers represented by 4 bytes
@@ -102,7 +165,8 @@ public class LoginClient extends RemoteClient {
 		return longValue;
 	}
 
-	private CheatTracker.Infraction loadBanStatusInternal(Connection con, ResultSet rs) throws SQLException {
+	private static BanStatus loadBanStatusInternal(Connection con, ResultSet rs) throws SQLException {
+		long banExpire = 0;
 		EnumMap<CheatTracker.Infraction, Integer> infractionPoints = new EnumMap<CheatTracker.Infraction, Integer>(CheatTracker.Infraction.class);
 		int highestPoints = 0;
 		CheatTracker.Infraction mainBanReason = null;
@@ -168,49 +232,44 @@ public class LoginClient extends RemoteClient {
 			DatabaseManager.cleanup(DatabaseType.STATE, null, rbps, null);
 			DatabaseManager.cleanup(DatabaseType.STATE, null, ips, null);
 		}
-		return mainBanReason;
+		return new BanStatus(banExpire, mainBanReason);
 	}
 
-	private void loadBanStatusFromIdAndIp(Connection con) throws SQLException {
-		banExpire = 0;
-
-		CheatTracker.Infraction banStatus;
-
+	private static BanStatus loadBanStatusFromIdAndIp(Connection con, int accountId, long ip) throws SQLException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			ps = con.prepareStatement("SELECT `banid`,`accountid` FROM `bans` WHERE `accountid` = ? OR `ip` = ?");
-			ps.setInt(1, getAccountId());
-			ps.setLong(2, getIpAddress());
+			ps.setInt(1, accountId);
+			ps.setLong(2, ip);
 			rs = ps.executeQuery();
-			banStatus = loadBanStatusInternal(con, rs);
+			return loadBanStatusInternal(con, rs);
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
 		}
-		banReason = banStatus == null ? 0 : banStatus.byteValue();
 	}
 
-	private void loadBanStatusFromBanId(Connection con, int banId) throws SQLException {
-		banExpire = 0;
-
-		CheatTracker.Infraction banStatus;
-
+	private static BanStatus loadBanStatusFromBanId(Connection con, int banId) throws SQLException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			ps = con.prepareStatement("SELECT `banid`,`accountid` FROM `bans` WHERE `banid` = ?");
 			ps.setInt(1, banId);
 			rs = ps.executeQuery();
-			banStatus = loadBanStatusInternal(con, rs);
+			return loadBanStatusInternal(con, rs);
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
 		}
-		banReason = banStatus == null ? 0 : banStatus.byteValue();
 	}
 
 	//TODO: Maybe we shouldn't reload all of the account data if we already
 	//tried logging in during this session.
 	/**
+	 * Looks up the given account and checks the given password against it.
+	 * This does not read or write any state of a client, so it can run on an
+	 * AuthenticationStage thread while the client's lane keeps going. The
+	 * returned result is copied into the client by
+	 * {@link #applyLoginResult(LoginResult)} on the client's lane.
 	 * 0 = ok
 	 * 2 = banned
 	 * 4 = wrong password
@@ -218,18 +277,23 @@ public class LoginClient extends RemoteClient {
 	 * 7 = already logged in
 	 * 8 = system error
 	 */
-	public byte loginResult(String pwd) {
+	public static LoginResult checkLogin(String name, String pwd, long ip) {
 		byte result;
+		int accountId = 0;
+		String pin = null;
+		byte gender = 0, chars = 0, gm = 0;
+		int birthday = 0;
+		BanStatus ban = new BanStatus(0, null);
 		Connection con = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
 			ps = con.prepareStatement("SELECT `id`,`password`,`salt`,`pin`,`gender`,`birthday`,`characters`,`connected`,`gm` FROM `accounts` WHERE `name` = ?");
-			ps.setString(1, getAccountName());
+			ps.setString(1, name);
 			rs = ps.executeQuery();
 			if (rs.next()) {
-				setAccountId(rs.getInt(1));
+				accountId = rs.getInt(1);
 				byte[] passhash = rs.getBytes(2);
 				byte[] salt = rs.getBytes(3);
 				pin = rs.getString(4);
@@ -238,7 +302,7 @@ public class LoginClient extends RemoteClient {
 				chars = rs.getByte(7);
 				byte onlineStatus = rs.getByte(8);
 				gm = rs.getByte(9);
-				loadBanStatusFromIdAndIp(con);
+				ban = loadBanStatusFromIdAndIp(con, accountId, ip);
 
 				boolean correct, hashUpdate, hasSalt = (salt != null);
 				switch (passhash.length) {
@@ -277,7 +341,7 @@ public class LoginClient extends RemoteClient {
 						//Make a way to check if they really are/will be connected
 						//to a server
 						result = 7;
-					} else if (banExpire > System.currentTimeMillis()) {
+					} else if (ban.expire > System.currentTimeMillis()) {
 						result = 2;
 					} else {
 						rs.close();
@@ -289,11 +353,11 @@ public class LoginClient extends RemoteClient {
 							ps.setByte(1, STATUS_INLOGIN);
 							ps.setBytes(2, passhash);
 							ps.setBytes(3, salt);
-							ps.setInt(4, getAccountId());
+							ps.setInt(4, accountId);
 						} else {
 							ps = con.prepareStatement("UPDATE `accounts` SET `connected` = ? WHERE `id` = ?");
 							ps.setByte(1, STATUS_INLOGIN);
-							ps.setInt(2, getAccountId());
+							ps.setInt(2, accountId);
 						}
 						ps.executeUpdate();
 						result = 0;
@@ -305,12 +369,51 @@ public class LoginClient extends RemoteClient {
 				result = 5;
 			}
 		} catch (SQLException ex) {
-			LOG.log(Level.SEVERE, "Could not fetch login information of account " + getAccountName(), ex);
+			LOG.log(Level.SEVERE, "Could not fetch login information of account " + name, ex);
 			result = 8;
 		} finally {
 			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
 		}
-		return result;
+		return new LoginResult(result, accountId, pin, gender, birthday, chars, gm, ban.expire, ban.reason);
+	}
+
+	/**
+	 * Marks that a login attempt of this client is being checked. Must only be
+	 * called on this client's lane.
+	 * @return false if another login attempt of this client is still being
+	 * checked, in which case the new attempt should be dropped.
+	 */
+	public boolean beginLogin() {
+		if (loginPending)
+			return false;
+		loginPending = true;
+		return true;
+	}
+
+	/**
+	 * Copies the account details of a checked login attempt into this client
+	 * and ends the attempt that was started with {@link #beginLogin()}. Must
+	 * only be called on this client's lane.
+	 * @param r the result of the login attempt.
+	 * @return the login result code.
+	 */
+	public byte applyLoginResult(LoginResult r) {
+		loginPending = false;
+		if (r.hasAccount()) {
+			setAccountId(r.accountId);
+			pin = r.pin;
+			gender = r.gender;
+			birthday = r.birthday;
+			chars = r.chars;
+			gm = r.gm;
+			banExpire = r.banExpire;
+			banReason = r.banReason;
+		}
+		if (r.result == 0 && isDisconnected())
+			//we disconnected after the check marked the account as logged in,
+			//and disconnected() may have run before we had an account id
+			updateState(STATUS_NOTLOGGEDIN);
+		return r.result;
 	}
 
 	public byte getGender() {
@@ -455,7 +558,9 @@ public class LoginClient extends RemoteClient {
 			while (rs.next())
 				banIds.add(Integer.valueOf(rs.getInt(1)));
 			for (Integer banId : banIds) {
-				loadBanStatusFromBanId(con, banId.intValue());
+				BanStatus ban = loadBanStatusFromBanId(con, banId.intValue());
+				banExpire = ban.expire;
+				banReason = ban.reason;
 				if (banExpire > System.currentTimeMillis())
 					return true;
 			}
@@ -478,6 +583,29 @@ public class LoginClient extends RemoteClient {
 		return ServerType.LOGIN;
 	}
 
+	private synchronized boolean isDisconnected() {
+		return disconnected;
+	}
+
+	/**
+	 * Hand a checked login attempt back to this client's lane. If the client
+	 * has already disconnected, the task is not run, and if the check marked
+	 * the account as logged in, that is undone so that the account can log in
+	 * again.
+	 * @param r the result of the login attempt.
+	 * @param task the Runnable to run on this client's lane.
+	 */
+	public void loginChecked(LoginResult r, Runnable task) {
+		synchronized (this) {
+			if (!disconnected) {
+				getSession().runInLane(task);
+				return;
+			}
+		}
+		if (r.result == 0)
+			updateState(r.accountId, STATUS_NOTLOGGEDIN);
+	}
+
 	private void dissociate() {
 		getSession().removeClient();
 		setSession(null);
@@ -485,6 +613,10 @@ public class LoginClient extends RemoteClient {
 
 	@Override
 	public void disconnected() {
+		synchronized (this) {
+			//no more login results will be handed to our lane after this
+			disconnected = true;
+		}
 		if (getSession().getQueuedReads() == 0) {
 			dissociate();
 		} else {
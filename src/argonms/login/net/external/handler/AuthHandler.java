@@ -23,6 +23,7 @@ import argonms.common.net.external.RemoteClient;
 import argonms.common.util.input.LittleEndianReader;
 import argonms.common.util.output.LittleEndianByteArrayWriter;
 import argonms.login.LoginServer;
+import argonms.login.net.external.AuthenticationStage;
 import argonms.login.net.external.LoginClient;
 
 /**
@@ -37,34 +38,23 @@ public final class AuthHandler {
 		PIN_REQUEST = 0x04
 	;
 
-	public static void handleLogin(LittleEndianReader packet, LoginClient lc) {
-		String login = packet.readLengthPrefixedString();
+	public static void handleLogin(LittleEndianReader packet, final LoginClient lc) {
+		final String login = packet.readLengthPrefixedString();
 		String pwd = packet.readLengthPrefixedString();
 
-		lc.setAccountName(login);
-
-		byte result = lc.loginResult(pwd);
-
-		LittleEndianByteArrayWriter writer = new LittleEndianByteArrayWriter(result == 0 ? 39 + login.length() : result == 2 ? 17 : 8);
+		//only one login at a time per session - drop any that are sent while
+		//the last one is still being checked
+		if (!lc.beginLogin())
+			return;
 
-		writer.writeShort(ClientSendOps.LOGIN_RESULT);
-		writer.writeShort(result);
-		writer.writeInt(0);
-
-		if (result == 0) {
-			writer.writeInt(lc.getAccountId());
-			writer.writeByte(lc.getGender()); //0 = male, 1 = female, 0x0A = ask gender, 0x0B = ask pin
-			writer.writeByte((byte) 0); //Admin byte, allows client to use "/". Used for logging commands I guess. Disables any player interactions though.
-			writer.writeByte((byte) 0x4E); //TODO: what does thie byte do? o.o
-			writer.writeLengthPrefixedString(login);
-			//TODO: we really ought to decode this random stream of bytes here
-			writer.writeBytes(new byte[] { 3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xDC, 0x3D, 0x0B, 0x28, 0x64, (byte) 0xC5, 1, 8, 0, 0, 0 });
-		} else if (result == 2) {
-			writer.writeByte(lc.getBanReason());
-			writer.writeLong(lc.getBanExpiration());
-		}
+		lc.setAccountName(login);
 
-		lc.getSession().send(writer.getBytes());
+		AuthenticationStage.getInstance().submit(lc, login, pwd, new AuthenticationStage.Callback() {
+			@Override
+			public void loginResult(LoginClient.LoginResult result) {
+				lc.getSession().send(writeLoginResult(lc, login, lc.applyLoginResult(result)));
+			}
+		});
 	}
 
 	public static void handleGender(LittleEndianReader packet, LoginClient lc) {
@@ -122,6 +112,29 @@ public final class AuthHandler {
 		lc.updateState(RemoteClient.STATUS_NOTLOGGEDIN);
 	}
 
+	private static byte[] writeLoginResult(LoginClient lc, String login, byte result) {
+		LittleEndianByteArrayWriter writer = new LittleEndianByteArrayWriter(result == 0 ? 39 + login.length() : result == 2 ? 17 : 8);
+
+		writer.writeShort(ClientSendOps.LOGIN_RESULT);
+		writer.writeShort(result);
+		writer.writeInt(0);
+
+		if (result == 0) {
+			writer.writeInt(lc.getAccountId());
+			writer.writeByte(lc.getGender()); //0 = male, 1 = female, 0x0A = ask gender, 0x0B = ask pin
+			writer.writeByte((byte) 0); //Admin byte, allows client to use "/". Used for logging commands I guess. Disables any player interactions though.
+			writer.writeByte((byte) 0x4E); //TODO: what does thie byte do? o.o
+			writer.writeLengthPrefixedString(login);
+			//TODO: we really ought to decode this random stream of bytes here
+			writer.writeBytes(new byte[] { 3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xDC, 0x3D, 0x0B, 0x28, 0x64, (byte) 0xC5, 1, 8, 0, 0, 0 });
+		} else if (result == 2) {
+			writer.writeByte(lc.getBanReason());
+			writer.writeLong(lc.getBanExpiration());
+		}
+
+		return writer.getBytes();
+	}
+
 	private static byte[] genderDone(byte gender) {
 		LittleEndianByteArrayWriter lew = new LittleEndianByteArrayWriter(4);
 
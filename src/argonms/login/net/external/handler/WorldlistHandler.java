@@ -37,11 +37,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.SortedMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,24 +57,7 @@ public final class WorldlistHandler {
 		SERVERSTATUS_MAX = 2 //"The Concurrent Users in This World Have Reached the Max. Please Try Again Later."
 	;
 
-	private static void loadAndWriteCharacters(LittleEndianWriter lew, LoginClient c) {
-		ArrayList<LoginCharacter> players = new ArrayList<LoginCharacter>(c.getMaxCharacters());
-		Connection con = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			ps = con.prepareStatement("SELECT `id` FROM `characters` WHERE `accountid` = ? AND `world` = ?");
-			ps.setInt(1, c.getAccountId());
-			ps.setInt(2, c.getWorld());
-			rs = ps.executeQuery();
-			while (rs.next())
-				players.add(LoginCharacter.loadPlayer(c, rs.getInt(1)));
-		} catch (SQLException ex) {
-			LOG.log(Level.WARNING, "Could not load characters of account " + c.getAccountId(), ex);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
-		}
+	private static void writeCharacters(LittleEndianWriter lew, List<LoginCharacter> players) {
 		lew.writeByte((byte) players.size());
 		for (LoginCharacter p : players)
 			writeCharEntry(lew, p);
@@ -92,7 +74,7 @@ public final class WorldlistHandler {
 			writer.writeByte((byte) 8); //"The connection could not be made because of a system error."
 		} else {
 			writer.writeByte((byte) 0); //show characters
-			loadAndWriteCharacters(writer, lc);
+			writeCharacters(writer, LoginCharacter.loadCharacterList(lc, lc.getWorld()));
 			writer.writeInt(lc.getMaxCharacters());
 		}
 
@@ -125,27 +107,14 @@ public final class WorldlistHandler {
 
 	public static void handleViewAllChars(LittleEndianReader packet, LoginClient lc) {
 		LittleEndianByteArrayWriter lew;
-		Set<Byte> worlds = new TreeSet<Byte>();
-		byte totalChars = 0;
-		Connection con = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			ps = con.prepareStatement("SELECT `world` FROM `characters` WHERE `accountid` = ?");
-			ps.setInt(1, lc.getAccountId());
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				byte world = rs.getByte(1);
-				if (LoginServer.getInstance().getWorld(world) != null) {
-					worlds.add(Byte.valueOf(world));
-					totalChars++;
-				}
-			}
-		} catch (SQLException ex) {
-			LOG.log(Level.WARNING, "Could not set load all characters of account " + lc.getAccountId(), ex);
-		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
+		SortedMap<Byte, List<LoginCharacter>> worlds = LoginCharacter.loadAllCharacterLists(lc);
+		int totalChars = 0;
+		for (Iterator<Entry<Byte, List<LoginCharacter>>> iter = worlds.entrySet().iterator(); iter.hasNext(); ) {
+			Entry<Byte, List<LoginCharacter>> world = iter.next();
+			if (LoginServer.getInstance().getWorld(world.getKey()) != null)
+				totalChars += world.getValue().size();
+			else
+				iter.remove();
 		}
 		lew = new LittleEndianByteArrayWriter(11);
 		lew.writeShort(ClientSendOps.ALL_CHARLIST);
@@ -154,13 +123,12 @@ public final class WorldlistHandler {
 		lew.writeInt(totalChars + (3 - totalChars % 3)); //amount of rows * 3
 		lc.getSession().send(lew.getBytes());
 
-		for (Byte world : worlds) {
+		for (Entry<Byte, List<LoginCharacter>> world : worlds.entrySet()) {
 			lew = new LittleEndianByteArrayWriter(192);
 			lew.writeShort(ClientSendOps.ALL_CHARLIST);
 			lew.writeByte((byte) 0);
-			lew.writeByte(world.byteValue());
-			lc.setWorld(world.byteValue());
-			loadAndWriteCharacters(lew, lc);
+			lew.writeByte(world.getKey().byteValue());
+			writeCharacters(lew, world.getValue());
 			lc.getSession().send(lew.getBytes());
 		}
 	}
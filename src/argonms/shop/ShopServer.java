@@ -21,6 +21,7 @@ package argonms.shop;
 import argonms.common.GlobalConstants;
 import argonms.common.LocalServer;
 import argonms.common.ServerType;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.character.ShopPlayerContinuation;
 import argonms.common.loading.DataFileType;
 import argonms.common.loading.item.ItemDataLoader;
@@ -28,6 +29,7 @@ import argonms.common.loading.string.StringDataLoader;
 import argonms.common.net.external.CheatTracker;
 import argonms.common.net.external.ClientListener;
 import argonms.common.net.external.ClientListener.ClientFactory;
+import argonms.common.net.external.ClientSession;
 import argonms.common.net.external.CommonPackets;
 import argonms.common.net.external.PlayerLog;
 import argonms.common.net.internal.RemoteCenterSession;
@@ -35,6 +37,7 @@ import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
 import argonms.common.util.Scheduler;
 import argonms.common.util.collections.Pair;
+import argonms.shop.character.BestSellers;
 import argonms.shop.character.ShopCharacter;
 import argonms.shop.loading.cashshop.CashShopDataLoader;
 import argonms.shop.loading.commodityoverride.CommodityOverrideDataLoader;
@@ -72,6 +75,7 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
 public class ShopServer implements LocalServer {
 	private static final Logger LOG = Logger.getLogger(ShopServer.class.getName());
 	private static final int CHANNEL_CHANGE_TIMEOUT = 2000;
+	private static final long SHUTDOWN_SAVE_TIMEOUT = 30000;
 
 	private static ShopServer instance;
 
@@ -91,6 +95,7 @@ public class ShopServer implements LocalServer {
 	private final Map<Integer, ShopPlayerContinuation> enterServerData;
 	private final ShopCrossServerSynchronization worldComm;
 	private String ticker;
+	private long bestSellersReconcilePeriod;
 	private String commodityOverridePath, limitedCommodityPath;
 	private final Set<Integer> blockedSerials;
 
@@ -136,6 +141,7 @@ public class ShopServer implements LocalServer {
 			useNio = prop.getBoolean("argonms.shop.usenio");
 
 			ticker = prop.getString("argonms.shop.tickermessage");
+			bestSellersReconcilePeriod = prop.getLong("argonms.shop.bestsellers.reconcile", 600000);
 
 			commodityOverridePath = System.getProperty("argonms.shop.commodityoverride.file", "cashshopcommodityoverrides.txt");
 			limitedCommodityPath = System.getProperty("argonms.shop.limitedcommodity.file", "cashshoplimitedcommodities.txt");
@@ -169,7 +175,7 @@ public class ShopServer implements LocalServer {
 			FileReader fr = new FileReader(System.getProperty("argonms.db.config.file", "db.properties"));
 			prop.read(fr);
 			fr.close();
-			DatabaseManager.setProps(prop, mcdb, useNio);
+			DatabaseManager.setProps(prop, mcdb);
 		} catch (ConfigurationException|IOException ex) {
 			LOG.log(Level.SEVERE, "Could not load database properties!", ex);
 			System.exit(3);
@@ -228,6 +234,8 @@ public class ShopServer implements LocalServer {
 		}
 
 		Scheduler.enable(true, true);
+		PersistenceQueue.setInstance();
+		BestSellers.setInstance(bestSellersReconcilePeriod);
 
 		sci = new ShopCenterInterface(this);
 		RemoteCenterSession<ShopCenterInterface> session = RemoteCenterSession.connect(centerIp, centerPort, authKey, sci);
@@ -235,6 +243,7 @@ public class ShopServer implements LocalServer {
 			session.awaitClose();
 			LOG.log(Level.SEVERE, "Lost connection with center server!");
 		}
+		PersistenceQueue.getInstance().shutdown(SHUTDOWN_SAVE_TIMEOUT);
 		System.exit(4); //connection with center server lost before we were able to shutdown
 	}
 
@@ -279,6 +288,7 @@ public class ShopServer implements LocalServer {
 					LOG.log(Level.INFO, "Shop Server is online.");
 					sci.serverReady();
 				} else {
+					PersistenceQueue.getInstance().shutdown(SHUTDOWN_SAVE_TIMEOUT);
 					System.exit(5);
 				}
 			}
@@ -372,11 +382,21 @@ public class ShopServer implements LocalServer {
 		Pair<Byte, ScheduledFuture<?>> channelChangeState = queuedChannelChanges.remove(Integer.valueOf(playerId));
 		channelChangeState.right.cancel(false);
 		Pair<byte[], Integer> hostAndPort = worldComm.getChannelHost(p.getClient().getWorld(), channelChangeState.left.byteValue());
-		byte[] destHost = hostAndPort.left;
-		int destPort = hostAndPort.right.intValue();
+		final byte[] destHost = hostAndPort.left;
+		final int destPort = hostAndPort.right.intValue();
+		final ShopClient client = p.getClient();
 		p.prepareChannelChange();
-		p.getClient().setMigratingHost();
-		p.getClient().getSession().send(CommonPackets.writeNewGameHost(destHost, destPort));
+		client.setMigratingHost();
+		//the destination channel loads the character from the database, so
+		//don't let the client go there until our save has been written
+		PersistenceQueue.getInstance().flush(p.getDataId(), new Runnable() {
+			@Override
+			public void run() {
+				ClientSession<?> session = client.getSession();
+				if (session != null)
+					session.send(CommonPackets.writeNewGameHost(destHost, destPort));
+			}
+		});
 	}
 
 	public void storePlayerBuffs(int playerId, ShopPlayerContinuation context) {
@@ -0,0 +1,168 @@
+/*
+ * ArgonMS MapleStory server emulator written in Java
+ * Copyright (C) 2011-2013  GoldenKevin
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package argonms.shop.character;
+
+import argonms.common.util.DatabaseManager;
+import argonms.common.util.DatabaseManager.DatabaseType;
+import argonms.common.util.Scheduler;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts how many times each commodity has been purchased so that the best
+ * sellers that are shown whenever a player enters the cash shop can be served
+ * from memory instead of grouping the entire purchase history in the database.
+ *
+ * The counts are seeded from `cashshoppurchases` at startup, bumped whenever
+ * a purchase is attached to its serial number, and periodically replaced with
+ * fresh counts from the database to correct any drift (e.g. purchases made
+ * through another shop server, or rows that were removed by hand).
+ * @author GoldenKevin
+ */
+public class BestSellers {
+	private static final Logger LOG = Logger.getLogger(BestSellers.class.getName());
+
+	private static final int BEST_ITEMS = 5;
+
+	private static BestSellers instance;
+
+	//guarded by this
+	private Map<Integer, Integer> counts;
+	//serial numbers of the best sellers in descending order of purchases.
+	//replaced rather than modified so that it can be read without locking
+	private volatile int[] bestItems;
+
+	private BestSellers() {
+		counts = new HashMap<Integer, Integer>();
+		bestItems = new int[BEST_ITEMS];
+	}
+
+	private int countOf(int serialNumber) {
+		Integer count = counts.get(Integer.valueOf(serialNumber));
+		return count != null ? count.intValue() : 0;
+	}
+
+	private static int[] rank(Map<Integer, Integer> counts) {
+		int[] best = new int[BEST_ITEMS];
+		int[] bestCounts = new int[BEST_ITEMS];
+		for (Entry<Integer, Integer> entry : counts.entrySet()) {
+			int count = entry.getValue().intValue();
+			if (count <= bestCounts[BEST_ITEMS - 1])
+				continue;
+			int i = BEST_ITEMS - 1;
+			for (; i > 0 && bestCounts[i - 1] < count; i--) {
+				best[i] = best[i - 1];
+				bestCounts[i] = bestCounts[i - 1];
+			}
+			best[i] = entry.getKey().intValue();
+			bestCounts[i] = count;
+		}
+		return best;
+	}
+
+	/**
+	 * Replace the counts with the counts in the database.
+	 */
+	public void reconcile() {
+		Map<Integer, Integer> loaded = new HashMap<Integer, Integer>();
+		Connection con = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			con = DatabaseManager.getConnection(DatabaseType.STATE);
+			ps = con.prepareStatement("SELECT `serialnumber`,COUNT(*) FROM `cashshoppurchases` WHERE `serialnumber` IS NOT NULL GROUP BY `serialnumber`");
+			rs = ps.executeQuery();
+			while (rs.next())
+				loaded.put(Integer.valueOf(rs.getInt(1)), Integer.valueOf(rs.getInt(2)));
+		} catch (SQLException ex) {
+			LOG.log(Level.WARNING, "Could not count cash shop purchases", ex);
+			return;
+		} finally {
+			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, con);
+		}
+		synchronized (this) {
+			counts = loaded;
+			bestItems = rank(loaded);
+		}
+	}
+
+	/**
+	 * Count one more purchase of the given commodity.
+	 * @param serialNumber the serial number of the commodity that was bought.
+	 */
+	public synchronized void purchased(int serialNumber) {
+		int count = countOf(serialNumber) + 1;
+		counts.put(Integer.valueOf(serialNumber), Integer.valueOf(count));
+
+		int[] best = bestItems;
+		int index = BEST_ITEMS - 1;
+		//find where this commodity was in the best sellers, or whether it
+		//can displace the last one
+		for (int i = 0; i < BEST_ITEMS; i++) {
+			if (best[i] == serialNumber) {
+				index = i;
+				break;
+			}
+		}
+		if (best[index] != serialNumber && best[index] != 0 && count <= countOf(best[index]))
+			return;
+
+		best = best.clone();
+		for (; index > 0 && (best[index - 1] == 0 || countOf(best[index - 1]) < count); index--)
+			best[index] = best[index - 1];
+		best[index] = serialNumber;
+		bestItems = best;
+	}
+
+	/**
+	 * @return the serial numbers of the five most purchased commodities, in
+	 * descending order of purchases. Unused spots are 0.
+	 */
+	public int[] getBestItems() {
+		return bestItems.clone();
+	}
+
+	/**
+	 * Seed the counts from the database and keep reconciling them.
+	 * @param reconcilePeriod how often, in milliseconds, the counts should be
+	 * replaced with fresh counts from the database.
+	 */
+	public static void setInstance(long reconcilePeriod) {
+		instance = new BestSellers();
+		instance.reconcile();
+		Scheduler.getInstance().runRepeatedly(new Runnable() {
+			@Override
+			public void run() {
+				instance.reconcile();
+			}
+		}, reconcilePeriod, reconcilePeriod);
+	}
+
+	public static BestSellers getInstance() {
+		return instance;
+	}
+}
@@ -19,16 +19,20 @@
 package argonms.shop.character;
 
 import argonms.common.character.BuddyListEntry;
+import argonms.common.character.CharacterSnapshot;
 import argonms.common.character.Cooldown;
 import argonms.common.character.LoggedInPlayer;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.character.QuestEntry;
 import argonms.common.character.ShopPlayerContinuation;
 import argonms.common.character.SkillEntry;
 import argonms.common.character.inventory.IInventory;
 import argonms.common.character.inventory.Inventory.InventoryType;
 import argonms.common.character.inventory.InventorySlot;
+import argonms.common.character.inventory.Pet;
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
+import argonms.common.util.RowJournal;
 import argonms.shop.ShopServer;
 import argonms.shop.net.external.CashShopPackets;
 import argonms.shop.net.external.ShopClient;
@@ -253,64 +257,89 @@ public class ShopCharacter extends LoggedInPlayer {
 		prepareExitServer();
 	}
 
-	public void saveCharacter() {
-		int prevTransactionIsolation = Connection.TRANSACTION_REPEATABLE_READ;
-		boolean prevAutoCommit = true;
-		Connection con = null;
-		try {
-			con = DatabaseManager.getConnection(DatabaseType.STATE);
-			prevTransactionIsolation = con.getTransactionIsolation();
-			prevAutoCommit = con.getAutoCommit();
-			con.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-			con.setAutoCommit(false);
-			updateDbAccount(con);
-			updateDbStats(con);
-			updateDbInventory(con);
-			updateDbCooldowns(con);
-			updateDbWishList(con);
-			con.commit();
-		} catch (Throwable ex) {
-			LOG.log(Level.WARNING, "Could not save character " + getDataId() + ". Rolling back all changes...", ex);
-			if (con != null) {
-				try {
-					con.rollback();
-				} catch (SQLException ex2) {
-					LOG.log(Level.WARNING, "Error rolling back character.", ex2);
-				}
-			}
-		} finally {
-			if (con != null) {
-				try {
-					con.setAutoCommit(prevAutoCommit);
-					con.setTransactionIsolation(prevTransactionIsolation);
-				} catch (SQLException ex) {
-					LOG.log(Level.WARNING, "Could not reset Connection config after saving character " + getDataId(), ex);
-				}
-			}
-			DatabaseManager.cleanup(DatabaseType.STATE, null, null, con);
+	/**
+	 * Everything that saveCharacter writes, copied out of the live character so
+	 * that it can be written on a PersistenceQueue thread.
+	 */
+	private class SaveSnapshot extends CharacterSnapshot {
+		private final int accountId;
+		private final byte maxCharacters;
+		private final int paypalNx, maplePoints, gameCardNx;
+		private final int mesos;
+		private final short equipSlots, useSlots, setupSlots, etcSlots, cashSlots;
+		private final Map<InventoryType, IInventory> inventories;
+		private final Pet[] pets;
+		private final Map<Integer, Short> cooldowns;
+		private final List<Integer> wishList;
+
+		public SaveSnapshot() {
+			super(getDataId());
+			accountId = client.getAccountId();
+			maxCharacters = ShopCharacter.this.maxCharacters;
+			paypalNx = getCashShopCurrency(PAYPAL_NX);
+			maplePoints = getCashShopCurrency(MAPLE_POINTS);
+			gameCardNx = getCashShopCurrency(GAME_CARD_NX);
+			mesos = ShopCharacter.this.mesos;
+			equipSlots = getInventory(InventoryType.EQUIP).getMaxSlots();
+			useSlots = getInventory(InventoryType.USE).getMaxSlots();
+			setupSlots = getInventory(InventoryType.SETUP).getMaxSlots();
+			etcSlots = getInventory(InventoryType.ETC).getMaxSlots();
+			cashSlots = getInventory(InventoryType.CASH).getMaxSlots();
+			EnumMap<InventoryType, IInventory> union = new EnumMap<InventoryType, IInventory>(getInventories());
+			union.put(InventoryType.CASH_SHOP, shopInventory);
+			pets = new Pet[3];
+			inventories = copyInventories(union, getPets(), pets);
+			cooldowns = new HashMap<Integer, Short>();
+			for (Map.Entry<Integer, Cooldown> cooling : ShopCharacter.this.cooldowns.entrySet())
+				cooldowns.put(cooling.getKey(), Short.valueOf(cooling.getValue().getSecondsRemaining()));
+			wishList = new ArrayList<Integer>(ShopCharacter.this.wishList);
 		}
+
+		@Override
+		protected int write(Connection con) throws SQLException {
+			int rows = 0;
+			rows += updateDbAccount(con, this);
+			rows += updateDbStats(con, this);
+			rows += updateDbInventory(con, this);
+			rows += updateDbCooldowns(con, this);
+			rows += updateDbWishList(con, this);
+			return rows;
+		}
+	}
+
+	/**
+	 * Queue this character to be written to the database. The character is
+	 * copied right away, but the copy is written on a PersistenceQueue thread,
+	 * so anything that needs to read the saved character back has to wait on
+	 * PersistenceQueue.flush() first.
+	 */
+	public void saveCharacter() {
+		PersistenceQueue.getInstance().submit(new SaveSnapshot());
 	}
 
-	private void updateDbAccount(Connection con) throws SQLException {
+	private int updateDbAccount(Connection con, SaveSnapshot s) throws SQLException {
 		PreparedStatement ps = null;
 		try {
+			int rows = 0;
 			// split this into two statements; one for increasing max characters
 			// and one for nx
 			ps = con.prepareStatement("UPDATE `accounts` SET `characters` = ? WHERE `id` = ?");
-			ps.setByte(1, maxCharacters);
-			ps.setInt(2, client.getAccountId());
-			ps.executeUpdate();
+			ps.setByte(1, s.maxCharacters);
+			ps.setInt(2, s.accountId);
+			rows += ps.executeUpdate();
+			ps.close();
 			ps = con.prepareStatement(
 				"INSERT INTO `cashshopbalance` (accountid, paypalnx, maplepoints, gamecardnx) "
 				+ "VALUES (?, ?, ?, ?) "
 				+ "ON DUPLICATE KEY UPDATE paypalnx=VALUES(paypalnx), maplepoints=VALUES(maplepoints), gamecardnx=VALUES(gamecardnx)"
 			);
-			ps.setInt(1, client.getAccountId());
-			ps.setInt(2, getCashShopCurrency(PAYPAL_NX));
-			ps.setInt(3, getCashShopCurrency(MAPLE_POINTS));
-			ps.setInt(4, getCashShopCurrency(GAME_CARD_NX));
-			ps.executeUpdate();
+			ps.setInt(1, s.accountId);
+			ps.setInt(2, s.paypalNx);
+			ps.setInt(3, s.maplePoints);
+			ps.setInt(4, s.gameCardNx);
+			rows += ps.executeUpdate();
 			con.commit();
+			return rows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save account-info of character " + name, e);
 		} finally {
@@ -318,23 +347,24 @@ public class ShopCharacter extends LoggedInPlayer {
 		}
 	}
 
-	private void updateDbStats(Connection con) throws SQLException {
+	private int updateDbStats(Connection con, SaveSnapshot s) throws SQLException {
 		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement("UPDATE `characters` SET "
 					+ "`mesos` = ?, `equipslots` = ?, `useslots` = ?, `setupslots` = ?, `etcslots` = ?, `cashslots` = ? "
 					+ "WHERE `id` = ?");
-			ps.setInt(1, mesos);
-			ps.setShort(2, getInventory(InventoryType.EQUIP).getMaxSlots());
-			ps.setShort(3, getInventory(InventoryType.USE).getMaxSlots());
-			ps.setShort(4, getInventory(InventoryType.SETUP).getMaxSlots());
-			ps.setShort(5, getInventory(InventoryType.ETC).getMaxSlots());
-			ps.setShort(6, getInventory(InventoryType.CASH).getMaxSlots());
-			ps.setInt(7, getDataId());
+			ps.setInt(1, s.mesos);
+			ps.setShort(2, s.equipSlots);
+			ps.setShort(3, s.useSlots);
+			ps.setShort(4, s.setupSlots);
+			ps.setShort(5, s.etcSlots);
+			ps.setShort(6, s.cashSlots);
+			ps.setInt(7, s.getCharacterId());
 			int updateRows = ps.executeUpdate();
 			if (updateRows < 1)
 				LOG.log(Level.WARNING, "Updating a deleted character with name {0} of account {1}.",
-						new Object[] { name, client.getAccountId() });
+						new Object[] { name, s.accountId });
+			return updateRows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save stats of character " + name, e);
 		} finally {
@@ -342,46 +372,44 @@ public class ShopCharacter extends LoggedInPlayer {
 		}
 	}
 
-	private void updateDbInventory(Connection con) throws SQLException {
+	private int updateDbInventory(Connection con, SaveSnapshot s) throws SQLException {
 		String invUpdate = "DELETE FROM `inventoryitems` WHERE "
 				+ "`characterid` = ? AND `inventorytype` <= " + InventoryType.CASH.byteValue()
 				+ " OR `accountid` = ? AND `inventorytype` = " + InventoryType.CASH_SHOP.byteValue();
-		PreparedStatement ps = null, ips = null;
-		ResultSet rs = null;
+		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement(invUpdate);
-			ps.setInt(1, getDataId());
-			ps.setInt(2, client.getAccountId());
-			ps.executeUpdate();
-			ps.close();
-
-			EnumMap<InventoryType, IInventory> union = new EnumMap<InventoryType, IInventory>(getInventories());
-			union.put(InventoryType.CASH_SHOP, shopInventory);
-			commitInventory(con, union);
+			ps.setInt(1, s.getCharacterId());
+			ps.setInt(2, s.accountId);
+			int rows = ps.executeUpdate();
+
+			commitInventory(s.getCharacterId(), s.accountId, s.pets, con, s.inventories);
+			for (IInventory inv : s.inventories.values())
+				rows += inv.getAll().size();
+			return rows;
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save inventory of character " + name, e);
 		} finally {
-			DatabaseManager.cleanup(DatabaseType.STATE, null, ips, null);
-			DatabaseManager.cleanup(DatabaseType.STATE, rs, ps, null);
+			DatabaseManager.cleanup(DatabaseType.STATE, null, ps, null);
 		}
 	}
 
-	private void updateDbCooldowns(Connection con) throws SQLException {
+	private int updateDbCooldowns(Connection con, SaveSnapshot s) throws SQLException {
 		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement("DELETE FROM `cooldowns` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
+			ps.setInt(1, s.getCharacterId());
+			int rows = ps.executeUpdate();
 			ps.close();
 
 			ps = con.prepareStatement("INSERT INTO `cooldowns` (`characterid`,`skillid`,`remaining`) VALUES (?,?,?)");
-			ps.setInt(1, getDataId());
-			for (Map.Entry<Integer, Cooldown> cooling : cooldowns.entrySet()) {
+			ps.setInt(1, s.getCharacterId());
+			for (Map.Entry<Integer, Short> cooling : s.cooldowns.entrySet()) {
 				ps.setInt(2, cooling.getKey().intValue());
-				ps.setShort(3, cooling.getValue().getSecondsRemaining());
+				ps.setShort(3, cooling.getValue().shortValue());
 				ps.addBatch();
 			}
-			ps.executeBatch();
+			return rows + RowJournal.countRows(ps.executeBatch());
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save cooldowns of character " + name, e);
 		} finally {
@@ -389,21 +417,21 @@ public class ShopCharacter extends LoggedInPlayer {
 		}
 	}
 
-	private void updateDbWishList(Connection con) throws SQLException {
+	private int updateDbWishList(Connection con, SaveSnapshot s) throws SQLException {
 		PreparedStatement ps = null;
 		try {
 			ps = con.prepareStatement("DELETE FROM `wishlists` WHERE `characterid` = ?");
-			ps.setInt(1, getDataId());
-			ps.executeUpdate();
+			ps.setInt(1, s.getCharacterId());
+			int rows = ps.executeUpdate();
 			ps.close();
 
 			ps = con.prepareStatement("INSERT INTO `wishlists` (`characterid`,`sn`) VALUES (?,?)");
-			ps.setInt(1, getDataId());
-			for (Integer sn : wishList) {
+			ps.setInt(1, s.getCharacterId());
+			for (Integer sn : s.wishList) {
 				ps.setInt(2, sn.intValue());
 				ps.addBatch();
 			}
-			ps.executeBatch();
+			return rows + RowJournal.countRows(ps.executeBatch());
 		} catch (SQLException e) {
 			throw new SQLException("Failed to save wishlist of character " + name, e);
 		} finally {
@@ -421,6 +449,9 @@ public class ShopCharacter extends LoggedInPlayer {
 		Connection con = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		//make sure we don't read back a stale copy if the character's last
+		//save on this server hasn't been written yet
+		PersistenceQueue.getInstance().awaitFlush(id);
 		try {
 			con = DatabaseManager.getConnection(DatabaseType.STATE);
 			ps = con.prepareStatement("SELECT `c`.*,`a`.`name`,`a`.`characters`,`a`.`birthday`,"
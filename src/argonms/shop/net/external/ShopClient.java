@@ -19,6 +19,7 @@
 package argonms.shop.net.external;
 
 import argonms.common.ServerType;
+import argonms.common.character.PersistenceQueue;
 import argonms.common.net.external.RemoteClient;
 import argonms.common.util.DatabaseManager;
 import argonms.common.util.DatabaseManager.DatabaseType;
@@ -77,7 +78,9 @@ public class ShopClient extends RemoteClient {
 	}
 
 	private void dissociate() {
+		int playerId = -1;
 		if (player != null) {
+			playerId = player.getDataId();
 			if (!isMigrating())
 				player.prepareLogOff();
 			ShopServer.getInstance().removePlayer(player);
@@ -85,6 +88,19 @@ public class ShopClient extends RemoteClient {
 		}
 		getSession().removeClient();
 		setSession(null);
+		if (!isMigrating()) {
+			Runnable r = new Runnable() {
+				@Override
+				public void run() {
+					updateState(STATUS_NOTLOGGEDIN);
+				}
+			};
+			//don't let the account log in again until the save is written
+			if (playerId != -1)
+				PersistenceQueue.getInstance().flush(playerId, r);
+			else
+				r.run();
+		}
 	}
 
 	@Override
@@ -99,7 +115,5 @@ public class ShopClient extends RemoteClient {
 				}
 			});
 		}
-		if (!isMigrating())
-			updateState(STATUS_NOTLOGGEDIN);
 	}
 }